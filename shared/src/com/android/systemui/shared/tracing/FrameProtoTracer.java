@@ -25,15 +25,22 @@ import com.android.internal.util.TraceBuffer;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
  * A proto tracer implementation that can be updated directly (upon state change), or on the next
  * scheduled frame.
  *
+ * By default, entries are kept in a bounded in-memory buffer that is written out when tracing
+ * stops. If constructed with {@link StreamingProtoTraceParams}, each entry is instead serialized
+ * as soon as it is produced and appended to the trace file by a {@link StreamingTraceWriter}, so
+ * entry protos are reused rather than retained and the trace length isn't limited by the heap.
+ *
  * @param <P> The class type of the proto provider
  * @param <S> The proto class type of the encapsulating proto
  * @param <T> The proto class type of the individual proto entries in the buffer
@@ -44,6 +51,9 @@ public class FrameProtoTracer<P, S extends P, T extends P, R>
 
     private static final String TAG = "FrameProtoTracer";
     private static final int BUFFER_CAPACITY = 1024 * 1024;
+    private static final long STREAMING_MAX_FILE_BYTES = 32 * 1024 * 1024;
+    private static final int STREAMING_CHUNK_SIZE = 64 * 1024;
+    private static final int STREAMING_CHUNK_COUNT = 8;
 
     private final Object mLock = new Object();
     private final TraceBuffer<P, S, T> mBuffer;
@@ -53,6 +63,9 @@ public class FrameProtoTracer<P, S extends P, T extends P, R>
     private final Queue<T> mPool = new LinkedList<>();
     private final ArrayList<ProtoTraceable<R>> mTraceables = new ArrayList<>();
     private final ArrayList<ProtoTraceable<R>> mTmpTraceables = new ArrayList<>();
+    private final StreamingProtoTraceParams<P, S, T, R> mStreamingParams;
+    private final StreamingTraceWriter mStreamingWriter;
+    private T mStreamingEntry;
 
     private volatile boolean mEnabled;
     private boolean mFrameScheduled;
@@ -85,8 +98,38 @@ public class FrameProtoTracer<P, S extends P, T extends P, R>
         int getProtoSize(P proto);
     }
 
+    /**
+     * Params for a tracer that streams its entries to the trace file as they are produced.
+     */
+    public interface StreamingProtoTraceParams<P, S, T, R> extends ProtoTraceParams<P, S, T, R> {
+        /** Serialized encapsulating proto, without any entries. */
+        byte[] getStreamingTraceHeader();
+        /** Size of the entry once serialized as a field of the encapsulating proto. */
+        int getStreamedEntrySize(T entry);
+        /** Serializes the entry as a field of the encapsulating proto. */
+        void writeStreamedEntry(T entry, byte[] buffer, int offset, int size) throws IOException;
+    }
+
     public FrameProtoTracer(ProtoTraceParams<P, S, T, R> params) {
+        this(params, null, null);
+    }
+
+    /**
+     * Creates a tracer that streams its entries to the trace file, writing them on
+     * {@code writeExecutor}.
+     */
+    public FrameProtoTracer(StreamingProtoTraceParams<P, S, T, R> params, Executor writeExecutor) {
+        this(params, params, new StreamingTraceWriter(params.getTraceFile(),
+                STREAMING_MAX_FILE_BYTES, STREAMING_CHUNK_SIZE, STREAMING_CHUNK_COUNT,
+                writeExecutor));
+    }
+
+    private FrameProtoTracer(ProtoTraceParams<P, S, T, R> params,
+            StreamingProtoTraceParams<P, S, T, R> streamingParams,
+            StreamingTraceWriter streamingWriter) {
         mParams = params;
+        mStreamingParams = streamingParams;
+        mStreamingWriter = streamingWriter;
         mBuffer = new TraceBuffer<>(BUFFER_CAPACITY, mProvider, new Consumer<T>() {
             @Override
             public void accept(T t) {
@@ -102,7 +145,11 @@ public class FrameProtoTracer<P, S extends P, T extends P, R>
             if (mEnabled) {
                 return;
             }
-            mBuffer.resetBuffer();
+            if (mStreamingWriter != null) {
+                mStreamingWriter.start(mStreamingParams.getStreamingTraceHeader());
+            } else {
+                mBuffer.resetBuffer();
+            }
             mEnabled = true;
         }
         logState();
@@ -115,7 +162,11 @@ public class FrameProtoTracer<P, S extends P, T extends P, R>
             }
             mEnabled = false;
         }
-        writeToFile();
+        if (mStreamingWriter != null) {
+            mStreamingWriter.stop();
+        } else {
+            writeToFile();
+        }
     }
 
     public boolean isEnabled() {
@@ -156,6 +207,20 @@ public class FrameProtoTracer<P, S extends P, T extends P, R>
         return (float) mBuffer.getBufferSize() / BUFFER_CAPACITY;
     }
 
+    public boolean isStreaming() {
+        return mStreamingWriter != null;
+    }
+
+    /** Number of frames that couldn't be streamed since tracing started. */
+    public long getDroppedFrames() {
+        return mStreamingWriter != null ? mStreamingWriter.getDroppedEntries() : 0;
+    }
+
+    /** Average rate at which the trace has been streamed to the file since tracing started. */
+    public long getStreamedBytesPerSecond() {
+        return mStreamingWriter != null ? mStreamingWriter.getBytesPerSecond() : 0;
+    }
+
     @Override
     public void doFrame(long frameTimeNanos) {
         logState();
@@ -166,15 +231,41 @@ public class FrameProtoTracer<P, S extends P, T extends P, R>
     }
 
     private void logState() {
+        if (!mEnabled) {
+            // A frame callback scheduled before tracing stopped must not end up in the next trace
+            mFrameScheduled = false;
+            return;
+        }
         synchronized (mLock) {
             mTmpTraceables.addAll(mTraceables);
         }
 
-        mBuffer.add(mParams.updateBufferProto(mPool.poll(), mTmpTraceables));
+        if (mStreamingWriter != null) {
+            streamState();
+        } else {
+            mBuffer.add(mParams.updateBufferProto(mPool.poll(), mTmpTraceables));
+        }
         mTmpTraceables.clear();
         mFrameScheduled = false;
     }
 
+    private void streamState() {
+        // The same entry is reused for every frame since it is serialized right away
+        mStreamingEntry = mParams.updateBufferProto(mStreamingEntry, mTmpTraceables);
+        int size = mStreamingParams.getStreamedEntrySize(mStreamingEntry);
+        ByteBuffer buffer = mStreamingWriter.obtainBuffer(size);
+        if (buffer == null) {
+            return;
+        }
+        try {
+            mStreamingParams.writeStreamedEntry(mStreamingEntry, buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), size);
+            buffer.position(buffer.position() + size);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to serialize trace entry", e);
+        }
+    }
+
     private void writeToFile() {
         try {
             Trace.beginSection("ProtoTracer.writeToFile");
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.shared.tracing;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends serialized trace entries to a file as they are produced, instead of keeping them in
+ * memory until tracing stops.
+ *
+ * The producer serializes each entry straight into one of a fixed set of preallocated chunks.
+ * Once a chunk can't fit the next entry it is handed to the background executor, which appends it
+ * to the file and then returns it to the free list. If the background thread falls so far behind
+ * that no chunk is free, the entry is dropped rather than blocking the producer or allocating.
+ *
+ * The file is bounded to {@code maxFileBytes}: when the current file reaches half of that, it is
+ * moved to {@code <file>.1} (replacing the previous one) and a new file is started. Each file
+ * begins with the header, so either can be read on its own.
+ *
+ * If the file can't be written, the entries of the affected chunk and all further entries of the
+ * trace are counted as dropped.
+ *
+ * Only a single thread may produce entries, and the executor must run tasks in order.
+ */
+public class StreamingTraceWriter {
+
+    private static final String TAG = "StreamingTraceWriter";
+    private static final String ROTATED_SUFFIX = ".1";
+
+    private final File mFile;
+    private final long mMaxFileBytes;
+    private final int mChunkSize;
+    private final Executor mExecutor;
+    private final ArrayBlockingQueue<ByteBuffer> mFreeChunks;
+
+    // Accessed by the producer only
+    private ByteBuffer mCurrentChunk;
+    private int mCurrentChunkEntries;
+    private long mStartTime;
+
+    // Accessed by the background thread only
+    private FileChannel mChannel;
+    private long mFileBytes;
+    private byte[] mHeader;
+
+    private final AtomicLong mDroppedEntries = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private volatile long mElapsedMs;
+    private volatile boolean mWriteFailed;
+
+    public StreamingTraceWriter(File file, long maxFileBytes, int chunkSize, int chunkCount,
+            Executor executor) {
+        mFile = file;
+        mMaxFileBytes = maxFileBytes;
+        mChunkSize = chunkSize;
+        mExecutor = executor;
+        mFreeChunks = new ArrayBlockingQueue<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            mFreeChunks.add(ByteBuffer.allocate(chunkSize));
+        }
+    }
+
+    /**
+     * Starts a new trace, truncating any existing file and deleting the rotated file of a previous
+     * trace. Every file written by this trace will begin with {@code header}.
+     */
+    public void start(byte[] header) {
+        mStartTime = SystemClock.elapsedRealtime();
+        mElapsedMs = 0;
+        mDroppedEntries.set(0);
+        mBytesWritten.set(0);
+        mWriteFailed = false;
+        mExecutor.execute(() -> {
+            mHeader = header;
+            getRotatedFile().delete();
+            openFile();
+        });
+    }
+
+    /**
+     * Returns a buffer with at least {@code size} bytes remaining at its position, into which the
+     * caller must write exactly {@code size} bytes of a single entry before advancing the
+     * position. Returns null if the entry has to be dropped.
+     */
+    public ByteBuffer obtainBuffer(int size) {
+        if (size > mChunkSize || mWriteFailed) {
+            mDroppedEntries.incrementAndGet();
+            return null;
+        }
+        if (mCurrentChunk != null && mCurrentChunk.remaining() < size) {
+            flush();
+        }
+        if (mCurrentChunk == null) {
+            mCurrentChunk = mFreeChunks.poll();
+            if (mCurrentChunk == null) {
+                mDroppedEntries.incrementAndGet();
+                return null;
+            }
+            mCurrentChunk.clear();
+        }
+        mCurrentChunkEntries++;
+        return mCurrentChunk;
+    }
+
+    /**
+     * Hands off any pending entries and closes the file once they have been written.
+     */
+    public void stop() {
+        flush();
+        mElapsedMs = SystemClock.elapsedRealtime() - mStartTime;
+        mExecutor.execute(this::closeFile);
+    }
+
+    /** Number of entries dropped since the trace started. */
+    public long getDroppedEntries() {
+        return mDroppedEntries.get();
+    }
+
+    /** Average number of bytes appended to the file per second since the trace started. */
+    public long getBytesPerSecond() {
+        long elapsedMs = mElapsedMs != 0
+                ? mElapsedMs
+                : SystemClock.elapsedRealtime() - mStartTime;
+        return elapsedMs > 0 ? mBytesWritten.get() * 1000 / elapsedMs : 0;
+    }
+
+    private void flush() {
+        final ByteBuffer chunk = mCurrentChunk;
+        final int entries = mCurrentChunkEntries;
+        mCurrentChunk = null;
+        mCurrentChunkEntries = 0;
+        if (chunk == null || chunk.position() == 0) {
+            if (chunk != null) {
+                mFreeChunks.add(chunk);
+            }
+            return;
+        }
+        chunk.flip();
+        mExecutor.execute(() -> {
+            writeChunk(chunk, entries);
+            mFreeChunks.add(chunk);
+        });
+    }
+
+    private void writeChunk(ByteBuffer chunk, int entries) {
+        if (mChannel == null) {
+            mDroppedEntries.addAndGet(entries);
+            return;
+        }
+        try {
+            Trace.beginSection("StreamingTraceWriter.writeChunk");
+            if (mFileBytes + chunk.remaining() > mMaxFileBytes / 2) {
+                rotateFile();
+            }
+            int written = 0;
+            while (chunk.hasRemaining()) {
+                written += mChannel.write(chunk);
+            }
+            mFileBytes += written;
+            mBytesWritten.addAndGet(written);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to append to trace file", e);
+            mDroppedEntries.addAndGet(entries);
+            mWriteFailed = true;
+            closeFile();
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void rotateFile() throws IOException {
+        closeFile();
+        Files.move(mFile.toPath(), getRotatedFile().toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        openFile();
+        if (mChannel == null) {
+            throw new IOException("Unable to reopen trace file after rotating it");
+        }
+    }
+
+    private File getRotatedFile() {
+        return new File(mFile.getPath() + ROTATED_SUFFIX);
+    }
+
+    private void openFile() {
+        try {
+            mChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.wrap(mHeader);
+            while (header.hasRemaining()) {
+                mChannel.write(header);
+            }
+            mFileBytes = mHeader.length;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open trace file", e);
+            closeFile();
+            mWriteFailed = true;
+        }
+    }
+
+    private void closeFile() {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to close trace file", e);
+        }
+        mChannel = null;
+    }
+}
@@ -1466,34 +1466,39 @@ public class BubbleController implements ConfigurationController.ConfigurationLi
     private void handleSummaryDismissalInterception(NotificationEntry summary) {
         // current children in the row:
         final List<NotificationEntry> children = summary.getAttachedNotifChildren();
-        if (children != null) {
-            for (int i = 0; i < children.size(); i++) {
-                NotificationEntry child = children.get(i);
-                if (mBubbleData.hasAnyBubbleWithKey(child.getKey())) {
-                    // Suppress the bubbled child
-                    // As far as group manager is concerned, once a child is no longer shown
-                    // in the shade, it is essentially removed.
-                    Bubble bubbleChild = mBubbleData.getAnyBubbleWithkey(child.getKey());
-                    if (bubbleChild != null) {
-                        final NotificationEntry entry = mNotificationEntryManager
-                                .getPendingOrActiveNotif(bubbleChild.getKey());
-                        if (entry != null) {
-                            mNotificationGroupManager.onEntryRemoved(entry);
+        mNotificationGroupManager.beginBatchUpdate();
+        try {
+            if (children != null) {
+                for (int i = 0; i < children.size(); i++) {
+                    NotificationEntry child = children.get(i);
+                    if (mBubbleData.hasAnyBubbleWithKey(child.getKey())) {
+                        // Suppress the bubbled child
+                        // As far as group manager is concerned, once a child is no longer shown
+                        // in the shade, it is essentially removed.
+                        Bubble bubbleChild = mBubbleData.getAnyBubbleWithkey(child.getKey());
+                        if (bubbleChild != null) {
+                            final NotificationEntry entry = mNotificationEntryManager
+                                    .getPendingOrActiveNotif(bubbleChild.getKey());
+                            if (entry != null) {
+                                mNotificationGroupManager.onEntryRemoved(entry);
+                            }
+                            bubbleChild.setSuppressNotification(true);
+                            bubbleChild.setShowDot(false /* show */);
+                        }
+                    } else {
+                        // non-bubbled children can be removed
+                        for (NotifCallback cb : mCallbacks) {
+                            cb.removeNotification(child, REASON_GROUP_SUMMARY_CANCELED);
                         }
-                        bubbleChild.setSuppressNotification(true);
-                        bubbleChild.setShowDot(false /* show */);
-                    }
-                } else {
-                    // non-bubbled children can be removed
-                    for (NotifCallback cb : mCallbacks) {
-                        cb.removeNotification(child, REASON_GROUP_SUMMARY_CANCELED);
                     }
                 }
             }
-        }
 
-        // And since all children are removed, remove the summary.
-        mNotificationGroupManager.onEntryRemoved(summary);
+            // And since all children are removed, remove the summary.
+            mNotificationGroupManager.onEntryRemoved(summary);
+        } finally {
+            mNotificationGroupManager.endBatchUpdate();
+        }
 
         // TODO: (b/145659174) remove references to mSuppressedGroupKeys once fully migrated
         mBubbleData.addSummaryToSuppress(summary.getSbn().getGroupKey(),
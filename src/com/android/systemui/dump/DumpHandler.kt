@@ -19,11 +19,14 @@ package com.android.systemui.dump
 import android.content.Context
 import android.os.SystemClock
 import android.os.Trace
+import android.util.proto.ProtoOutputStream
+import android.util.proto.ProtoStream
 import com.android.systemui.R
 import com.android.systemui.dump.DumpHandler.Companion.PRIORITY_ARG_CRITICAL
 import com.android.systemui.dump.DumpHandler.Companion.PRIORITY_ARG_HIGH
 import com.android.systemui.dump.DumpHandler.Companion.PRIORITY_ARG_NORMAL
 import com.android.systemui.log.LogBuffer
+import com.android.systemui.statusbar.FeatureFlags
 import java.io.FileDescriptor
 import java.io.PrintWriter
 import javax.inject.Inject
@@ -57,6 +60,10 @@ import javax.inject.Inject
  * # If passing -t or --tail, shows only the last N lines of any log buffers:
  * $ <invocation> NotifLog --tail 100
  *
+ * # If passing --proto, dumps all dumpables and buffers as a binary proto instead (can be
+ * # combined with any of the bugreport-* commands or with dumpables or buffers):
+ * $ <invocation> --proto > dump.pb
+ *
  * # Dump targets are matched using String.endsWith(), so dumpables that register using their
  * # fully-qualified class name can still be dumped using their short name:
  * $ <invocation> com.android.keyguard.KeyguardUpdateMonitor
@@ -80,7 +87,8 @@ import javax.inject.Inject
 class DumpHandler @Inject constructor(
     private val context: Context,
     private val dumpManager: DumpManager,
-    private val logBufferEulogizer: LogBufferEulogizer
+    private val logBufferEulogizer: LogBufferEulogizer,
+    private val featureFlags: FeatureFlags
 ) {
     /**
      * Dump the diagnostics! Behavior can be controlled via [args].
@@ -96,6 +104,12 @@ class DumpHandler @Inject constructor(
             return
         }
 
+        if (parsedArgs.proto) {
+            dumpProto(fd, parsedArgs)
+            Trace.endSection()
+            return
+        }
+
         when (parsedArgs.dumpPriority) {
             PRIORITY_ARG_CRITICAL -> dumpCritical(fd, pw, parsedArgs)
             PRIORITY_ARG_NORMAL -> dumpNormal(pw, parsedArgs)
@@ -119,14 +133,49 @@ class DumpHandler @Inject constructor(
         }
     }
 
+    /**
+     * Writes a `SystemUIDump` proto to [fd]:
+     *
+     * ```
+     * message SystemUIDump {
+     *     repeated Section section = 1;  // See DumpManager.dumpDumpablesProto
+     *     repeated LogBufferDump buffer = 2;  // See DumpManager.dumpBuffersProto
+     *     int64 duration_ms = 3;
+     * }
+     * ```
+     *
+     * The CRITICAL section only contains dumpables and the NORMAL section only contains buffers,
+     * same as in the text format.
+     */
+    private fun dumpProto(fd: FileDescriptor, args: ParsedArgs) {
+        val start = SystemClock.uptimeMillis()
+        val proto = ProtoOutputStream(fd)
+        val priority = args.dumpPriority ?: args.command
+        if (priority != PRIORITY_ARG_NORMAL && priority != "bugreport-normal" &&
+                priority != "buffers") {
+            dumpManager.dumpDumpablesProto(proto, PROTO_SECTION, fd, args.rawArgs)
+        }
+        if (priority != PRIORITY_ARG_CRITICAL && priority != "bugreport-critical" &&
+                priority != "dumpables") {
+            dumpManager.dumpBuffersProto(proto, PROTO_BUFFER, args.tailLength)
+        }
+        proto.write(PROTO_DURATION_MS, SystemClock.uptimeMillis() - start)
+        proto.flush()
+    }
+
     private fun dumpCritical(fd: FileDescriptor, pw: PrintWriter, args: ParsedArgs) {
-        dumpManager.dumpDumpables(fd, pw, args.rawArgs)
+        if (featureFlags.isParallelDumpEnabled) {
+            dumpManager.dumpDumpablesInParallel(fd, pw, args.rawArgs)
+        } else {
+            dumpManager.dumpDumpables(fd, pw, args.rawArgs)
+        }
         dumpConfig(pw)
     }
 
     private fun dumpNormal(pw: PrintWriter, args: ParsedArgs) {
         dumpManager.dumpBuffers(pw, args.tailLength)
         logBufferEulogizer.readEulogyIfPresent(pw)
+        logBufferEulogizer.readPersistedBuffersIfPresent(pw)
     }
 
     private fun dumpDumpables(fw: FileDescriptor, pw: PrintWriter, args: ParsedArgs) {
@@ -222,6 +271,11 @@ class DumpHandler @Inject constructor(
 
         pw.println("Show only the most recent N lines of buffers")
         pw.println("$ <invocation> NotifLog --tail 30")
+        pw.println()
+
+        pw.println("Dump dumpables and buffers as a proto")
+        pw.println("$ <invocation> --proto")
+        pw.println("$ <invocation> bugreport-critical --proto")
     }
 
     private fun parseArgs(args: Array<String>): ParsedArgs {
@@ -251,6 +305,9 @@ class DumpHandler @Inject constructor(
                     "-l", "--list" -> {
                         pArgs.listOnly = true
                     }
+                    "--proto" -> {
+                        pArgs.proto = true
+                    }
                     "-h", "--help" -> {
                         pArgs.command = "help"
                     }
@@ -306,6 +363,14 @@ private class ParsedArgs(
     var tailLength: Int = 0
     var command: String? = null
     var listOnly = false
+    var proto = false
 }
 
 class ArgParseException(message: String) : Exception(message)
+
+private val PROTO_SECTION = ProtoStream.makeFieldId(1,
+        ProtoStream.FIELD_COUNT_REPEATED or ProtoStream.FIELD_TYPE_MESSAGE)
+private val PROTO_BUFFER = ProtoStream.makeFieldId(2,
+        ProtoStream.FIELD_COUNT_REPEATED or ProtoStream.FIELD_TYPE_MESSAGE)
+private val PROTO_DURATION_MS = ProtoStream.makeFieldId(3,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT64)
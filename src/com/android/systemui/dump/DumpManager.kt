@@ -17,10 +17,14 @@
 package com.android.systemui.dump
 
 import android.util.ArrayMap
+import android.util.proto.ProtoOutputStream
+import android.util.proto.ProtoStream
+import androidx.annotation.VisibleForTesting
 import com.android.systemui.Dumpable
 import com.android.systemui.log.LogBuffer
 import java.io.FileDescriptor
 import java.io.PrintWriter
+import java.io.StringWriter
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -38,6 +42,9 @@ class DumpManager @Inject constructor() {
     private val dumpables: MutableMap<String, RegisteredDumpable<Dumpable>> = ArrayMap()
     private val buffers: MutableMap<String, RegisteredDumpable<LogBuffer>> = ArrayMap()
 
+    @VisibleForTesting
+    var parallelCollector = ParallelDumpCollector(MAX_DUMP_THREADS, DUMPABLE_TIMEOUT_MS)
+
     /**
      * Register a dumpable to be called during a bug report. The dumpable will be called during the
      * CRITICAL section of the bug report, so don't dump an excessive amount of stuff here.
@@ -110,6 +117,82 @@ class DumpManager @Inject constructor() {
         }
     }
 
+    /**
+     * Same as [dumpDumpables], but dumps several dumpables at once, each into its own buffer.
+     * Dumpables that take longer than [DUMPABLE_TIMEOUT_MS] are abandoned, and the slowest
+     * dumpables are listed at the end of the output.
+     *
+     * The registry is only locked while it is being copied, so dumpables can still (un)register
+     * while the dump is in progress.
+     */
+    fun dumpDumpablesInParallel(fd: FileDescriptor, pw: PrintWriter, args: Array<String>) {
+        val modules = snapshotDumpables()
+        val results = parallelCollector.collect(modules.keys.toList()) { name ->
+            val sw = StringWriter()
+            PrintWriter(sw).use { modulePw -> modules[name]!!.dump(fd, modulePw, args) }
+            sw.toString()
+        }
+
+        for (result in results) {
+            printDumpableHeader(result.name, pw)
+            when {
+                result.timedOut -> pw.println("Timed out after ${result.durationMs}ms")
+                result.error != null -> result.error.printStackTrace(pw)
+                else -> pw.print(result.value)
+            }
+        }
+        dumpSlowDumpables(pw, results)
+    }
+
+    /**
+     * Structured version of [dumpDumpablesInParallel]. Writes one `Section` per dumpable to
+     * [proto]:
+     *
+     * ```
+     * message Section {
+     *     string name = 1;
+     *     int64 duration_ms = 2;
+     *     bool timed_out = 3;
+     *     string text = 4;   // Output of a plain Dumpable
+     *     bytes proto = 5;   // Serialized output of a ProtoDumpable
+     * }
+     * ```
+     *
+     * Each section is written as field [fieldId] of the message currently open in [proto].
+     */
+    fun dumpDumpablesProto(
+        proto: ProtoOutputStream,
+        fieldId: Long,
+        fd: FileDescriptor,
+        args: Array<String>
+    ) {
+        val modules = snapshotDumpables()
+        val results = parallelCollector.collect(modules.keys.toList()) { name ->
+            val module = modules[name]!!
+            if (module is ProtoDumpable) {
+                val moduleProto = ProtoOutputStream()
+                module.dumpProto(moduleProto, args)
+                moduleProto.bytes
+            } else {
+                val sw = StringWriter()
+                PrintWriter(sw).use { modulePw -> module.dump(fd, modulePw, args) }
+                sw.toString()
+            }
+        }
+
+        for (result in results) {
+            val token = proto.start(fieldId)
+            proto.write(SECTION_NAME, result.name)
+            proto.write(SECTION_DURATION_MS, result.durationMs)
+            proto.write(SECTION_TIMED_OUT, result.timedOut)
+            when (val value = result.value) {
+                is ByteArray -> proto.write(SECTION_PROTO, value)
+                is String -> proto.write(SECTION_TEXT, value)
+            }
+            proto.end(token)
+        }
+    }
+
     /**
      * Dumps the names of all registered dumpables (one per line)
      */
@@ -130,6 +213,29 @@ class DumpManager @Inject constructor() {
         }
     }
 
+    /**
+     * Structured version of [dumpBuffers]. Streams the raw fields of each buffer's messages
+     * instead of formatting them, writing one `LogBufferDump` per buffer to [proto]:
+     *
+     * ```
+     * message LogBufferDump {
+     *     string name = 1;
+     *     repeated LogMessage message = 2;  // See LogBuffer.dumpProto
+     * }
+     * ```
+     *
+     * Each buffer is written as field [fieldId] of the message currently open in [proto].
+     */
+    @Synchronized
+    fun dumpBuffersProto(proto: ProtoOutputStream, fieldId: Long, tailLength: Int) {
+        for (buffer in buffers.values) {
+            val token = proto.start(fieldId)
+            proto.write(BUFFER_NAME, buffer.name)
+            buffer.dumpable.dumpProto(proto, BUFFER_MESSAGE, tailLength)
+            proto.end(token)
+        }
+    }
+
     /**
      * Dumps the names of all registered buffers (one per line)
      */
@@ -154,16 +260,47 @@ class DumpManager @Inject constructor() {
         }
     }
 
+    @Synchronized
+    private fun snapshotDumpables(): Map<String, Dumpable> {
+        val snapshot = LinkedHashMap<String, Dumpable>(dumpables.size)
+        for (module in dumpables.values) {
+            snapshot[module.name] = module.dumpable
+        }
+        return snapshot
+    }
+
+    private fun dumpSlowDumpables(pw: PrintWriter, results: List<DumpResult<*>>) {
+        val slow = results
+                .filter { it.timedOut || it.durationMs >= SLOW_DUMPABLE_MS }
+                .sortedByDescending { it.durationMs }
+        if (slow.isEmpty()) {
+            return
+        }
+        pw.println()
+        pw.println("Slow dumpables:")
+        for (result in slow) {
+            pw.print("  ")
+            pw.print(result.name)
+            pw.print(": ")
+            pw.print(result.durationMs)
+            pw.println(if (result.timedOut) "ms (timed out)" else "ms")
+        }
+    }
+
     private fun dumpDumpable(
         dumpable: RegisteredDumpable<Dumpable>,
         fd: FileDescriptor,
         pw: PrintWriter,
         args: Array<String>
     ) {
+        printDumpableHeader(dumpable.name, pw)
+        dumpable.dumpable.dump(fd, pw, args)
+    }
+
+    private fun printDumpableHeader(name: String, pw: PrintWriter) {
         pw.println()
-        pw.println("${dumpable.name}:")
+        pw.println("$name:")
         pw.println("----------------------------------------------------------------------------")
-        dumpable.dumpable.dump(fd, pw, args)
     }
 
     private fun dumpBuffer(
@@ -189,4 +326,24 @@ private data class RegisteredDumpable<T>(
     val dumpable: T
 )
 
-private const val TAG = "DumpManager"
\ No newline at end of file
+private const val TAG = "DumpManager"
+
+private const val MAX_DUMP_THREADS = 4
+private const val DUMPABLE_TIMEOUT_MS = 2000L
+private const val SLOW_DUMPABLE_MS = 50L
+
+private val SECTION_NAME = ProtoStream.makeFieldId(1,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_STRING)
+private val SECTION_DURATION_MS = ProtoStream.makeFieldId(2,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT64)
+private val SECTION_TIMED_OUT = ProtoStream.makeFieldId(3,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_BOOL)
+private val SECTION_TEXT = ProtoStream.makeFieldId(4,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_STRING)
+private val SECTION_PROTO = ProtoStream.makeFieldId(5,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_BYTES)
+
+private val BUFFER_NAME = ProtoStream.makeFieldId(1,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_STRING)
+private val BUFFER_MESSAGE = ProtoStream.makeFieldId(2,
+        ProtoStream.FIELD_COUNT_REPEATED or ProtoStream.FIELD_TYPE_MESSAGE)
\ No newline at end of file
@@ -19,6 +19,7 @@ package com.android.systemui.dump
 import android.content.Context
 import android.util.Log
 import com.android.systemui.log.LogBuffer
+import com.android.systemui.log.PersistentLogFile
 import com.android.systemui.util.io.Files
 import com.android.systemui.util.time.SystemClock
 import java.io.IOException
@@ -48,7 +49,8 @@ class LogBufferEulogizer(
     private val files: Files,
     private val logPath: Path,
     private val minWriteGap: Long,
-    private val maxLogAgeToDump: Long
+    private val maxLogAgeToDump: Long,
+    private val persistentLogDir: Path? = null
 ) {
     @Inject constructor(
         context: Context,
@@ -61,7 +63,8 @@ class LogBufferEulogizer(
         files,
         Paths.get(context.filesDir.toPath().toString(), "log_buffers.txt"),
         MIN_WRITE_GAP,
-        MAX_AGE_TO_DUMP
+        MAX_AGE_TO_DUMP,
+        PersistentLogFile.directoryIn(context.filesDir)
     )
 
     /**
@@ -133,6 +136,33 @@ class LogBufferEulogizer(
         }
     }
 
+    /**
+     * Decodes the messages that persistent [LogBuffer]s left behind in the previous process, if
+     * any, and writes them to [pw]. Unlike the eulogy, these are available even if the process was
+     * killed without getting a chance to record one.
+     */
+    fun readPersistedBuffersIfPresent(pw: PrintWriter) {
+        val dir = persistentLogDir ?: return
+        try {
+            files.newDirectoryStream(dir, PersistentLogFile.PREVIOUS_FILE_GLOB).use { paths ->
+                for (path in paths) {
+                    if (getMillisSinceLastWrite(path) > maxLogAgeToDump) {
+                        continue
+                    }
+                    pw.println()
+                    pw.println()
+                    pw.println("=============== PERSISTED BUFFER FROM PREVIOUS PROCESS: " +
+                            "${path.fileName} ===============")
+                    PersistentLogFile.decode(path, pw)
+                }
+            }
+        } catch (e: IOException) {
+            // Directory doesn't exist, okay
+        } catch (e: UncheckedIOException) {
+            Log.e(TAG, "UncheckedIOException while decoding persisted buffers", e)
+        }
+    }
+
     private fun getMillisSinceLastWrite(path: Path): Long {
         val stats = try {
             files.readAttributes(path, BasicFileAttributes::class.java)
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.systemui.dump
+
+import android.os.SystemClock
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs a batch of dump jobs on a bounded pool of threads and waits for their results
+ *
+ * Each job gets [timeoutMs] from the moment it starts running, not from the moment it was
+ * submitted, so a slow job doesn't eat into the budget of the jobs queued behind it. Jobs that
+ * miss their deadline are abandoned: their thread is interrupted and their result discarded.
+ *
+ * The whole batch is additionally bounded by the time it would take if every job used its full
+ * budget, so jobs stuck in the queue behind ones that ignore interruption are eventually reported
+ * as timed out instead of being waited on forever.
+ *
+ * The pool only exists for the duration of [collect], so dumping doesn't leave idle threads
+ * around.
+ */
+class ParallelDumpCollector(
+    private val maxThreads: Int,
+    private val timeoutMs: Long
+) {
+    /**
+     * Runs [job] once for each of [names] and returns the results in the same order as [names].
+     */
+    fun <T> collect(names: List<String>, job: (String) -> T): List<DumpResult<T>> {
+        if (names.isEmpty()) {
+            return emptyList()
+        }
+        val threads = minOf(maxThreads, names.size)
+        val rounds = (names.size + threads - 1) / threads
+        val batchDeadline = SystemClock.uptimeMillis() + rounds * timeoutMs
+        val executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY)
+        try {
+            val tasks = names.map { name ->
+                val task = Task<T>(name)
+                task.future = executor.submit<T> {
+                    task.startedAt = SystemClock.uptimeMillis()
+                    try {
+                        job(name)
+                    } finally {
+                        task.finishedAt = SystemClock.uptimeMillis()
+                    }
+                }
+                task
+            }
+            return tasks.map { await(it, batchDeadline) }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun <T> await(task: Task<T>, batchDeadline: Long): DumpResult<T> {
+        while (true) {
+            val now = SystemClock.uptimeMillis()
+            val startedAt = task.startedAt
+            val deadline = if (startedAt == 0L) {
+                batchDeadline
+            } else {
+                minOf(startedAt + timeoutMs, batchDeadline)
+            }
+            val waitMs = deadline - now
+            if (waitMs <= 0) {
+                task.future.cancel(true /* mayInterruptIfRunning */)
+                val durationMs = if (startedAt == 0L) 0L else now - startedAt
+                return DumpResult(task.name, null, durationMs, timedOut = true)
+            }
+            try {
+                val value = task.future.get(
+                        if (startedAt == 0L) minOf(waitMs, NOT_STARTED_POLL_MS) else waitMs,
+                        TimeUnit.MILLISECONDS)
+                return DumpResult(task.name, value, task.durationMs)
+            } catch (e: TimeoutException) {
+                // Check the deadline again
+            } catch (e: ExecutionException) {
+                return DumpResult(task.name, null, task.durationMs, error = e.cause ?: e)
+            }
+        }
+    }
+
+    private class Task<T>(val name: String) {
+        lateinit var future: Future<T>
+        @Volatile var startedAt = 0L
+        @Volatile var finishedAt = 0L
+
+        /** How long the job itself ran, regardless of when its result was collected. */
+        val durationMs: Long
+            get() = finishedAt - startedAt
+    }
+}
+
+/**
+ * Outcome of a single job run by [ParallelDumpCollector]. [value] is null if the job [timedOut] or
+ * threw an [error].
+ */
+data class DumpResult<T>(
+    val name: String,
+    val value: T?,
+    val durationMs: Long,
+    val timedOut: Boolean = false,
+    val error: Throwable? = null
+)
+
+private const val NOT_STARTED_POLL_MS = 10L
+
+private val THREAD_FACTORY = object : ThreadFactory {
+    private val count = AtomicInteger()
+
+    override fun newThread(r: Runnable): Thread {
+        return Thread(r, "SysUIDump-${count.incrementAndGet()}")
+    }
+}
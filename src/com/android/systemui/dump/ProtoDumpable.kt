@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.dump
+
+import android.util.proto.ProtoOutputStream
+import com.android.systemui.Dumpable
+
+/**
+ * A [Dumpable] that can also dump its state as a proto
+ *
+ * When SystemUI is dumped with `--proto`, [dumpProto] is called instead of [Dumpable.dump] and its
+ * output is embedded as-is in the dumpable's section. The schema of that output is up to the
+ * implementation.
+ */
+interface ProtoDumpable : Dumpable {
+    fun dumpProto(proto: ProtoOutputStream, args: Array<String>)
+}
@@ -17,6 +17,8 @@
 package com.android.systemui.log
 
 import android.util.Log
+import android.util.proto.ProtoOutputStream
+import android.util.proto.ProtoStream
 import com.android.systemui.dump.DumpManager
 import com.android.systemui.log.dagger.LogModule
 import java.io.PrintWriter
@@ -65,15 +67,26 @@ import java.util.Locale
  * unused pool.
  * @param poolSize The maximum amount that the size of the buffer is allowed to flex in response to
  * sequential calls to [document] that aren't immediately followed by a matching call to [push].
+ * @param lockFree If true, messages are copied into a preallocated [LogRingBuffer] of [maxLogs]
+ * slots instead of being kept in a synchronized queue, so that writers on different threads never
+ * contend on a lock and dumping never stops them. [poolSize] is ignored in this mode.
  */
-class LogBuffer(
+class LogBuffer @JvmOverloads constructor(
     private val name: String,
     private val maxLogs: Int,
     private val poolSize: Int,
-    private val logcatEchoTracker: LogcatEchoTracker
+    private val logcatEchoTracker: LogcatEchoTracker,
+    private val lockFree: Boolean = false
 ) {
     private val buffer: ArrayDeque<LogMessageImpl> = ArrayDeque()
+    private val ringBuffer: LogRingBuffer? = if (lockFree) LogRingBuffer(maxLogs) else null
+    private val scratchMessages: ThreadLocal<LogMessageImpl>? =
+            if (lockFree) ThreadLocal.withInitial { LogMessageImpl.create() } else null
 
+    @Volatile
+    private var persistentLog: PersistentLogFile? = null
+
+    @Volatile
     var frozen = false
         private set
 
@@ -81,6 +94,14 @@ class LogBuffer(
         dumpManager.registerBuffer(name, this)
     }
 
+    /**
+     * Mirrors every message pushed from now on into [file], so that the most recent messages
+     * survive if the process dies before the buffer can be dumped.
+     */
+    fun persistTo(file: PersistentLogFile) {
+        persistentLog = file
+    }
+
     /**
      * Logs a message to the log buffer
      *
@@ -133,7 +154,7 @@ class LogBuffer(
         initializer: LogMessage.() -> Unit,
         noinline printer: LogMessage.() -> String
     ): LogMessage {
-        val message = obtain(tag, level, printer)
+        val message = obtain(tag, level, printer, detached = true)
         initializer(message)
         return message
     }
@@ -142,10 +163,31 @@ class LogBuffer(
      * Obtains an instance of [LogMessageImpl], usually from the object pool. If the pool has been
      * exhausted, creates a new instance.
      *
+     * In lock-free mode, returns a per-thread scratch message that is only valid until the next
+     * call to this method on the same thread, unless [detached] is true.
+     *
      * In general, you should call [log] or [document] instead of this method.
      */
-    @Synchronized
     fun obtain(
+        tag: String,
+        level: LogLevel,
+        printer: (LogMessage) -> String,
+        detached: Boolean = false
+    ): LogMessageImpl {
+        if (scratchMessages == null) {
+            return obtainPooled(tag, level, printer)
+        }
+        val message = if (frozen || detached) {
+            LogMessageImpl.create()
+        } else {
+            scratchMessages.get()!!
+        }
+        message.reset(tag, level, System.currentTimeMillis(), printer)
+        return message
+    }
+
+    @Synchronized
+    private fun obtainPooled(
         tag: String,
         level: LogLevel,
         printer: (LogMessage) -> String
@@ -162,8 +204,21 @@ class LogBuffer(
     /**
      * Pushes a message into buffer, possibly evicting an older message if the buffer is full.
      */
-    @Synchronized
     fun push(message: LogMessage) {
+        if (ringBuffer == null) {
+            pushPooled(message)
+            return
+        }
+        if (frozen) {
+            return
+        }
+        ringBuffer.push(message)
+        persistentLog?.write(message)
+        maybeEchoToLogcat(message)
+    }
+
+    @Synchronized
+    private fun pushPooled(message: LogMessage) {
         if (frozen) {
             return
         }
@@ -172,20 +227,85 @@ class LogBuffer(
             buffer.removeFirst()
         }
         buffer.add(message as LogMessageImpl)
-        if (logcatEchoTracker.isBufferLoggable(name, message.level) ||
-                logcatEchoTracker.isTagLoggable(message.tag, message.level)) {
-            echoToLogcat(message)
+        persistentLog?.write(message)
+        maybeEchoToLogcat(message)
+    }
+
+    /**
+     * Converts the entire buffer to a newline-delimited string
+     *
+     * In lock-free mode, writers keep logging while the buffer is dumped; messages that are
+     * overwritten before they can be read are skipped.
+     */
+    fun dump(pw: PrintWriter, tailLength: Int) {
+        forEachMessage(tailLength) { message -> dumpMessage(message, pw) }
+        val dropped = ringBuffer?.droppedCount ?: 0
+        if (dropped > 0) {
+            pw.println("$name dropped $dropped messages due to contention")
+        }
+    }
+
+    /**
+     * Streams the raw fields of each message to [proto] as repeated field [fieldId], without
+     * invoking any printers:
+     *
+     * ```
+     * message LogMessage {
+     *     int64 timestamp = 1;
+     *     int32 level = 2;  // LogLevel.nativeLevel
+     *     string tag = 3;
+     *     string str1 = 4;
+     *     string str2 = 5;
+     *     string str3 = 6;
+     *     int32 int1 = 7;
+     *     int32 int2 = 8;
+     *     int64 long1 = 9;
+     *     int64 long2 = 10;
+     *     double double1 = 11;
+     *     bool bool1 = 12;
+     *     bool bool2 = 13;
+     *     bool bool3 = 14;
+     *     bool bool4 = 15;
+     * }
+     * ```
+     */
+    fun dumpProto(proto: ProtoOutputStream, fieldId: Long, tailLength: Int) {
+        forEachMessage(tailLength) { message ->
+            val token = proto.start(fieldId)
+            proto.write(MESSAGE_TIMESTAMP, message.timestamp)
+            proto.write(MESSAGE_LEVEL, message.level.nativeLevel)
+            proto.write(MESSAGE_TAG, message.tag)
+            proto.write(MESSAGE_STR1, message.str1)
+            proto.write(MESSAGE_STR2, message.str2)
+            proto.write(MESSAGE_STR3, message.str3)
+            proto.write(MESSAGE_INT1, message.int1)
+            proto.write(MESSAGE_INT2, message.int2)
+            proto.write(MESSAGE_LONG1, message.long1)
+            proto.write(MESSAGE_LONG2, message.long2)
+            proto.write(MESSAGE_DOUBLE1, message.double1)
+            proto.write(MESSAGE_BOOL1, message.bool1)
+            proto.write(MESSAGE_BOOL2, message.bool2)
+            proto.write(MESSAGE_BOOL3, message.bool3)
+            proto.write(MESSAGE_BOOL4, message.bool4)
+            proto.end(token)
+        }
+    }
+
+    private fun forEachMessage(tailLength: Int, consumer: (LogMessage) -> Unit) {
+        if (ringBuffer == null) {
+            forEachPooledMessage(tailLength, consumer)
+        } else {
+            ringBuffer.forEachMessage(tailLength, consumer)
         }
     }
 
-    /** Converts the entire buffer to a newline-delimited string */
     @Synchronized
-    fun dump(pw: PrintWriter, tailLength: Int) {
+    private fun forEachPooledMessage(tailLength: Int, consumer: (LogMessage) -> Unit) {
         val start = if (tailLength <= 0) { 0 } else { buffer.size - tailLength }
 
         for ((i, message) in buffer.withIndex()) {
             if (i >= start) {
-                dumpMessage(message, pw)
+                consumer(message)
             }
         }
     }
@@ -224,18 +344,44 @@ class LogBuffer(
         pw.println(message.printer(message))
     }
 
-    private fun echoToLogcat(message: LogMessage) {
-        val strMessage = message.printer(message)
-        when (message.level) {
-            LogLevel.VERBOSE -> Log.v(message.tag, strMessage)
-            LogLevel.DEBUG -> Log.d(message.tag, strMessage)
-            LogLevel.INFO -> Log.i(message.tag, strMessage)
-            LogLevel.WARNING -> Log.w(message.tag, strMessage)
-            LogLevel.ERROR -> Log.e(message.tag, strMessage)
-            LogLevel.WTF -> Log.wtf(message.tag, strMessage)
+    private fun maybeEchoToLogcat(message: LogMessage) {
+        if (logcatEchoTracker.isBufferLoggable(name, message.level) ||
+                logcatEchoTracker.isTagLoggable(message.tag, message.level)) {
+            logcatEchoTracker.echo(message)
         }
     }
 }
 
 private const val TAG = "LogBuffer"
 private val DATE_FORMAT = SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US)
+
+private val MESSAGE_TIMESTAMP = ProtoStream.makeFieldId(1,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT64)
+private val MESSAGE_LEVEL = ProtoStream.makeFieldId(2,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT32)
+private val MESSAGE_TAG = ProtoStream.makeFieldId(3,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_STRING)
+private val MESSAGE_STR1 = ProtoStream.makeFieldId(4,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_STRING)
+private val MESSAGE_STR2 = ProtoStream.makeFieldId(5,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_STRING)
+private val MESSAGE_STR3 = ProtoStream.makeFieldId(6,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_STRING)
+private val MESSAGE_INT1 = ProtoStream.makeFieldId(7,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT32)
+private val MESSAGE_INT2 = ProtoStream.makeFieldId(8,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT32)
+private val MESSAGE_LONG1 = ProtoStream.makeFieldId(9,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT64)
+private val MESSAGE_LONG2 = ProtoStream.makeFieldId(10,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_INT64)
+private val MESSAGE_DOUBLE1 = ProtoStream.makeFieldId(11,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_DOUBLE)
+private val MESSAGE_BOOL1 = ProtoStream.makeFieldId(12,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_BOOL)
+private val MESSAGE_BOOL2 = ProtoStream.makeFieldId(13,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_BOOL)
+private val MESSAGE_BOOL3 = ProtoStream.makeFieldId(14,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_BOOL)
+private val MESSAGE_BOOL4 = ProtoStream.makeFieldId(15,
+        ProtoStream.FIELD_COUNT_SINGLE or ProtoStream.FIELD_TYPE_BOOL)
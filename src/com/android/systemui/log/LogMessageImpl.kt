@@ -62,6 +62,26 @@ data class LogMessageImpl(
         bool4 = false
     }
 
+    /** Overwrites every field of this message with the corresponding field of [other]. */
+    fun copyFrom(other: LogMessage) {
+        level = other.level
+        tag = other.tag
+        timestamp = other.timestamp
+        printer = other.printer
+        str1 = other.str1
+        str2 = other.str2
+        str3 = other.str3
+        int1 = other.int1
+        int2 = other.int2
+        long1 = other.long1
+        long2 = other.long2
+        double1 = other.double1
+        bool1 = other.bool1
+        bool2 = other.bool2
+        bool3 = other.bool3
+        bool4 = other.bool4
+    }
+
     companion object Factory {
         fun create(): LogMessageImpl {
             return LogMessageImpl(
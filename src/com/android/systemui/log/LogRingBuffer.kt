@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.log
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Fixed-capacity, preallocated storage for [LogBuffer] that never blocks writers
+ *
+ * Every message that is ever pushed gets a monotonically increasing index, and is stored in slot
+ * `index % capacity`. Each slot has a sequence number that is `2 * index + 1` while the message
+ * with that index is being copied into it and `2 * index + 2` once the copy is complete. Writers
+ * claim an index with a single atomic increment and then claim the slot with a CAS on its
+ * sequence number; a writer that finds its slot still being written by a writer that was lapped
+ * drops its message rather than waiting.
+ *
+ * Readers never stop writers. They copy a slot and then validate that its sequence number hasn't
+ * changed in the meantime, skipping any message that was overwritten while being read.
+ */
+internal class LogRingBuffer(private val capacity: Int) {
+    private val slots = Array(capacity) { LogMessageImpl.create() }
+    private val sequences = AtomicLongArray(capacity)
+    private val nextIndex = AtomicLong()
+    private val dropped = AtomicLong()
+
+    /** Number of messages that were discarded because their slot was busy. */
+    val droppedCount: Long
+        get() = dropped.get()
+
+    /** Copies [message] into the buffer, overwriting the oldest message if the buffer is full. */
+    fun push(message: LogMessage) {
+        val index = nextIndex.getAndIncrement()
+        val slot = (index % capacity).toInt()
+        val writing = 2 * index + 1
+
+        while (true) {
+            val current = sequences.get(slot)
+            if (current >= writing || current % 2 == 1L) {
+                // Either a newer message already owns this slot or a lapped writer is still
+                // copying into it. Waiting for it would mean blocking, so drop this message.
+                dropped.incrementAndGet()
+                return
+            }
+            if (sequences.compareAndSet(slot, current, writing)) {
+                break
+            }
+        }
+
+        slots[slot].copyFrom(message)
+        sequences.set(slot, writing + 1)
+    }
+
+    /**
+     * Calls [consumer] on a consistent copy of each of the last [tailLength] messages in the
+     * buffer, oldest first. If [tailLength] is not positive, visits the entire buffer.
+     *
+     * The message passed to [consumer] is reused between calls and must not be retained.
+     */
+    fun forEachMessage(tailLength: Int, consumer: (LogMessage) -> Unit) {
+        val end = nextIndex.get()
+        var start = maxOf(0, end - capacity)
+        if (tailLength > 0) {
+            start = maxOf(start, end - tailLength)
+        }
+
+        val snapshot = LogMessageImpl.create()
+        for (index in start until end) {
+            if (readInto(index, snapshot)) {
+                consumer(snapshot)
+            }
+        }
+    }
+
+    /**
+     * Copies the message with the given [index] into [out]. Returns false if that message is still
+     * being written or has since been overwritten.
+     */
+    private fun readInto(index: Long, out: LogMessageImpl): Boolean {
+        val slot = (index % capacity).toInt()
+        val published = 2 * index + 2
+        if (sequences.get(slot) != published) {
+            return false
+        }
+        out.copyFrom(slots[slot])
+        // A no-op CAS rather than a plain read so that the field reads above can't be reordered
+        // past the validation.
+        return sequences.compareAndSet(slot, published, published)
+    }
+}
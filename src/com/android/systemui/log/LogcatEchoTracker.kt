@@ -16,6 +16,8 @@
 
 package com.android.systemui.log
 
+import android.util.Log
+
 /**
  * Keeps track of which [LogBuffer] messages should also appear in logcat.
  */
@@ -29,4 +31,28 @@ interface LogcatEchoTracker {
      * Whether [tagName] should echo messages of [level] or higher to logcat.
      */
     fun isTagLoggable(tagName: String, level: LogLevel): Boolean
+
+    /**
+     * Echoes [message] to logcat. Only called for messages that are loggable according to
+     * [isBufferLoggable] or [isTagLoggable].
+     *
+     * [message] may be reused as soon as this method returns, so implementations that echo
+     * asynchronously must copy it first.
+     */
+    fun echo(message: LogMessage)
+}
+
+/**
+ * Formats [message] and writes it to logcat on the calling thread.
+ */
+fun echoToLogcat(message: LogMessage) {
+    val strMessage = message.printer(message)
+    when (message.level) {
+        LogLevel.VERBOSE -> Log.v(message.tag, strMessage)
+        LogLevel.DEBUG -> Log.d(message.tag, strMessage)
+        LogLevel.INFO -> Log.i(message.tag, strMessage)
+        LogLevel.WARNING -> Log.w(message.tag, strMessage)
+        LogLevel.ERROR -> Log.e(message.tag, strMessage)
+        LogLevel.WTF -> Log.wtf(message.tag, strMessage)
+    }
 }
@@ -92,6 +92,10 @@ class LogcatEchoTrackerDebug private constructor(
         return level >= getLogLevel(tagName, TAG_PATH, cachedTagLevels)
     }
 
+    override fun echo(message: LogMessage) {
+        echoToLogcat(message)
+    }
+
     private fun getLogLevel(
         name: String,
         path: String,
@@ -27,4 +27,8 @@ class LogcatEchoTrackerProd : LogcatEchoTracker {
     override fun isTagLoggable(tagName: String, level: LogLevel): Boolean {
         return level >= LogLevel.WARNING
     }
+
+    override fun echo(message: LogMessage) {
+        echoToLogcat(message)
+    }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.systemui.log
+
+import java.io.File
+import java.io.IOException
+import java.io.PrintWriter
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Memory-mapped file that mirrors the most recent messages of a [LogBuffer]
+ *
+ * Each message is written as a fixed-size binary record: its raw fields are copied as-is and the
+ * printer is never invoked, so persisting a message costs little more than keeping it in memory.
+ * Because the file is mapped, the kernel keeps the records even if the process dies without
+ * warning (watchdog, native crash, LMK), which is exactly when [LogBuffer.dump] never gets a
+ * chance to run.
+ *
+ * When a file is opened, the contents left behind by the previous process are moved aside so they
+ * can be decoded later with [decode]. Strings longer than [MAX_STRING_CHARS] are truncated, and
+ * tags beyond the first [MAX_TAGS] are recorded as unknown.
+ *
+ * Writes are serialized: in lock-free [LogBuffer] mode several threads may persist at once, and a
+ * writer that gets preempted could otherwise share its record with one that wrapped around.
+ */
+class PersistentLogFile private constructor(
+    private val buffer: MappedByteBuffer,
+    private val capacity: Int
+) {
+    private var nextIndex = 0L
+    private val tagIds = ConcurrentHashMap<String, Int>()
+
+    /** Appends [message] to the file, overwriting the oldest record if the file is full. */
+    @Synchronized
+    fun write(message: LogMessage) {
+        val index = nextIndex++
+        val offset = recordOffset((index % capacity).toInt())
+
+        // Invalidate the record first so a half-written record is never decoded
+        buffer.putLong(offset, 0)
+        buffer.putLong(offset + TIMESTAMP, message.timestamp)
+        buffer.put(offset + LEVEL, message.level.ordinal.toByte())
+        buffer.put(offset + BOOLS, packBools(message))
+        buffer.putShort(offset + TAG_ID, tagIdOf(message.tag).toShort())
+        buffer.putInt(offset + INT1, message.int1)
+        buffer.putInt(offset + INT2, message.int2)
+        buffer.putLong(offset + LONG1, message.long1)
+        buffer.putLong(offset + LONG2, message.long2)
+        buffer.putDouble(offset + DOUBLE1, message.double1)
+        putString(buffer, offset + STR1, message.str1, MAX_STRING_CHARS)
+        putString(buffer, offset + STR2, message.str2, MAX_STRING_CHARS)
+        putString(buffer, offset + STR3, message.str3, MAX_STRING_CHARS)
+        buffer.putLong(offset, index + 1)
+    }
+
+    private fun tagIdOf(tag: String): Int {
+        return tagIds[tag] ?: registerTag(tag)
+    }
+
+    @Synchronized
+    private fun registerTag(tag: String): Int {
+        tagIds[tag]?.let { return it }
+        if (tagIds.size >= MAX_TAGS) {
+            return UNKNOWN_TAG_ID
+        }
+        val id = tagIds.size
+        putString(buffer, TAGS_OFFSET + id * TAG_SIZE, tag, MAX_TAG_CHARS)
+        tagIds[tag] = id
+        return id
+    }
+
+    companion object {
+        /** Glob matching the files that [open] moves the records of a previous process to. */
+        const val PREVIOUS_FILE_GLOB = "*" + FILE_SUFFIX + PREVIOUS_SUFFIX
+
+        /** Directory, within [filesDir], that holds the persistent files of all buffers. */
+        @JvmStatic
+        fun directoryIn(filesDir: File): Path = Paths.get(filesDir.path, DIRECTORY_NAME)
+
+        /** Path of the persistent file of the buffer called [bufferName]. */
+        @JvmStatic
+        fun pathFor(filesDir: File, bufferName: String): Path =
+                directoryIn(filesDir).resolve(bufferName + FILE_SUFFIX)
+
+        /**
+         * Opens (or creates) the file at [path] with room for [capacity] messages. Any records left
+         * in it by the previous process are first moved to [previousPathOf] ([path]).
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun open(path: Path, capacity: Int): PersistentLogFile {
+            Files.createDirectories(path.parent)
+            if (Files.exists(path)) {
+                Files.move(path, previousPathOf(path), REPLACE_EXISTING)
+            }
+            FileChannel.open(path, CREATE, READ, WRITE).use { channel ->
+                val buffer = channel.map(
+                        FileChannel.MapMode.READ_WRITE,
+                        0,
+                        HEADER_SIZE + capacity.toLong() * RECORD_SIZE)
+                buffer.putInt(0, MAGIC)
+                buffer.putInt(4, VERSION)
+                buffer.putInt(8, capacity)
+                buffer.putInt(12, RECORD_SIZE)
+                return PersistentLogFile(buffer, capacity)
+            }
+        }
+
+        /** Path that the records of a previous process are moved to when [path] is opened. */
+        @JvmStatic
+        fun previousPathOf(path: Path): Path = Paths.get(path.toString() + PREVIOUS_SUFFIX)
+
+        /**
+         * Decodes a file written by a previous process and prints its messages to [pw], oldest
+         * first. Since printers can't be persisted, messages are printed as their raw fields.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun decode(path: Path, pw: PrintWriter) {
+            FileChannel.open(path, READ).use { channel ->
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                if (buffer.limit() < HEADER_SIZE ||
+                        buffer.getInt(0) != MAGIC ||
+                        buffer.getInt(4) != VERSION ||
+                        buffer.getInt(12) != RECORD_SIZE) {
+                    pw.println("Unrecognized log file: $path")
+                    return
+                }
+                val capacity = minOf(
+                        buffer.getInt(8),
+                        (buffer.limit() - HEADER_SIZE) / RECORD_SIZE)
+                val tags = Array(MAX_TAGS) { id ->
+                    getString(buffer, TAGS_OFFSET + id * TAG_SIZE) ?: UNKNOWN_TAG
+                }
+
+                val offsets = (0 until capacity)
+                        .map { recordOffset(it) }
+                        .filter { buffer.getLong(it) > 0 }
+                        .sortedBy { buffer.getLong(it) }
+                for (offset in offsets) {
+                    printRecord(buffer, offset, tags, pw)
+                }
+            }
+        }
+
+        private fun printRecord(
+            buffer: ByteBuffer,
+            offset: Int,
+            tags: Array<String>,
+            pw: PrintWriter
+        ) {
+            val levels = LogLevel.values()
+            val level = buffer.get(offset + LEVEL).toInt()
+            val tagId = buffer.getShort(offset + TAG_ID).toInt()
+            val bools = buffer.get(offset + BOOLS).toInt()
+
+            pw.print(DATE_FORMAT.format(buffer.getLong(offset + TIMESTAMP)))
+            pw.print(" ")
+            pw.print(if (level in levels.indices) levels[level] else "?")
+            pw.print(" ")
+            pw.print(if (tagId in tags.indices) tags[tagId] else UNKNOWN_TAG)
+            printField(pw, "str1", getString(buffer, offset + STR1), null)
+            printField(pw, "str2", getString(buffer, offset + STR2), null)
+            printField(pw, "str3", getString(buffer, offset + STR3), null)
+            printField(pw, "int1", buffer.getInt(offset + INT1), 0)
+            printField(pw, "int2", buffer.getInt(offset + INT2), 0)
+            printField(pw, "long1", buffer.getLong(offset + LONG1), 0L)
+            printField(pw, "long2", buffer.getLong(offset + LONG2), 0L)
+            printField(pw, "double1", buffer.getDouble(offset + DOUBLE1), 0.0)
+            for (i in 0 until 4) {
+                printField(pw, "bool${i + 1}", bools and (1 shl i) != 0, false)
+            }
+            pw.println()
+        }
+
+        private fun printField(pw: PrintWriter, name: String, value: Any?, default: Any?) {
+            if (value != default) {
+                pw.print(" ")
+                pw.print(name)
+                pw.print("=")
+                pw.print(value)
+            }
+        }
+
+        private fun recordOffset(slot: Int): Int = HEADER_SIZE + slot * RECORD_SIZE
+
+        private fun packBools(message: LogMessage): Byte {
+            var bools = 0
+            if (message.bool1) bools = bools or 1
+            if (message.bool2) bools = bools or 2
+            if (message.bool3) bools = bools or 4
+            if (message.bool4) bools = bools or 8
+            return bools.toByte()
+        }
+
+        private fun putString(buffer: ByteBuffer, offset: Int, str: String?, maxChars: Int) {
+            if (str == null) {
+                buffer.putShort(offset, NULL_STRING)
+                return
+            }
+            val length = minOf(str.length, maxChars)
+            buffer.putShort(offset, length.toShort())
+            for (i in 0 until length) {
+                buffer.putChar(offset + 2 + i * 2, str[i])
+            }
+        }
+
+        private fun getString(buffer: ByteBuffer, offset: Int): String? {
+            val length = buffer.getShort(offset).toInt()
+            if (length <= 0) {
+                return if (length == 0) "" else null
+            }
+            val chars = CharArray(length) { i -> buffer.getChar(offset + 2 + i * 2) }
+            return String(chars)
+        }
+    }
+}
+
+private const val MAGIC = 0x534c4f47 // "SLOG"
+private const val VERSION = 1
+private const val DIRECTORY_NAME = "persistent_log_buffers"
+private const val FILE_SUFFIX = ".bin"
+private const val PREVIOUS_SUFFIX = ".prev"
+
+private const val MAX_STRING_CHARS = 48
+private const val MAX_TAG_CHARS = 23
+private const val MAX_TAGS = 128
+private const val UNKNOWN_TAG_ID = MAX_TAGS
+private const val UNKNOWN_TAG = "?"
+private const val NULL_STRING: Short = -1
+
+private const val STRING_SIZE = 2 + MAX_STRING_CHARS * 2
+private const val TAG_SIZE = 2 + MAX_TAG_CHARS * 2
+private const val TAGS_OFFSET = 16
+private const val HEADER_SIZE = TAGS_OFFSET + MAX_TAGS * TAG_SIZE
+
+// Record layout. The sequence number at offset 0 is the message's index + 1, or 0 if the record is
+// empty or was being written when the process died.
+private const val TIMESTAMP = 8
+private const val LEVEL = 16
+private const val BOOLS = 17
+private const val TAG_ID = 18
+private const val INT1 = 20
+private const val INT2 = 24
+private const val LONG1 = 28
+private const val LONG2 = 36
+private const val DOUBLE1 = 44
+private const val STR1 = 52
+private const val STR2 = STR1 + STRING_SIZE
+private const val STR3 = STR2 + STRING_SIZE
+private const val RECORD_SIZE = STR3 + STRING_SIZE
+
+private val DATE_FORMAT = SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US)
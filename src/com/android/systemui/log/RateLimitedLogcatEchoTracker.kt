@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.log
+
+import com.android.systemui.Dumpable
+import com.android.systemui.util.time.SystemClock
+import java.io.FileDescriptor
+import java.io.PrintWriter
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * [LogcatEchoTracker] that throttles the messages echoed by [delegate]
+ *
+ * Whether a message is loggable is still up to [delegate]. Loggable messages are then:
+ *  - sampled, so that only one in every [sampleRate] messages of each tag is echoed,
+ *  - rate limited by a token bucket per tag, which allows bursts of up to [maxPerSecond] messages
+ *    and refills at [maxPerSecond] messages per second,
+ *  - copied into one of [queueSize] preallocated messages and formatted and written to logcat on
+ *    [executor], so that the thread that logged the message never pays for the echo.
+ *
+ * Messages that are sampled out, rate limited or that find the queue full are not echoed (they
+ * are still stored in their [LogBuffer]). The number of each is tracked per tag and can be seen by
+ * dumping this class.
+ */
+class RateLimitedLogcatEchoTracker(
+    private val delegate: LogcatEchoTracker,
+    private val executor: Executor,
+    private val systemClock: SystemClock,
+    private val maxPerSecond: Int,
+    private val sampleRate: Int,
+    queueSize: Int
+) : LogcatEchoTracker, Dumpable {
+    private val tagStats = ConcurrentHashMap<String, TagStats>()
+    private val freeMessages = ArrayBlockingQueue<LogMessageImpl>(queueSize)
+    private val pendingMessages = ArrayBlockingQueue<LogMessageImpl>(queueSize)
+    private val drainScheduled = AtomicBoolean()
+    private val drainRunnable = Runnable { drain() }
+
+    init {
+        for (i in 0 until queueSize) {
+            freeMessages.add(LogMessageImpl.create())
+        }
+    }
+
+    override fun isBufferLoggable(bufferName: String, level: LogLevel): Boolean {
+        return delegate.isBufferLoggable(bufferName, level)
+    }
+
+    override fun isTagLoggable(tagName: String, level: LogLevel): Boolean {
+        return delegate.isTagLoggable(tagName, level)
+    }
+
+    override fun echo(message: LogMessage) {
+        val stats = tagStats[message.tag] ?: statsFor(message.tag)
+        if (!stats.admit(systemClock.elapsedRealtime())) {
+            return
+        }
+
+        val copy = freeMessages.poll()
+        if (copy == null) {
+            stats.onQueueFull()
+            return
+        }
+        copy.copyFrom(message)
+        pendingMessages.add(copy)
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drainRunnable)
+        }
+    }
+
+    private fun statsFor(tag: String): TagStats {
+        return tagStats.getOrPut(tag) { TagStats(maxPerSecond, sampleRate) }
+    }
+
+    private fun drain() {
+        // Clear the flag first so that messages enqueued from now on schedule another drain
+        drainScheduled.set(false)
+        while (true) {
+            val message = pendingMessages.poll() ?: return
+            delegate.echo(message)
+            freeMessages.add(message)
+        }
+    }
+
+    override fun dump(fd: FileDescriptor, pw: PrintWriter, args: Array<String>) {
+        pw.println("  maxPerSecond=$maxPerSecond sampleRate=$sampleRate")
+        for ((tag, stats) in tagStats.entries.sortedBy { it.key }) {
+            pw.print("  ")
+            pw.print(tag)
+            pw.print(": ")
+            stats.dump(pw)
+        }
+    }
+
+    /** Sampling, rate limiting and counters for the messages of a single tag. */
+    private class TagStats(
+        private val maxPerSecond: Int,
+        private val sampleRate: Int
+    ) {
+        private var tokens = maxPerSecond.toDouble()
+        private var lastRefill = 0L
+        private var seen = 0L
+        private var echoed = 0L
+        private var sampledOut = 0L
+        private var rateLimited = 0L
+        private var queueFull = 0L
+
+        @Synchronized
+        fun admit(now: Long): Boolean {
+            if (seen++ % sampleRate != 0L) {
+                sampledOut++
+                return false
+            }
+
+            if (lastRefill != 0L) {
+                tokens = minOf(
+                        maxPerSecond.toDouble(),
+                        tokens + (now - lastRefill) * maxPerSecond / 1000.0)
+            }
+            lastRefill = now
+            if (tokens < 1) {
+                rateLimited++
+                return false
+            }
+            tokens--
+            echoed++
+            return true
+        }
+
+        @Synchronized
+        fun onQueueFull() {
+            echoed--
+            queueFull++
+        }
+
+        @Synchronized
+        fun dump(pw: PrintWriter) {
+            pw.println("echoed=$echoed sampledOut=$sampledOut rateLimited=$rateLimited " +
+                    "queueFull=$queueFull")
+        }
+    }
+}
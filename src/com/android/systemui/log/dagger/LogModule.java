@@ -17,15 +17,26 @@
 package com.android.systemui.log.dagger;
 
 import android.content.ContentResolver;
+import android.content.Context;
 import android.os.Build;
 import android.os.Looper;
+import android.provider.Settings;
+import android.util.Log;
 
+import com.android.systemui.dagger.qualifiers.Background;
 import com.android.systemui.dagger.qualifiers.Main;
 import com.android.systemui.dump.DumpManager;
 import com.android.systemui.log.LogBuffer;
 import com.android.systemui.log.LogcatEchoTracker;
 import com.android.systemui.log.LogcatEchoTrackerDebug;
 import com.android.systemui.log.LogcatEchoTrackerProd;
+import com.android.systemui.log.PersistentLogFile;
+import com.android.systemui.log.RateLimitedLogcatEchoTracker;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.util.time.SystemClock;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import javax.inject.Singleton;
 
@@ -43,9 +54,14 @@ public class LogModule {
     @DozeLog
     public static LogBuffer provideDozeLogBuffer(
             LogcatEchoTracker bufferFilter,
-            DumpManager dumpManager) {
-        LogBuffer buffer = new LogBuffer("DozeLog", 100, 10, bufferFilter);
+            DumpManager dumpManager,
+            FeatureFlags featureFlags,
+            Context context,
+            @Background Executor bgExecutor) {
+        LogBuffer buffer = new LogBuffer("DozeLog", 100, 10, bufferFilter,
+                featureFlags.isLockFreeLogBufferEnabled());
         buffer.attach(dumpManager);
+        persistIfEnabled(buffer, "DozeLog", 1000, context, featureFlags, bgExecutor);
         return buffer;
     }
 
@@ -55,9 +71,14 @@ public class LogModule {
     @NotificationLog
     public static LogBuffer provideNotificationsLogBuffer(
             LogcatEchoTracker bufferFilter,
-            DumpManager dumpManager) {
-        LogBuffer buffer = new LogBuffer("NotifLog", 1000, 10, bufferFilter);
+            DumpManager dumpManager,
+            FeatureFlags featureFlags,
+            Context context,
+            @Background Executor bgExecutor) {
+        LogBuffer buffer = new LogBuffer("NotifLog", 1000, 10, bufferFilter,
+                featureFlags.isLockFreeLogBufferEnabled());
         buffer.attach(dumpManager);
+        persistIfEnabled(buffer, "NotifLog", 5000, context, featureFlags, bgExecutor);
         return buffer;
     }
 
@@ -67,8 +88,10 @@ public class LogModule {
     @NotificationSectionLog
     public static LogBuffer provideNotificationSectionLogBuffer(
             LogcatEchoTracker bufferFilter,
-            DumpManager dumpManager) {
-        LogBuffer buffer = new LogBuffer("NotifSectionLog", 1000, 10, bufferFilter);
+            DumpManager dumpManager,
+            FeatureFlags featureFlags) {
+        LogBuffer buffer = new LogBuffer("NotifSectionLog", 1000, 10, bufferFilter,
+                featureFlags.isLockFreeLogBufferEnabled());
         buffer.attach(dumpManager);
         return buffer;
     }
@@ -79,8 +102,10 @@ public class LogModule {
     @NotifInteractionLog
     public static LogBuffer provideNotifInteractionLogBuffer(
             LogcatEchoTracker echoTracker,
-            DumpManager dumpManager) {
-        LogBuffer buffer = new LogBuffer("NotifInteractionLog", 50, 10, echoTracker);
+            DumpManager dumpManager,
+            FeatureFlags featureFlags) {
+        LogBuffer buffer = new LogBuffer("NotifInteractionLog", 50, 10, echoTracker,
+                featureFlags.isLockFreeLogBufferEnabled());
         buffer.attach(dumpManager);
         return buffer;
     }
@@ -91,8 +116,10 @@ public class LogModule {
     @QSLog
     public static LogBuffer provideQuickSettingsLogBuffer(
             LogcatEchoTracker bufferFilter,
-            DumpManager dumpManager) {
-        LogBuffer buffer = new LogBuffer("QSLog", 500, 10, bufferFilter);
+            DumpManager dumpManager,
+            FeatureFlags featureFlags) {
+        LogBuffer buffer = new LogBuffer("QSLog", 500, 10, bufferFilter,
+                featureFlags.isLockFreeLogBufferEnabled());
         buffer.attach(dumpManager);
         return buffer;
     }
@@ -103,22 +130,85 @@ public class LogModule {
     @BroadcastDispatcherLog
     public static LogBuffer provideBroadcastDispatcherLogBuffer(
             LogcatEchoTracker bufferFilter,
-            DumpManager dumpManager) {
-        LogBuffer buffer = new LogBuffer("BroadcastDispatcherLog", 500, 10, bufferFilter);
+            DumpManager dumpManager,
+            FeatureFlags featureFlags) {
+        LogBuffer buffer = new LogBuffer("BroadcastDispatcherLog", 500, 10, bufferFilter,
+                featureFlags.isLockFreeLogBufferEnabled());
         buffer.attach(dumpManager);
         return buffer;
     }
 
-    /** Allows logging buffers to be tweaked via adb on debug builds but not on prod builds. */
+    /**
+     * Mirrors {@code buffer} into a memory-mapped file so that its last {@code capacity} messages
+     * survive the process dying. The file is opened on the background thread since it touches the
+     * disk.
+     */
+    private static void persistIfEnabled(
+            LogBuffer buffer,
+            String name,
+            int capacity,
+            Context context,
+            FeatureFlags featureFlags,
+            Executor bgExecutor) {
+        if (!featureFlags.isPersistentLogBufferEnabled()) {
+            return;
+        }
+        bgExecutor.execute(() -> {
+            try {
+                buffer.persistTo(PersistentLogFile.open(
+                        PersistentLogFile.pathFor(context.getFilesDir(), name), capacity));
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to persist " + name, e);
+            }
+        });
+    }
+
+    /**
+     * Allows logging buffers to be tweaked via adb on debug builds but not on prod builds.
+     *
+     * If enabled, echoing is rate limited and done off the logging thread. The limits can be
+     * tweaked via adb:
+     *
+     * {@code
+     *  $ adb shell settings put global systemui/echo/max_per_second <messages per tag>
+     *  $ adb shell settings put global systemui/echo/sample_rate <echo 1 in N messages per tag>
+     * }
+     */
     @Provides
     @Singleton
     public static LogcatEchoTracker provideLogcatEchoTracker(
             ContentResolver contentResolver,
-            @Main Looper looper) {
+            @Main Looper looper,
+            FeatureFlags featureFlags,
+            DumpManager dumpManager,
+            SystemClock systemClock,
+            @Background Executor bgExecutor) {
+        LogcatEchoTracker tracker;
         if (Build.IS_DEBUGGABLE) {
-            return LogcatEchoTrackerDebug.create(contentResolver, looper);
+            tracker = LogcatEchoTrackerDebug.create(contentResolver, looper);
         } else {
-            return new LogcatEchoTrackerProd();
+            tracker = new LogcatEchoTrackerProd();
         }
+        if (!featureFlags.isRateLimitedLogcatEchoEnabled()) {
+            return tracker;
+        }
+
+        RateLimitedLogcatEchoTracker rateLimitedTracker = new RateLimitedLogcatEchoTracker(
+                tracker,
+                bgExecutor,
+                systemClock,
+                Settings.Global.getInt(contentResolver, ECHO_MAX_PER_SECOND_SETTING,
+                        DEFAULT_ECHO_MAX_PER_SECOND),
+                Math.max(1, Settings.Global.getInt(contentResolver, ECHO_SAMPLE_RATE_SETTING, 1)),
+                ECHO_QUEUE_SIZE);
+        dumpManager.registerDumpable("LogcatEcho", rateLimitedTracker);
+        return rateLimitedTracker;
     }
+
+    private static final String TAG = "LogModule";
+
+    private static final String ECHO_MAX_PER_SECOND_SETTING = "systemui/echo/max_per_second";
+    private static final String ECHO_SAMPLE_RATE_SETTING = "systemui/echo/sample_rate";
+    private static final int DEFAULT_ECHO_MAX_PER_SECOND = 20;
+    private static final int ECHO_QUEUE_SIZE = 256;
 }
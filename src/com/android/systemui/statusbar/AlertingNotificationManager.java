@@ -30,6 +30,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.systemui.statusbar.notification.collection.NotificationEntry;
 import com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.InflationFlag;
 
+import java.io.PrintWriter;
 import java.util.stream.Stream;
 
 /**
@@ -54,6 +55,7 @@ public abstract class AlertingNotificationManager implements NotificationLifetim
     protected int mAutoDismissNotificationDecay;
     @VisibleForTesting
     public Handler mHandler = new Handler(Looper.getMainLooper());
+    private final RemovalScheduler mRemovalScheduler = new RemovalScheduler();
 
     /**
      * Called when posting a new notification that should alert the user and appear on screen.
@@ -268,12 +270,21 @@ public abstract class AlertingNotificationManager implements NotificationLifetim
     }
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Prints how often alerts have been scheduled for removal, and how many messages that took on
+     * the main looper.
+     */
+    protected void dumpRemovalScheduler(@NonNull PrintWriter pw) {
+        mRemovalScheduler.dump(pw);
+    }
+
     protected class AlertEntry implements Comparable<AlertEntry> {
         @Nullable public NotificationEntry mEntry;
         public long mPostTime;
         public long mEarliestRemovaltime;
 
         @Nullable protected Runnable mRemoveAlertRunnable;
+        private long mRemovalTime = NOT_SCHEDULED;
 
         public void setEntry(@NonNull final NotificationEntry entry) {
             setEntry(entry, () -> removeAlertEntry(entry.getKey()));
@@ -307,7 +318,7 @@ public abstract class AlertingNotificationManager implements NotificationLifetim
             if (!isSticky()) {
                 long finishTime = calculateFinishTime();
                 long removeDelay = Math.max(finishTime - currentTime, mMinimumDisplayTime);
-                mHandler.postDelayed(mRemoveAlertRunnable, removeDelay);
+                mRemovalScheduler.schedule(this, currentTime + removeDelay);
             }
         }
 
@@ -345,9 +356,7 @@ public abstract class AlertingNotificationManager implements NotificationLifetim
          * Clear any pending removal runnables.
          */
         public void removeAutoRemovalCallbacks() {
-            if (mRemoveAlertRunnable != null) {
-                mHandler.removeCallbacks(mRemoveAlertRunnable);
-            }
+            mRemovalScheduler.cancel(this);
         }
 
         /**
@@ -356,8 +365,7 @@ public abstract class AlertingNotificationManager implements NotificationLifetim
         public void removeAsSoonAsPossible() {
             if (mRemoveAlertRunnable != null) {
                 removeAutoRemovalCallbacks();
-                mHandler.postDelayed(mRemoveAlertRunnable,
-                        mEarliestRemovaltime - mClock.currentTimeMillis());
+                mRemovalScheduler.schedule(this, mEarliestRemovaltime);
             }
         }
 
@@ -378,6 +386,121 @@ public abstract class AlertingNotificationManager implements NotificationLifetim
         }
     }
 
+    /**
+     * Keeps track of when every alert should be removed, with a single message on {@link #mHandler}
+     * for whichever alert is due first. Alerts are updated, touched and rescheduled a lot more
+     * often than they actually expire, and this way that only costs a message when the earliest
+     * removal time changes. When the message is handled, every alert that's due is removed in one
+     * go, in the order they were due.
+     */
+    private final class RemovalScheduler {
+        private final ArraySet<AlertEntry> mScheduled = new ArraySet<>();
+        private final Runnable mWakeUp = this::onWakeUp;
+        @Nullable private Handler mPostedHandler;
+        private long mPostedTime = NOT_SCHEDULED;
+        private boolean mDispatching;
+
+        private long mSchedules;
+        private long mCancels;
+        private long mPosts;
+        private long mWakeUps;
+        private long mRemovals;
+        private int mMaxScheduled;
+
+        /** Schedule the entry's remove runnable to run at the given {@link Clock} time. */
+        void schedule(@NonNull AlertEntry alertEntry, long removalTime) {
+            if (alertEntry.mRemoveAlertRunnable == null) {
+                return;
+            }
+            mSchedules++;
+            alertEntry.mRemovalTime = removalTime;
+            mScheduled.add(alertEntry);
+            mMaxScheduled = Math.max(mMaxScheduled, mScheduled.size());
+            updateWakeUp();
+        }
+
+        void cancel(@NonNull AlertEntry alertEntry) {
+            if (!mScheduled.remove(alertEntry)) {
+                return;
+            }
+            mCancels++;
+            alertEntry.mRemovalTime = NOT_SCHEDULED;
+            updateWakeUp();
+        }
+
+        private void onWakeUp() {
+            mWakeUps++;
+            mPostedHandler = null;
+            // The message may be handled a hair before the clock says the alert is due, so
+            // whatever it was posted for is removed regardless.
+            final long dueTime = Math.max(mPostedTime, mClock.currentTimeMillis());
+            mPostedTime = NOT_SCHEDULED;
+
+            mDispatching = true;
+            try {
+                // Removing an alert can cancel or reschedule others, so look for the next one
+                // that's due every time rather than collecting them upfront.
+                AlertEntry next = findEarliest();
+                while (next != null && next.mRemovalTime <= dueTime) {
+                    mScheduled.remove(next);
+                    next.mRemovalTime = NOT_SCHEDULED;
+                    mRemovals++;
+                    next.mRemoveAlertRunnable.run();
+                    next = findEarliest();
+                }
+            } finally {
+                mDispatching = false;
+            }
+            updateWakeUp();
+        }
+
+        /** Make sure the one pending message is posted for the earliest removal time. */
+        private void updateWakeUp() {
+            if (mDispatching) {
+                return;
+            }
+            final AlertEntry earliest = findEarliest();
+            final long wakeUpTime = earliest != null ? earliest.mRemovalTime : NOT_SCHEDULED;
+            if (wakeUpTime == mPostedTime && mPostedHandler == mHandler) {
+                return;
+            }
+            if (mPostedHandler != null) {
+                mPostedHandler.removeCallbacks(mWakeUp);
+                mPostedHandler = null;
+            }
+            mPostedTime = wakeUpTime;
+            if (earliest != null) {
+                mPosts++;
+                mPostedHandler = mHandler;
+                mPostedHandler.postDelayed(mWakeUp, wakeUpTime - mClock.currentTimeMillis());
+            }
+        }
+
+        @Nullable
+        private AlertEntry findEarliest() {
+            AlertEntry earliest = null;
+            for (int i = 0; i < mScheduled.size(); i++) {
+                final AlertEntry alertEntry = mScheduled.valueAt(i);
+                if (earliest == null || alertEntry.mRemovalTime < earliest.mRemovalTime) {
+                    earliest = alertEntry;
+                }
+            }
+            return earliest;
+        }
+
+        void dump(@NonNull PrintWriter pw) {
+            pw.print("  removal scheduler: scheduled="); pw.print(mScheduled.size());
+            pw.print(" maxScheduled="); pw.print(mMaxScheduled);
+            pw.print(" schedules="); pw.print(mSchedules);
+            pw.print(" cancels="); pw.print(mCancels);
+            pw.print(" posts="); pw.print(mPosts);
+            pw.print(" wakeUps="); pw.print(mWakeUps);
+            pw.print(" removals="); pw.println(mRemovals);
+        }
+    }
+
+    private static final long NOT_SCHEDULED = -1;
+
     protected final static class Clock {
         public long currentTimeMillis() {
             return SystemClock.elapsedRealtime();
@@ -64,6 +64,79 @@ public class FeatureFlags {
                 && getDeviceConfigFlag("notification.newpipeline.rendering", false);
     }
 
+    public boolean isNewNotifPipelineIncrementalBuildEnabled() {
+        return isNewNotifPipelineEnabled()
+                && getDeviceConfigFlag("notification.newpipeline.incrementalbuild", false);
+    }
+
+    public boolean isNewNotifPipelineSortKeysEnabled() {
+        return isNewNotifPipelineEnabled()
+                && getDeviceConfigFlag("notification.newpipeline.sortkeys", false);
+    }
+
+    public boolean isNewNotifPipelineAdaptiveLingerEnabled() {
+        return isNewNotifPipelineEnabled()
+                && getDeviceConfigFlag("notification.newpipeline.adaptivelinger", false);
+    }
+
+    public boolean isNewNotifPipelineRankingDiffEnabled() {
+        return isNewNotifPipelineEnabled()
+                && getDeviceConfigFlag("notification.newpipeline.rankingdiff", false);
+    }
+
+    public boolean isNewNotifPipelineShadowMonitorEnabled() {
+        return isNewNotifPipelineEnabled()
+                && getDeviceConfigFlag("notification.newpipeline.shadowmonitor", false);
+    }
+
+    public boolean isIncrementalRankingEnabled() {
+        return getDeviceConfigFlag("notification.incrementalranking", false);
+    }
+
+    public boolean isNotificationRowRecyclingEnabled() {
+        return getDeviceConfigFlag("notification.rowrecycling", false);
+    }
+
+    public boolean isNotificationViewportBindingEnabled() {
+        return getDeviceConfigFlag("notification.viewportbinding", false);
+    }
+
+    public boolean isNotificationInterruptionCacheEnabled() {
+        return getDeviceConfigFlag("notification.interruptioncache", false);
+    }
+
+    public boolean isNotificationVirtualizedChildrenEnabled() {
+        return getDeviceConfigFlag("notification.virtualizedchildren", false);
+    }
+
+    public boolean isNotificationIncrementalStackLayoutEnabled() {
+        return getDeviceConfigFlag("notification.incrementalstacklayout", false);
+    }
+
+    public boolean isNotificationAnimatorRecyclingEnabled() {
+        return getDeviceConfigFlag("notification.animatorrecycling", false);
+    }
+
+    public boolean isLockFreeLogBufferEnabled() {
+        return getDeviceConfigFlag("logbuffer.lockfree", false);
+    }
+
+    public boolean isPersistentLogBufferEnabled() {
+        return getDeviceConfigFlag("logbuffer.persistent", false);
+    }
+
+    public boolean isParallelDumpEnabled() {
+        return getDeviceConfigFlag("dump.parallel", false);
+    }
+
+    public boolean isStreamingProtoTraceEnabled() {
+        return getDeviceConfigFlag("tracing.streaming", false);
+    }
+
+    public boolean isRateLimitedLogcatEchoEnabled() {
+        return getDeviceConfigFlag("logbuffer.echoratelimit", false);
+    }
+
     private void onPropertiesChanged(@NonNull DeviceConfig.Properties properties) {
         synchronized (mCachedDeviceConfigFlags) {
             for (String key : properties.getKeyset()) {
@@ -17,6 +17,10 @@
 package com.android.systemui.statusbar;
 
 import static com.android.systemui.statusbar.RemoteInputController.processForRemoteInput;
+import static com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EVENT_INITIALIZED;
+import static com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EVENT_POSTED;
+import static com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EVENT_RANKING_UPDATE;
+import static com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EVENT_REMOVED;
 import static com.android.systemui.statusbar.notification.NotificationEntryManager.UNDEFINED_DISMISS_REASON;
 import static com.android.systemui.statusbar.phone.StatusBar.DEBUG;
 
@@ -33,10 +37,16 @@ import android.util.Log;
 
 import com.android.systemui.dagger.qualifiers.Main;
 import com.android.systemui.statusbar.dagger.StatusBarModule;
+import com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor;
+import com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EventType;
+import com.android.systemui.statusbar.phone.NotificationGroupManager;
 import com.android.systemui.statusbar.phone.NotificationListenerWithPlugins;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+
+import dagger.Lazy;
 
 /**
  * This class handles listening to notification updates and passing them along to
@@ -49,6 +59,8 @@ public class NotificationListener extends NotificationListenerWithPlugins {
     private final Context mContext;
     private final NotificationManager mNotificationManager;
     private final Handler mMainHandler;
+    private final NotifPipelineShadowMonitor mShadowMonitor;
+    private final Lazy<NotificationGroupManager> mGroupManager;
     private final List<NotificationHandler> mNotificationHandlers = new ArrayList<>();
     private final ArrayList<NotificationSettingsListener> mSettingsListeners = new ArrayList<>();
 
@@ -58,10 +70,14 @@ public class NotificationListener extends NotificationListenerWithPlugins {
     public NotificationListener(
             Context context,
             NotificationManager notificationManager,
-            @Main Handler mainHandler) {
+            @Main Handler mainHandler,
+            NotifPipelineShadowMonitor shadowMonitor,
+            Lazy<NotificationGroupManager> groupManager) {
         mContext = context;
         mNotificationManager = notificationManager;
         mMainHandler = mainHandler;
+        mShadowMonitor = shadowMonitor;
+        mGroupManager = groupManager;
     }
 
     /** Registers a listener that's notified when notifications are added/removed/etc. */
@@ -99,13 +115,31 @@ public class NotificationListener extends NotificationListenerWithPlugins {
             }
             final RankingMap completeMap = new RankingMap(newRankings.toArray(new Ranking[0]));
 
-            for (StatusBarNotification sbn : notifications) {
-                for (NotificationHandler listener : mNotificationHandlers) {
-                    listener.onNotificationPosted(sbn, completeMap);
+            // Every active notification is handed over at once, so only tell the group listeners
+            // about the result
+            final NotificationGroupManager groupManager = mGroupManager.get();
+            groupManager.beginBatchUpdate();
+            try {
+                for (StatusBarNotification sbn : notifications) {
+                    if (mShadowMonitor.isEnabled()) {
+                        dispatchMeasured(EVENT_POSTED,
+                                handler -> handler.onNotificationPosted(sbn, completeMap));
+                    } else {
+                        for (NotificationHandler handler : mNotificationHandlers) {
+                            handler.onNotificationPosted(sbn, completeMap);
+                        }
+                    }
                 }
+            } finally {
+                groupManager.endBatchUpdate();
             }
-            for (NotificationHandler listener : mNotificationHandlers) {
-                listener.onNotificationsInitialized();
+            if (mShadowMonitor.isEnabled()) {
+                dispatchMeasured(EVENT_INITIALIZED,
+                        NotificationHandler::onNotificationsInitialized);
+            } else {
+                for (NotificationHandler handler : mNotificationHandlers) {
+                    handler.onNotificationsInitialized();
+                }
             }
         });
         onSilentStatusBarIconsVisibilityChanged(
@@ -120,8 +154,13 @@ public class NotificationListener extends NotificationListenerWithPlugins {
             mMainHandler.post(() -> {
                 processForRemoteInput(sbn.getNotification(), mContext);
 
-                for (NotificationHandler handler : mNotificationHandlers) {
-                    handler.onNotificationPosted(sbn, rankingMap);
+                if (mShadowMonitor.isEnabled()) {
+                    dispatchMeasured(EVENT_POSTED,
+                            handler -> handler.onNotificationPosted(sbn, rankingMap));
+                } else {
+                    for (NotificationHandler handler : mNotificationHandlers) {
+                        handler.onNotificationPosted(sbn, rankingMap);
+                    }
                 }
             });
         }
@@ -133,8 +172,13 @@ public class NotificationListener extends NotificationListenerWithPlugins {
         if (DEBUG) Log.d(TAG, "onNotificationRemoved: " + sbn + " reason: " + reason);
         if (sbn != null && !onPluginNotificationRemoved(sbn, rankingMap)) {
             mMainHandler.post(() -> {
-                for (NotificationHandler handler : mNotificationHandlers) {
-                    handler.onNotificationRemoved(sbn, rankingMap, reason);
+                if (mShadowMonitor.isEnabled()) {
+                    dispatchMeasured(EVENT_REMOVED,
+                            handler -> handler.onNotificationRemoved(sbn, rankingMap, reason));
+                } else {
+                    for (NotificationHandler handler : mNotificationHandlers) {
+                        handler.onNotificationRemoved(sbn, rankingMap, reason);
+                    }
                 }
             });
         }
@@ -151,13 +195,34 @@ public class NotificationListener extends NotificationListenerWithPlugins {
         if (rankingMap != null) {
             RankingMap r = onPluginRankingUpdate(rankingMap);
             mMainHandler.post(() -> {
-                for (NotificationHandler handler : mNotificationHandlers) {
-                    handler.onNotificationRankingUpdate(r);
+                if (mShadowMonitor.isEnabled()) {
+                    dispatchMeasured(EVENT_RANKING_UPDATE,
+                            handler -> handler.onNotificationRankingUpdate(r));
+                } else {
+                    for (NotificationHandler handler : mNotificationHandlers) {
+                        handler.onNotificationRankingUpdate(r);
+                    }
                 }
             });
         }
     }
 
+    /**
+     * Hands an event to every handler, measuring each of them. Only used while the new pipeline is
+     * running in shadow mode; callers check that first so that the regular path doesn't allocate
+     * a lambda for every event.
+     */
+    private void dispatchMeasured(@EventType int event, Consumer<NotificationHandler> call) {
+        mShadowMonitor.onDispatchStarted();
+        for (NotificationHandler handler : mNotificationHandlers) {
+            final long startAllocatedBytes = mShadowMonitor.getAllocatedBytesIfSampling();
+            final long startNanos = mShadowMonitor.onHandlerStarted();
+            call.accept(handler);
+            mShadowMonitor.onHandlerFinished(handler, event, startNanos, startAllocatedBytes);
+        }
+        mShadowMonitor.onDispatchFinished();
+    }
+
     @Override
     public void onSilentStatusBarIconsVisibilityChanged(boolean hideSilentStatusIcons) {
         for (NotificationSettingsListener listener : mSettingsListeners) {
@@ -232,5 +297,10 @@ public class NotificationListener extends NotificationListenerWithPlugins {
          * Called after the listener has connected to NoMan and posted any current notifications.
          */
         void onNotificationsInitialized();
+
+        /** Name used to report the time spent in this handler. */
+        default String getName() {
+            return getClass().getName();
+        }
     }
 }
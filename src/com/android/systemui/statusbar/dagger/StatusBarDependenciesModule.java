@@ -37,6 +37,7 @@ import com.android.systemui.statusbar.NotificationViewHierarchyManager;
 import com.android.systemui.statusbar.SmartReplyController;
 import com.android.systemui.statusbar.notification.DynamicChildBindController;
 import com.android.systemui.statusbar.notification.DynamicPrivacyController;
+import com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor;
 import com.android.systemui.statusbar.notification.NotificationEntryManager;
 import com.android.systemui.statusbar.notification.VisualStabilityManager;
 import com.android.systemui.statusbar.notification.collection.inflation.LowPriorityInflationHelper;
@@ -121,9 +122,11 @@ public interface StatusBarDependenciesModule {
     static NotificationListener provideNotificationListener(
             Context context,
             NotificationManager notificationManager,
-            @Main Handler mainHandler) {
+            @Main Handler mainHandler,
+            NotifPipelineShadowMonitor shadowMonitor,
+            Lazy<NotificationGroupManager> groupManager) {
         return new NotificationListener(
-                context, notificationManager, mainHandler);
+                context, notificationManager, mainHandler, shadowMonitor, groupManager);
     }
 
     /** */
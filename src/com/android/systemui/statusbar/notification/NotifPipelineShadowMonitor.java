@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import android.annotation.IntDef;
+import android.annotation.MainThread;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import androidx.annotation.NonNull;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.Dumpable;
+import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.statusbar.NotificationListener.NotificationHandler;
+import com.android.systemui.statusbar.notification.collection.GroupEntry;
+import com.android.systemui.statusbar.notification.collection.ListEntry;
+import com.android.systemui.statusbar.notification.collection.NotifPipeline;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.statusbar.phone.NotificationGroupManager;
+import com.android.systemui.util.RuntimeStats;
+import com.android.systemui.util.concurrency.DelayableExecutor;
+import com.android.systemui.util.time.LatencyHistogram;
+import com.android.systemui.util.time.SystemClock;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import dagger.Lazy;
+
+/**
+ * Compares the legacy pipeline ({@link NotificationEntryManager}) with the new one
+ * ({@link NotifPipeline}) while the new pipeline runs in shadow mode, i.e. is enabled but isn't
+ * rendering anything.
+ *
+ * {@link com.android.systemui.statusbar.NotificationListener} reports how long every
+ * {@link NotificationHandler} took to process each event, so the cost of both pipelines is
+ * measured on the same real traffic. Allocations are sampled on a fraction of events; since the
+ * runtime only counts them for the whole process, allocations made by other threads at the same
+ * time are included. Once the events settle, the notifications each pipeline would show are
+ * compared, including their order and grouping, and any difference is recorded. Everything ends
+ * up in the dump.
+ *
+ * Note that work the new pipeline defers (e.g. group children held back by the
+ * {@link com.android.systemui.statusbar.notification.collection.coalescer.GroupCoalescer}) is not
+ * attributed to the event that caused it; see ShadeListBuilderTimings for per-build numbers.
+ */
+@MainThread
+@Singleton
+public class NotifPipelineShadowMonitor implements Dumpable {
+    private final FeatureFlags mFeatureFlags;
+    private final Lazy<NotificationEntryManager> mEntryManager;
+    private final Lazy<NotifPipeline> mNotifPipeline;
+    private final Lazy<NotificationGroupManager> mGroupManager;
+    private final SystemClock mClock;
+    private final DelayableExecutor mMainExecutor;
+
+    private final ArrayMap<NotificationHandler, HandlerStats[]> mHandlerStats = new ArrayMap<>();
+    private final ArrayDeque<String> mRecentDivergences = new ArrayDeque<>();
+    private long mEventCount;
+    private boolean mSamplingAllocations;
+    private Runnable mCancelPendingComparison;
+    private long mComparisonDeadline;
+
+    private int mComparisons;
+    private int mDivergentComparisons;
+    private long mKeysOnlyInLegacy;
+    private long mKeysOnlyInNew;
+    private int mOrderDivergences;
+
+    @Inject
+    public NotifPipelineShadowMonitor(
+            FeatureFlags featureFlags,
+            Lazy<NotificationEntryManager> entryManager,
+            Lazy<NotifPipeline> notifPipeline,
+            Lazy<NotificationGroupManager> groupManager,
+            SystemClock clock,
+            @Main DelayableExecutor mainExecutor,
+            DumpManager dumpManager) {
+        mFeatureFlags = featureFlags;
+        mEntryManager = entryManager;
+        mNotifPipeline = notifPipeline;
+        mGroupManager = groupManager;
+        mClock = clock;
+        mMainExecutor = mainExecutor;
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    /** Whether the new pipeline is running in shadow mode and should be measured. */
+    public boolean isEnabled() {
+        return mFeatureFlags.isNewNotifPipelineShadowMonitorEnabled()
+                && !mFeatureFlags.isNewNotifPipelineRenderingEnabled();
+    }
+
+    /** Called before an event is handed to the registered handlers. */
+    public void onDispatchStarted() {
+        mSamplingAllocations = mEventCount++ % ALLOCATION_SAMPLING_INTERVAL == 0;
+    }
+
+    /** Called right before a handler is given an event; returns a token for the call below. */
+    public long onHandlerStarted() {
+        return mClock.elapsedRealtimeNanos();
+    }
+
+    /** Called right after a handler has processed an event. */
+    public void onHandlerFinished(
+            @NonNull NotificationHandler handler,
+            @EventType int event,
+            long startNanos,
+            long startAllocatedBytes) {
+        final long duration = mClock.elapsedRealtimeNanos() - startNanos;
+        final HandlerStats stats = getStats(handler, event);
+        stats.mLatency.record(duration);
+        if (startAllocatedBytes >= 0) {
+            final long allocated = RuntimeStats.getAllocatedBytes();
+            if (allocated >= 0) {
+                stats.mAllocationSamples++;
+                stats.mAllocatedBytes += allocated - startAllocatedBytes;
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far if allocations are being sampled for the current event,
+     * -1 otherwise.
+     */
+    public long getAllocatedBytesIfSampling() {
+        return mSamplingAllocations ? RuntimeStats.getAllocatedBytes() : -1;
+    }
+
+    /**
+     * Called once every handler has been given an event. The output of the two pipelines is
+     * compared once no event has come in for a little while, or at the latest
+     * {@link #MAX_COMPARISON_DELAY_MS} after the first event that hasn't been compared yet, so
+     * that continuous traffic doesn't postpone the comparison forever.
+     */
+    public void onDispatchFinished() {
+        final long now = mClock.uptimeMillis();
+        if (mCancelPendingComparison != null) {
+            mCancelPendingComparison.run();
+        } else {
+            mComparisonDeadline = now + MAX_COMPARISON_DELAY_MS;
+        }
+        final long delay = Math.max(0, Math.min(COMPARISON_DELAY_MS, mComparisonDeadline - now));
+        mCancelPendingComparison = mMainExecutor.executeDelayed(this::compareOutputs, delay);
+    }
+
+    private HandlerStats getStats(NotificationHandler handler, @EventType int event) {
+        HandlerStats[] stats = mHandlerStats.get(handler);
+        if (stats == null) {
+            stats = new HandlerStats[EVENT_COUNT];
+            mHandlerStats.put(handler, stats);
+        }
+        if (stats[event] == null) {
+            stats[event] = new HandlerStats(handler.getName() + " " + eventToString(event));
+        }
+        return stats[event];
+    }
+
+    @VisibleForTesting
+    void compareOutputs() {
+        mCancelPendingComparison = null;
+        if (!isEnabled()) {
+            return;
+        }
+
+        final List<String> legacyLayout = getLegacyLayout();
+        final List<String> newLayout = getNewLayout();
+
+        mComparisons++;
+        final Set<String> legacyKeys = toKeys(legacyLayout);
+        final Set<String> newKeys = toKeys(newLayout);
+        final Set<String> onlyInLegacy = new ArraySet<>(legacyKeys);
+        onlyInLegacy.removeAll(newKeys);
+        final Set<String> onlyInNew = new ArraySet<>(newKeys);
+        onlyInNew.removeAll(legacyKeys);
+        final String divergence;
+        if (!onlyInLegacy.isEmpty() || !onlyInNew.isEmpty()) {
+            mKeysOnlyInLegacy += onlyInLegacy.size();
+            mKeysOnlyInNew += onlyInNew.size();
+            divergence = "legacy=" + legacyKeys.size() + " new=" + newKeys.size()
+                    + " onlyInLegacy=" + onlyInLegacy + " onlyInNew=" + onlyInNew;
+        } else if (!legacyLayout.equals(newLayout)) {
+            mOrderDivergences++;
+            final int size = Math.min(legacyLayout.size(), newLayout.size());
+            int index = 0;
+            while (index < size && legacyLayout.get(index).equals(newLayout.get(index))) {
+                index++;
+            }
+            divergence = "order or grouping differs at " + index
+                    + ": legacy=" + (index < legacyLayout.size() ? legacyLayout.get(index) : null)
+                    + " new=" + (index < newLayout.size() ? newLayout.get(index) : null);
+        } else {
+            return;
+        }
+
+        mDivergentComparisons++;
+        if (mRecentDivergences.size() >= MAX_RECENT_DIVERGENCES) {
+            mRecentDivergences.removeFirst();
+        }
+        mRecentDivergences.addLast(divergence);
+    }
+
+    /**
+     * Returns the keys the legacy pipeline shows, in order, with each group's children indented by
+     * {@link #CHILD_INDENT} right after its summary.
+     */
+    private List<String> getLegacyLayout() {
+        final NotificationGroupManager groupManager = mGroupManager.get();
+        final List<NotificationEntry> visible = mEntryManager.get().getVisibleNotifications();
+        final Set<String> visibleKeys = new ArraySet<>(visible.size());
+        for (NotificationEntry entry : visible) {
+            visibleKeys.add(entry.getKey());
+        }
+        final ArrayMap<String, List<String>> childrenBySummary = new ArrayMap<>();
+        final List<NotificationEntry> topLevel = new ArrayList<>(visible.size());
+        for (NotificationEntry entry : visible) {
+            final NotificationEntry summary =
+                    groupManager.isChildInGroupWithSummary(entry.getSbn())
+                            ? groupManager.getGroupSummary(entry.getSbn())
+                            : null;
+            if (summary == null || !visibleKeys.contains(summary.getKey())) {
+                topLevel.add(entry);
+                continue;
+            }
+            List<String> children = childrenBySummary.get(summary.getKey());
+            if (children == null) {
+                children = new ArrayList<>();
+                childrenBySummary.put(summary.getKey(), children);
+            }
+            children.add(CHILD_INDENT + entry.getKey());
+        }
+        final List<String> layout = new ArrayList<>(visible.size());
+        for (NotificationEntry entry : topLevel) {
+            layout.add(entry.getKey());
+            final List<String> children = childrenBySummary.get(entry.getKey());
+            if (children != null) {
+                layout.addAll(children);
+            }
+        }
+        return layout;
+    }
+
+    /** Same as {@link #getLegacyLayout()}, for the new pipeline. */
+    private List<String> getNewLayout() {
+        final List<String> layout = new ArrayList<>();
+        for (ListEntry listEntry : mNotifPipeline.get().getShadeList()) {
+            if (listEntry instanceof GroupEntry) {
+                final GroupEntry group = (GroupEntry) listEntry;
+                if (group.getSummary() != null) {
+                    layout.add(group.getSummary().getKey());
+                }
+                for (NotificationEntry child : group.getChildren()) {
+                    layout.add(CHILD_INDENT + child.getKey());
+                }
+            } else {
+                layout.add(listEntry.getKey());
+            }
+        }
+        return layout;
+    }
+
+    private static Set<String> toKeys(List<String> layout) {
+        final Set<String> keys = new ArraySet<>(layout.size());
+        for (String item : layout) {
+            keys.add(item.startsWith(CHILD_INDENT) ? item.substring(CHILD_INDENT.length()) : item);
+        }
+        return keys;
+    }
+
+    @VisibleForTesting
+    int getDivergentComparisonCount() {
+        return mDivergentComparisons;
+    }
+
+    @VisibleForTesting
+    long getSampleCount(NotificationHandler handler, @EventType int event) {
+        final HandlerStats[] stats = mHandlerStats.get(handler);
+        return stats == null || stats[event] == null ? 0 : stats[event].mLatency.getSampleCount();
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        pw.println("\t" + TAG + " enabled=" + isEnabled()
+                + " events=" + mEventCount
+                + " comparisons=" + mComparisons
+                + " divergent=" + mDivergentComparisons
+                + " keysOnlyInLegacy=" + mKeysOnlyInLegacy
+                + " keysOnlyInNew=" + mKeysOnlyInNew
+                + " orderDivergences=" + mOrderDivergences);
+        for (int i = 0; i < mHandlerStats.size(); i++) {
+            for (HandlerStats stats : mHandlerStats.valueAt(i)) {
+                if (stats == null) {
+                    continue;
+                }
+                stats.mLatency.dump(pw, "\t\t");
+                if (stats.mAllocationSamples > 0) {
+                    pw.println("\t\t  processAllocatedPerEvent~="
+                            + (stats.mAllocatedBytes / stats.mAllocationSamples) + " bytes"
+                            + " (" + stats.mAllocationSamples + " samples, all threads)");
+                }
+            }
+        }
+        if (!mRecentDivergences.isEmpty()) {
+            pw.println("\t\tRecent divergences:");
+            for (String divergence : mRecentDivergences) {
+                pw.println("\t\t  " + divergence);
+            }
+        }
+    }
+
+    static String eventToString(@EventType int event) {
+        switch (event) {
+            case EVENT_POSTED:
+                return "posted";
+            case EVENT_REMOVED:
+                return "removed";
+            case EVENT_RANKING_UPDATE:
+                return "rankingUpdate";
+            case EVENT_INITIALIZED:
+                return "initialized";
+            default:
+                return "unknown(" + event + ")";
+        }
+    }
+
+    private static class HandlerStats {
+        final LatencyHistogram mLatency;
+        int mAllocationSamples;
+        long mAllocatedBytes;
+
+        HandlerStats(String name) {
+            mLatency = new LatencyHistogram(name);
+        }
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(prefix = { "EVENT_" }, value = {
+            EVENT_POSTED,
+            EVENT_REMOVED,
+            EVENT_RANKING_UPDATE,
+            EVENT_INITIALIZED,
+    })
+    public @interface EventType {}
+
+    public static final int EVENT_POSTED = 0;
+    public static final int EVENT_REMOVED = 1;
+    public static final int EVENT_RANKING_UPDATE = 2;
+    public static final int EVENT_INITIALIZED = 3;
+
+    private static final int EVENT_COUNT = 4;
+
+    /** Longer than the maximum time the GroupCoalescer holds on to an event. */
+    private static final long COMPARISON_DELAY_MS = 1000;
+
+    /** Longest a comparison can be postponed by events that keep coming in. */
+    private static final long MAX_COMPARISON_DELAY_MS = 5000;
+
+    private static final int ALLOCATION_SAMPLING_INTERVAL = 8;
+    private static final int MAX_RECENT_DIVERGENCES = 5;
+    private static final String CHILD_INDENT = "  ";
+
+    private static final String TAG = "NotifPipelineShadowMonitor";
+}
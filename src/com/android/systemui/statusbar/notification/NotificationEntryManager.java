@@ -394,6 +394,11 @@ public class NotificationEntryManager implements
         @Override
         public void onNotificationsInitialized() {
         }
+
+        @Override
+        public String getName() {
+            return TAG;
+        }
     };
 
     /**
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_EXPANDED;
+
+import android.annotation.MainThread;
+import android.content.res.Resources;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.Dumpable;
+import com.android.systemui.R;
+import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.statusbar.notification.row.ExpandableNotificationRow;
+import com.android.systemui.statusbar.notification.row.RowContentBindParams;
+import com.android.systemui.statusbar.notification.row.RowContentBindStage;
+import com.android.systemui.statusbar.notification.stack.ExpandableViewState;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Controller that binds/unbinds the expanded content view of top-level notifications depending on
+ * how far they are from the part of the shade that's currently scrolled into view.
+ *
+ * Rows within the prefetch window around the viewport keep both their contracted and expanded
+ * views bound. Rows further away only keep their contracted view (which is all they need to be
+ * measured and laid out), so that updating or reinflating them doesn't pay for an expanded view
+ * that can't be seen. The expanded view is bound again as the row gets scrolled towards the
+ * viewport. Freeing the expanded view doesn't change whether the row is expandable, and content
+ * updates keep that state current even while the expanded view isn't bound.
+ *
+ * This is the scroll-driven counterpart of {@link DynamicChildBindController}, which does the same
+ * for children of groups.
+ */
+@MainThread
+@Singleton
+public class ViewportBindController implements Dumpable {
+    private final RowContentBindStage mStage;
+    private final boolean mEnabled;
+    private final float mPrefetchScreens;
+
+    private int mBoundCount;
+    private int mDeferredCount;
+    private long mBindRequests;
+    private long mDeferRequests;
+
+    @Inject
+    public ViewportBindController(
+            RowContentBindStage stage,
+            FeatureFlags featureFlags,
+            @Main Resources resources,
+            DumpManager dumpManager) {
+        this(stage, featureFlags,
+                resources.getInteger(R.integer.config_notification_bind_prefetch_percent) / 100f);
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    /**
+     * @param prefetchScreens how far, in multiples of the viewport height, above and below the
+     *                        viewport rows keep their expanded view bound
+     */
+    @VisibleForTesting
+    ViewportBindController(
+            RowContentBindStage stage,
+            FeatureFlags featureFlags,
+            float prefetchScreens) {
+        mStage = stage;
+        // Read once, since this is checked on every layout of the stack
+        mEnabled = featureFlags.isNotificationViewportBindingEnabled();
+        mPrefetchScreens = prefetchScreens;
+    }
+
+    /**
+     * Update the content views of the top-level rows of the stack, based on the view states that
+     * have just been computed for them.
+     *
+     * @param stack the container of the top-level rows, whose children's view states are
+     *              relative to the top of the viewport
+     * @param viewportHeight the height of the part of the stack that's visible
+     */
+    public void updateContentViews(ViewGroup stack, int viewportHeight) {
+        if (!mEnabled) {
+            return;
+        }
+
+        // Rows are freed a bit further away than they are bound, so that a row sitting right at
+        // the edge of the window doesn't get bound and freed over and over as the user scrolls.
+        final float bindDistance = viewportHeight * mPrefetchScreens;
+        final float freeDistance = bindDistance + viewportHeight * HYSTERESIS_SCREENS;
+
+        int bound = 0;
+        int deferred = 0;
+        final int childCount = stack.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            final View child = stack.getChildAt(i);
+            if (!(child instanceof ExpandableNotificationRow)) {
+                continue;
+            }
+            final ExpandableNotificationRow row = (ExpandableNotificationRow) child;
+            final ExpandableViewState viewState = row.getViewState();
+            if (row.isRemoved() || viewState == null) {
+                continue;
+            }
+            final NotificationEntry entry = row.getEntry();
+            final RowContentBindParams params = mStage.getStageParams(entry);
+            final boolean isBound = (params.getContentViews() & FLAG_CONTENT_VIEW_EXPANDED) != 0;
+
+            final boolean canDefer = canDeferExpandedView(row);
+            final float distance = distanceFromViewport(viewState, viewportHeight);
+            if (isBound && canDefer && distance > freeDistance) {
+                params.markContentViewsFreeable(FLAG_CONTENT_VIEW_EXPANDED);
+                mStage.requestRebind(entry, null);
+                mDeferRequests++;
+                deferred++;
+            } else if (!isBound && (!canDefer || distance <= bindDistance)) {
+                params.requireContentViews(FLAG_CONTENT_VIEW_EXPANDED);
+                mStage.requestRebind(entry, null);
+                mBindRequests++;
+                bound++;
+            } else if (isBound) {
+                bound++;
+            } else {
+                deferred++;
+            }
+        }
+        mBoundCount = bound;
+        mDeferredCount = deferred;
+    }
+
+    /**
+     * Rows that could be expanded (or shown expanded) without first being scrolled into view need
+     * their expanded view at all times.
+     */
+    private static boolean canDeferExpandedView(ExpandableNotificationRow row) {
+        return !row.isSummaryWithChildren()
+                && !row.isExpanded()
+                && !row.isUserLocked()
+                && !row.isHeadsUp()
+                && !row.isPinned()
+                && !row.isHeadsUpAnimatingAway();
+    }
+
+    private static float distanceFromViewport(ExpandableViewState viewState, int viewportHeight) {
+        final float top = viewState.yTranslation;
+        final float bottom = top + viewState.height;
+        if (top > viewportHeight) {
+            return top - viewportHeight;
+        } else if (bottom < 0) {
+            return -bottom;
+        }
+        return 0;
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        pw.println("\t" + TAG + " prefetchScreens=" + mPrefetchScreens
+                + " bound=" + mBoundCount
+                + " deferred=" + mDeferredCount
+                + " bindRequests=" + mBindRequests
+                + " deferRequests=" + mDeferRequests);
+    }
+
+    private static final float HYSTERESIS_SCREENS = 0.5f;
+
+    private static final String TAG = "ViewportBindController";
+}
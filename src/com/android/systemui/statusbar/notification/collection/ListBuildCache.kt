@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection
+
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifFilter
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifPromoter
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifSection
+
+/**
+ * Stores the pluggable results that [ShadeListBuilder] computed for a [ListEntry] so that they can
+ * be reused by incremental builds. A cached result is only valid while the entry is not dirty and
+ * its generation matches the builder's current pluggable generation.
+ */
+class ListBuildCache {
+    /**
+     * True if the entry has changed (or was just created) since the end of the last build. Dirty
+     * entries always have their pluggables re-evaluated.
+     */
+    var isDirty: Boolean = true
+
+    var preGroupFilterGeneration: Int = -1
+    var preGroupFilter: NotifFilter? = null
+
+    var promoterGeneration: Int = -1
+    var promoter: NotifPromoter? = null
+
+    var sectionGeneration: Int = -1
+    var section: NotifSection? = null
+    var sectionIndex: Int = -1
+
+    /** Precomputed section and comparator ordinals; see ShadeListBuilder#computeSortKeys. */
+    var sortKey: Long = 0
+    var sortRank: Int = 0
+
+    /** Scratch marker used while restoring the previous sort order. */
+    var pendingSortIteration: Int = -1
+}
@@ -32,6 +32,7 @@ public abstract class ListEntry {
 
     private final ListAttachState mPreviousAttachState = ListAttachState.create();
     private final ListAttachState mAttachState = ListAttachState.create();
+    private final ListBuildCache mBuildCache = new ListBuildCache();
 
     ListEntry(String key) {
         mKey = key;
@@ -78,6 +79,18 @@ public abstract class ListEntry {
         return mPreviousAttachState;
     }
 
+    ListBuildCache getBuildCache() {
+        return mBuildCache;
+    }
+
+    /**
+     * Flags this entry as changed so that the next incremental build of {@link ShadeListBuilder}
+     * re-evaluates its pluggables instead of reusing cached results.
+     */
+    void markDirty() {
+        mBuildCache.setDirty(true);
+    }
+
     /**
      * Stores the current attach state into {@link #getPreviousAttachState()}} and then starts a
      * fresh attach state (all entries will be null/default-initialized).
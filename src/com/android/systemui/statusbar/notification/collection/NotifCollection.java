@@ -146,6 +146,10 @@ public class NotifCollection implements Dumpable {
     private boolean mAmDispatchingToOtherCode;
     private long mInitializedTimestamp = 0;
 
+    private int mRankingUpdatesReceived = 0;
+    private int mRankingUpdateBuildsTriggered = 0;
+    private int mRankingsChanged = 0;
+
     @Inject
     public NotifCollection(
             IStatusBarService statusBarService,
@@ -396,8 +400,17 @@ public class NotifCollection implements Dumpable {
     private void onNotificationRankingUpdate(RankingMap rankingMap) {
         Assert.isMainThread();
         mEventQueue.add(new RankingUpdatedEvent(rankingMap));
-        applyRanking(rankingMap);
-        dispatchEventsAndRebuildList();
+        mRankingUpdatesReceived++;
+        final int changedCount = applyRanking(rankingMap);
+        mLogger.logRankingUpdateApplied(changedCount, mNotificationSet.size());
+        if (changedCount == 0 && mFeatureFlags.isNewNotifPipelineRankingDiffEnabled()) {
+            // Nothing that the list builder could observe has changed, so there's no need to
+            // rebuild the list; listeners still need to hear about the update, though.
+            dispatchEvents();
+        } else {
+            mRankingUpdateBuildsTriggered++;
+            dispatchEventsAndRebuildList();
+        }
     }
 
     private void onNotificationsInitialized() {
@@ -478,7 +491,15 @@ public class NotifCollection implements Dumpable {
         }
     }
 
-    private void applyRanking(@NonNull RankingMap rankingMap) {
+    /**
+     * Applies the rankings in the map to every entry.
+     *
+     * @return The number of entries whose ranking changed. If ranking diffing is disabled, every
+     * entry counts as changed.
+     */
+    private int applyRanking(@NonNull RankingMap rankingMap) {
+        final boolean diffEnabled = mFeatureFlags.isNewNotifPipelineRankingDiffEnabled();
+        int changedCount = 0;
         for (NotificationEntry entry : mNotificationSet.values()) {
             if (!isCanceled(entry)) {
 
@@ -487,7 +508,11 @@ public class NotifCollection implements Dumpable {
                 //  that means this might occur when SystemUI is starting up.
                 Ranking ranking = new Ranking();
                 if (rankingMap.getRanking(entry.getKey(), ranking)) {
-                    entry.setRanking(ranking);
+                    // Always store the new ranking object, but only dirty the entry (and thus
+                    // drop its cached build results) if the diff says something changed.
+                    boolean changed = !diffEnabled
+                            || RankingDiff.hasChanged(entry.getRanking(), ranking);
+                    entry.setRanking(ranking, changed);
 
                     // TODO: (b/145659174) update the sbn's overrideGroupKey in
                     //  NotificationEntry.setRanking instead of here once we fully migrate to the
@@ -497,26 +522,37 @@ public class NotifCollection implements Dumpable {
                         if (!Objects.equals(entry.getSbn().getOverrideGroupKey(),
                                 newOverrideGroupKey)) {
                             entry.getSbn().setOverrideGroupKey(newOverrideGroupKey);
+                            entry.markDirty();
+                            changed = true;
                         }
                     }
+                    if (changed) {
+                        changedCount++;
+                    }
                 } else {
                     mLogger.logRankingMissing(entry.getKey(), rankingMap);
                 }
             }
         }
         mEventQueue.add(new RankingAppliedEvent());
+        mRankingsChanged += changedCount;
+        return changedCount;
     }
 
     private void dispatchEventsAndRebuildList() {
+        dispatchEvents();
+
+        if (mBuildListener != null) {
+            mBuildListener.onBuildList(mReadOnlyNotificationSet);
+        }
+    }
+
+    private void dispatchEvents() {
         mAmDispatchingToOtherCode = true;
         while (!mEventQueue.isEmpty()) {
             mEventQueue.remove().dispatchTo(mNotifCollectionListeners);
         }
         mAmDispatchingToOtherCode = false;
-
-        if (mBuildListener != null) {
-            mBuildListener.onBuildList(mReadOnlyNotificationSet);
-        }
     }
 
     private void onEndLifetimeExtension(NotifLifetimeExtender extender, NotificationEntry entry) {
@@ -741,6 +777,11 @@ public class NotifCollection implements Dumpable {
                         entries,
                         true,
                         "\t\t"));
+
+        pw.println("\t" + TAG + " ranking updates:");
+        pw.println("\t\t received=" + mRankingUpdatesReceived
+                + " buildsTriggered=" + mRankingUpdateBuildsTriggered
+                + " entriesChanged=" + mRankingsChanged);
     }
 
     private final BatchableNotificationHandler mNotifHandler = new BatchableNotificationHandler() {
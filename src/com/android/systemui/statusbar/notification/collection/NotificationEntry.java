@@ -243,6 +243,7 @@ public final class NotificationEntry extends ListEntry {
 
         mSbn = sbn;
         mBubbleMetadata = mSbn.getNotification().getBubbleMetadata();
+        markDirty();
     }
 
     /**
@@ -274,6 +275,15 @@ public final class NotificationEntry extends ListEntry {
      * TODO: Make this package-private
      */
     public void setRanking(@NonNull Ranking ranking) {
+        setRanking(ranking, true /* markDirty */);
+    }
+
+    /**
+     * Like {@link #setRanking(Ranking)}, but lets {@link NotifCollection} store a ranking that
+     * {@link RankingDiff} considers unchanged without invalidating the entry's {@link
+     * ListBuildCache}.
+     */
+    void setRanking(@NonNull Ranking ranking, boolean markDirty) {
         requireNonNull(ranking);
         requireNonNull(ranking.getKey());
 
@@ -283,6 +293,9 @@ public final class NotificationEntry extends ListEntry {
         }
 
         mRanking = ranking;
+        if (markDirty) {
+            markDirty();
+        }
     }
 
     /*
@@ -299,6 +312,7 @@ public final class NotificationEntry extends ListEntry {
 
     void setDismissState(@NonNull DismissState dismissState) {
         mDismissState = requireNonNull(dismissState);
+        markDirty();
     }
 
     @Nullable public NotifFilter getExcludingFilter() {
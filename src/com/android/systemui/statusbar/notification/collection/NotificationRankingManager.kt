@@ -21,12 +21,14 @@ import android.app.NotificationManager.IMPORTANCE_MIN
 import android.service.notification.NotificationListenerService.Ranking
 import android.service.notification.NotificationListenerService.RankingMap
 import android.service.notification.StatusBarNotification
+import com.android.systemui.statusbar.FeatureFlags
 import com.android.systemui.statusbar.NotificationMediaManager
 import com.android.systemui.statusbar.notification.NotificationEntryManagerLogger
 import com.android.systemui.statusbar.notification.NotificationFilter
 import com.android.systemui.statusbar.notification.NotificationSectionsFeatureManager
 import com.android.systemui.statusbar.notification.collection.provider.HighPriorityProvider
 import com.android.systemui.statusbar.notification.people.PeopleNotificationIdentifier
+import com.android.systemui.statusbar.notification.people.PeopleNotificationIdentifier.Companion.PeopleNotificationType
 import com.android.systemui.statusbar.notification.people.PeopleNotificationIdentifier.Companion.TYPE_NON_PERSON
 import com.android.systemui.statusbar.notification.stack.BUCKET_ALERTING
 import com.android.systemui.statusbar.notification.stack.BUCKET_FOREGROUND_SERVICE
@@ -58,7 +60,8 @@ open class NotificationRankingManager @Inject constructor(
     private val logger: NotificationEntryManagerLogger,
     private val sectionsFeatureManager: NotificationSectionsFeatureManager,
     private val peopleNotificationIdentifier: PeopleNotificationIdentifier,
-    private val highPriorityProvider: HighPriorityProvider
+    private val highPriorityProvider: HighPriorityProvider,
+    private val featureFlags: FeatureFlags
 ) {
 
     var rankingMap: RankingMap? = null
@@ -105,7 +108,39 @@ open class NotificationRankingManager @Inject constructor(
             aIsHighPriority != bIsHighPriority ->
                 -1 * aIsHighPriority.compareTo(bIsHighPriority)
             aRank != bRank -> aRank - bRank
-            else -> nb.notification.`when`.compareTo(na.notification.`when`)
+            nb.notification.`when` != na.notification.`when` ->
+                nb.notification.`when`.compareTo(na.notification.`when`)
+            // Break ties the same way as the incremental sort, which needs a total order
+            else -> a.key.compareTo(b.key)
+        }
+    }
+
+    /**
+     * Derived attributes of every entry seen by the last [updateRanking], used by incremental
+     * ranking. Replaced wholesale on every update so that removed entries don't linger.
+     */
+    private var attributeCache = HashMap<NotificationEntry, RankingAttributes>()
+    private var previousOrder: List<NotificationEntry> = emptyList()
+    private var previousUsePeopleFiltering = false
+
+    /** Same order as [rankingComparator], but reads the attributes cached for this update. */
+    private val cachedRankingComparator: Comparator<NotificationEntry> = Comparator { a, b ->
+        val aAttrs = attributeCache.getValue(a)
+        val bAttrs = attributeCache.getValue(b)
+        when {
+            aAttrs.isHeadsUp != bAttrs.isHeadsUp -> if (aAttrs.isHeadsUp) -1 else 1
+            aAttrs.isHeadsUp -> headsUpManager.compare(a, b)
+            aAttrs.isFsn != bAttrs.isFsn -> if (aAttrs.isFsn) -1 else 1
+            usePeopleFiltering && aAttrs.peopleType != bAttrs.peopleType ->
+                peopleNotificationIdentifier.compareTo(aAttrs.peopleType, bAttrs.peopleType)
+            aAttrs.isMedia != bAttrs.isMedia -> if (aAttrs.isMedia) -1 else 1
+            aAttrs.isSystemMax != bAttrs.isSystemMax -> if (aAttrs.isSystemMax) -1 else 1
+            aAttrs.isHighPriority != bAttrs.isHighPriority ->
+                -1 * aAttrs.isHighPriority.compareTo(bAttrs.isHighPriority)
+            aAttrs.rank != bAttrs.rank -> aAttrs.rank - bAttrs.rank
+            aAttrs.`when` != bAttrs.`when` -> bAttrs.`when`.compareTo(aAttrs.`when`)
+            // Binary insertion needs a total order
+            else -> a.key.compareTo(b.key)
         }
     }
 
@@ -131,6 +166,11 @@ open class NotificationRankingManager @Inject constructor(
         reason: String
     ): List<NotificationEntry> {
         logger.logFilterAndSort(reason)
+        if (featureFlags.isIncrementalRankingEnabled()) {
+            return filterAndSortIncrementallyLocked(entries)
+        }
+        attributeCache.clear()
+        previousOrder = emptyList()
         val filtered = entries.asSequence()
                 .filterNot(this::filter)
                 .sortedWith(rankingComparator)
@@ -139,6 +179,74 @@ open class NotificationRankingManager @Inject constructor(
         return filtered
     }
 
+    /**
+     * Produces the same order as [filterAndSortLocked], but only computes the attributes of entries
+     * whose ranking, notification, heads up or media state changed since the last update, and only
+     * moves those entries: the others keep their previous relative order, and changed entries are
+     * binary-inserted among them. Falls back to a full sort when too much changed.
+     */
+    private fun filterAndSortIncrementallyLocked(
+        entries: Collection<NotificationEntry>
+    ): List<NotificationEntry> {
+        val mediaKey = mediaManager.mediaNotificationKey
+        val peopleFilteringChanged = usePeopleFiltering != previousUsePeopleFiltering
+        previousUsePeopleFiltering = usePeopleFiltering
+        val oldCache = attributeCache
+        val newCache = HashMap<NotificationEntry, RankingAttributes>(entries.size)
+        val moved = HashSet<NotificationEntry>()
+        for (entry in entries) {
+            val old = oldCache[entry]
+            val attrs = if (old != null && old.isValidFor(entry, mediaKey, usePeopleFiltering)) {
+                old
+            } else {
+                computeAttributes(entry, mediaKey)
+            }
+            newCache[entry] = attrs
+            entry.bucket = attrs.bucket
+            // Heads up entries are ordered by the HeadsUpManager, which can change at any time
+            if (old == null || attrs.isHeadsUp || !attrs.sortsLike(old)) {
+                moved.add(entry)
+            }
+        }
+        attributeCache = newCache
+
+        val filtered = entries.filterNot(this::filter)
+        if (peopleFilteringChanged || previousOrder.isEmpty() ||
+                moved.size > filtered.size * MAX_INCREMENTAL_FRACTION) {
+            previousOrder = filtered.sortedWith(cachedRankingComparator)
+            return previousOrder
+        }
+
+        val filteredSet = filtered.toHashSet()
+        val result = ArrayList<NotificationEntry>(filtered.size)
+        previousOrder.filterTo(result) { it in filteredSet && it !in moved }
+        val kept = result.toHashSet()
+        for (entry in filtered) {
+            if (entry in kept) {
+                continue
+            }
+            val index = result.binarySearch(entry, cachedRankingComparator)
+            result.add(if (index < 0) -index - 1 else index, entry)
+        }
+        previousOrder = result
+        return result
+    }
+
+    private fun computeAttributes(entry: NotificationEntry, mediaKey: String?) =
+        RankingAttributes(
+            ranking = entry.ranking,
+            sbn = entry.sbn,
+            mediaKey = mediaKey,
+            isHeadsUp = entry.isRowHeadsUp,
+            isFsn = entry.isColorizedForegroundService(),
+            peopleType = entry.getPeopleNotificationType(),
+            isMedia = entry.isImportantMedia(),
+            isSystemMax = entry.isSystemMax(),
+            isHighPriority = entry.isHighPriority(),
+            usePeopleFiltering = usePeopleFiltering,
+            bucket = getBucketForEntry(entry)
+        )
+
     private fun filter(entry: NotificationEntry): Boolean {
         val filtered = notifFilter.shouldFilterOut(entry)
         if (filtered) {
@@ -169,6 +277,8 @@ open class NotificationRankingManager @Inject constructor(
                     if (!rankingMap.getRanking(entry.key, newRanking)) {
                         continue
                     }
+                    // Always take the new ranking: even an "unchanged" one may carry new smart
+                    // replies, actions or shortcuts
                     entry.ranking = newRanking
 
                     val newOverrideGroupKey = newRanking.overrideGroupKey
@@ -197,6 +307,57 @@ open class NotificationRankingManager @Inject constructor(
             highPriorityProvider.isHighPriority(this)
 }
 
+/** Fraction of the list that may move before incremental ranking does a full sort instead. */
+private const val MAX_INCREMENTAL_FRACTION = 0.25f
+
+/** Everything [NotificationRankingManager] sorts and buckets an entry by. */
+private class RankingAttributes(
+    val ranking: Ranking,
+    val sbn: StatusBarNotification,
+    val mediaKey: String?,
+    val isHeadsUp: Boolean,
+    val isFsn: Boolean,
+    @PeopleNotificationType val peopleType: Int,
+    val isMedia: Boolean,
+    val isSystemMax: Boolean,
+    val isHighPriority: Boolean,
+    val usePeopleFiltering: Boolean,
+    @PriorityBucket val bucket: Int
+) {
+    val rank = ranking.rank
+    val `when` = sbn.notification.`when`
+
+    /**
+     * Whether these attributes still describe the entry. Group summaries are always recomputed
+     * since their people type and priority also depend on their children.
+     *
+     * Rankings are compared with [Ranking.equals], which covers every field that sorting and
+     * bucketing read, so an equivalent ranking from a new update doesn't invalidate the entry.
+     */
+    fun isValidFor(
+        entry: NotificationEntry,
+        currentMediaKey: String?,
+        currentUsePeopleFiltering: Boolean
+    ) =
+        (ranking === entry.ranking || ranking == entry.ranking) &&
+                usePeopleFiltering == currentUsePeopleFiltering &&
+                sbn === entry.sbn &&
+                isHeadsUp == entry.isRowHeadsUp &&
+                Objects.equals(mediaKey, currentMediaKey) &&
+                !sbn.notification.isGroupSummary
+
+    /** Whether an entry with these attributes sorts exactly like one with [other]'s. */
+    fun sortsLike(other: RankingAttributes) =
+        isHeadsUp == other.isHeadsUp &&
+                isFsn == other.isFsn &&
+                peopleType == other.peopleType &&
+                isMedia == other.isMedia &&
+                isSystemMax == other.isSystemMax &&
+                isHighPriority == other.isHighPriority &&
+                rank == other.rank &&
+                `when` == other.`when`
+}
+
 // Convenience functions
 private fun NotificationEntry.isSystemMax() =
         importance >= IMPORTANCE_HIGH && sbn.isSystemNotification()
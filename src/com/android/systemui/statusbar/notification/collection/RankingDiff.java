@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection;
+
+import android.app.Notification;
+import android.content.pm.ShortcutInfo;
+import android.service.notification.NotificationListenerService.Ranking;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compares {@link Ranking}s for the purpose of skipping work when a ranking update doesn't change
+ * anything.
+ *
+ * {@link Ranking#equals} can't be used on its own for this: it only compares smart actions and
+ * smart replies by count and shortcuts by id, so an update that changes the text of a smart reply,
+ * the intent of an action or the contents of a shortcut would look unchanged.
+ */
+public final class RankingDiff {
+
+    private RankingDiff() {
+    }
+
+    /** Whether anything about {@code newRanking} differs from {@code oldRanking}. */
+    public static boolean hasChanged(@Nullable Ranking oldRanking, @NonNull Ranking newRanking) {
+        if (oldRanking == newRanking) {
+            return false;
+        }
+        return oldRanking == null
+                || !oldRanking.equals(newRanking)
+                || !smartRepliesEqual(oldRanking.getSmartReplies(), newRanking.getSmartReplies())
+                || !smartActionsEqual(oldRanking.getSmartActions(), newRanking.getSmartActions())
+                || !shortcutsEqual(oldRanking.getShortcutInfo(), newRanking.getShortcutInfo());
+    }
+
+    private static boolean smartRepliesEqual(
+            @Nullable List<CharSequence> a, @Nullable List<CharSequence> b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!TextUtils.equals(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean smartActionsEqual(
+            @Nullable List<Notification.Action> a, @Nullable List<Notification.Action> b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            Notification.Action actionA = a.get(i);
+            Notification.Action actionB = b.get(i);
+            if (actionA == actionB) {
+                continue;
+            }
+            if (actionA == null || actionB == null
+                    || !TextUtils.equals(actionA.title, actionB.title)
+                    || !Objects.equals(actionA.actionIntent, actionB.actionIntent)
+                    || actionA.getSemanticAction() != actionB.getSemanticAction()
+                    || actionA.isContextual() != actionB.isContextual()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean shortcutsEqual(@Nullable ShortcutInfo a, @Nullable ShortcutInfo b) {
+        if (a == b) {
+            return true;
+        }
+        return a != null && b != null
+                && Objects.equals(a.getId(), b.getId())
+                && Objects.equals(a.getPackage(), b.getPackage())
+                && a.getUserId() == b.getUserId()
+                && a.getLastChangedTimestamp() == b.getLastChangedTimestamp()
+                && TextUtils.equals(a.getShortLabel(), b.getShortLabel())
+                && TextUtils.equals(a.getLongLabel(), b.getLongLabel());
+    }
+}
@@ -43,10 +43,12 @@ import com.android.systemui.statusbar.notification.collection.listbuilder.OnBefo
 import com.android.systemui.statusbar.notification.collection.listbuilder.OnBeforeTransformGroupsListener;
 import com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState;
 import com.android.systemui.statusbar.notification.collection.listbuilder.ShadeListBuilderLogger;
+import com.android.systemui.statusbar.notification.collection.listbuilder.ShadeListBuilderTimings;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifComparator;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifFilter;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifPromoter;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifSection;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.SortOrdinalProvider;
 import com.android.systemui.statusbar.notification.collection.notifcollection.CollectionReadyForBuildListener;
 import com.android.systemui.util.Assert;
 import com.android.systemui.util.time.SystemClock;
@@ -74,6 +76,7 @@ import javax.inject.Singleton;
 public class ShadeListBuilder implements Dumpable {
     private final SystemClock mSystemClock;
     private final ShadeListBuilderLogger mLogger;
+    private final ShadeListBuilderTimings mTimings;
     private final NotificationInteractionTracker mInteractionTracker;
 
     private List<ListEntry> mNotifList = new ArrayList<>();
@@ -84,6 +87,15 @@ public class ShadeListBuilder implements Dumpable {
     private Collection<NotificationEntry> mAllEntries = Collections.emptyList();
     private int mIterationCount = 0;
 
+    private boolean mIncrementalBuildEnabled = false;
+    private int mPluggableGeneration = 0;
+    private final List<ListEntry> mPreviousSortedList = new ArrayList<>();
+    private int mBuildCacheHits = 0;
+    private int mBuildCacheMisses = 0;
+
+    private boolean mPrecomputedSortKeysEnabled = false;
+    private boolean mSortKeysIncludeRank = false;
+
     private final List<NotifFilter> mNotifPreGroupFilters = new ArrayList<>();
     private final List<NotifPromoter> mNotifPromoters = new ArrayList<>();
     private final List<NotifFilter> mNotifFinalizeFilters = new ArrayList<>();
@@ -107,11 +119,13 @@ public class ShadeListBuilder implements Dumpable {
     public ShadeListBuilder(
             SystemClock systemClock,
             ShadeListBuilderLogger logger,
+            ShadeListBuilderTimings timings,
             DumpManager dumpManager,
             NotificationInteractionTracker interactionTracker) {
         Assert.isMainThread();
         mSystemClock = systemClock;
         mLogger = logger;
+        mTimings = timings;
         mInteractionTracker = interactionTracker;
         dumpManager.registerDumpable(TAG, this);
     }
@@ -136,6 +150,33 @@ public class ShadeListBuilder implements Dumpable {
         mOnRenderListListener = onRenderListListener;
     }
 
+    /**
+     * Enables or disables incremental builds. When enabled, the results of pre-group filters,
+     * promoters and sections are cached per entry and only re-evaluated for entries that changed
+     * since the last build; any pluggable invalidation falls back to a full re-evaluation. Sorting
+     * starts from the previous order, so an almost unchanged list is sorted in close to linear time.
+     */
+    public void setIncrementalBuildEnabled(boolean enabled) {
+        Assert.isMainThread();
+        mPipelineState.requireState(STATE_IDLE);
+
+        mIncrementalBuildEnabled = enabled;
+        invalidateBuildCache();
+    }
+
+    /**
+     * Enables or disables sorting on precomputed keys. When enabled, every top-level entry gets a
+     * primitive key (its section index followed by the ordinals of any leading comparators that
+     * provide them, plus its rank if all of them do) once per build, and the comparator chain is
+     * only consulted to break ties. The resulting order is identical to the regular sort.
+     */
+    public void setPrecomputedSortKeysEnabled(boolean enabled) {
+        Assert.isMainThread();
+        mPipelineState.requireState(STATE_IDLE);
+
+        mPrecomputedSortKeysEnabled = enabled;
+    }
+
     void addOnBeforeTransformGroupsListener(OnBeforeTransformGroupsListener listener) {
         Assert.isMainThread();
 
@@ -169,6 +210,7 @@ public class ShadeListBuilder implements Dumpable {
         mPipelineState.requireState(STATE_IDLE);
 
         mNotifPreGroupFilters.add(filter);
+        invalidateBuildCache();
         filter.setInvalidationListener(this::onPreGroupFilterInvalidated);
     }
 
@@ -177,6 +219,7 @@ public class ShadeListBuilder implements Dumpable {
         mPipelineState.requireState(STATE_IDLE);
 
         mNotifFinalizeFilters.add(filter);
+        invalidateBuildCache();
         filter.setInvalidationListener(this::onFinalizeFilterInvalidated);
     }
 
@@ -185,6 +228,7 @@ public class ShadeListBuilder implements Dumpable {
         mPipelineState.requireState(STATE_IDLE);
 
         mNotifPromoters.add(promoter);
+        invalidateBuildCache();
         promoter.setInvalidationListener(this::onPromoterInvalidated);
     }
 
@@ -197,6 +241,7 @@ public class ShadeListBuilder implements Dumpable {
             mNotifSections.add(section);
             section.setInvalidationListener(this::onNotifSectionInvalidated);
         }
+        invalidateBuildCache();
     }
 
     void setComparators(List<NotifComparator> comparators) {
@@ -208,6 +253,7 @@ public class ShadeListBuilder implements Dumpable {
             mNotifComparators.add(comparator);
             comparator.setInvalidationListener(this::onNotifComparatorInvalidated);
         }
+        invalidateBuildCache();
     }
 
     List<ListEntry> getShadeList() {
@@ -233,6 +279,7 @@ public class ShadeListBuilder implements Dumpable {
 
         mLogger.logPreGroupFilterInvalidated(filter.getName(), mPipelineState.getState());
 
+        invalidateBuildCache();
         rebuildListIfBefore(STATE_PRE_GROUP_FILTERING);
     }
 
@@ -241,6 +288,7 @@ public class ShadeListBuilder implements Dumpable {
 
         mLogger.logPromoterInvalidated(promoter.getName(), mPipelineState.getState());
 
+        invalidateBuildCache();
         rebuildListIfBefore(STATE_TRANSFORMING);
     }
 
@@ -249,6 +297,7 @@ public class ShadeListBuilder implements Dumpable {
 
         mLogger.logNotifSectionInvalidated(section.getName(), mPipelineState.getState());
 
+        invalidateBuildCache();
         rebuildListIfBefore(STATE_SORTING);
     }
 
@@ -257,6 +306,7 @@ public class ShadeListBuilder implements Dumpable {
 
         mLogger.logFinalizeFilterInvalidated(filter.getName(), mPipelineState.getState());
 
+        invalidateBuildCache();
         rebuildListIfBefore(STATE_FINALIZE_FILTERING);
     }
 
@@ -265,6 +315,7 @@ public class ShadeListBuilder implements Dumpable {
 
         mLogger.logNotifComparatorInvalidated(comparator.getName(), mPipelineState.getState());
 
+        invalidateBuildCache();
         rebuildListIfBefore(STATE_SORTING);
     }
 
@@ -280,20 +331,25 @@ public class ShadeListBuilder implements Dumpable {
     private void buildList() {
         mPipelineState.requireIsBefore(STATE_BUILD_STARTED);
         mPipelineState.setState(STATE_BUILD_STARTED);
+        final long buildStart = mSystemClock.elapsedRealtimeNanos();
+        long stageStart = buildStart;
 
         // Step 1: Reset notification states
         mPipelineState.incrementTo(STATE_RESETTING);
         resetNotifs();
+        stageStart = endStage(STATE_RESETTING, stageStart);
 
         // Step 2: Filter out any notifications that shouldn't be shown right now
         mPipelineState.incrementTo(STATE_PRE_GROUP_FILTERING);
         filterNotifs(mAllEntries, mNotifList, mNotifPreGroupFilters);
+        stageStart = endStage(STATE_PRE_GROUP_FILTERING, stageStart);
 
         // Step 3: Group notifications with the same group key and set summaries
         mPipelineState.incrementTo(STATE_GROUPING);
         groupNotifs(mNotifList, mNewNotifList);
         applyNewNotifList();
         pruneIncompleteGroups(mNotifList);
+        stageStart = endStage(STATE_GROUPING, stageStart);
 
         // Step 4: Group transforming
         // Move some notifs out of their groups and up to top-level (mostly used for heads-upping)
@@ -301,6 +357,8 @@ public class ShadeListBuilder implements Dumpable {
         mPipelineState.incrementTo(STATE_TRANSFORMING);
         promoteNotifs(mNotifList);
         pruneIncompleteGroups(mNotifList);
+        markChangedGroupsDirty();
+        stageStart = endStage(STATE_TRANSFORMING, stageStart);
 
         // Step 5: Sort
         // Assign each top-level entry a section, then sort the list by section and then within
@@ -308,6 +366,7 @@ public class ShadeListBuilder implements Dumpable {
         dispatchOnBeforeSort(mReadOnlyNotifList);
         mPipelineState.incrementTo(STATE_SORTING);
         sortList();
+        stageStart = endStage(STATE_SORTING, stageStart);
 
         // Step 6: Filter out entries after pre-group filtering, grouping, promoting and sorting
         // Now filters can see grouping information to determine whether to filter or not.
@@ -316,11 +375,15 @@ public class ShadeListBuilder implements Dumpable {
         filterNotifs(mNotifList, mNewNotifList, mNotifFinalizeFilters);
         applyNewNotifList();
         pruneIncompleteGroups(mNotifList);
+        stageStart = endStage(STATE_FINALIZE_FILTERING, stageStart);
 
         // Step 7: Lock in our group structure and log anything that's changed since the last run
         mPipelineState.incrementTo(STATE_FINALIZING);
         logChanges();
         freeEmptyGroups();
+        clearDirtyFlags();
+        final long buildEnd = endStage(STATE_FINALIZING, stageStart);
+        mTimings.recordBuild(buildEnd - buildStart);
 
         // Step 8: Dispatch the new list, first to any listeners and then to the view layer
         dispatchOnBeforeRenderList(mReadOnlyNotifList);
@@ -340,6 +403,16 @@ public class ShadeListBuilder implements Dumpable {
         mIterationCount++;
     }
 
+    /**
+     * Records the duration of a build stage, which includes any listeners dispatched right before
+     * the stage began. Returns the end time so it can be used as the start of the next stage.
+     */
+    private long endStage(@PipelineState.StateName int state, long stageStart) {
+        final long now = mSystemClock.elapsedRealtimeNanos();
+        mTimings.recordStage(state, now - stageStart);
+        return now;
+    }
+
     /**
      * Points mNotifList to the list stored in mNewNotifList.
      * Reuses the (emptied) mNotifList as mNewNotifList.
@@ -615,8 +688,141 @@ public class ShadeListBuilder implements Dumpable {
             }
         }
 
-        // Finally, sort all top-level elements
-        mNotifList.sort(mTopLevelComparator);
+        // Finally, sort all top-level elements. In incremental mode we start from the order of the
+        // previous build; since TimSort detects pre-sorted runs, a list in which only a few entries
+        // moved is sorted in close to linear time.
+        if (mIncrementalBuildEnabled) {
+            restorePreviousOrder();
+        }
+        // Comparisons are far too cheap and numerous to time individually, so the whole sort is
+        // attributed to the current set of comparators
+        final Comparator<ListEntry> comparator =
+                mPrecomputedSortKeysEnabled && computeSortKeys()
+                        ? mSortKeyComparator
+                        : mTopLevelComparator;
+        final long sortStart = mSystemClock.elapsedRealtimeNanos();
+        mNotifList.sort(comparator);
+        mTimings.recordSort(mNotifComparators, mSystemClock.elapsedRealtimeNanos() - sortStart);
+        mPreviousSortedList.clear();
+        mPreviousSortedList.addAll(mNotifList);
+    }
+
+    /**
+     * Computes the sort key of every top-level entry. The key packs the section index into the top
+     * bits, followed by one byte per comparator for the longest prefix of comparators that
+     * implement {@link SortOrdinalProvider}. If every comparator provides ordinals, ties are
+     * broken by rank without consulting the comparators at all.
+     *
+     * @return false if the sections can't be encoded, in which case the regular sort must be used.
+     */
+    private boolean computeSortKeys() {
+        if (mNotifSections.size() > MAX_SORT_KEY_SECTION) {
+            return false;
+        }
+
+        int keyedComparators = 0;
+        while (keyedComparators < mNotifComparators.size()
+                && keyedComparators < MAX_KEYED_COMPARATORS
+                && mNotifComparators.get(keyedComparators) instanceof SortOrdinalProvider) {
+            keyedComparators++;
+        }
+        mSortKeysIncludeRank = keyedComparators == mNotifComparators.size();
+
+        for (int i = 0; i < mNotifList.size(); i++) {
+            final ListEntry entry = mNotifList.get(i);
+            long key = ((long) entry.getSection()) << SORT_KEY_SECTION_SHIFT;
+            for (int j = 0; j < keyedComparators; j++) {
+                final NotifComparator comparator = mNotifComparators.get(j);
+                final long start = mSystemClock.elapsedRealtimeNanos();
+                final int ordinal = ((SortOrdinalProvider) comparator).getSortOrdinal(entry);
+                mTimings.recordPluggable(comparator, mSystemClock.elapsedRealtimeNanos() - start);
+                if (ordinal < 0 || ordinal > SortOrdinalProvider.MAX_SORT_ORDINAL) {
+                    throw new IllegalStateException("NotifComparator " + comparator.getName()
+                            + " returned out of range sort ordinal " + ordinal
+                            + " for " + entry.getKey());
+                }
+                key |= ((long) ordinal) << (SORT_KEY_SECTION_SHIFT - (j + 1) * SORT_ORDINAL_BITS);
+            }
+            entry.getBuildCache().setSortKey(key);
+            entry.getBuildCache().setSortRank(
+                    entry.getRepresentativeEntry().getRanking().getRank());
+        }
+        return true;
+    }
+
+    /**
+     * Reorders mNotifList so that entries that were present in the previous build appear in their
+     * previous order, followed by any new top-level entries.
+     */
+    private void restorePreviousOrder() {
+        for (int i = 0; i < mNotifList.size(); i++) {
+            mNotifList.get(i).getBuildCache().setPendingSortIteration(mIterationCount);
+        }
+        for (int i = 0; i < mPreviousSortedList.size(); i++) {
+            final ListEntry entry = mPreviousSortedList.get(i);
+            if (entry.getBuildCache().getPendingSortIteration() == mIterationCount) {
+                entry.getBuildCache().setPendingSortIteration(-1);
+                mNewNotifList.add(entry);
+            }
+        }
+        for (int i = 0; i < mNotifList.size(); i++) {
+            final ListEntry entry = mNotifList.get(i);
+            if (entry.getBuildCache().getPendingSortIteration() == mIterationCount) {
+                entry.getBuildCache().setPendingSortIteration(-1);
+                mNewNotifList.add(entry);
+            }
+        }
+        applyNewNotifList();
+    }
+
+    /**
+     * A group's section depends on its members, so mark any group whose membership changed or
+     * that contains a changed entry as dirty.
+     */
+    private void markChangedGroupsDirty() {
+        for (NotificationEntry entry : mAllEntries) {
+            final GroupEntry parent = entry.getParent();
+            final GroupEntry prevParent = entry.getPreviousParent();
+            if (parent != prevParent || entry.getBuildCache().isDirty()) {
+                markGroupDirty(parent);
+                markGroupDirty(prevParent);
+            }
+        }
+    }
+
+    private static void markGroupDirty(@Nullable GroupEntry group) {
+        if (group != null && group != ROOT_ENTRY) {
+            group.markDirty();
+        }
+    }
+
+    private void clearDirtyFlags() {
+        for (NotificationEntry entry : mAllEntries) {
+            entry.getBuildCache().setDirty(false);
+        }
+        for (GroupEntry group : mGroups.values()) {
+            group.getBuildCache().setDirty(false);
+        }
+    }
+
+    private boolean isCacheValid(ListBuildCache cache, int generation) {
+        final boolean valid = mIncrementalBuildEnabled
+                && !cache.isDirty()
+                && generation == mPluggableGeneration;
+        if (valid) {
+            mBuildCacheHits++;
+        } else {
+            mBuildCacheMisses++;
+        }
+        return valid;
+    }
+
+    /**
+     * Drops every cached pluggable result. Called whenever a pluggable is added or invalidated,
+     * since its answer may now differ for any entry.
+     */
+    private void invalidateBuildCache() {
+        mPluggableGeneration++;
     }
 
     private void freeEmptyGroups() {
@@ -702,6 +908,23 @@ public class ShadeListBuilder implements Dumpable {
         return cmp;
     };
 
+    private final Comparator<ListEntry> mSortKeyComparator = (o1, o2) -> {
+        final ListBuildCache cache1 = o1.getBuildCache();
+        final ListBuildCache cache2 = o2.getBuildCache();
+
+        int cmp = Long.compare(cache1.getSortKey(), cache2.getSortKey());
+
+        if (cmp == 0 && mSortKeysIncludeRank) {
+            cmp = Integer.compare(cache1.getSortRank(), cache2.getSortRank());
+        }
+
+        if (cmp == 0) {
+            cmp = mTopLevelComparator.compare(o1, o2);
+        }
+
+        return cmp;
+    };
+
     private static final Comparator<NotificationEntry> sChildComparator = (o1, o2) -> {
         int cmp = o1.getRanking().getRank() - o2.getRanking().getRank();
 
@@ -715,7 +938,11 @@ public class ShadeListBuilder implements Dumpable {
     };
 
     private boolean applyFilters(NotificationEntry entry, long now, List<NotifFilter> filters) {
-        final NotifFilter filter = findRejectingFilter(entry, now, filters);
+        // Only pre-group filters are cached: finalize filters can depend on the group structure,
+        // which may change even when the entry itself didn't.
+        final NotifFilter filter = filters == mNotifPreGroupFilters
+                ? findPreGroupRejectingFilter(entry, now)
+                : findRejectingFilter(entry, now, filters);
         entry.getAttachState().setExcludingFilter(filter);
         if (filter != null) {
             // notification is removed from the list, so we reset its initialization time
@@ -724,13 +951,28 @@ public class ShadeListBuilder implements Dumpable {
         return filter != null;
     }
 
-    @Nullable private static NotifFilter findRejectingFilter(NotificationEntry entry, long now,
+    @Nullable private NotifFilter findPreGroupRejectingFilter(NotificationEntry entry, long now) {
+        final ListBuildCache cache = entry.getBuildCache();
+        if (isCacheValid(cache, cache.getPreGroupFilterGeneration())) {
+            return cache.getPreGroupFilter();
+        }
+
+        final NotifFilter filter = findRejectingFilter(entry, now, mNotifPreGroupFilters);
+        cache.setPreGroupFilter(filter);
+        cache.setPreGroupFilterGeneration(mPluggableGeneration);
+        return filter;
+    }
+
+    @Nullable private NotifFilter findRejectingFilter(NotificationEntry entry, long now,
             List<NotifFilter> filters) {
         final int size = filters.size();
 
         for (int i = 0; i < size; i++) {
             NotifFilter filter = filters.get(i);
-            if (filter.shouldFilterOut(entry, now)) {
+            final long start = mSystemClock.elapsedRealtimeNanos();
+            final boolean shouldFilterOut = filter.shouldFilterOut(entry, now);
+            mTimings.recordPluggable(filter, mSystemClock.elapsedRealtimeNanos() - start);
+            if (shouldFilterOut) {
                 return filter;
             }
         }
@@ -744,17 +986,38 @@ public class ShadeListBuilder implements Dumpable {
     }
 
     @Nullable private NotifPromoter findPromoter(NotificationEntry entry) {
+        final ListBuildCache cache = entry.getBuildCache();
+        if (isCacheValid(cache, cache.getPromoterGeneration())) {
+            return cache.getPromoter();
+        }
+
+        NotifPromoter result = null;
         for (int i = 0; i < mNotifPromoters.size(); i++) {
             NotifPromoter promoter = mNotifPromoters.get(i);
-            if (promoter.shouldPromoteToTopLevel(entry)) {
-                return promoter;
+            final long start = mSystemClock.elapsedRealtimeNanos();
+            final boolean shouldPromote = promoter.shouldPromoteToTopLevel(entry);
+            mTimings.recordPluggable(promoter, mSystemClock.elapsedRealtimeNanos() - start);
+            if (shouldPromote) {
+                result = promoter;
+                break;
             }
         }
-        return null;
+        cache.setPromoter(result);
+        cache.setPromoterGeneration(mPluggableGeneration);
+        return result;
     }
 
     private Pair<NotifSection, Integer> applySections(ListEntry entry) {
-        final Pair<NotifSection, Integer> sectionWithIndex = findSection(entry);
+        final ListBuildCache cache = entry.getBuildCache();
+        final Pair<NotifSection, Integer> sectionWithIndex;
+        if (isCacheValid(cache, cache.getSectionGeneration())) {
+            sectionWithIndex = new Pair<>(cache.getSection(), cache.getSectionIndex());
+        } else {
+            sectionWithIndex = findSection(entry);
+            cache.setSection(sectionWithIndex.first);
+            cache.setSectionIndex(sectionWithIndex.second);
+            cache.setSectionGeneration(mPluggableGeneration);
+        }
         final NotifSection section = sectionWithIndex.first;
         final Integer sectionIndex = sectionWithIndex.second;
 
@@ -767,7 +1030,10 @@ public class ShadeListBuilder implements Dumpable {
     private Pair<NotifSection, Integer> findSection(ListEntry entry) {
         for (int i = 0; i < mNotifSections.size(); i++) {
             NotifSection sectioner = mNotifSections.get(i);
-            if (sectioner.isInSection(entry)) {
+            final long start = mSystemClock.elapsedRealtimeNanos();
+            final boolean isInSection = sectioner.isInSection(entry);
+            mTimings.recordPluggable(sectioner, mSystemClock.elapsedRealtimeNanos() - start);
+            if (isInSection) {
                 return new Pair<>(sectioner, i);
             }
         }
@@ -828,6 +1094,12 @@ public class ShadeListBuilder implements Dumpable {
                 mInteractionTracker,
                 true,
                 "\t\t"));
+
+        pw.println("\t" + TAG + " incremental build:");
+        pw.println("\t\tenabled=" + mIncrementalBuildEnabled);
+        pw.println("\t\tpluggableGeneration=" + mPluggableGeneration);
+        pw.println("\t\tcacheHits=" + mBuildCacheHits);
+        pw.println("\t\tcacheMisses=" + mBuildCacheMisses);
     }
 
     /** See {@link #setOnRenderListListener(OnRenderListListener)} */
@@ -852,4 +1124,11 @@ public class ShadeListBuilder implements Dumpable {
     private static final String TAG = "NotifListBuilderImpl";
 
     private static final int MIN_CHILDREN_FOR_GROUP = 2;
+
+    private static final int SORT_ORDINAL_BITS = 8;
+    private static final int SORT_KEY_SECTION_SHIFT = 56;
+    private static final int MAX_KEYED_COMPARATORS = SORT_KEY_SECTION_SHIFT / SORT_ORDINAL_BITS;
+    // The section occupies bits 56-62; bit 63 stays clear so keys are never negative. The default
+    // section uses index mNotifSections.size(), so that is what must fit.
+    private static final int MAX_SORT_KEY_SECTION = 127;
 }
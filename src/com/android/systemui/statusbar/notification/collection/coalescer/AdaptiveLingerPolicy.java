@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.coalescer;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learns how quickly each notification group posts its members and uses that to decide how long
+ * {@link GroupCoalescer} should wait for the next member before emitting a group's batch.
+ *
+ * For every group key it keeps an exponentially weighted moving average (EWMA) of the time between
+ * members that arrive as part of the same burst, of how often a member arrives as part of a burst
+ * at all, and of the size of the batches that end up being emitted:
+ *
+ * - Groups we know nothing about get the default linger duration.
+ * - Groups whose members almost never arrive in bursts get the shortest linger duration, since
+ *   waiting for more members only delays them. Batch size only confirms this: it depends on the
+ *   linger we chose, so on its own it would keep a group that was split into single batches by a
+ *   short linger on that short linger forever.
+ * - Everything else lingers for a small multiple of its average inter-arrival time, so that slow
+ *   bursts are still emitted as one batch and fast bursts don't wait longer than needed.
+ */
+class AdaptiveLingerPolicy {
+    private final long mDefaultLinger;
+    private final long mMinLinger;
+    private final long mMaxLinger;
+    private final long mMaxBurstGap;
+
+    private final Map<String, GroupStats> mStats =
+            new LinkedHashMap<String, GroupStats>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, GroupStats> eldest) {
+                    return size() > MAX_TRACKED_GROUPS;
+                }
+            };
+
+    /**
+     * @param defaultLinger Linger duration, in ms, for groups without enough history.
+     * @param minLinger Shortest linger duration, in ms, that will ever be chosen.
+     * @param maxLinger Longest linger duration, in ms, that will ever be chosen.
+     * @param maxBurstGap Gaps between members longer than this, in ms, are treated as the start
+     *                    of a new burst rather than as part of the current one.
+     */
+    AdaptiveLingerPolicy(long defaultLinger, long minLinger, long maxLinger, long maxBurstGap) {
+        mDefaultLinger = defaultLinger;
+        mMinLinger = minLinger;
+        mMaxLinger = maxLinger;
+        mMaxBurstGap = maxBurstGap;
+    }
+
+    /** Called whenever a member of a group is posted and coalesced. */
+    void onMemberArrived(String groupKey, long now) {
+        GroupStats stats = mStats.get(groupKey);
+        if (stats == null) {
+            stats = new GroupStats();
+            mStats.put(groupKey, stats);
+        } else {
+            final long gap = now - stats.mLastArrival;
+            final boolean inBurst = gap <= mMaxBurstGap;
+            if (inBurst) {
+                stats.mAvgGap = stats.mGapSamples == 0
+                        ? gap
+                        : EWMA_ALPHA * gap + (1 - EWMA_ALPHA) * stats.mAvgGap;
+                stats.mGapSamples++;
+            }
+            stats.mBurstFraction =
+                    EWMA_ALPHA * (inBurst ? 1 : 0) + (1 - EWMA_ALPHA) * stats.mBurstFraction;
+        }
+        stats.mLastArrival = now;
+    }
+
+    /** Called whenever a batch is emitted for a group. */
+    void onBatchEmitted(String groupKey, int batchSize) {
+        final GroupStats stats = mStats.get(groupKey);
+        if (stats == null) {
+            return;
+        }
+        stats.mAvgBatchSize = stats.mBatches == 0
+                ? batchSize
+                : EWMA_ALPHA * batchSize + (1 - EWMA_ALPHA) * stats.mAvgBatchSize;
+        stats.mBatches++;
+        stats.mLastBatchSize = batchSize;
+    }
+
+    /** Returns how long, in ms, to wait for another member of this group. */
+    long getLingerDuration(String groupKey) {
+        final GroupStats stats = mStats.get(groupKey);
+        final long linger;
+        if (stats == null || stats.mBatches < MIN_BATCHES) {
+            linger = mDefaultLinger;
+        } else if (stats.mGapSamples == 0 || (stats.mBurstFraction < LONE_POST_BURST_FRACTION
+                && stats.mAvgBatchSize < LONE_POST_BATCH_SIZE)) {
+            linger = mMinLinger;
+        } else {
+            linger = Math.max(mMinLinger,
+                    Math.min(mMaxLinger, Math.round(stats.mAvgGap * GAP_MULTIPLIER)));
+        }
+        if (stats != null) {
+            stats.mLastLinger = linger;
+        }
+        return linger;
+    }
+
+    void dump(PrintWriter pw, String indent) {
+        pw.println(indent + "Adaptive linger (default=" + mDefaultLinger + "ms min=" + mMinLinger
+                + "ms max=" + mMaxLinger + "ms):");
+        for (Map.Entry<String, GroupStats> entry : mStats.entrySet()) {
+            final GroupStats stats = entry.getValue();
+            pw.println(indent + "  " + entry.getKey()
+                    + " avgGap=" + Math.round(stats.mAvgGap) + "ms"
+                    + " gaps=" + stats.mGapSamples
+                    + " burstFraction=" + String.format("%.2f", stats.mBurstFraction)
+                    + " avgBatch=" + String.format("%.1f", stats.mAvgBatchSize)
+                    + " lastBatch=" + stats.mLastBatchSize
+                    + " batches=" + stats.mBatches
+                    + " lastLinger=" + stats.mLastLinger + "ms");
+        }
+    }
+
+    private static class GroupStats {
+        long mLastArrival;
+        double mAvgGap;
+        int mGapSamples;
+        double mBurstFraction;
+        double mAvgBatchSize;
+        int mLastBatchSize;
+        int mBatches;
+        long mLastLinger;
+    }
+
+    private static final double EWMA_ALPHA = 0.3;
+    private static final double GAP_MULTIPLIER = 2.0;
+    private static final double LONE_POST_BATCH_SIZE = 1.5;
+    private static final double LONE_POST_BURST_FRACTION = 0.2;
+    private static final int MIN_BATCHES = 2;
+    private static final int MAX_TRACKED_GROUPS = 200;
+}
@@ -39,6 +39,9 @@ public class EventBatch {
 
     @Nullable Runnable mCancelShortTimeout;
 
+    /** The short linger duration, in ms, that was most recently chosen for this batch. */
+    long mLingerDuration;
+
     EventBatch(long createdTimestamp, String groupKey) {
         mCreatedTimestamp = createdTimestamp;
         this.mGroupKey = groupKey;
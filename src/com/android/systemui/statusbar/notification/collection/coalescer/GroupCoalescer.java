@@ -68,6 +68,8 @@ public class GroupCoalescer implements Dumpable {
     private final GroupCoalescerLogger mLogger;
     private final long mMinGroupLingerDuration;
     private final long mMaxGroupLingerDuration;
+    private final AdaptiveLingerPolicy mLingerPolicy;
+    private boolean mAdaptiveLingerEnabled = false;
 
     private BatchableNotificationHandler mHandler;
 
@@ -101,6 +103,11 @@ public class GroupCoalescer implements Dumpable {
         mLogger = logger;
         mMinGroupLingerDuration = minGroupLingerDuration;
         mMaxGroupLingerDuration = maxGroupLingerDuration;
+        mLingerPolicy = new AdaptiveLingerPolicy(
+                minGroupLingerDuration,
+                Math.max(1, minGroupLingerDuration / 5),
+                maxGroupLingerDuration / 2,
+                maxGroupLingerDuration);
     }
 
     /**
@@ -115,6 +122,15 @@ public class GroupCoalescer implements Dumpable {
         mHandler = handler;
     }
 
+    /**
+     * If enabled, the short linger duration of each group is chosen by an
+     * {@link AdaptiveLingerPolicy} based on how that group has posted in the past, instead of
+     * always being the minimum linger duration. Arrival history is collected either way.
+     */
+    public void setAdaptiveLingerEnabled(boolean enabled) {
+        mAdaptiveLingerEnabled = enabled;
+    }
+
     private final NotificationHandler mListener = new NotificationHandler() {
         @Override
         public void onNotificationPosted(StatusBarNotification sbn, RankingMap rankingMap) {
@@ -158,6 +174,11 @@ public class GroupCoalescer implements Dumpable {
         public void onNotificationsInitialized() {
             mHandler.onNotificationsInitialized();
         }
+
+        @Override
+        public String getName() {
+            return TAG;
+        }
     };
 
     private void maybeEmitBatch(StatusBarNotification sbn) {
@@ -198,6 +219,7 @@ public class GroupCoalescer implements Dumpable {
             mCoalescedEvents.put(event.getKey(), event);
 
             batch.mMembers.add(event);
+            mLingerPolicy.onMemberArrived(sbn.getGroupKey(), mClock.uptimeMillis());
             resetShortTimeout(batch);
 
             return true;
@@ -219,13 +241,16 @@ public class GroupCoalescer implements Dumpable {
         if (batch.mCancelShortTimeout != null) {
             batch.mCancelShortTimeout.run();
         }
+        batch.mLingerDuration = mAdaptiveLingerEnabled
+                ? mLingerPolicy.getLingerDuration(batch.mGroupKey)
+                : mMinGroupLingerDuration;
         batch.mCancelShortTimeout =
                 mMainExecutor.executeDelayed(
                         () -> {
                             batch.mCancelShortTimeout = null;
                             emitBatch(batch);
                         },
-                        mMinGroupLingerDuration);
+                        batch.mLingerDuration);
     }
 
     private void emitBatch(EventBatch batch) {
@@ -249,7 +274,8 @@ public class GroupCoalescer implements Dumpable {
         }
         events.sort(mEventComparator);
 
-        mLogger.logEmitBatch(batch.mGroupKey);
+        mLingerPolicy.onBatchEmitted(batch.mGroupKey, events.size());
+        mLogger.logEmitBatch(batch.mGroupKey, events.size(), batch.mLingerDuration);
 
         mHandler.onNotificationBatchPosted(events);
     }
@@ -301,6 +327,10 @@ public class GroupCoalescer implements Dumpable {
                 pw.println("        " + event.getKey());
             }
         }
+
+        pw.println();
+        pw.println("Adaptive linger " + (mAdaptiveLingerEnabled ? "enabled" : "disabled"));
+        mLingerPolicy.dump(pw, "   ");
     }
 
     private final Comparator<CoalescedEvent> mEventComparator = (o1, o2) -> {
@@ -328,4 +358,6 @@ public class GroupCoalescer implements Dumpable {
 
     private static final int MIN_GROUP_LINGER_DURATION = 50;
     private static final int MAX_GROUP_LINGER_DURATION = 500;
+
+    private static final String TAG = "GroupCoalescer";
 }
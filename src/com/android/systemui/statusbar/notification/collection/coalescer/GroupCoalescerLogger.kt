@@ -32,11 +32,13 @@ class GroupCoalescerLogger @Inject constructor(
         })
     }
 
-    fun logEmitBatch(groupKey: String) {
+    fun logEmitBatch(groupKey: String, batchSize: Int, lingerDuration: Long) {
         buffer.log(TAG, LogLevel.DEBUG, {
             str1 = groupKey
+            int1 = batchSize
+            long1 = lingerDuration
         }, {
-            "Emitting event batch for group $str1"
+            "Emitting event batch for group $str1 ($int1 events, lingered up to ${long1}ms)"
         })
     }
 
@@ -89,6 +89,13 @@ public class NotifPipelineInitializer implements Dumpable {
             mNotifInflater.setRowBinder(rowBinder);
         }
 
+        mListBuilder.setIncrementalBuildEnabled(
+                mFeatureFlags.isNewNotifPipelineIncrementalBuildEnabled());
+        mListBuilder.setPrecomputedSortKeysEnabled(
+                mFeatureFlags.isNewNotifPipelineSortKeysEnabled());
+        mGroupCoalescer.setAdaptiveLingerEnabled(
+                mFeatureFlags.isNewNotifPipelineAdaptiveLingerEnabled());
+
         // Wire up coordinators
         mNotifPluggableCoordinators.attach(mPipelineWrapper);
 
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.listbuilder;
+
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_FINALIZE_FILTERING;
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_FINALIZING;
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_GROUPING;
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_PRE_GROUP_FILTERING;
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_RESETTING;
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_SORTING;
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_TRANSFORMING;
+
+import android.annotation.MainThread;
+import android.util.ArrayMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.systemui.Dumpable;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.notification.collection.ShadeListBuilder;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifComparator;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifFilter;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifPromoter;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifSection;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.Pluggable;
+import com.android.systemui.util.time.LatencyHistogram;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Records how long each stage of {@link ShadeListBuilder} and each pluggable takes, as fixed-bucket
+ * histograms. Recording never allocates once a pluggable has been seen, so this is always on.
+ *
+ * Stage samples are one per build. Pluggable samples are the total time spent in that pluggable
+ * during a single build (e.g. all calls to a filter's shouldFilterOut()), since a per-call sample
+ * would mostly measure the clock. Comparators are the exception: they're called far too often to
+ * time at all, so each sort is recorded as a whole against the set of comparators it used.
+ */
+@MainThread
+@Singleton
+public class ShadeListBuilderTimings implements Dumpable {
+    private final LatencyHistogram mBuildHistogram = new LatencyHistogram("build");
+    private final LatencyHistogram[] mStageHistograms =
+            new LatencyHistogram[STATE_FINALIZING + 1];
+    private final ArrayMap<Pluggable<?>, PluggableTimer> mPluggableTimers = new ArrayMap<>();
+    private final ArrayMap<String, PluggableTimer> mSortTimers = new ArrayMap<>();
+    private final List<NotifComparator> mLastSortComparators = new ArrayList<>();
+    private PluggableTimer mLastSortTimer;
+
+    @Inject
+    public ShadeListBuilderTimings(DumpManager dumpManager) {
+        mStageHistograms[STATE_RESETTING] = new LatencyHistogram("resetting");
+        mStageHistograms[STATE_PRE_GROUP_FILTERING] = new LatencyHistogram("preGroupFiltering");
+        mStageHistograms[STATE_GROUPING] = new LatencyHistogram("grouping");
+        mStageHistograms[STATE_TRANSFORMING] = new LatencyHistogram("transforming");
+        mStageHistograms[STATE_SORTING] = new LatencyHistogram("sorting");
+        mStageHistograms[STATE_FINALIZE_FILTERING] = new LatencyHistogram("finalizeFiltering");
+        mStageHistograms[STATE_FINALIZING] = new LatencyHistogram("finalizing");
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    /** Records the time spent in one stage of the current build. */
+    public void recordStage(@PipelineState.StateName int stage, long durationNanos) {
+        final LatencyHistogram histogram = mStageHistograms[stage];
+        if (histogram != null) {
+            histogram.record(durationNanos);
+        }
+    }
+
+    /** Adds the duration of a single call into a pluggable to the current build's total. */
+    public void recordPluggable(Pluggable<?> pluggable, long durationNanos) {
+        PluggableTimer timer = mPluggableTimers.get(pluggable);
+        if (timer == null) {
+            timer = new PluggableTimer(describe(pluggable));
+            mPluggableTimers.put(pluggable, timer);
+        }
+        timer.mPendingNanos += durationNanos;
+        timer.mPendingCalls++;
+    }
+
+    /** Adds the duration of a sort using these comparators to the current build's total. */
+    public void recordSort(List<NotifComparator> comparators, long durationNanos) {
+        if (mLastSortTimer == null || !mLastSortComparators.equals(comparators)) {
+            mLastSortComparators.clear();
+            mLastSortComparators.addAll(comparators);
+            final String name = describeSort(comparators);
+            mLastSortTimer = mSortTimers.get(name);
+            if (mLastSortTimer == null) {
+                mLastSortTimer = new PluggableTimer(name);
+                mSortTimers.put(name, mLastSortTimer);
+            }
+        }
+        mLastSortTimer.mPendingNanos += durationNanos;
+        mLastSortTimer.mPendingCalls++;
+    }
+
+    /**
+     * Records the duration of a whole build and flushes the per-pluggable totals accumulated
+     * during it.
+     */
+    public void recordBuild(long durationNanos) {
+        mBuildHistogram.record(durationNanos);
+        flush(mPluggableTimers);
+        flush(mSortTimers);
+    }
+
+    /** Per-build durations of every build so far. */
+    public LatencyHistogram getBuildHistogram() {
+        return mBuildHistogram;
+    }
+
+    /** Per-build durations of the given stage, or null if the stage isn't timed. */
+    @Nullable
+    public LatencyHistogram getStageHistogram(@PipelineState.StateName int stage) {
+        return mStageHistograms[stage];
+    }
+
+    /** Per-build totals for the given pluggable, or null if it was never called. */
+    @Nullable
+    public LatencyHistogram getPluggableHistogram(Pluggable<?> pluggable) {
+        final PluggableTimer timer = mPluggableTimers.get(pluggable);
+        return timer == null ? null : timer.mHistogram;
+    }
+
+    /** Per-build totals for sorts using the given comparators, or null if there were none. */
+    @Nullable
+    public LatencyHistogram getSortHistogram(List<NotifComparator> comparators) {
+        final PluggableTimer timer = mSortTimers.get(describeSort(comparators));
+        return timer == null ? null : timer.mHistogram;
+    }
+
+    private static void flush(ArrayMap<?, PluggableTimer> timers) {
+        for (int i = 0; i < timers.size(); i++) {
+            final PluggableTimer timer = timers.valueAt(i);
+            if (timer.mPendingCalls > 0) {
+                timer.mHistogram.record(timer.mPendingNanos);
+                timer.mTotalCalls += timer.mPendingCalls;
+                timer.mPendingNanos = 0;
+                timer.mPendingCalls = 0;
+            }
+        }
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        pw.println("\t" + TAG + " per build:");
+        mBuildHistogram.dump(pw, "\t\t");
+        pw.println("\t" + TAG + " per stage:");
+        for (LatencyHistogram histogram : mStageHistograms) {
+            if (histogram != null) {
+                histogram.dump(pw, "\t\t");
+            }
+        }
+        pw.println("\t" + TAG + " per pluggable (total per build):");
+        for (int i = 0; i < mPluggableTimers.size(); i++) {
+            final PluggableTimer timer = mPluggableTimers.valueAt(i);
+            timer.mHistogram.dump(pw, "\t\t");
+            pw.println("\t\t  calls=" + timer.mTotalCalls);
+        }
+        pw.println("\t" + TAG + " per comparator set (total sort time per build):");
+        for (int i = 0; i < mSortTimers.size(); i++) {
+            final PluggableTimer timer = mSortTimers.valueAt(i);
+            timer.mHistogram.dump(pw, "\t\t");
+            pw.println("\t\t  sorts=" + timer.mTotalCalls);
+        }
+    }
+
+    private static String describeSort(List<NotifComparator> comparators) {
+        final StringBuilder sb = new StringBuilder("NotifComparators(");
+        for (int i = 0; i < comparators.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(comparators.get(i).getName());
+        }
+        return sb.append(')').toString();
+    }
+
+    private static String describe(Pluggable<?> pluggable) {
+        final String type;
+        if (pluggable instanceof NotifFilter) {
+            type = "NotifFilter";
+        } else if (pluggable instanceof NotifPromoter) {
+            type = "NotifPromoter";
+        } else if (pluggable instanceof NotifSection) {
+            type = "NotifSection";
+        } else if (pluggable instanceof NotifComparator) {
+            type = "NotifComparator";
+        } else {
+            type = "Pluggable";
+        }
+        return type + "(" + pluggable.getName() + ")";
+    }
+
+    private static class PluggableTimer {
+        final LatencyHistogram mHistogram;
+        long mPendingNanos;
+        int mPendingCalls;
+        long mTotalCalls;
+
+        PluggableTimer(String name) {
+            mHistogram = new LatencyHistogram(name);
+        }
+    }
+
+    private static final String TAG = "ShadeListBuilderTimings";
+}
@@ -24,6 +24,9 @@ import java.util.List;
 
 /**
  * Pluggable for participating in notif sorting. See {@link NotifPipeline#setComparators(List)}.
+ *
+ * Comparators that can also rank entries by a small per-entry ordinal should implement
+ * {@link SortOrdinalProvider}.
  */
 public abstract class NotifComparator
         extends Pluggable<NotifComparator>
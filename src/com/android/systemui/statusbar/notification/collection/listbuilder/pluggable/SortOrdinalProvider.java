@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.listbuilder.pluggable;
+
+import com.android.systemui.statusbar.notification.collection.ListEntry;
+
+/**
+ * Implemented by a {@link NotifComparator} that can express its ordering as a small ordinal per
+ * entry. Doing so lets the pipeline sort on a precomputed key instead of calling
+ * {@link NotifComparator#compare} for every pair of entries.
+ */
+public interface SortOrdinalProvider {
+    /**
+     * Returns a value between 0 and {@link #MAX_SORT_ORDINAL} such that for any two entries, the
+     * sign of {@code getSortOrdinal(o1) - getSortOrdinal(o2)} matches the sign of
+     * {@code compare(o1, o2)}.
+     */
+    int getSortOrdinal(ListEntry entry);
+
+    int MAX_SORT_ORDINAL = 255;
+}
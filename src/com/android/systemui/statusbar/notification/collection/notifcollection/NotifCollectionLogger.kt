@@ -129,6 +129,15 @@ class NotifCollectionLogger @Inject constructor(
         })
     }
 
+    fun logRankingUpdateApplied(changedCount: Int, totalCount: Int) {
+        buffer.log(TAG, DEBUG, {
+            int1 = changedCount
+            int2 = totalCount
+        }, {
+            "Ranking update changed $int1 of $int2 entries"
+        })
+    }
+
     fun logRankingMissing(key: String, rankingMap: RankingMap) {
         buffer.log(TAG, WARNING, { str1 = key }, { "Ranking update is missing ranking for $str1" })
         buffer.log(TAG, DEBUG, {}, { "Ranking map contents:" })
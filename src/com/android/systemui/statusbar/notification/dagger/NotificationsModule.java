@@ -30,6 +30,7 @@ import com.android.systemui.bubbles.BubbleController;
 import com.android.systemui.dagger.qualifiers.Background;
 import com.android.systemui.dagger.qualifiers.Main;
 import com.android.systemui.dagger.qualifiers.UiBackground;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.plugins.statusbar.StatusBarStateController;
 import com.android.systemui.settings.CurrentUserContextTracker;
 import com.android.systemui.statusbar.FeatureFlags;
@@ -156,14 +157,16 @@ public interface NotificationsModule {
             NotificationEntryManager entryManager,
             StatusBarStateController statusBarStateController,
             NotificationLogger.ExpansionStateLogger expansionStateLogger,
-            NotificationPanelLogger notificationPanelLogger) {
+            NotificationPanelLogger notificationPanelLogger,
+            DumpManager dumpManager) {
         return new NotificationLogger(
                 notificationListener,
                 uiBgExecutor,
                 entryManager,
                 statusBarStateController,
                 expansionStateLogger,
-                notificationPanelLogger);
+                notificationPanelLogger,
+                dumpManager);
     }
 
     /** Provides an instance of {@link NotificationPanelLogger} */
@@ -25,21 +25,32 @@ import android.hardware.display.AmbientDisplayConfiguration;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.service.dreams.IDreamManager;
+import android.service.notification.NotificationListenerService.Ranking;
 import android.service.notification.StatusBarNotification;
+import android.util.ArrayMap;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.Dumpable;
 import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.plugins.statusbar.StatusBarStateController;
+import com.android.systemui.statusbar.FeatureFlags;
 import com.android.systemui.statusbar.StatusBarState;
 import com.android.systemui.statusbar.notification.NotificationFilter;
 import com.android.systemui.statusbar.notification.collection.NotificationEntry;
 import com.android.systemui.statusbar.policy.BatteryController;
 import com.android.systemui.statusbar.policy.HeadsUpManager;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -50,7 +61,8 @@ import javax.inject.Singleton;
  * Provides heads-up and pulsing state for notification entries.
  */
 @Singleton
-public class NotificationInterruptStateProviderImpl implements NotificationInterruptStateProvider {
+public class NotificationInterruptStateProviderImpl implements NotificationInterruptStateProvider,
+        Dumpable {
     private static final String TAG = "InterruptionStateProvider";
     private static final boolean DEBUG = true; //false;
     private static final boolean DEBUG_HEADS_UP = true;
@@ -67,10 +79,21 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
     private final BatteryController mBatteryController;
     private final ContentObserver mHeadsUpObserver;
     private HeadsUpManager mHeadsUpManager;
+    private final FeatureFlags mFeatureFlags;
 
     @VisibleForTesting
     protected boolean mUseHeadsUp = false;
 
+    /** Decisions by notification key, see {@link #getCachedDecision}. */
+    private final ArrayMap<String, CachedDecision> mCache = new ArrayMap<>();
+    /** Incremented whenever observable state that decisions depend on changes. */
+    private int mStateVersion;
+    /** Why the decision being made won't alert; set by the checks that return false. */
+    private String mDecisionReason = REASON_UNKNOWN;
+    private final ArrayMap<String, Integer> mReasonCounts = new ArrayMap<>();
+    private long mCacheHits;
+    private long mCacheMisses;
+
     @Inject
     public NotificationInterruptStateProviderImpl(
             ContentResolver contentResolver,
@@ -81,7 +104,9 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             BatteryController batteryController,
             StatusBarStateController statusBarStateController,
             HeadsUpManager headsUpManager,
-            @Main Handler mainHandler) {
+            @Main Handler mainHandler,
+            FeatureFlags featureFlags,
+            DumpManager dumpManager) {
         mContentResolver = contentResolver;
         mPowerManager = powerManager;
         mDreamManager = dreamManager;
@@ -90,9 +115,11 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
         mNotificationFilter = notificationFilter;
         mStatusBarStateController = statusBarStateController;
         mHeadsUpManager = headsUpManager;
+        mFeatureFlags = featureFlags;
         mHeadsUpObserver = new ContentObserver(mainHandler) {
             @Override
             public void onChange(boolean selfChange) {
+                mStateVersion++;
                 boolean wasUsing = mUseHeadsUp;
                 mUseHeadsUp = ENABLE_HEADS_UP
                         && Settings.Global.HEADS_UP_OFF != Settings.Global.getInt(
@@ -120,15 +147,40 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
                     mHeadsUpObserver);
         }
         mHeadsUpObserver.onChange(true); // set up
+
+        mStatusBarStateController.addCallback(new StatusBarStateController.StateListener() {
+            @Override
+            public void onStateChanged(int newState) {
+                mStateVersion++;
+            }
+
+            @Override
+            public void onDozingChanged(boolean isDozing) {
+                mStateVersion++;
+            }
+        });
+        dumpManager.registerDumpable(TAG, this);
     }
 
     @Override
     public void addSuppressor(NotificationInterruptSuppressor suppressor) {
         mSuppressors.add(suppressor);
+        mStateVersion++;
     }
 
     @Override
     public boolean shouldBubbleUp(NotificationEntry entry) {
+        final CachedDecision cached = getCachedDecision(entry);
+        if (cached != null && cached.mBubbleUp != DECISION_UNKNOWN) {
+            mCacheHits++;
+            return cached.mBubbleUp == DECISION_ALERT;
+        }
+        final boolean bubbleUp = computeShouldBubbleUp(entry);
+        recordDecision(cached, bubbleUp, false /* headsUp */);
+        return bubbleUp;
+    }
+
+    private boolean computeShouldBubbleUp(NotificationEntry entry) {
         final StatusBarNotification sbn = entry.getSbn();
 
         if (!canAlertCommon(entry)) {
@@ -143,6 +195,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG) {
                 Log.d(TAG, "No bubble up: not allowed to bubble: " + sbn.getKey());
             }
+            mDecisionReason = REASON_BUBBLE_NOT_ALLOWED;
             return false;
         }
 
@@ -153,6 +206,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
                 Log.d(TAG, "No bubble up: notification: " + sbn.getKey()
                         + " doesn't have valid metadata");
             }
+            mDecisionReason = REASON_BUBBLE_NO_METADATA;
             return false;
         }
 
@@ -162,11 +216,19 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
 
     @Override
     public boolean shouldHeadsUp(NotificationEntry entry) {
+        final CachedDecision cached = getCachedDecision(entry);
+        if (cached != null && cached.mHeadsUp != DECISION_UNKNOWN) {
+            mCacheHits++;
+            return cached.mHeadsUp == DECISION_ALERT;
+        }
+        final boolean headsUp;
         if (mStatusBarStateController.isDozing()) {
-            return shouldHeadsUpWhenDozing(entry);
+            headsUp = shouldHeadsUpWhenDozing(entry);
         } else {
-            return shouldHeadsUpWhenAwake(entry);
+            headsUp = shouldHeadsUpWhenAwake(entry);
         }
+        recordDecision(cached, headsUp, true /* headsUp */);
+        return headsUp;
     }
 
     /**
@@ -187,6 +249,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No heads up: no huns");
             }
+            mDecisionReason = REASON_HUNS_DISABLED;
             return false;
         }
 
@@ -202,6 +265,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No alerting: snoozed package: " + sbn.getKey());
             }
+            mDecisionReason = REASON_SNOOZED;
             return false;
         }
 
@@ -211,6 +275,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
                 Log.d(TAG, "No heads up: in unlocked shade where notification is shown as a "
                         + "bubble: " + sbn.getKey());
             }
+            mDecisionReason = REASON_SHOWN_AS_BUBBLE;
             return false;
         }
 
@@ -218,6 +283,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No heads up: suppressed by DND: " + sbn.getKey());
             }
+            mDecisionReason = REASON_DND_PEEK;
             return false;
         }
 
@@ -225,6 +291,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No heads up: unimportant notification: " + sbn.getKey());
             }
+            mDecisionReason = REASON_NOT_IMPORTANT;
             return false;
         }
 
@@ -240,6 +307,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No heads up: not in use: " + sbn.getKey());
             }
+            mDecisionReason = REASON_NOT_IN_USE;
             return false;
         }
 
@@ -249,6 +317,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
                     Log.d(TAG, "No heads up: aborted by suppressor: "
                             + mSuppressors.get(i).getName() + " sbnKey=" + sbn.getKey());
                 }
+                mDecisionReason = REASON_SUPPRESSOR_AWAKE_HEADS_UP;
                 return false;
             }
         }
@@ -269,6 +338,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No pulsing: disabled by setting: " + sbn.getKey());
             }
+            mDecisionReason = REASON_PULSE_DISABLED;
             return false;
         }
 
@@ -276,6 +346,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No pulsing: disabled by battery saver: " + sbn.getKey());
             }
+            mDecisionReason = REASON_BATTERY_SAVER;
             return false;
         }
 
@@ -290,6 +361,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No pulsing: ambient effect suppressed: " + sbn.getKey());
             }
+            mDecisionReason = REASON_DND_AMBIENT;
             return false;
         }
 
@@ -297,6 +369,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No pulsing: not important enough: " + sbn.getKey());
             }
+            mDecisionReason = REASON_NOT_IMPORTANT;
             return false;
         }
         return true;
@@ -315,6 +388,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG || DEBUG_HEADS_UP) {
                 Log.d(TAG, "No alerting: filtered notification: " + sbn.getKey());
             }
+            mDecisionReason = REASON_FILTERED;
             return false;
         }
 
@@ -323,6 +397,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG || DEBUG_HEADS_UP) {
                 Log.d(TAG, "No alerting: suppressed due to group alert behavior");
             }
+            mDecisionReason = REASON_GROUP_ALERT_BEHAVIOR;
             return false;
         }
 
@@ -332,6 +407,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
                     Log.d(TAG, "No alerting: aborted by suppressor: "
                             + mSuppressors.get(i).getName() + " sbnKey=" + sbn.getKey());
                 }
+                mDecisionReason = REASON_SUPPRESSOR_INTERRUPTIONS;
                 return false;
             }
         }
@@ -340,6 +416,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
             if (DEBUG_HEADS_UP) {
                 Log.d(TAG, "No alerting: recent fullscreen: " + sbn.getKey());
             }
+            mDecisionReason = REASON_RECENT_FULLSCREEN;
             return false;
         }
 
@@ -361,6 +438,7 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
                     Log.d(TAG, "No alerting: aborted by suppressor: "
                             + mSuppressors.get(i).getName() + " sbnKey=" + sbn.getKey());
                 }
+                mDecisionReason = REASON_SUPPRESSOR_AWAKE_INTERRUPTIONS;
                 return false;
             }
         }
@@ -370,4 +448,140 @@ public class NotificationInterruptStateProviderImpl implements NotificationInter
     private boolean isSnoozedPackage(StatusBarNotification sbn) {
         return mHeadsUpManager.isSnoozed(sbn.getPackageName());
     }
+
+    /**
+     * Returns the cached decisions for this entry, reset if anything they depend on may have
+     * changed, or null if decisions aren't being cached.
+     *
+     * Decisions are tied to the entry's current notification and ranking and to the version of
+     * the state that can be observed (settings, status bar state, suppressors and snoozing). Some
+     * inputs can't be observed, such as whether the device is dreaming or what the suppressors
+     * and the filter currently think, so decisions also expire after {@link #CACHE_MAX_AGE_MS}.
+     * That's long enough to cover the same event being looked at by several callers and both
+     * pipelines, and short enough that nothing visibly lags behind.
+     */
+    @Nullable
+    private CachedDecision getCachedDecision(NotificationEntry entry) {
+        if (!mFeatureFlags.isNotificationInterruptionCacheEnabled()) {
+            if (!mCache.isEmpty()) {
+                mCache.clear();
+            }
+            return null;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        final int version = mStateVersion + mHeadsUpManager.getSnoozeVersion();
+        CachedDecision cached = mCache.get(entry.getKey());
+        if (cached != null
+                && cached.mSbn == entry.getSbn()
+                && cached.mRanking == entry.getRanking()
+                && cached.mVersion == version
+                && cached.mUseHeadsUp == mUseHeadsUp
+                && cached.mIsBubble == entry.isBubble()
+                && cached.mJustLaunchedFullScreenIntent == entry.hasJustLaunchedFullScreenIntent()
+                && now - cached.mTimestamp <= CACHE_MAX_AGE_MS) {
+            return cached;
+        }
+        if (cached == null) {
+            if (mCache.size() >= MAX_CACHE_SIZE) {
+                evictExpired(now);
+            }
+            cached = new CachedDecision();
+            mCache.put(entry.getKey(), cached);
+        }
+        cached.mSbn = entry.getSbn();
+        cached.mRanking = entry.getRanking();
+        cached.mVersion = version;
+        cached.mUseHeadsUp = mUseHeadsUp;
+        cached.mIsBubble = entry.isBubble();
+        cached.mJustLaunchedFullScreenIntent = entry.hasJustLaunchedFullScreenIntent();
+        cached.mTimestamp = now;
+        cached.mHeadsUp = DECISION_UNKNOWN;
+        cached.mBubbleUp = DECISION_UNKNOWN;
+        return cached;
+    }
+
+    private void evictExpired(long now) {
+        for (int i = mCache.size() - 1; i >= 0; i--) {
+            if (now - mCache.valueAt(i).mTimestamp > CACHE_MAX_AGE_MS) {
+                mCache.removeAt(i);
+            }
+        }
+        if (mCache.size() >= MAX_CACHE_SIZE) {
+            mCache.clear();
+        }
+    }
+
+    private void recordDecision(@Nullable CachedDecision cached, boolean alert, boolean headsUp) {
+        mCacheMisses++;
+        final String reason = alert ? REASON_ALERT : mDecisionReason;
+        final int count = mReasonCounts.getOrDefault(reason, 0);
+        mReasonCounts.put(reason, count + 1);
+        mDecisionReason = REASON_UNKNOWN;
+        if (cached != null) {
+            if (headsUp) {
+                cached.mHeadsUp = alert ? DECISION_ALERT : DECISION_NO_ALERT;
+            } else {
+                cached.mBubbleUp = alert ? DECISION_ALERT : DECISION_NO_ALERT;
+            }
+        }
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        final long lookups = mCacheHits + mCacheMisses;
+        pw.println("\t" + TAG + " cacheEnabled="
+                + mFeatureFlags.isNotificationInterruptionCacheEnabled()
+                + " cached=" + mCache.size()
+                + " hits=" + mCacheHits
+                + " misses=" + mCacheMisses
+                + " hitRate=" + (lookups == 0 ? 0 : mCacheHits * 100 / lookups) + "%");
+        for (int i = 0; i < mReasonCounts.size(); i++) {
+            pw.println("\t\t" + mReasonCounts.keyAt(i) + ": " + mReasonCounts.valueAt(i));
+        }
+    }
+
+    @VisibleForTesting
+    long getCacheHitCount() {
+        return mCacheHits;
+    }
+
+    private static class CachedDecision {
+        StatusBarNotification mSbn;
+        Ranking mRanking;
+        int mVersion;
+        boolean mUseHeadsUp;
+        boolean mIsBubble;
+        boolean mJustLaunchedFullScreenIntent;
+        long mTimestamp;
+        int mHeadsUp;
+        int mBubbleUp;
+    }
+
+    private static final long CACHE_MAX_AGE_MS = 200;
+    private static final int MAX_CACHE_SIZE = 64;
+
+    private static final int DECISION_UNKNOWN = 0;
+    private static final int DECISION_ALERT = 1;
+    private static final int DECISION_NO_ALERT = 2;
+
+    private static final String REASON_UNKNOWN = "unknown";
+    private static final String REASON_ALERT = "alert";
+    private static final String REASON_BUBBLE_NOT_ALLOWED = "bubble not allowed";
+    private static final String REASON_BUBBLE_NO_METADATA = "no bubble metadata";
+    private static final String REASON_HUNS_DISABLED = "heads up disabled";
+    private static final String REASON_SNOOZED = "snoozed package";
+    private static final String REASON_SHOWN_AS_BUBBLE = "shown as bubble";
+    private static final String REASON_DND_PEEK = "peek suppressed by DND";
+    private static final String REASON_DND_AMBIENT = "ambient suppressed by DND";
+    private static final String REASON_NOT_IMPORTANT = "not important enough";
+    private static final String REASON_NOT_IN_USE = "device not in use";
+    private static final String REASON_PULSE_DISABLED = "pulsing disabled";
+    private static final String REASON_BATTERY_SAVER = "battery saver";
+    private static final String REASON_FILTERED = "filtered out";
+    private static final String REASON_GROUP_ALERT_BEHAVIOR = "group alert behavior";
+    private static final String REASON_RECENT_FULLSCREEN = "recent fullscreen intent";
+    private static final String REASON_SUPPRESSOR_INTERRUPTIONS = "suppressor: interruptions";
+    private static final String REASON_SUPPRESSOR_AWAKE_INTERRUPTIONS =
+            "suppressor: awake interruptions";
+    private static final String REASON_SUPPRESSOR_AWAKE_HEADS_UP = "suppressor: awake heads up";
 }
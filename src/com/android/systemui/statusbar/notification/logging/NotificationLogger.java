@@ -27,13 +27,16 @@ import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.statusbar.IStatusBarService;
 import com.android.internal.statusbar.NotificationVisibility;
+import com.android.systemui.Dumpable;
 import com.android.systemui.dagger.qualifiers.UiBackground;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.plugins.statusbar.StatusBarStateController;
 import com.android.systemui.plugins.statusbar.StatusBarStateController.StateListener;
 import com.android.systemui.statusbar.NotificationListener;
@@ -45,9 +48,13 @@ import com.android.systemui.statusbar.notification.dagger.NotificationsModule;
 import com.android.systemui.statusbar.notification.stack.ExpandableViewState;
 import com.android.systemui.statusbar.notification.stack.NotificationListContainer;
 import com.android.systemui.statusbar.policy.HeadsUpManager;
+import com.android.systemui.util.time.LatencyHistogram;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -58,16 +65,35 @@ import javax.inject.Inject;
  * Handles notification logging, in particular, logging which notifications are visible and which
  * are not.
  */
-public class NotificationLogger implements StateListener {
+public class NotificationLogger implements StateListener, Dumpable {
     private static final String TAG = "NotificationLogger";
     private static final boolean DEBUG = false;
 
     /** The minimum delay in ms between reports of notification visibility. */
     private static final int VISIBILITY_REPORT_MIN_DELAY_MS = 500;
 
-    /** Keys of notifications currently visible to the user. */
-    private final ArraySet<NotificationVisibility> mCurrentlyVisibleNotifications =
+    private static final int INITIAL_BATCH_CAPACITY = 8;
+    private static final int MAX_POOLED_BATCHES = 3;
+    private static final int MAX_POOLED_VISIBLE_NOTIFICATIONS = 32;
+
+    /** Notifications currently visible to the user, by key. Only accessed on the main thread. */
+    private final ArrayMap<String, VisibleNotification> mCurrentlyVisibleNotifications =
+            new ArrayMap<>();
+    private final ArrayDeque<VisibleNotification> mVisibleNotificationPool = new ArrayDeque<>();
+    private final ArraySet<NotificationVisibility> mTmpCurrentlyVisibleNotifications =
             new ArraySet<>();
+    private int mVisibilityPass;
+
+    /** Batches that aren't being filled or reported, shared with the background thread. */
+    @GuardedBy("mBatchPool")
+    private final ArrayDeque<VisibilityBatch> mBatchPool = new ArrayDeque<>();
+
+    private final LatencyHistogram mMainThreadLatency =
+            new LatencyHistogram("visibility main thread");
+    // Only written on the background thread; the dump may see slightly stale values.
+    private long mReportedBatches;
+    private long mReportedTransitions;
+    private int mMaxBatchSize;
 
     // Dependencies:
     private final NotificationListenerService mNotificationListener;
@@ -111,61 +137,54 @@ public class NotificationLogger implements StateListener {
     // Tracks notifications currently visible in mNotificationStackScroller and
     // emits visibility events via NoMan on changes.
     protected Runnable mVisibilityReporter = new Runnable() {
-        private final ArraySet<NotificationVisibility> mTmpNewlyVisibleNotifications =
-                new ArraySet<>();
-        private final ArraySet<NotificationVisibility> mTmpCurrentlyVisibleNotifications =
-                new ArraySet<>();
-        private final ArraySet<NotificationVisibility> mTmpNoLongerVisibleNotifications =
-                new ArraySet<>();
-
         @Override
         public void run() {
             mLastVisibilityReportUptimeMs = SystemClock.uptimeMillis();
-
-            // 1. Loop over active entries:
-            //   A. Keep list of visible notifications.
-            //   B. Keep list of previously hidden, now visible notifications.
-            // 2. Compute no-longer visible notifications by removing currently
-            //    visible notifications from the set of previously visible
-            //    notifications.
-            // 3. Report newly visible and no-longer visible notifications.
-            // 4. Keep currently visible notifications for next report.
+            final long startNanos = SystemClock.elapsedRealtimeNanos();
+
+            // 1. Loop over active entries, recording the ones that just became visible and
+            //    updating the position of the ones that already were.
+            // 2. Whatever was visible but wasn't seen in this pass is no longer visible.
+            // 3. Hand the transitions to the background thread, which turns them into
+            //    NotificationVisibility objects and reports them.
+            final VisibilityBatch batch = obtainBatch();
+            final int pass = ++mVisibilityPass;
             List<NotificationEntry> activeNotifications = mEntryManager.getVisibleNotifications();
             int N = activeNotifications.size();
             for (int i = 0; i < N; i++) {
                 NotificationEntry entry = activeNotifications.get(i);
+                if (!mListContainer.isInVisibleLocation(entry)) {
+                    continue;
+                }
                 String key = entry.getSbn().getKey();
-                boolean isVisible = mListContainer.isInVisibleLocation(entry);
-                NotificationVisibility visObj = NotificationVisibility.obtain(key, i, N, isVisible,
-                        getNotificationLocation(entry));
-                boolean previouslyVisible = mCurrentlyVisibleNotifications.contains(visObj);
-                if (isVisible) {
-                    // Build new set of visible notifications.
-                    mTmpCurrentlyVisibleNotifications.add(visObj);
-                    if (!previouslyVisible) {
-                        mTmpNewlyVisibleNotifications.add(visObj);
-                    }
-                } else {
-                    // release object
-                    visObj.recycle();
+                VisibleNotification visible = mCurrentlyVisibleNotifications.get(key);
+                final boolean newlyVisible = visible == null;
+                if (newlyVisible) {
+                    visible = obtainVisibleNotification();
+                    mCurrentlyVisibleNotifications.put(key, visible);
+                }
+                visible.set(key, i, N, getNotificationLocation(entry));
+                visible.mLastSeenPass = pass;
+                if (newlyVisible) {
+                    batch.mNewlyVisible.add(visible);
+                }
+            }
+            for (int i = mCurrentlyVisibleNotifications.size() - 1; i >= 0; i--) {
+                VisibleNotification visible = mCurrentlyVisibleNotifications.valueAt(i);
+                if (visible.mLastSeenPass != pass) {
+                    batch.mNoLongerVisible.add(visible);
+                    mCurrentlyVisibleNotifications.removeAt(i);
+                    releaseVisibleNotification(visible);
                 }
             }
-            mTmpNoLongerVisibleNotifications.addAll(mCurrentlyVisibleNotifications);
-            mTmpNoLongerVisibleNotifications.removeAll(mTmpCurrentlyVisibleNotifications);
-
-            logNotificationVisibilityChanges(
-                    mTmpNewlyVisibleNotifications, mTmpNoLongerVisibleNotifications);
-
-            recycleAllVisibilityObjects(mCurrentlyVisibleNotifications);
-            mCurrentlyVisibleNotifications.addAll(mTmpCurrentlyVisibleNotifications);
 
-            mExpansionStateLogger.onVisibilityChanged(
-                    mTmpCurrentlyVisibleNotifications, mTmpCurrentlyVisibleNotifications);
+            final ArraySet<NotificationVisibility> currentlyVisible =
+                    getCurrentlyVisibleNotifications();
+            mExpansionStateLogger.onVisibilityChanged(currentlyVisible, currentlyVisible);
+            recycleAllVisibilityObjects(currentlyVisible);
 
-            recycleAllVisibilityObjects(mTmpNoLongerVisibleNotifications);
-            mTmpCurrentlyVisibleNotifications.clear();
-            mTmpNewlyVisibleNotifications.clear();
-            mTmpNoLongerVisibleNotifications.clear();
+            mMainThreadLatency.record(SystemClock.elapsedRealtimeNanos() - startNanos);
+            reportVisibilityChanges(batch);
         }
     };
 
@@ -208,7 +227,8 @@ public class NotificationLogger implements StateListener {
             NotificationEntryManager entryManager,
             StatusBarStateController statusBarStateController,
             ExpansionStateLogger expansionStateLogger,
-            NotificationPanelLogger notificationPanelLogger) {
+            NotificationPanelLogger notificationPanelLogger,
+            DumpManager dumpManager) {
         mNotificationListener = notificationListener;
         mUiBgExecutor = uiBgExecutor;
         mEntryManager = entryManager;
@@ -218,6 +238,7 @@ public class NotificationLogger implements StateListener {
         mNotificationPanelLogger = notificationPanelLogger;
         // Not expected to be destroyed, don't need to unsubscribe
         statusBarStateController.addCallback(this);
+        dumpManager.registerDumpable(TAG, this);
 
         entryManager.addNotificationEntryListener(new NotificationEntryListener() {
             @Override
@@ -263,9 +284,14 @@ public class NotificationLogger implements StateListener {
             // Report all notifications as invisible and turn down the
             // reporter.
             if (!mCurrentlyVisibleNotifications.isEmpty()) {
-                logNotificationVisibilityChanges(
-                        Collections.emptyList(), mCurrentlyVisibleNotifications);
-                recycleAllVisibilityObjects(mCurrentlyVisibleNotifications);
+                final VisibilityBatch batch = obtainBatch();
+                for (int i = mCurrentlyVisibleNotifications.size() - 1; i >= 0; i--) {
+                    VisibleNotification visible = mCurrentlyVisibleNotifications.valueAt(i);
+                    batch.mNoLongerVisible.add(visible);
+                    releaseVisibleNotification(visible);
+                }
+                mCurrentlyVisibleNotifications.clear();
+                reportVisibilityChanges(batch);
             }
             mHandler.removeCallbacks(mVisibilityReporter);
             mListContainer.setChildLocationsChangedListener(null);
@@ -340,16 +366,21 @@ public class NotificationLogger implements StateListener {
         }
     }
 
-    private void logNotificationVisibilityChanges(
-            Collection<NotificationVisibility> newlyVisible,
-            Collection<NotificationVisibility> noLongerVisible) {
-        if (newlyVisible.isEmpty() && noLongerVisible.isEmpty()) {
+    private void reportVisibilityChanges(VisibilityBatch batch) {
+        if (batch.isEmpty()) {
+            releaseBatch(batch);
             return;
         }
-        final NotificationVisibility[] newlyVisibleAr = cloneVisibilitiesAsArr(newlyVisible);
-        final NotificationVisibility[] noLongerVisibleAr = cloneVisibilitiesAsArr(noLongerVisible);
-
         mUiBgExecutor.execute(() -> {
+            final NotificationVisibility[] newlyVisibleAr =
+                    batch.mNewlyVisible.toVisibilities();
+            final NotificationVisibility[] noLongerVisibleAr =
+                    batch.mNoLongerVisible.toVisibilities();
+            final int batchSize = newlyVisibleAr.length + noLongerVisibleAr.length;
+            mReportedBatches++;
+            mReportedTransitions += batchSize;
+            mMaxBatchSize = Math.max(mMaxBatchSize, batchSize);
+
             try {
                 mBarService.onNotificationVisibilityChanged(newlyVisibleAr, noLongerVisibleAr);
             } catch (RemoteException e) {
@@ -372,9 +403,50 @@ public class NotificationLogger implements StateListener {
             }
             recycleAllVisibilityObjects(newlyVisibleAr);
             recycleAllVisibilityObjects(noLongerVisibleAr);
+            releaseBatch(batch);
         });
     }
 
+    /**
+     * Returns the currently visible notifications as a set of {@link NotificationVisibility}
+     * objects, which must be recycled by the caller once it's done with them.
+     */
+    private ArraySet<NotificationVisibility> getCurrentlyVisibleNotifications() {
+        for (int i = 0; i < mCurrentlyVisibleNotifications.size(); i++) {
+            mTmpCurrentlyVisibleNotifications.add(
+                    mCurrentlyVisibleNotifications.valueAt(i).toVisibility());
+        }
+        return mTmpCurrentlyVisibleNotifications;
+    }
+
+    private VisibleNotification obtainVisibleNotification() {
+        final VisibleNotification visible = mVisibleNotificationPool.poll();
+        return visible != null ? visible : new VisibleNotification();
+    }
+
+    private void releaseVisibleNotification(VisibleNotification visible) {
+        visible.mKey = null;
+        if (mVisibleNotificationPool.size() < MAX_POOLED_VISIBLE_NOTIFICATIONS) {
+            mVisibleNotificationPool.add(visible);
+        }
+    }
+
+    private VisibilityBatch obtainBatch() {
+        synchronized (mBatchPool) {
+            final VisibilityBatch batch = mBatchPool.poll();
+            return batch != null ? batch : new VisibilityBatch();
+        }
+    }
+
+    private void releaseBatch(VisibilityBatch batch) {
+        batch.clear();
+        synchronized (mBatchPool) {
+            if (mBatchPool.size() < MAX_POOLED_BATCHES) {
+                mBatchPool.add(batch);
+            }
+        }
+    }
+
     private void recycleAllVisibilityObjects(ArraySet<NotificationVisibility> array) {
         final int N = array.size();
         for (int i = 0 ; i < N; i++) {
@@ -405,6 +477,15 @@ public class NotificationLogger implements StateListener {
         return array;
     }
 
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        pw.println("\t" + TAG + " visible=" + mCurrentlyVisibleNotifications.size()
+                + " batches=" + mReportedBatches
+                + " transitions=" + mReportedTransitions
+                + " maxBatchSize=" + mMaxBatchSize);
+        mMainThreadLatency.dump(pw, "\t\t");
+    }
+
     @VisibleForTesting
     public Runnable getVisibilityReporter() {
         return mVisibilityReporter;
@@ -484,6 +565,84 @@ public class NotificationLogger implements StateListener {
         mVisibilityReporter = visibilityReporter;
     }
 
+    /** What was last reported about a notification that's currently visible. */
+    private static final class VisibleNotification {
+        String mKey;
+        int mRank;
+        int mCount;
+        NotificationVisibility.NotificationLocation mLocation;
+        int mLastSeenPass;
+
+        void set(String key, int rank, int count,
+                NotificationVisibility.NotificationLocation location) {
+            mKey = key;
+            mRank = rank;
+            mCount = count;
+            mLocation = location;
+        }
+
+        NotificationVisibility toVisibility() {
+            return NotificationVisibility.obtain(mKey, mRank, mCount, true, mLocation);
+        }
+    }
+
+    /**
+     * Visibility transitions recorded during a single pass on the main thread. The arrays are
+     * reused from one batch to the next, so recording a transition doesn't allocate.
+     */
+    private static final class VisibilityBatch {
+        final Transitions mNewlyVisible = new Transitions();
+        final Transitions mNoLongerVisible = new Transitions();
+
+        boolean isEmpty() {
+            return mNewlyVisible.mSize == 0 && mNoLongerVisible.mSize == 0;
+        }
+
+        void clear() {
+            mNewlyVisible.clear();
+            mNoLongerVisible.clear();
+        }
+    }
+
+    private static final class Transitions {
+        String[] mKeys = new String[INITIAL_BATCH_CAPACITY];
+        int[] mRanks = new int[INITIAL_BATCH_CAPACITY];
+        int[] mCounts = new int[INITIAL_BATCH_CAPACITY];
+        NotificationVisibility.NotificationLocation[] mLocations =
+                new NotificationVisibility.NotificationLocation[INITIAL_BATCH_CAPACITY];
+        int mSize;
+
+        void add(VisibleNotification visible) {
+            if (mSize == mKeys.length) {
+                final int capacity = mSize * 2;
+                mKeys = Arrays.copyOf(mKeys, capacity);
+                mRanks = Arrays.copyOf(mRanks, capacity);
+                mCounts = Arrays.copyOf(mCounts, capacity);
+                mLocations = Arrays.copyOf(mLocations, capacity);
+            }
+            mKeys[mSize] = visible.mKey;
+            mRanks[mSize] = visible.mRank;
+            mCounts[mSize] = visible.mCount;
+            mLocations[mSize] = visible.mLocation;
+            mSize++;
+        }
+
+        NotificationVisibility[] toVisibilities() {
+            final NotificationVisibility[] array = new NotificationVisibility[mSize];
+            for (int i = 0; i < mSize; i++) {
+                array[i] = NotificationVisibility.obtain(
+                        mKeys[i], mRanks[i], mCounts[i], true, mLocations[i]);
+            }
+            return array;
+        }
+
+        void clear() {
+            Arrays.fill(mKeys, 0, mSize, null);
+            Arrays.fill(mLocations, 0, mSize, null);
+            mSize = 0;
+        }
+    }
+
     /**
      * A listener that is notified when some child locations might have changed.
      */
@@ -324,6 +324,7 @@ public class ExpandableNotificationRow extends ActivatableNotificationView
     private boolean mAboveShelf;
     private Runnable mOnDismissRunnable;
     private boolean mIsLowPriority;
+    private boolean mVirtualizeChildren;
     private boolean mIsColorized;
     private boolean mUseIncreasedCollapsedHeight;
     private boolean mUseIncreasedHeadsUpHeight;
@@ -1561,6 +1562,17 @@ public class ExpandableNotificationRow extends ActivatableNotificationView
         return mIsLowPriority;
     }
 
+    /**
+     * Sets whether the children container of this row should only keep the children it can
+     * actually show attached to the view hierarchy.
+     */
+    public void setVirtualizeChildren(boolean virtualizeChildren) {
+        mVirtualizeChildren = virtualizeChildren;
+        if (mChildrenContainer != null) {
+            mChildrenContainer.setVirtualizeChildren(virtualizeChildren);
+        }
+    }
+
     public void setUsesIncreasedCollapsedHeight(boolean use) {
         mUseIncreasedCollapsedHeight = use;
     }
@@ -1686,6 +1698,65 @@ public class ExpandableNotificationRow extends ActivatableNotificationView
         requestLayout();
     }
 
+    /**
+     * Returns this view to the state it was in right after being inflated, so it can be bound to a
+     * different notification. Only valid for rows that have been removed, aren't part of a group
+     * and aren't heads up; see {@link RowRecyclingPool}.
+     */
+    void resetForReuse() {
+        reset();
+        // reset() leaves the translation alone while the menu is showing
+        resetTranslation();
+        setTranslationX(0);
+        mNotificationTranslationFinished = false;
+        resetUserExpansion();
+        setUserLocked(false);
+        setForceUnlocked(false);
+        setExpandable(false);
+        setChildrenExpanded(false, false /* animate */);
+        mIsSystemExpanded = false;
+        mIsSystemChildExpanded = false;
+        mExpandedWhenPinned = false;
+        mChildIsExpanding = false;
+        mGroupExpansionChanging = false;
+        mHeadsupDisappearRunning = false;
+        mJustClicked = false;
+        setSensitive(false, false);
+        setHideSensitiveForIntrinsicHeight(false);
+        mRemoved = false;
+        mKeepInParent = false;
+        mTranslationWhenRemoved = 0;
+        mWasChildInGroupWhenRemoved = false;
+        setTransientContainer(null);
+
+        for (NotificationContentView layout : mLayouts) {
+            layout.setContractedChild(null);
+            layout.setExpandedChild(null);
+            layout.setHeadsUpChild(null);
+        }
+        mPrivateLayout.setHeadsUpInflatedSmartReplies(null);
+        mPrivateLayout.setExpandedInflatedSmartReplies(null);
+
+        setAlpha(1f);
+        setTranslationY(0);
+        setTranslationZ(0);
+        setContentTransformationAmount(0, false /* isLastChild */);
+        setClipTopAmount(0);
+        setClipBottomAmount(0);
+        setInShelf(false);
+        setTransformingInShelf(false);
+        setWillBeGone(false);
+        setVisibility(VISIBLE);
+    }
+
+    /**
+     * Whether the menu or the guts have ever been inflated for this row. Neither can be reset for
+     * a different notification, so such rows are never recycled.
+     */
+    boolean hasInflatedMenuOrGuts() {
+        return mGuts != null || (mMenuRow != null && mMenuRow.getMenuView() != null);
+    }
+
     public void showAppOpsIcons(ArraySet<Integer> activeOps) {
         if (mIsSummaryWithChildren) {
             mChildrenContainer.showAppOpsIcons(activeOps);
@@ -1768,6 +1839,7 @@ public class ExpandableNotificationRow extends ActivatableNotificationView
             public void onInflate(ViewStub stub, View inflated) {
                 mChildrenContainer = (NotificationChildrenContainer) inflated;
                 mChildrenContainer.setIsLowPriority(mIsLowPriority);
+                mChildrenContainer.setVirtualizeChildren(mVirtualizeChildren);
                 mChildrenContainer.setContainingNotification(ExpandableNotificationRow.this);
                 mChildrenContainer.onNotificationUpdated();
 
@@ -26,6 +26,7 @@ import com.android.systemui.plugins.FalsingManager;
 import com.android.systemui.plugins.statusbar.NotificationMenuRowPlugin;
 import com.android.systemui.plugins.statusbar.StatusBarStateController;
 import com.android.systemui.shared.plugins.PluginManager;
+import com.android.systemui.statusbar.FeatureFlags;
 import com.android.systemui.statusbar.NotificationMediaManager;
 import com.android.systemui.statusbar.notification.logging.NotificationLogger;
 import com.android.systemui.statusbar.notification.people.PeopleNotificationIdentifier;
@@ -69,6 +70,7 @@ public class ExpandableNotificationRowController {
     private final FalsingManager mFalsingManager;
     private final boolean mAllowLongPress;
     private final PeopleNotificationIdentifier mPeopleNotificationIdentifier;
+    private final FeatureFlags mFeatureFlags;
 
     @Inject
     public ExpandableNotificationRowController(ExpandableNotificationRow view,
@@ -84,7 +86,8 @@ public class ExpandableNotificationRowController {
             NotificationGutsManager notificationGutsManager,
             @Named(ALLOW_NOTIFICATION_LONG_PRESS_NAME) boolean allowLongPress,
             @DismissRunnable Runnable onDismissRunnable, FalsingManager falsingManager,
-            PeopleNotificationIdentifier peopleNotificationIdentifier) {
+            PeopleNotificationIdentifier peopleNotificationIdentifier,
+            FeatureFlags featureFlags) {
         mView = view;
         mActivatableNotificationViewController = activatableNotificationViewController;
         mMediaManager = mediaManager;
@@ -105,6 +108,7 @@ public class ExpandableNotificationRowController {
         mAllowLongPress = allowLongPress;
         mFalsingManager = falsingManager;
         mPeopleNotificationIdentifier = peopleNotificationIdentifier;
+        mFeatureFlags = featureFlags;
     }
 
     /**
@@ -128,6 +132,7 @@ public class ExpandableNotificationRowController {
                 mPeopleNotificationIdentifier
         );
         mView.setOnDismissRunnable(mOnDismissRunnable);
+        mView.setVirtualizeChildren(mFeatureFlags.isNotificationVirtualizedChildrenEnabled());
         mView.setDescendantFocusability(ViewGroup.FOCUS_BLOCK_DESCENDANTS);
         if (mAllowLongPress) {
             mView.setLongPressListener((v, x, y, item) -> {
@@ -142,21 +147,32 @@ public class ExpandableNotificationRowController {
             mView.setDescendantFocusability(ViewGroup.FOCUS_BEFORE_DESCENDANTS);
         }
 
-        mView.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
-            @Override
-            public void onViewAttachedToWindow(View v) {
-                mView.getEntry().setInitializationTime(mClock.elapsedRealtime());
-                mPluginManager.addPluginListener(mView,
-                        NotificationMenuRowPlugin.class, false /* Allow multiple */);
-            }
+        mView.addOnAttachStateChangeListener(mOnAttachStateChangeListener);
+    }
 
-            @Override
-            public void onViewDetachedFromWindow(View v) {
-                mPluginManager.removePluginListener(mView);
-            }
-        });
+    /**
+     * Called when the view is about to be reused for another notification, which will get its own
+     * controller.
+     */
+    public void onViewRecycled() {
+        mView.removeOnAttachStateChangeListener(mOnAttachStateChangeListener);
     }
 
+    private final View.OnAttachStateChangeListener mOnAttachStateChangeListener =
+            new View.OnAttachStateChangeListener() {
+                @Override
+                public void onViewAttachedToWindow(View v) {
+                    mView.getEntry().setInitializationTime(mClock.elapsedRealtime());
+                    mPluginManager.addPluginListener(mView,
+                            NotificationMenuRowPlugin.class, false /* Allow multiple */);
+                }
+
+                @Override
+                public void onViewDetachedFromWindow(View v) {
+                    mPluginManager.removePluginListener(mView);
+                }
+            };
+
     private void logNotificationExpansion(String key, boolean userAction, boolean expanded) {
         mNotificationLogger.onExpansionChanged(key, userAction, expanded);
     }
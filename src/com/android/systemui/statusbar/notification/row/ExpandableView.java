@@ -577,8 +577,15 @@ public abstract class ExpandableView extends FrameLayout implements Dumpable {
 
     /** Sets {@link ExpandableViewState} to default state. */
     public ExpandableViewState resetViewState() {
+        return resetViewState(getIntrinsicHeight());
+    }
+
+    /**
+     * Same as {@link #resetViewState()}, but with an intrinsic height the caller already knows.
+     */
+    public ExpandableViewState resetViewState(int intrinsicHeight) {
         // initialize with the default values of the view
-        mViewState.height = getIntrinsicHeight();
+        mViewState.height = intrinsicHeight;
         mViewState.gone = getVisibility() == View.GONE;
         mViewState.alpha = 1f;
         mViewState.notGoneIndex = -1;
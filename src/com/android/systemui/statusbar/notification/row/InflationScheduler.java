@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.row;
+
+import android.annotation.IntDef;
+import android.os.AsyncTask;
+import android.util.ArrayMap;
+
+import androidx.annotation.NonNull;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.Dumpable;
+import com.android.systemui.dagger.qualifiers.Background;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.util.time.LatencyHistogram;
+import com.android.systemui.util.time.SystemClock;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Decides the order in which the background half of content inflation runs.
+ *
+ * Rather than handing every {@link NotificationContentInflater.AsyncInflationTask} straight to
+ * the background executor (which runs them in arrival order), tasks are held in a priority queue
+ * and only a bounded number of them are handed to the executor at any one time. This lets a
+ * heads-up notification jump ahead of, say, a burst of children of a collapsed group.
+ *
+ * Only one request is kept per notification key: scheduling a new request for a key drops any
+ * request for that key that hasn't started yet, since it has been superseded.
+ */
+@Singleton
+public class InflationScheduler implements Dumpable {
+    private final Executor mExecutor;
+    private final SystemClock mClock;
+    private final int mMaxConcurrentRequests;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final PriorityQueue<Request> mQueue = new PriorityQueue<>();
+    @GuardedBy("mLock")
+    private final ArrayMap<String, Request> mPendingRequests = new ArrayMap<>();
+    @GuardedBy("mLock")
+    private int mRunningWorkers;
+    @GuardedBy("mLock")
+    private long mNextSequence;
+    @GuardedBy("mLock")
+    private int mSupersededCount;
+    @GuardedBy("mLock")
+    private int mCanceledCount;
+    @GuardedBy("mLock")
+    private final LatencyHistogram[] mWaitHistograms = new LatencyHistogram[PRIORITY_COUNT];
+    @GuardedBy("mLock")
+    private final LatencyHistogram[] mRunHistograms = new LatencyHistogram[PRIORITY_COUNT];
+
+    @Inject
+    public InflationScheduler(
+            @Background Executor bgExecutor,
+            SystemClock clock,
+            DumpManager dumpManager) {
+        this(bgExecutor, clock, MAX_CONCURRENT_REQUESTS);
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    @VisibleForTesting
+    InflationScheduler(Executor executor, SystemClock clock, int maxConcurrentRequests) {
+        mExecutor = executor;
+        mClock = clock;
+        mMaxConcurrentRequests = maxConcurrentRequests;
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mWaitHistograms[i] = new LatencyHistogram(priorityToString(i) + " wait");
+            mRunHistograms[i] = new LatencyHistogram(priorityToString(i) + " inflate");
+        }
+    }
+
+    /**
+     * Executes the task once every more important request ahead of it has started. Any request
+     * for the same key that hasn't started yet is dropped.
+     */
+    public void schedule(
+            @NonNull String key,
+            @Priority int priority,
+            @NonNull AsyncTask<Void, ?, ?> task) {
+        task.executeOnExecutor(runnable -> enqueue(key, priority, runnable));
+    }
+
+    /** Drops the pending request for the given key, if it hasn't started yet. */
+    public void cancel(@NonNull String key) {
+        synchronized (mLock) {
+            final Request request = mPendingRequests.remove(key);
+            if (request != null) {
+                mQueue.remove(request);
+                mCanceledCount++;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void enqueue(@NonNull String key, @Priority int priority, @NonNull Runnable runnable) {
+        synchronized (mLock) {
+            final Request superseded = mPendingRequests.remove(key);
+            if (superseded != null) {
+                mQueue.remove(superseded);
+                mSupersededCount++;
+            }
+            final Request request = new Request(
+                    key, priority, runnable, mNextSequence++, mClock.elapsedRealtimeNanos());
+            mPendingRequests.put(key, request);
+            mQueue.add(request);
+            startWorkersLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void startWorkersLocked() {
+        while (mRunningWorkers < mMaxConcurrentRequests && !mQueue.isEmpty()) {
+            mRunningWorkers++;
+            mExecutor.execute(mWorker);
+        }
+    }
+
+    @VisibleForTesting
+    int getPendingCount() {
+        synchronized (mLock) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * Runs the most important pending request. Each worker runs a single request and then posts
+     * a new worker, so that other work on the executor isn't starved by a long queue.
+     */
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            final Request request;
+            final long startTime;
+            synchronized (mLock) {
+                request = mQueue.poll();
+                if (request == null) {
+                    mRunningWorkers--;
+                    return;
+                }
+                mPendingRequests.remove(request.mKey);
+                startTime = mClock.elapsedRealtimeNanos();
+                mWaitHistograms[request.mPriority].record(startTime - request.mEnqueueTime);
+            }
+
+            try {
+                request.mRunnable.run();
+            } finally {
+                synchronized (mLock) {
+                    mRunHistograms[request.mPriority].record(
+                            mClock.elapsedRealtimeNanos() - startTime);
+                    mRunningWorkers--;
+                    startWorkersLocked();
+                }
+            }
+        }
+    };
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        synchronized (mLock) {
+            pw.println("\t" + TAG + " pending=" + mQueue.size()
+                    + " running=" + mRunningWorkers + "/" + mMaxConcurrentRequests
+                    + " superseded=" + mSupersededCount
+                    + " canceled=" + mCanceledCount);
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                mWaitHistograms[i].dump(pw, "\t\t");
+                mRunHistograms[i].dump(pw, "\t\t");
+            }
+        }
+    }
+
+    static String priorityToString(@Priority int priority) {
+        switch (priority) {
+            case PRIORITY_HEADS_UP:
+                return "headsUp";
+            case PRIORITY_VISIBLE:
+                return "visible";
+            case PRIORITY_OFFSCREEN:
+                return "offscreen";
+            case PRIORITY_MINIMIZED_CHILD:
+                return "minimizedChild";
+            default:
+                return "unknown(" + priority + ")";
+        }
+    }
+
+    private static class Request implements Comparable<Request> {
+        final String mKey;
+        final @Priority int mPriority;
+        final Runnable mRunnable;
+        final long mSequence;
+        final long mEnqueueTime;
+
+        Request(String key, int priority, Runnable runnable, long sequence, long enqueueTime) {
+            mKey = key;
+            mPriority = priority;
+            mRunnable = runnable;
+            mSequence = sequence;
+            mEnqueueTime = enqueueTime;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(prefix = { "PRIORITY_" }, value = {
+            PRIORITY_HEADS_UP,
+            PRIORITY_VISIBLE,
+            PRIORITY_OFFSCREEN,
+            PRIORITY_MINIMIZED_CHILD,
+    })
+    public @interface Priority {}
+
+    /** The notification is (or is about to be) heads up. */
+    public static final int PRIORITY_HEADS_UP = 0;
+
+    /** The notification is currently shown in the shade. */
+    public static final int PRIORITY_VISIBLE = 1;
+
+    /** The notification isn't currently visible to the user. */
+    public static final int PRIORITY_OFFSCREEN = 2;
+
+    /** The notification is a child of a group that isn't expanded. */
+    public static final int PRIORITY_MINIMIZED_CHILD = 3;
+
+    private static final int PRIORITY_COUNT = 4;
+
+    /**
+     * The background executor is backed by a single looper thread, so handing it more than one
+     * request at a time would only move the ordering decision back into its FIFO queue.
+     */
+    private static final int MAX_CONCURRENT_REQUESTS = 1;
+
+    private static final String TAG = "InflationScheduler";
+}
@@ -16,45 +16,92 @@
 
 package com.android.systemui.statusbar.notification.row;
 
-import android.util.ArrayMap;
+import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_EXPANDED;
+import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_HEADS_UP;
+import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_PUBLIC;
+
+import android.content.res.Resources;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.widget.RemoteViews;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.systemui.Dumpable;
+import com.android.systemui.R;
+import com.android.systemui.dagger.qualifiers.Main;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.statusbar.notification.collection.NotificationEntry;
 import com.android.systemui.statusbar.notification.collection.notifcollection.CommonNotifCollection;
 import com.android.systemui.statusbar.notification.collection.notifcollection.NotifCollectionListener;
 import com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.InflationFlag;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.inject.Inject;
 
 /**
  * Implementation of remote view cache that keeps remote views cached for all active notifications.
+ *
+ * If given a byte budget, the cache also keeps an estimate of the size of each cached view. Once
+ * the budget is exceeded, the views that aren't currently visible (expanded, heads up and public
+ * views of offscreen notifications) are evicted, least recently used notification first. Evicting
+ * a view only means it has to be fully reinflated instead of reapplied the next time it's bound.
  */
-public class NotifRemoteViewCacheImpl implements NotifRemoteViewCache {
-    private final Map<NotificationEntry, SparseArray<RemoteViews>> mNotifCachedContentViews =
-            new ArrayMap<>();
+public class NotifRemoteViewCacheImpl implements NotifRemoteViewCache, Dumpable {
+    /** Ordered from least to most recently used. */
+    private final Map<NotificationEntry, CachedViews> mNotifCachedContentViews =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int mBudgetBytes;
+    private int mTotalBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+    private long mEvictedBytes;
 
     @Inject
-    NotifRemoteViewCacheImpl(CommonNotifCollection collection) {
+    NotifRemoteViewCacheImpl(
+            CommonNotifCollection collection,
+            @Main Resources resources,
+            DumpManager dumpManager) {
+        this(collection,
+                resources.getInteger(R.integer.config_notification_remote_view_cache_budget_kb)
+                        * 1024);
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    @VisibleForTesting
+    NotifRemoteViewCacheImpl(CommonNotifCollection collection, int budgetBytes) {
+        mBudgetBytes = budgetBytes;
         collection.addCollectionListener(mCollectionListener);
     }
 
     @Override
     public boolean hasCachedView(NotificationEntry entry, @InflationFlag int flag) {
-        return getCachedView(entry, flag) != null;
+        CachedViews cachedViews = mNotifCachedContentViews.get(entry);
+        return cachedViews != null && cachedViews.mViews.get(flag) != null;
     }
 
     @Override
     public @Nullable RemoteViews getCachedView(NotificationEntry entry, @InflationFlag int flag) {
-        SparseArray<RemoteViews> contentViews = mNotifCachedContentViews.get(entry);
-        if (contentViews == null) {
+        CachedViews cachedViews = mNotifCachedContentViews.get(entry);
+        if (cachedViews == null) {
             return null;
         }
-        return contentViews.get(flag);
+        RemoteViews remoteViews = cachedViews.mViews.get(flag);
+        if (remoteViews != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return remoteViews;
     }
 
     @Override
@@ -67,40 +114,141 @@ public class NotifRemoteViewCacheImpl implements NotifRemoteViewCache {
          * content views aren't created. We don't do that right now because we have edge cases
          * where we may bind/unbind content after a notification is removed.
          */
-        SparseArray<RemoteViews> contentViews = mNotifCachedContentViews.get(entry);
-        if (contentViews == null) {
+        CachedViews cachedViews = mNotifCachedContentViews.get(entry);
+        if (cachedViews == null) {
             return;
         }
-        contentViews.put(flag, remoteView);
+        cachedViews.remove(flag);
+        cachedViews.mViews.put(flag, remoteView);
+        if (isBounded()) {
+            final int size = estimateSize(remoteView);
+            cachedViews.mSizes.put(flag, size);
+            cachedViews.mBytes += size;
+            mTotalBytes += size;
+            trimToBudget();
+        }
     }
 
     @Override
     public void removeCachedView(NotificationEntry entry, @InflationFlag int flag) {
-        SparseArray<RemoteViews> contentViews = mNotifCachedContentViews.get(entry);
-        if (contentViews == null) {
+        CachedViews cachedViews = mNotifCachedContentViews.get(entry);
+        if (cachedViews == null) {
             return;
         }
-        contentViews.remove(flag);
+        cachedViews.remove(flag);
     }
 
     @Override
     public void clearCache(NotificationEntry entry) {
-        SparseArray<RemoteViews> contentViews = mNotifCachedContentViews.get(entry);
-        if (contentViews == null) {
+        CachedViews cachedViews = mNotifCachedContentViews.get(entry);
+        if (cachedViews == null) {
             return;
         }
-        contentViews.clear();
+        cachedViews.clear();
+    }
+
+    @VisibleForTesting
+    int getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    private boolean isBounded() {
+        return mBudgetBytes > 0;
+    }
+
+    /**
+     * Evicts views that aren't visible, starting from the least recently used notification,
+     * until the cache fits in its budget (or there's nothing left that can be evicted).
+     */
+    private void trimToBudget() {
+        Iterator<Map.Entry<NotificationEntry, CachedViews>> it =
+                mNotifCachedContentViews.entrySet().iterator();
+        while (mTotalBytes > mBudgetBytes && it.hasNext()) {
+            Map.Entry<NotificationEntry, CachedViews> mapEntry = it.next();
+            NotificationEntry entry = mapEntry.getKey();
+            if (isVisible(entry)) {
+                continue;
+            }
+            CachedViews cachedViews = mapEntry.getValue();
+            evict(cachedViews, FLAG_CONTENT_VIEW_PUBLIC);
+            evict(cachedViews, FLAG_CONTENT_VIEW_EXPANDED);
+            if (!entry.isRowHeadsUp()) {
+                evict(cachedViews, FLAG_CONTENT_VIEW_HEADS_UP);
+            }
+        }
+    }
+
+    private void evict(CachedViews cachedViews, @InflationFlag int flag) {
+        if (cachedViews.mViews.get(flag) == null) {
+            return;
+        }
+        mEvictions++;
+        mEvictedBytes += cachedViews.remove(flag);
+    }
+
+    private static boolean isVisible(NotificationEntry entry) {
+        ExpandableNotificationRow row = entry.getRow();
+        return row != null && row.isShown() && !row.isInShelf();
+    }
+
+    /**
+     * Bitmaps make up the bulk of a RemoteViews' footprint; everything else is approximated by a
+     * fixed overhead per view.
+     */
+    private static int estimateSize(RemoteViews remoteViews) {
+        return remoteViews.estimateMemoryUsage() + REMOTE_VIEWS_OVERHEAD_BYTES;
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        pw.println("\t" + TAG + " entries=" + mNotifCachedContentViews.size()
+                + " budget=" + (isBounded() ? (mBudgetBytes / 1024) + "KB" : "unbounded")
+                + " used=" + (mTotalBytes / 1024) + "KB");
+        pw.println("\t\t hits=" + mHits
+                + " misses=" + mMisses
+                + " evictions=" + mEvictions
+                + " evictedBytes=" + mEvictedBytes);
     }
 
     private final NotifCollectionListener mCollectionListener = new NotifCollectionListener() {
         @Override
         public void onEntryInit(NotificationEntry entry) {
-            mNotifCachedContentViews.put(entry, new SparseArray<>());
+            mNotifCachedContentViews.put(entry, new CachedViews());
         }
 
         @Override
         public void onEntryCleanUp(NotificationEntry entry) {
-            mNotifCachedContentViews.remove(entry);
+            CachedViews cachedViews = mNotifCachedContentViews.remove(entry);
+            if (cachedViews != null) {
+                cachedViews.clear();
+            }
         }
     };
+
+    private class CachedViews {
+        final SparseArray<RemoteViews> mViews = new SparseArray<>();
+        final SparseIntArray mSizes = new SparseIntArray();
+        int mBytes;
+
+        /** Removes the view for the flag and returns the number of bytes freed. */
+        int remove(@InflationFlag int flag) {
+            mViews.remove(flag);
+            final int size = mSizes.get(flag);
+            mSizes.delete(flag);
+            mBytes -= size;
+            mTotalBytes -= size;
+            return size;
+        }
+
+        void clear() {
+            mViews.clear();
+            mSizes.clear();
+            mTotalBytes -= mBytes;
+            mBytes = 0;
+        }
+    }
+
+    private static final int REMOTE_VIEWS_OVERHEAD_BYTES = 1024;
+
+    private static final String TAG = "NotifRemoteViewCache";
 }
@@ -77,6 +77,7 @@ public class NotificationContentInflater implements NotificationRowContentBinder
     private final Lazy<SmartReplyController> mSmartReplyController;
     private final ConversationNotificationProcessor mConversationProcessor;
     private final Executor mBgExecutor;
+    private final InflationScheduler mInflationScheduler;
 
     @Inject
     NotificationContentInflater(
@@ -85,13 +86,15 @@ public class NotificationContentInflater implements NotificationRowContentBinder
             Lazy<SmartReplyConstants> smartReplyConstants,
             Lazy<SmartReplyController> smartReplyController,
             ConversationNotificationProcessor conversationProcessor,
-            @Background Executor bgExecutor) {
+            @Background Executor bgExecutor,
+            InflationScheduler inflationScheduler) {
         mRemoteViewCache = remoteViewCache;
         mRemoteInputManager = remoteInputManager;
         mSmartReplyConstants = smartReplyConstants;
         mSmartReplyController = smartReplyController;
         mConversationProcessor = conversationProcessor;
         mBgExecutor = bgExecutor;
+        mInflationScheduler = inflationScheduler;
     }
 
     @Override
@@ -139,7 +142,7 @@ public class NotificationContentInflater implements NotificationRowContentBinder
         if (mInflateSynchronously) {
             task.onPostExecute(task.doInBackground());
         } else {
-            task.executeOnExecutor(mBgExecutor);
+            mInflationScheduler.schedule(entry.getKey(), bindParams.inflationPriority, task);
         }
     }
 
@@ -181,6 +184,7 @@ public class NotificationContentInflater implements NotificationRowContentBinder
             @NonNull NotificationEntry entry,
             @NonNull ExpandableNotificationRow row) {
         entry.abortTask();
+        mInflationScheduler.cancel(entry.getKey());
     }
 
     @Override
@@ -293,6 +297,12 @@ public class NotificationContentInflater implements NotificationRowContentBinder
 
         if ((reInflateFlags & FLAG_CONTENT_VIEW_EXPANDED) != 0) {
             result.newExpandedView = createExpandedView(builder, isLowPriority);
+        } else if ((reInflateFlags & FLAG_CONTENT_VIEW_CONTRACTED) != 0) {
+            // The expanded view isn't bound (e.g. the row is far offscreen), but whether the row
+            // is expandable still has to follow the new content. Building the RemoteViews is
+            // enough to know that; only inflating them is skipped.
+            result.expandabilityUpdated = true;
+            result.hasExpandedView = createExpandedView(builder, isLowPriority) != null;
         }
 
         if ((reInflateFlags & FLAG_CONTENT_VIEW_HEADS_UP) != 0) {
@@ -600,6 +610,8 @@ public class NotificationContentInflater implements NotificationRowContentBinder
                     privateLayout.setExpandedInflatedSmartReplies(null);
                 }
                 row.setExpandable(result.newExpandedView != null);
+            } else if (result.expandabilityUpdated) {
+                row.setExpandable(result.hasExpandedView);
             }
 
             if ((reInflateFlags & FLAG_CONTENT_VIEW_HEADS_UP) != 0) {
@@ -862,6 +874,8 @@ public class NotificationContentInflater implements NotificationRowContentBinder
         private RemoteViews newHeadsUpView;
         private RemoteViews newExpandedView;
         private RemoteViews newPublicView;
+        private boolean expandabilityUpdated;
+        private boolean hasExpandedView;
 
         @VisibleForTesting
         Context packageContext;
@@ -16,26 +16,54 @@
 
 package com.android.systemui.statusbar.notification.row;
 
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
+import android.os.Process;
 import android.util.Log;
+import android.util.LruCache;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A cache for inline images of image messages.
+ *
+ * Each row has its own instance, which keeps track of the images that row wants. The decoded
+ * images themselves live in a single {@link DecodedImageStore} shared by all rows, so a photo
+ * that shows up in several notifications (e.g. the same group chat) is only decoded and kept in
+ * memory once.
  */
 public class NotificationInlineImageCache implements NotificationInlineImageResolver.ImageCache {
     private static final String TAG = NotificationInlineImageCache.class.getSimpleName();
+    private static final boolean DEBUG = false;
 
     private NotificationInlineImageResolver mResolver;
-    private final ConcurrentHashMap<Uri, PreloadImageTask> mCache;
+    private final DecodedImageStore mStore;
+    private final ConcurrentHashMap<Uri, Future<BitmapDrawable>> mCache;
 
     public NotificationInlineImageCache() {
+        this(DecodedImageStore.getInstance());
+    }
+
+    @VisibleForTesting
+    NotificationInlineImageCache(DecodedImageStore store) {
+        mStore = store;
         mCache = new ConcurrentHashMap<>();
     }
 
@@ -51,16 +79,19 @@ public class NotificationInlineImageCache implements NotificationInlineImageReso
 
     @Override
     public void preload(Uri uri) {
-        PreloadImageTask newTask = new PreloadImageTask(mResolver);
-        newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, uri);
-        mCache.put(uri, newTask);
+        mCache.put(uri, mStore.load(mResolver, uri));
     }
 
     @Override
     public Drawable get(Uri uri) {
         Drawable result = null;
         try {
-            result = mCache.get(uri).get();
+            BitmapDrawable shared = mCache.get(uri).get();
+            if (shared != null) {
+                // Hand out a new drawable backed by the same bitmap, since drawables carry
+                // per-view state such as bounds.
+                result = shared.getConstantState().newDrawable();
+            }
         } catch (InterruptedException | ExecutionException ex) {
             Log.d(TAG, "get: Failed get image from " + uri);
         }
@@ -73,25 +104,131 @@ public class NotificationInlineImageCache implements NotificationInlineImageReso
         mCache.entrySet().removeIf(entry -> !wantedSet.contains(entry.getKey()));
     }
 
-    private static class PreloadImageTask extends AsyncTask<Uri, Void, Drawable> {
-        private final NotificationInlineImageResolver mResolver;
+    /**
+     * Decoded images shared by every row, held in an LRU cache with a byte budget and keyed by
+     * both the Uri and the size the image was decoded for. Loads run on a small dedicated pool and
+     * concurrent requests for the same image share a single load.
+     */
+    @VisibleForTesting
+    static class DecodedImageStore {
+        private static DecodedImageStore sInstance;
+
+        private final Executor mDecodeExecutor;
+        private final LruCache<Key, BitmapDrawable> mDecoded;
+        @GuardedBy("mInFlight")
+        private final Map<Key, CompletableFuture<BitmapDrawable>> mInFlight = new HashMap<>();
+
+        static synchronized DecodedImageStore getInstance() {
+            if (sInstance == null) {
+                sInstance = new DecodedImageStore(MAX_CACHED_BYTES,
+                        Executors.newFixedThreadPool(DECODE_THREADS, new DecodeThreadFactory()));
+            }
+            return sInstance;
+        }
 
-        PreloadImageTask(NotificationInlineImageResolver resolver) {
-            mResolver = resolver;
+        DecodedImageStore(int maxBytes, Executor decodeExecutor) {
+            mDecodeExecutor = decodeExecutor;
+            mDecoded = new LruCache<Key, BitmapDrawable>(maxBytes) {
+                @Override
+                protected int sizeOf(Key key, BitmapDrawable value) {
+                    Bitmap bitmap = value.getBitmap();
+                    return bitmap != null ? bitmap.getAllocationByteCount() : 0;
+                }
+            };
+        }
+
+        /**
+         * Returns a future for the image at the given Uri, decoded no larger than the resolver's
+         * maximum image size. The future completes with null if the image can't be loaded.
+         */
+        Future<BitmapDrawable> load(NotificationInlineImageResolver resolver, Uri uri) {
+            final Key key = new Key(uri, resolver.mMaxImageWidth, resolver.mMaxImageHeight);
+            final BitmapDrawable cached = mDecoded.get(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+
+            final CompletableFuture<BitmapDrawable> future;
+            synchronized (mInFlight) {
+                final CompletableFuture<BitmapDrawable> inFlight = mInFlight.get(key);
+                if (inFlight != null) {
+                    return inFlight;
+                }
+                future = new CompletableFuture<>();
+                mInFlight.put(key, future);
+            }
+
+            mDecodeExecutor.execute(() -> {
+                BitmapDrawable drawable = null;
+                try {
+                    drawable = (BitmapDrawable) resolver.resolveImage(uri);
+                    mDecoded.put(key, drawable);
+                } catch (IOException | SecurityException | ClassCastException ex) {
+                    if (DEBUG) Log.d(TAG, "DecodedImageStore: Resolve failed from " + uri, ex);
+                } finally {
+                    synchronized (mInFlight) {
+                        mInFlight.remove(key);
+                    }
+                    future.complete(drawable);
+                }
+            });
+            return future;
+        }
+
+        @VisibleForTesting
+        int getCachedBytes() {
+            return mDecoded.size();
+        }
+    }
+
+    private static final class Key {
+        final Uri mUri;
+        final int mMaxWidth;
+        final int mMaxHeight;
+
+        Key(Uri uri, int maxWidth, int maxHeight) {
+            mUri = uri;
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
         }
 
         @Override
-        protected Drawable doInBackground(Uri... uris) {
-            Drawable drawable = null;
-            Uri target = uris[0];
-
-            try {
-                drawable = mResolver.resolveImage(target);
-            } catch (IOException | SecurityException ex) {
-                Log.d(TAG, "PreloadImageTask: Resolve failed from " + target, ex);
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
             }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mMaxWidth == other.mMaxWidth
+                    && mMaxHeight == other.mMaxHeight
+                    && mUri.equals(other.mUri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mUri, mMaxWidth, mMaxHeight);
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
 
-            return drawable;
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "InlineImageDecoder-" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
         }
     }
+
+    /** Total size of the decoded images kept around across all notifications. */
+    private static final int MAX_CACHED_BYTES = 8 * 1024 * 1024;
+
+    /** Number of images that may be decoded at the same time. */
+    private static final int DECODE_THREADS = 2;
 }
@@ -20,6 +20,7 @@ import android.app.ActivityManager;
 import android.app.Notification;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.Icon;
@@ -27,11 +28,11 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.util.Log;
+import android.util.Size;
 
 import com.android.internal.R;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.widget.ImageResolver;
-import com.android.internal.widget.LocalImageResolver;
 import com.android.internal.widget.MessagingMessage;
 
 import java.io.IOException;
@@ -110,9 +111,28 @@ public class NotificationInlineImageResolver implements ImageResolver {
                 : R.dimen.notification_custom_view_max_image_height);
     }
 
+    /**
+     * Decodes the image, downsampling it while decoding so that it fits within the maximum
+     * allowed size. This avoids ever allocating the full resolution bitmap.
+     */
     @VisibleForTesting
     protected BitmapDrawable resolveImageInternal(Uri uri) throws IOException {
-        return (BitmapDrawable) LocalImageResolver.resolveImage(uri, mContext);
+        final int maxWidth = mMaxImageWidth;
+        final int maxHeight = mMaxImageHeight;
+        Bitmap bitmap = ImageDecoder.decodeBitmap(
+                ImageDecoder.createSource(mContext.getContentResolver(), uri),
+                (decoder, info, source) -> {
+                    decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                    Size size = info.getSize();
+                    if (size.getWidth() > maxWidth || size.getHeight() > maxHeight) {
+                        float scale = Math.min((float) maxWidth / size.getWidth(),
+                                (float) maxHeight / size.getHeight());
+                        decoder.setTargetSize(
+                                Math.max(1, Math.round(size.getWidth() * scale)),
+                                Math.max(1, Math.round(size.getHeight() * scale)));
+                    }
+                });
+        return new BitmapDrawable(mContext.getResources(), bitmap);
     }
 
     /**
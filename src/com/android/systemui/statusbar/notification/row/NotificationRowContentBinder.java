@@ -122,6 +122,12 @@ public interface NotificationRowContentBinder {
          * Use increased height when binding heads up views.
          */
         public boolean usesIncreasedHeadsUpHeight;
+
+        /**
+         * How urgently the content should be inflated relative to other pending bind requests.
+         */
+        public @InflationScheduler.Priority int inflationPriority =
+                InflationScheduler.PRIORITY_VISIBLE;
     }
 
     /**
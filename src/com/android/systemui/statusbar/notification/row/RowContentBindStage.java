@@ -16,7 +16,12 @@
 
 package com.android.systemui.statusbar.notification.row;
 
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_HEADS_UP;
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_MINIMIZED_CHILD;
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_OFFSCREEN;
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_VISIBLE;
 import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_ALL;
+import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_HEADS_UP;
 
 import androidx.annotation.NonNull;
 
@@ -73,6 +78,7 @@ public class RowContentBindStage extends BindStage<RowContentBindParams> {
         bindParams.isLowPriority = params.useLowPriority();
         bindParams.usesIncreasedHeight = params.useIncreasedHeight();
         bindParams.usesIncreasedHeadsUpHeight = params.useIncreasedHeadsUpHeight();
+        bindParams.inflationPriority = getInflationPriority(row, contentToBind);
         boolean forceInflate = params.needsReinflation();
 
         InflationCallback inflationCallback = new InflationCallback() {
@@ -99,6 +105,28 @@ public class RowContentBindStage extends BindStage<RowContentBindParams> {
         mBinder.cancelBind(entry, row);
     }
 
+    /**
+     * Heads up content is what the user is about to see, so it goes first, followed by rows
+     * currently shown in the shade. Children of collapsed groups go last.
+     */
+    private static @InflationScheduler.Priority int getInflationPriority(
+            @NonNull ExpandableNotificationRow row,
+            @InflationFlag int contentToBind) {
+        if ((contentToBind & FLAG_CONTENT_VIEW_HEADS_UP) != 0
+                || row.isHeadsUp()
+                || row.isPinned()) {
+            return PRIORITY_HEADS_UP;
+        }
+        final ExpandableNotificationRow parent = row.getNotificationParent();
+        if (row.isChildInGroup() && parent != null && !parent.isGroupExpanded()) {
+            return PRIORITY_MINIMIZED_CHILD;
+        }
+        if (row.isShown() && !row.isInShelf()) {
+            return PRIORITY_VISIBLE;
+        }
+        return PRIORITY_OFFSCREEN;
+    }
+
     @Override
     protected RowContentBindParams newStageParams() {
         return new RowContentBindParams();
@@ -17,6 +17,7 @@
 package com.android.systemui.statusbar.notification.row;
 
 import android.content.Context;
+import android.os.Handler;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -24,6 +25,7 @@ import android.view.ViewGroup;
 import androidx.asynclayoutinflater.view.AsyncLayoutInflater;
 
 import com.android.systemui.R;
+import com.android.systemui.dagger.qualifiers.Main;
 import com.android.systemui.statusbar.InflationTask;
 import com.android.systemui.statusbar.notification.collection.NotificationEntry;
 
@@ -41,9 +43,13 @@ public class RowInflaterTask implements InflationTask, AsyncLayoutInflater.OnInf
     private NotificationEntry mEntry;
     private boolean mCancelled;
     private Throwable mInflateOrigin;
+    private final RowRecyclingPool mRowRecyclingPool;
+    private final Handler mMainHandler;
 
     @Inject
-    public RowInflaterTask() {
+    public RowInflaterTask(RowRecyclingPool rowRecyclingPool, @Main Handler mainHandler) {
+        mRowRecyclingPool = rowRecyclingPool;
+        mMainHandler = mainHandler;
     }
 
     /**
@@ -55,12 +61,24 @@ public class RowInflaterTask implements InflationTask, AsyncLayoutInflater.OnInf
             mInflateOrigin = new Throwable("inflate requested here");
         }
         mListener = listener;
-        AsyncLayoutInflater inflater = new AsyncLayoutInflater(context);
         mEntry = entry;
         entry.setInflationTask(this);
+        ExpandableNotificationRow recycledRow = mRowRecyclingPool.acquire();
+        if (recycledRow != null) {
+            // Still finish asynchronously, callers don't expect the listener to be called inline
+            mMainHandler.post(() -> onRecycledRowReady(recycledRow, parent));
+            return;
+        }
+        AsyncLayoutInflater inflater = new AsyncLayoutInflater(context);
         inflater.inflate(R.layout.status_bar_notification_row, parent, this);
     }
 
+    private void onRecycledRowReady(ExpandableNotificationRow row, ViewGroup parent) {
+        // If the task was cancelled in the meantime, the row is simply dropped, same as a freshly
+        // inflated one would be.
+        onInflateFinished(row, R.layout.status_bar_notification_row, parent);
+    }
+
     @Override
     public void abort() {
         mCancelled = true;
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.row;
+
+import android.annotation.MainThread;
+import android.annotation.Nullable;
+
+import androidx.annotation.NonNull;
+
+import com.android.systemui.Dumpable;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.util.Assert;
+import com.android.systemui.util.time.LatencyHistogram;
+import com.android.systemui.util.time.SystemClock;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A small pool of {@link ExpandableNotificationRow}s that have been removed from the shade, so
+ * that {@link RowInflaterTask} can reuse one instead of inflating a whole new row hierarchy.
+ *
+ * Only plain rows are accepted: rows that were part of a group, were heads up, were removed with
+ * an animation or ever had their menu or guts inflated are left for the garbage collector, since
+ * too much state hangs off of them to be reset safely.
+ */
+@MainThread
+@Singleton
+public class RowRecyclingPool implements Dumpable {
+    private final FeatureFlags mFeatureFlags;
+    private final SystemClock mClock;
+
+    private final ArrayDeque<ExpandableNotificationRow> mPool = new ArrayDeque<>();
+    private final LatencyHistogram mResetHistogram = new LatencyHistogram("reset");
+    private int mHits;
+    private int mMisses;
+    private int mRejected;
+    private int mDropped;
+
+    @Inject
+    public RowRecyclingPool(
+            FeatureFlags featureFlags,
+            SystemClock clock,
+            DumpManager dumpManager) {
+        mFeatureFlags = featureFlags;
+        mClock = clock;
+        dumpManager.registerDumpable(TAG, this);
+    }
+
+    /**
+     * Offers a row that has just been removed from the shade to the pool. The row is reset and
+     * kept if it's safe to reuse and the pool isn't full.
+     */
+    public void release(@NonNull ExpandableNotificationRow row) {
+        Assert.isMainThread();
+        if (!mFeatureFlags.isNotificationRowRecyclingEnabled()) {
+            return;
+        }
+        if (!canBeRecycled(row)) {
+            mRejected++;
+            return;
+        }
+        if (mPool.size() >= MAX_POOL_SIZE) {
+            mDropped++;
+            return;
+        }
+
+        final long start = mClock.elapsedRealtimeNanos();
+        final NotificationEntry oldEntry = row.getEntry();
+        if (oldEntry != null && oldEntry.getRowController() != null) {
+            oldEntry.getRowController().onViewRecycled();
+        }
+        row.resetForReuse();
+        // The row's previous notification is gone; make sure it no longer thinks it owns the row.
+        if (oldEntry != null && oldEntry.getRow() == row) {
+            oldEntry.setRow(null);
+        }
+        mResetHistogram.record(mClock.elapsedRealtimeNanos() - start);
+
+        mPool.add(row);
+    }
+
+    /** Returns a row from the pool, or null if a new one needs to be inflated. */
+    public @Nullable ExpandableNotificationRow acquire() {
+        Assert.isMainThread();
+        if (!mFeatureFlags.isNotificationRowRecyclingEnabled()) {
+            return null;
+        }
+        final ExpandableNotificationRow row = mPool.poll();
+        if (row == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return row;
+    }
+
+    int getPoolSize() {
+        return mPool.size();
+    }
+
+    private static boolean canBeRecycled(ExpandableNotificationRow row) {
+        return row.isRemoved()
+                && row.getParent() == null
+                && row.getTransientContainer() == null
+                && !row.isSummaryWithChildren()
+                && !row.isChildInGroup()
+                && !row.wasChildInGroupWhenRemoved()
+                && !row.isHeadsUp()
+                && !row.isPinned()
+                && !row.isHeadsUpAnimatingAway()
+                && !row.isExpandAnimationRunning()
+                && !row.isAboveShelf()
+                && !row.areGutsExposed()
+                && !row.hasInflatedMenuOrGuts();
+    }
+
+    @Override
+    public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
+        final int requests = mHits + mMisses;
+        pw.println("\t" + TAG + " size=" + mPool.size() + "/" + MAX_POOL_SIZE
+                + " hits=" + mHits
+                + " misses=" + mMisses
+                + " hitRate=" + (requests == 0 ? 0 : mHits * 100 / requests) + "%"
+                + " rejected=" + mRejected
+                + " dropped=" + mDropped);
+        mResetHistogram.dump(pw, "\t\t");
+    }
+
+    private static final int MAX_POOL_SIZE = 4;
+
+    private static final String TAG = "RowRecyclingPool";
+}
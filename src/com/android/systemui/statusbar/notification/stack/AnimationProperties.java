@@ -33,6 +33,7 @@ public class AnimationProperties {
     public long delay;
     private ArrayMap<Property, Interpolator> mInterpolatorMap;
     private Consumer<Property> mAnimationEndAction;
+    private boolean mRecycleAnimators;
 
     /**
      * @return an animation filter for this animation.
@@ -80,6 +81,19 @@ public class AnimationProperties {
         return false;
     }
 
+    /**
+     * Sets whether finished animators are kept on their view and reused for the next animation of
+     * the same property, instead of allocating new ones for every animation.
+     */
+    public AnimationProperties setRecycleAnimators(boolean recycleAnimators) {
+        mRecycleAnimators = recycleAnimators;
+        return this;
+    }
+
+    public boolean shouldRecycleAnimators() {
+        return mRecycleAnimators;
+    }
+
     /**
      * Get a custom interpolator for a property instead of the normal one.
      */
@@ -34,6 +34,8 @@ public class ExpandableViewState extends ViewState {
 
     private static final int TAG_ANIMATOR_HEIGHT = R.id.height_animator_tag;
     private static final int TAG_ANIMATOR_TOP_INSET = R.id.top_inset_animator_tag;
+    private static final int TAG_RECYCLED_HEIGHT = R.id.height_recycled_animator_tag;
+    private static final int TAG_RECYCLED_TOP_INSET = R.id.top_inset_recycled_animator_tag;
     private static final int TAG_END_HEIGHT = R.id.height_animator_end_value_tag;
     private static final int TAG_END_TOP_INSET = R.id.top_inset_animator_end_value_tag;
     private static final int TAG_START_HEIGHT = R.id.height_animator_start_value_tag;
@@ -248,14 +250,19 @@ public class ExpandableViewState extends ViewState {
             }
         }
 
-        ValueAnimator animator = ValueAnimator.ofInt(child.getActualHeight(), newEndValue);
-        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                child.setActualHeight((int) animation.getAnimatedValue(),
-                        false /* notifyListeners */);
-            }
-        });
+        ValueAnimator animator = obtainRecycledAnimator(child, TAG_RECYCLED_HEIGHT, properties);
+        if (animator != null) {
+            animator.setIntValues(child.getActualHeight(), newEndValue);
+        } else {
+            animator = ValueAnimator.ofInt(child.getActualHeight(), newEndValue);
+            animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    child.setActualHeight((int) animation.getAnimatedValue(),
+                            false /* notifyListeners */);
+                }
+            });
+        }
         animator.setInterpolator(Interpolators.FAST_OUT_SLOW_IN);
         long newDuration = cancelAnimatorAndGetNewDuration(properties.duration, previousAnimator);
         animator.setDuration(newDuration);
@@ -269,6 +276,7 @@ public class ExpandableViewState extends ViewState {
             animator.addListener(listener);
         }
         // remove the tag when the animation is finished
+        final boolean recycle = properties.shouldRecycleAnimators();
         animator.addListener(new AnimatorListenerAdapter() {
             boolean mWasCancelled;
 
@@ -277,6 +285,9 @@ public class ExpandableViewState extends ViewState {
                 child.setTag(TAG_ANIMATOR_HEIGHT, null);
                 child.setTag(TAG_START_HEIGHT, null);
                 child.setTag(TAG_END_HEIGHT, null);
+                if (recycle) {
+                    child.setTag(TAG_RECYCLED_HEIGHT, animation);
+                }
                 child.setActualHeightAnimating(false);
                 if (!mWasCancelled && child instanceof ExpandableNotificationRow) {
                     ((ExpandableNotificationRow) child).setGroupExpansionChanging(
@@ -330,13 +341,19 @@ public class ExpandableViewState extends ViewState {
             }
         }
 
-        ValueAnimator animator = ValueAnimator.ofInt(child.getClipTopAmount(), newEndValue);
-        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                child.setClipTopAmount((int) animation.getAnimatedValue());
-            }
-        });
+        ValueAnimator animator = obtainRecycledAnimator(child, TAG_RECYCLED_TOP_INSET,
+                properties);
+        if (animator != null) {
+            animator.setIntValues(child.getClipTopAmount(), newEndValue);
+        } else {
+            animator = ValueAnimator.ofInt(child.getClipTopAmount(), newEndValue);
+            animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    child.setClipTopAmount((int) animation.getAnimatedValue());
+                }
+            });
+        }
         animator.setInterpolator(Interpolators.FAST_OUT_SLOW_IN);
         long newDuration = cancelAnimatorAndGetNewDuration(properties.duration, previousAnimator);
         animator.setDuration(newDuration);
@@ -350,12 +367,16 @@ public class ExpandableViewState extends ViewState {
             animator.addListener(listener);
         }
         // remove the tag when the animation is finished
+        final boolean recycle = properties.shouldRecycleAnimators();
         animator.addListener(new AnimatorListenerAdapter() {
             @Override
             public void onAnimationEnd(Animator animation) {
                 child.setTag(TAG_ANIMATOR_TOP_INSET, null);
                 child.setTag(TAG_START_TOP_INSET, null);
                 child.setTag(TAG_END_TOP_INSET, null);
+                if (recycle) {
+                    child.setTag(TAG_RECYCLED_TOP_INSET, animation);
+                }
             }
         });
         startAnimator(animator, listener);
@@ -56,6 +56,12 @@ public class NotificationChildrenContainer extends ViewGroup {
     @VisibleForTesting
     static final int NUMBER_OF_CHILDREN_WHEN_SYSTEM_EXPANDED = 5;
     public static final int NUMBER_OF_CHILDREN_WHEN_CHILDREN_EXPANDED = 8;
+    /**
+     * The number of children that stay attached when children are virtualized: the ones an
+     * expanded group can show, plus the next one so it can move in when a visible child is removed.
+     */
+    @VisibleForTesting
+    static final int MAX_ATTACHED_CHILDREN = NUMBER_OF_CHILDREN_WHEN_CHILDREN_EXPANDED + 1;
     private static final AnimationProperties ALPHA_FADE_IN = new AnimationProperties() {
         private AnimationFilter mAnimationFilter = new AnimationFilter().animateAlpha();
 
@@ -108,6 +114,7 @@ public class NotificationChildrenContainer extends ViewGroup {
     private int mCurrentHeaderTranslation = 0;
     private float mHeaderVisibleAmount = 1.0f;
     private int mUntruncatedChildCount;
+    private boolean mVirtualizeChildren;
 
     public NotificationChildrenContainer(Context context) {
         this(context, null);
@@ -265,12 +272,21 @@ public class NotificationChildrenContainer extends ViewGroup {
     public void addNotification(ExpandableNotificationRow row, int childIndex) {
         int newIndex = childIndex < 0 ? mAttachedChildren.size() : childIndex;
         mAttachedChildren.add(newIndex, row);
-        addView(row);
+        boolean attach = shouldAttachChild(newIndex);
+        if (attach) {
+            addView(row);
+        }
         row.setUserLocked(mUserLocked);
 
         View divider = inflateDivider();
-        addView(divider);
+        if (attach) {
+            addView(divider);
+        }
         mDividers.add(newIndex, divider);
+        if (mVirtualizeChildren) {
+            // The child that was pushed out of the window isn't shown anymore
+            updateAttachedChildViews();
+        }
 
         row.setContentTransformationAmount(0, false /* isLastChild */);
         // It doesn't make sense to keep old animations around, lets cancel them!
@@ -287,14 +303,19 @@ public class NotificationChildrenContainer extends ViewGroup {
         removeView(row);
 
         final View divider = mDividers.remove(childIndex);
-        removeView(divider);
-        getOverlay().add(divider);
-        CrossFadeHelper.fadeOut(divider, new Runnable() {
-            @Override
-            public void run() {
-                getOverlay().remove(divider);
-            }
-        });
+        if (divider.getParent() == this) {
+            removeView(divider);
+            getOverlay().add(divider);
+            CrossFadeHelper.fadeOut(divider, new Runnable() {
+                @Override
+                public void run() {
+                    getOverlay().remove(divider);
+                }
+            });
+        }
+        if (mVirtualizeChildren) {
+            updateAttachedChildViews();
+        }
 
         row.setSystemChildExpanded(false);
         row.setUserLocked(false);
@@ -303,6 +324,52 @@ public class NotificationChildrenContainer extends ViewGroup {
         }
     }
 
+    /**
+     * Sets whether only the children that can be shown are kept attached. Children past
+     * {@link #MAX_ATTACHED_CHILDREN} are never visible, so when virtualized they're removed from
+     * the view hierarchy and skipped when updating, applying and animating the children's state.
+     */
+    public void setVirtualizeChildren(boolean virtualizeChildren) {
+        if (mVirtualizeChildren == virtualizeChildren) {
+            return;
+        }
+        mVirtualizeChildren = virtualizeChildren;
+        updateAttachedChildViews();
+    }
+
+    private boolean shouldAttachChild(int childIndex) {
+        return !mVirtualizeChildren || childIndex < MAX_ATTACHED_CHILDREN;
+    }
+
+    /**
+     * @return The number of children, starting from the first, whose state is kept up to date.
+     */
+    private int getUpdatedChildCount() {
+        int childCount = mAttachedChildren.size();
+        return mVirtualizeChildren ? Math.min(childCount, MAX_ATTACHED_CHILDREN) : childCount;
+    }
+
+    /**
+     * Attaches the children that are within the window and detaches the ones that left it.
+     */
+    private void updateAttachedChildViews() {
+        int childCount = mAttachedChildren.size();
+        for (int i = 0; i < childCount; i++) {
+            ExpandableNotificationRow child = mAttachedChildren.get(i);
+            View divider = mDividers.get(i);
+            boolean attached = child.getParent() == this;
+            if (shouldAttachChild(i)) {
+                if (!attached) {
+                    addView(child);
+                    addView(divider);
+                }
+            } else if (attached) {
+                removeView(child);
+                removeView(divider);
+            }
+        }
+    }
+
     /**
      * @return The number of notification children in the container.
      */
@@ -468,6 +535,9 @@ public class NotificationChildrenContainer extends ViewGroup {
                 }
             }
         }
+        if (result && mVirtualizeChildren) {
+            updateAttachedChildViews();
+        }
         updateExpansionStates();
         return result;
     }
@@ -553,7 +623,7 @@ public class NotificationChildrenContainer extends ViewGroup {
      * @param ambientState the ambient state containing ambient information
      */
     public void updateState(ExpandableViewState parentState, AmbientState ambientState) {
-        int childCount = mAttachedChildren.size();
+        int childCount = getUpdatedChildCount();
         int yPosition = mNotificationHeaderMargin + mCurrentHeaderTranslation;
         boolean firstChild = true;
         int maxAllowedVisibleChildren = getMaxAllowedVisibleChildren();
@@ -707,7 +777,7 @@ public class NotificationChildrenContainer extends ViewGroup {
 
     /** Applies state to children. */
     public void applyState() {
-        int childCount = mAttachedChildren.size();
+        int childCount = getUpdatedChildCount();
         ViewState tmpState = new ViewState();
         float expandFraction = 0.0f;
         if (mUserLocked) {
@@ -751,7 +821,7 @@ public class NotificationChildrenContainer extends ViewGroup {
         if (mContainingNotification.hasExpandingChild()) {
             return;
         }
-        int childCount = mAttachedChildren.size();
+        int childCount = getUpdatedChildCount();
         int layoutEnd = mContainingNotification.getActualHeight() - mClipBottomAmount;
         for (int i = 0; i < childCount; i++) {
             ExpandableNotificationRow child = mAttachedChildren.get(i);
@@ -789,7 +859,7 @@ public class NotificationChildrenContainer extends ViewGroup {
 
     /** Animate to a given state. */
     public void startAnimationToState(AnimationProperties properties) {
-        int childCount = mAttachedChildren.size();
+        int childCount = getUpdatedChildCount();
         ViewState tmpState = new ViewState();
         float expandFraction = getGroupExpandFraction();
         final boolean dividersVisible = mUserLocked && !showingAsLowPriority()
@@ -834,7 +904,7 @@ public class NotificationChildrenContainer extends ViewGroup {
 
     public ExpandableNotificationRow getViewAtPosition(float y) {
         // find the view under the pointer, accounting for GONE views
-        final int count = mAttachedChildren.size();
+        final int count = getUpdatedChildCount();
         for (int childIdx = 0; childIdx < count; childIdx++) {
             ExpandableNotificationRow slidingChild = mAttachedChildren.get(childIdx);
             float childTop = slidingChild.getTranslationY();
@@ -1168,9 +1238,11 @@ public class NotificationChildrenContainer extends ViewGroup {
         for (int i = 0; i < mDividers.size(); i++) {
             View prevDivider = mDividers.get(i);
             int index = indexOfChild(prevDivider);
-            removeView(prevDivider);
             View divider = inflateDivider();
-            addView(divider, index);
+            if (index >= 0) {
+                removeView(prevDivider);
+                addView(divider, index);
+            }
             mDividers.set(i, divider);
         }
         removeView(mOverflowNumber);
@@ -125,6 +125,7 @@ import com.android.systemui.statusbar.notification.NotificationEntryManager;
 import com.android.systemui.statusbar.notification.NotificationUtils;
 import com.android.systemui.statusbar.notification.ShadeViewRefactor;
 import com.android.systemui.statusbar.notification.ShadeViewRefactor.RefactorComponent;
+import com.android.systemui.statusbar.notification.ViewportBindController;
 import com.android.systemui.statusbar.notification.VisualStabilityManager;
 import com.android.systemui.statusbar.notification.collection.NotifCollection;
 import com.android.systemui.statusbar.notification.collection.NotifPipeline;
@@ -141,6 +142,7 @@ import com.android.systemui.statusbar.notification.row.NotificationBlockingHelpe
 import com.android.systemui.statusbar.notification.row.NotificationGuts;
 import com.android.systemui.statusbar.notification.row.NotificationGutsManager;
 import com.android.systemui.statusbar.notification.row.NotificationSnooze;
+import com.android.systemui.statusbar.notification.row.RowRecyclingPool;
 import com.android.systemui.statusbar.notification.row.StackScrollerDecorView;
 import com.android.systemui.statusbar.phone.HeadsUpAppearanceController;
 import com.android.systemui.statusbar.phone.HeadsUpManagerPhone;
@@ -508,6 +510,8 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
     private final NotifPipeline mNotifPipeline;
     private final NotifCollection mNotifCollection;
     private final NotificationEntryManager mEntryManager;
+    private final RowRecyclingPool mRowRecyclingPool;
+    private final ViewportBindController mViewportBindController;
     private final IStatusBarService mBarService = IStatusBarService.Stub.asInterface(
             ServiceManager.getService(Context.STATUS_BAR_SERVICE));
     @VisibleForTesting
@@ -567,7 +571,9 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
             NotifPipeline notifPipeline,
             NotificationEntryManager entryManager,
             NotifCollection notifCollection,
-            UiEventLogger uiEventLogger
+            UiEventLogger uiEventLogger,
+            RowRecyclingPool rowRecyclingPool,
+            ViewportBindController viewportBindController
     ) {
         super(context, attrs, 0, 0);
         Resources res = getResources();
@@ -652,6 +658,12 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
         mNotifPipeline = notifPipeline;
         mEntryManager = entryManager;
         mNotifCollection = notifCollection;
+        mRowRecyclingPool = rowRecyclingPool;
+        mViewportBindController = viewportBindController;
+        mStackScrollAlgorithm.setIncrementalLayoutEnabled(
+                mFeatureFlags.isNotificationIncrementalStackLayoutEnabled());
+        mStateAnimator.setRecycleAnimators(
+                mFeatureFlags.isNotificationAnimatorRecyclingEnabled());
         if (mFeatureFlags.isNewNotifPipelineRenderingEnabled()) {
             mNotifPipeline.addCollectionListener(new NotifCollectionListener() {
                 @Override
@@ -1134,6 +1146,7 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
                     (int) height);
         }
         setMaxLayoutHeight(getHeight());
+        mStackScrollAlgorithm.invalidateLayout();
         updateContentHeight();
         clampScrollPosition();
         requestChildrenUpdate();
@@ -1218,6 +1231,7 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
             mAmbientState.setScrollY(mOwnScrollY);
         }
         mStackScrollAlgorithm.resetViewStates(mAmbientState);
+        mViewportBindController.updateContentViews(this, getHeight());
         if (!isCurrentlyAnimating() && !mNeedsAnimation) {
             applyCurrentState();
         } else {
@@ -3085,6 +3099,13 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
         updateAnimationState(false, child);
 
         focusNextViewIfFocused(child);
+
+        // Rows that are animating away are still in use as transient views; other top level rows
+        // may be reused for the next notification that gets added.
+        if (!animationGenerated && container == this && child instanceof ExpandableNotificationRow
+                && child.getTransientContainer() == null) {
+            mRowRecyclingPool.release((ExpandableNotificationRow) child);
+        }
     }
 
     @ShadeViewRefactor(RefactorComponent.STATE_RESOLVER)
@@ -3383,6 +3404,7 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
     @Override
     @ShadeViewRefactor(RefactorComponent.SHADE_VIEW)
     public void notifyGroupChildRemoved(ExpandableView row, ViewGroup childrenContainer) {
+        mStackScrollAlgorithm.invalidateLayout();
         onViewRemovedInternal(row, childrenContainer);
     }
 
@@ -3394,6 +3416,7 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
     @Override
     @ShadeViewRefactor(RefactorComponent.SHADE_VIEW)
     public void notifyGroupChildAdded(ExpandableView row) {
+        mStackScrollAlgorithm.invalidateLayout();
         onViewAddedInternal(row);
     }
 
@@ -4626,6 +4649,7 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
 
     @Override
     public void onHeightChanged(ExpandableView view, boolean needsAnimation) {
+        mStackScrollAlgorithm.onChildHeightChanged(view);
         updateContentHeight();
         updateScrollPositionOnExpandInBottom(view);
         clampScrollPosition();
@@ -5353,6 +5377,7 @@ public class NotificationStackScrollLayout extends ViewGroup implements ScrollAd
         mPulsing = pulsing;
         mAmbientState.setPulsing(pulsing);
         mSwipeHelper.setPulsing(pulsing);
+        mStackScrollAlgorithm.invalidateLayout();
         updateNotificationAnimationStates();
         updateAlgorithmHeightAndPadding();
         updateContentHeight();
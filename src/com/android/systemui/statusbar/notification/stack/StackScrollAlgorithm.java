@@ -20,6 +20,7 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.content.res.Resources;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.MathUtils;
 import android.view.View;
@@ -34,6 +35,7 @@ import com.android.systemui.statusbar.notification.row.ExpandableView;
 import com.android.systemui.statusbar.notification.row.FooterView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -61,6 +63,16 @@ public class StackScrollAlgorithm {
     private float mHeadsUpInset;
     private int mPinnedZTranslationExtra;
 
+    private boolean mIncrementalLayout;
+    /** The children of the host view, by index, whose heights are in {@link #mCachedHeights}. */
+    private ExpandableView[] mCachedChildren = new ExpandableView[0];
+    private int[] mCachedHeights = new int[0];
+    private boolean mCachedHeightsValid;
+    private final ArraySet<ExpandableView> mChildrenWithChangedHeight = new ArraySet<>();
+    private boolean mCachedOnKeyguard;
+    private boolean mCachedHideSensitive;
+    private boolean mCachedDozing;
+
     public StackScrollAlgorithm(
             Context context,
             ViewGroup hostView) {
@@ -70,6 +82,40 @@ public class StackScrollAlgorithm {
 
     public void initView(Context context) {
         initConstants(context);
+        invalidateLayout();
+    }
+
+    /**
+     * Sets whether a pass reuses the intrinsic heights of the children that didn't change since
+     * the previous one, instead of querying every child again.
+     */
+    public void setIncrementalLayoutEnabled(boolean incrementalLayout) {
+        mIncrementalLayout = incrementalLayout;
+        invalidateLayout();
+    }
+
+    /**
+     * Makes the next pass query the heights of all children again, for changes that can affect
+     * every child.
+     */
+    public void invalidateLayout() {
+        mCachedHeightsValid = false;
+        mChildrenWithChangedHeight.clear();
+    }
+
+    /**
+     * Makes the next pass query the height of the given child again. Height changes of a child in
+     * a group are attributed to its summary.
+     */
+    public void onChildHeightChanged(ExpandableView child) {
+        if (!mIncrementalLayout || !mCachedHeightsValid) {
+            return;
+        }
+        if (child instanceof ExpandableNotificationRow
+                && ((ExpandableNotificationRow) child).isChildInGroup()) {
+            child = ((ExpandableNotificationRow) child).getNotificationParent();
+        }
+        mChildrenWithChangedHeight.add(child);
     }
 
     private void initConstants(Context context) {
@@ -97,7 +143,11 @@ public class StackScrollAlgorithm {
         StackScrollAlgorithmState algorithmState = mTempAlgorithmState;
 
         // First we reset the view states to their default values.
-        resetChildViewStates();
+        if (mIncrementalLayout) {
+            resetChildViewStatesIncrementally(ambientState);
+        } else {
+            resetChildViewStates();
+        }
 
         initAlgorithmState(mHostView, algorithmState, ambientState);
 
@@ -123,6 +173,66 @@ public class StackScrollAlgorithm {
         }
     }
 
+    /**
+     * Same as {@link #resetChildViewStates()}, but only queries the intrinsic height of children
+     * that were added, moved, changed their height or whose height changes without notifying.
+     */
+    private void resetChildViewStatesIncrementally(AmbientState ambientState) {
+        if (ambientState.isOnKeyguard() != mCachedOnKeyguard
+                || ambientState.isHideSensitive() != mCachedHideSensitive
+                || ambientState.isDozing() != mCachedDozing) {
+            // These change the heights of all rows
+            mCachedOnKeyguard = ambientState.isOnKeyguard();
+            mCachedHideSensitive = ambientState.isHideSensitive();
+            mCachedDozing = ambientState.isDozing();
+            mCachedHeightsValid = false;
+        }
+        int numChildren = mHostView.getChildCount();
+        if (mCachedChildren.length < numChildren) {
+            int capacity = Math.max(numChildren, mCachedChildren.length * 2);
+            mCachedChildren = Arrays.copyOf(mCachedChildren, capacity);
+            mCachedHeights = Arrays.copyOf(mCachedHeights, capacity);
+        }
+        for (int i = 0; i < numChildren; i++) {
+            ExpandableView child = (ExpandableView) mHostView.getChildAt(i);
+            int height;
+            if (mCachedHeightsValid
+                    && mCachedChildren[i] == child
+                    && !mChildrenWithChangedHeight.contains(child)
+                    && !isHeightVolatile(child)) {
+                height = mCachedHeights[i];
+            } else {
+                height = child.getIntrinsicHeight();
+                mCachedChildren[i] = child;
+                mCachedHeights[i] = height;
+            }
+            child.resetViewState(height);
+        }
+        // Don't keep removed children around
+        Arrays.fill(mCachedChildren, numChildren, mCachedChildren.length, null);
+        mChildrenWithChangedHeight.clear();
+        mCachedHeightsValid = true;
+    }
+
+    /**
+     * @return whether the intrinsic height of the child may change from one frame to the next
+     * without it notifying about it, so it can't be reused.
+     */
+    private static boolean isHeightVolatile(ExpandableView child) {
+        if (!(child instanceof ExpandableNotificationRow)) {
+            // Headers, the footer and the shelf are cheap to measure
+            return true;
+        }
+        ExpandableNotificationRow row = (ExpandableNotificationRow) child;
+        return row.isUserLocked()
+                || row.mustStayOnScreen()
+                || row.isHeadsUpAnimatingAway()
+                || row.isExpandAnimationRunning()
+                || row.hasExpandingChild()
+                || row.isGroupExpansionChanging()
+                || row.areGutsExposed();
+    }
+
     private void getNotificationChildrenStates(StackScrollAlgorithmState algorithmState,
             AmbientState ambientState) {
         int childCount = algorithmState.visibleChildren.size();
@@ -413,7 +523,10 @@ public class StackScrollAlgorithm {
         }
 
         int paddingAfterChild = getPaddingAfterChild(algorithmState, child);
-        int childHeight = getMaxAllowedChildHeight(child);
+        // The reset at the start of the pass already put the intrinsic height into the state
+        int childHeight = mIncrementalLayout
+                ? childViewState.height
+                : getMaxAllowedChildHeight(child);
         if (reverse) {
             childViewState.yTranslation = currentYPosition - (childHeight + paddingAfterChild);
             if (currentYPosition <= 0) {
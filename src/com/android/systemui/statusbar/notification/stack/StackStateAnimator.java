@@ -128,6 +128,14 @@ public class StackStateAnimator {
         return !mAnimatorSet.isEmpty();
     }
 
+    /**
+     * Sets whether the animations started for the stack reuse the finished animators of their
+     * views instead of allocating new ones.
+     */
+    public void setRecycleAnimators(boolean recycleAnimators) {
+        mAnimationProperties.setRecycleAnimators(recycleAnimators);
+    }
+
     public void startAnimationForEvents(
             ArrayList<NotificationStackScrollLayout.AnimationEvent> mAnimationEvents,
             long additionalDelay) {
@@ -68,6 +68,13 @@ public class ViewState implements Dumpable {
     private static final int TAG_START_TRANSLATION_Y = R.id.translation_y_animator_start_value_tag;
     private static final int TAG_START_TRANSLATION_Z = R.id.translation_z_animator_start_value_tag;
     private static final int TAG_START_ALPHA = R.id.alpha_animator_start_value_tag;
+    private static final int TAG_RECYCLED_TRANSLATION_X =
+            R.id.translation_x_recycled_animator_tag;
+    private static final int TAG_RECYCLED_TRANSLATION_Y =
+            R.id.translation_y_recycled_animator_tag;
+    private static final int TAG_RECYCLED_TRANSLATION_Z =
+            R.id.translation_z_recycled_animator_tag;
+    private static final int TAG_RECYCLED_ALPHA = R.id.alpha_recycled_animator_tag;
 
     private static final AnimatableProperty SCALE_X_PROPERTY
             = new AnimatableProperty() {
@@ -357,11 +364,16 @@ public class ViewState implements Dumpable {
             }
         }
 
-        ObjectAnimator animator = ObjectAnimator.ofFloat(child, View.ALPHA,
-                child.getAlpha(), newEndValue);
+        ObjectAnimator animator = obtainRecycledAnimator(child, TAG_RECYCLED_ALPHA, properties);
+        if (animator != null) {
+            animator.setFloatValues(child.getAlpha(), newEndValue);
+        } else {
+            animator = ObjectAnimator.ofFloat(child, View.ALPHA, child.getAlpha(), newEndValue);
+        }
         animator.setInterpolator(Interpolators.FAST_OUT_SLOW_IN);
         // Handle layer type
         child.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        final boolean recycle = properties.shouldRecycleAnimators();
         animator.addListener(new AnimatorListenerAdapter() {
             public boolean mWasCancelled;
 
@@ -375,6 +387,9 @@ public class ViewState implements Dumpable {
                 child.setTag(TAG_ANIMATOR_ALPHA, null);
                 child.setTag(TAG_START_ALPHA, null);
                 child.setTag(TAG_END_ALPHA, null);
+                if (recycle) {
+                    child.setTag(TAG_RECYCLED_ALPHA, animation);
+                }
             }
 
             @Override
@@ -441,8 +456,14 @@ public class ViewState implements Dumpable {
             }
         }
 
-        ObjectAnimator animator = ObjectAnimator.ofFloat(child, View.TRANSLATION_Z,
-                child.getTranslationZ(), newEndValue);
+        ObjectAnimator animator = obtainRecycledAnimator(child, TAG_RECYCLED_TRANSLATION_Z,
+                properties);
+        if (animator != null) {
+            animator.setFloatValues(child.getTranslationZ(), newEndValue);
+        } else {
+            animator = ObjectAnimator.ofFloat(child, View.TRANSLATION_Z,
+                    child.getTranslationZ(), newEndValue);
+        }
         animator.setInterpolator(Interpolators.FAST_OUT_SLOW_IN);
         long newDuration = cancelAnimatorAndGetNewDuration(properties.duration, previousAnimator);
         animator.setDuration(newDuration);
@@ -456,12 +477,16 @@ public class ViewState implements Dumpable {
             animator.addListener(listener);
         }
         // remove the tag when the animation is finished
+        final boolean recycle = properties.shouldRecycleAnimators();
         animator.addListener(new AnimatorListenerAdapter() {
             @Override
             public void onAnimationEnd(Animator animation) {
                 child.setTag(TAG_ANIMATOR_TRANSLATION_Z, null);
                 child.setTag(TAG_START_TRANSLATION_Z, null);
                 child.setTag(TAG_END_TRANSLATION_Z, null);
+                if (recycle) {
+                    child.setTag(TAG_RECYCLED_TRANSLATION_Z, animation);
+                }
             }
         });
         startAnimator(animator, listener);
@@ -503,8 +528,14 @@ public class ViewState implements Dumpable {
             }
         }
 
-        ObjectAnimator animator = ObjectAnimator.ofFloat(child, View.TRANSLATION_X,
-                child.getTranslationX(), newEndValue);
+        ObjectAnimator animator = obtainRecycledAnimator(child, TAG_RECYCLED_TRANSLATION_X,
+                properties);
+        if (animator != null) {
+            animator.setFloatValues(child.getTranslationX(), newEndValue);
+        } else {
+            animator = ObjectAnimator.ofFloat(child, View.TRANSLATION_X,
+                    child.getTranslationX(), newEndValue);
+        }
         Interpolator customInterpolator = properties.getCustomInterpolator(child,
                 View.TRANSLATION_X);
         Interpolator interpolator =  customInterpolator != null ? customInterpolator
@@ -522,12 +553,16 @@ public class ViewState implements Dumpable {
             animator.addListener(listener);
         }
         // remove the tag when the animation is finished
+        final boolean recycle = properties.shouldRecycleAnimators();
         animator.addListener(new AnimatorListenerAdapter() {
             @Override
             public void onAnimationEnd(Animator animation) {
                 child.setTag(TAG_ANIMATOR_TRANSLATION_X, null);
                 child.setTag(TAG_START_TRANSLATION_X, null);
                 child.setTag(TAG_END_TRANSLATION_X, null);
+                if (recycle) {
+                    child.setTag(TAG_RECYCLED_TRANSLATION_X, animation);
+                }
             }
         });
         startAnimator(animator, listener);
@@ -569,8 +604,14 @@ public class ViewState implements Dumpable {
             }
         }
 
-        ObjectAnimator animator = ObjectAnimator.ofFloat(child, View.TRANSLATION_Y,
-                child.getTranslationY(), newEndValue);
+        ObjectAnimator animator = obtainRecycledAnimator(child, TAG_RECYCLED_TRANSLATION_Y,
+                properties);
+        if (animator != null) {
+            animator.setFloatValues(child.getTranslationY(), newEndValue);
+        } else {
+            animator = ObjectAnimator.ofFloat(child, View.TRANSLATION_Y,
+                    child.getTranslationY(), newEndValue);
+        }
         Interpolator customInterpolator = properties.getCustomInterpolator(child,
                 View.TRANSLATION_Y);
         Interpolator interpolator =  customInterpolator != null ? customInterpolator
@@ -588,6 +629,7 @@ public class ViewState implements Dumpable {
             animator.addListener(listener);
         }
         // remove the tag when the animation is finished
+        final boolean recycle = properties.shouldRecycleAnimators();
         animator.addListener(new AnimatorListenerAdapter() {
             @Override
             public void onAnimationEnd(Animator animation) {
@@ -595,6 +637,9 @@ public class ViewState implements Dumpable {
                 child.setTag(TAG_ANIMATOR_TRANSLATION_Y, null);
                 child.setTag(TAG_START_TRANSLATION_Y, null);
                 child.setTag(TAG_END_TRANSLATION_Y, null);
+                if (recycle) {
+                    child.setTag(TAG_RECYCLED_TRANSLATION_Y, animation);
+                }
                 onYTranslationAnimationFinished(child);
             }
         });
@@ -622,6 +667,27 @@ public class ViewState implements Dumpable {
         return (T) child.getTag(tag);
     }
 
+    /**
+     * Takes the finished animator that was kept on a view under the given tag, ready to be
+     * configured and started again.
+     *
+     * @return the animator, or null if there is none or the animation shouldn't recycle animators
+     */
+    protected static <T extends ValueAnimator> T obtainRecycledAnimator(View child,
+            int recycledTag, AnimationProperties properties) {
+        if (!properties.shouldRecycleAnimators()) {
+            return null;
+        }
+        T animator = getChildTag(child, recycledTag);
+        if (animator != null) {
+            child.setTag(recycledTag, null);
+            // Update listeners only depend on the view, so they are kept
+            animator.removeAllListeners();
+            animator.setStartDelay(0);
+        }
+        return animator;
+    }
+
     protected void abortAnimation(View child, int animatorTag) {
         Animator previousAnimator = getChildTag(child, animatorTag);
         if (previousAnimator != null) {
@@ -56,8 +56,12 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
     private final Lazy<PeopleNotificationIdentifier> mPeopleNotificationIdentifier;
     private int mBarState = -1;
     private HashMap<String, StatusBarNotification> mIsolatedEntries = new HashMap<>();
+    /** Keys of the isolated entries, by the key of the group they logically belong to. */
+    private final HashMap<String, ArraySet<String>> mIsolatedKeysByGroup = new HashMap<>();
     private HeadsUpManager mHeadsUpManager;
     private boolean mIsUpdatingUnchangedGroup;
+    private int mBatchUpdateDepth;
+    private boolean mGroupsChangedDuringBatch;
     @Nullable private BubbleController mBubbleController = null;
 
     @Inject
@@ -122,7 +126,7 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
 
     public void onEntryRemoved(NotificationEntry removed) {
         onEntryRemovedInternal(removed, removed.getSbn());
-        mIsolatedEntries.remove(removed.getKey());
+        removeIsolatedEntry(removed.getKey());
     }
 
     /**
@@ -226,30 +230,40 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
         if (group == null) {
             return;
         }
+        boolean prevSuppressed = group.suppressed;
+        group.suppressed = group.summary != null && !group.expanded
+                && isSuppressedByChildren(group);
+        if (prevSuppressed != group.suppressed && !mIsUpdatingUnchangedGroup) {
+            for (OnGroupChangeListener listener : mListeners) {
+                listener.onGroupSuppressionChanged(group, group.suppressed);
+            }
+            dispatchGroupsChanged();
+        }
+    }
+
+    /**
+     * Whether the summary of a group should be hidden because of its children: either there's only
+     * one child showing in the shade, or none are but some were isolated or bubbled.
+     *
+     * Whether a child is bubbled can change without the group manager being told, so this has to
+     * ask the bubble controller, but it stops as soon as two children are found in the shade.
+     */
+    private boolean isSuppressedByChildren(NotificationGroup group) {
         int childCount = 0;
         boolean hasBubbles = false;
         for (NotificationEntry entry : group.children.values()) {
             if (!getBubbleController().isBubbleNotificationSuppressedFromShade(entry)) {
                 childCount++;
+                if (childCount > 1) {
+                    return false;
+                }
             } else {
                 hasBubbles = true;
             }
         }
-
-        boolean prevSuppressed = group.suppressed;
-        group.suppressed = group.summary != null && !group.expanded
-                && (childCount == 1
-                || (childCount == 0
-                        && group.summary.getSbn().getNotification().isGroupSummary()
-                        && (hasIsolatedChildren(group) || hasBubbles)));
-        if (prevSuppressed != group.suppressed) {
-            for (OnGroupChangeListener listener : mListeners) {
-                if (!mIsUpdatingUnchangedGroup) {
-                    listener.onGroupSuppressionChanged(group, group.suppressed);
-                    listener.onGroupsChanged();
-                }
-            }
-        }
+        return childCount == 1
+                || (group.summary.getSbn().getNotification().isGroupSummary()
+                        && (hasIsolatedChildren(group) || hasBubbles));
     }
 
     private boolean hasIsolatedChildren(NotificationGroup group) {
@@ -257,13 +271,73 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
     }
 
     private int getNumberOfIsolatedChildren(String groupKey) {
-        int count = 0;
-        for (StatusBarNotification sbn : mIsolatedEntries.values()) {
-            if (sbn.getGroupKey().equals(groupKey) && isIsolated(sbn.getKey())) {
-                count++;
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(groupKey);
+        return isolatedKeys != null ? isolatedKeys.size() : 0;
+    }
+
+    private void putIsolatedEntry(StatusBarNotification sbn) {
+        StatusBarNotification previous = mIsolatedEntries.put(sbn.getKey(), sbn);
+        if (previous != null && !previous.getGroupKey().equals(sbn.getGroupKey())) {
+            removeFromIsolatedIndex(previous);
+        }
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(sbn.getGroupKey());
+        if (isolatedKeys == null) {
+            isolatedKeys = new ArraySet<>();
+            mIsolatedKeysByGroup.put(sbn.getGroupKey(), isolatedKeys);
+        }
+        isolatedKeys.add(sbn.getKey());
+    }
+
+    private void removeIsolatedEntry(String key) {
+        StatusBarNotification removed = mIsolatedEntries.remove(key);
+        if (removed != null) {
+            removeFromIsolatedIndex(removed);
+        }
+    }
+
+    private void removeFromIsolatedIndex(StatusBarNotification sbn) {
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(sbn.getGroupKey());
+        if (isolatedKeys != null) {
+            isolatedKeys.remove(sbn.getKey());
+            if (isolatedKeys.isEmpty()) {
+                mIsolatedKeysByGroup.remove(sbn.getGroupKey());
             }
         }
-        return count;
+    }
+
+    /**
+     * Defers {@link OnGroupChangeListener#onGroupsChanged} until the matching
+     * {@link #endBatchUpdate}, so that adding or removing several entries in a row only notifies
+     * the listeners once. Batches can be nested.
+     */
+    public void beginBatchUpdate() {
+        mBatchUpdateDepth++;
+    }
+
+    /**
+     * Ends a batch started with {@link #beginBatchUpdate}, notifying the listeners if the groups
+     * changed during it.
+     */
+    public void endBatchUpdate() {
+        if (mBatchUpdateDepth == 0) {
+            Log.wtf(TAG, "endBatchUpdate called without a matching beginBatchUpdate");
+            return;
+        }
+        mBatchUpdateDepth--;
+        if (mBatchUpdateDepth == 0 && mGroupsChangedDuringBatch) {
+            mGroupsChangedDuringBatch = false;
+            dispatchGroupsChanged();
+        }
+    }
+
+    private void dispatchGroupsChanged() {
+        if (mBatchUpdateDepth > 0) {
+            mGroupsChangedDuringBatch = true;
+            return;
+        }
+        for (OnGroupChangeListener listener : mListeners) {
+            listener.onGroupsChanged();
+        }
     }
 
     /**
@@ -296,7 +370,7 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
         onEntryAddedInternal(entry);
         mIsUpdatingUnchangedGroup = false;
         if (isIsolated(entry.getSbn().getKey())) {
-            mIsolatedEntries.put(entry.getKey(), entry.getSbn());
+            putIsolatedEntry(entry.getSbn());
             if (groupKeysChanged) {
                 updateSuppression(mGroupMap.get(oldGroupKey));
                 updateSuppression(mGroupMap.get(newGroupKey));
@@ -348,12 +422,17 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
         // lead to concurrent modifications while looping. We need to make a copy.
         ArrayList<NotificationGroup> groupCopy = new ArrayList<>(mGroupMap.values());
         int size = groupCopy.size();
-        for (int i = 0; i < size; i++) {
-            NotificationGroup group =  groupCopy.get(i);
-            if (group.expanded) {
-                setGroupExpanded(group, false);
+        beginBatchUpdate();
+        try {
+            for (int i = 0; i < size; i++) {
+                NotificationGroup group =  groupCopy.get(i);
+                if (group.expanded) {
+                    setGroupExpanded(group, false);
+                }
+                updateSuppression(group);
             }
-            updateSuppression(group);
+        } finally {
+            endBatchUpdate();
         }
     }
 
@@ -428,9 +507,10 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
             return null;
         }
         ArrayList<NotificationEntry> children = new ArrayList<>(group.children.values());
-        for (StatusBarNotification sbn : mIsolatedEntries.values()) {
-            if (sbn.getGroupKey().equals(summary.getGroupKey())) {
-                children.add(mGroupMap.get(sbn.getKey()).summary);
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(summary.getGroupKey());
+        if (isolatedKeys != null) {
+            for (int i = 0; i < isolatedKeys.size(); i++) {
+                children.add(mGroupMap.get(isolatedKeys.valueAt(i)).summary);
             }
         }
         return children;
@@ -568,7 +648,7 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
         // We will be isolated now, so lets update the groups
         onEntryRemovedInternal(entry, entry.getSbn());
 
-        mIsolatedEntries.put(sbn.getKey(), sbn);
+        putIsolatedEntry(sbn);
 
         onEntryAddedInternal(entry);
         // We also need to update the suppression of the old group, because this call comes
@@ -576,9 +656,7 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
         // When the notification gets added afterwards it is already isolated and therefore
         // it doesn't lead to an update.
         updateSuppression(mGroupMap.get(entry.getSbn().getGroupKey()));
-        for (OnGroupChangeListener listener : mListeners) {
-            listener.onGroupsChanged();
-        }
+        dispatchGroupsChanged();
     }
 
     /**
@@ -605,11 +683,9 @@ public class NotificationGroupManager implements OnHeadsUpChangedListener, State
         if (isIsolated(sbn.getKey())) {
             // not isolated anymore, we need to update the groups
             onEntryRemovedInternal(entry, entry.getSbn());
-            mIsolatedEntries.remove(sbn.getKey());
+            removeIsolatedEntry(sbn.getKey());
             onEntryAddedInternal(entry);
-            for (OnGroupChangeListener listener : mListeners) {
-                listener.onGroupsChanged();
-            }
+            dispatchGroupsChanged();
         }
     }
 
@@ -57,6 +57,7 @@ public abstract class HeadsUpManager extends AlertingNotificationManager {
     protected int mUser;
 
     private final ArrayMap<String, Long> mSnoozedPackages;
+    private int mSnoozeVersion;
     private final AccessibilityManagerWrapper mAccessibilityMgr;
 
     public HeadsUpManager(@NonNull final Context context) {
@@ -209,6 +210,16 @@ public abstract class HeadsUpManager extends AlertingNotificationManager {
             mSnoozedPackages.put(snoozeKey(packageName, mUser),
                     mClock.currentTimeMillis() + mSnoozeLengthMs);
         }
+        mSnoozeVersion++;
+    }
+
+    /**
+     * Returns a counter that changes whenever packages get snoozed or the user changes, so that
+     * callers can tell whether {@link #isSnoozed} may have started returning something else. It
+     * does not change when a snooze simply runs out.
+     */
+    public int getSnoozeVersion() {
+        return mSnoozeVersion;
     }
 
     @NonNull
@@ -249,6 +260,7 @@ public abstract class HeadsUpManager extends AlertingNotificationManager {
      */
     public void setUser(int user) {
         mUser = user;
+        mSnoozeVersion++;
     }
 
     public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
@@ -262,6 +274,7 @@ public abstract class HeadsUpManager extends AlertingNotificationManager {
         pw.print("  mSnoozeLengthMs="); pw.println(mSnoozeLengthMs);
         pw.print("  now="); pw.println(mClock.currentTimeMillis());
         pw.print("  mUser="); pw.println(mUser);
+        dumpRemovalScheduler(pw);
         for (AlertEntry entry: mAlertEntries.values()) {
             pw.print("  HeadsUpEntry="); pw.println(entry.mEntry);
         }
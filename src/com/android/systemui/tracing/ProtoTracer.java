@@ -25,21 +25,26 @@ import android.os.SystemClock;
 import androidx.annotation.NonNull;
 
 import com.android.systemui.Dumpable;
+import com.android.systemui.dagger.qualifiers.Background;
 import com.android.systemui.dump.DumpManager;
 import com.android.systemui.shared.tracing.FrameProtoTracer;
-import com.android.systemui.shared.tracing.FrameProtoTracer.ProtoTraceParams;
+import com.android.systemui.shared.tracing.FrameProtoTracer.StreamingProtoTraceParams;
 import com.android.systemui.shared.tracing.ProtoTraceable;
+import com.android.systemui.statusbar.FeatureFlags;
 import com.android.systemui.tracing.nano.SystemUiTraceEntryProto;
 import com.android.systemui.tracing.nano.SystemUiTraceFileProto;
 import com.android.systemui.tracing.nano.SystemUiTraceProto;
 
+import com.google.protobuf.nano.CodedOutputByteBufferNano;
 import com.google.protobuf.nano.MessageNano;
 
 import java.io.File;
 import java.io.FileDescriptor;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Queue;
+import java.util.concurrent.Executor;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -48,20 +53,25 @@ import javax.inject.Singleton;
  * Controller for coordinating winscope proto tracing.
  */
 @Singleton
-public class ProtoTracer implements Dumpable, ProtoTraceParams<MessageNano, SystemUiTraceFileProto,
-        SystemUiTraceEntryProto, SystemUiTraceProto> {
+public class ProtoTracer implements Dumpable, StreamingProtoTraceParams<MessageNano,
+        SystemUiTraceFileProto, SystemUiTraceEntryProto, SystemUiTraceProto> {
 
     private static final String TAG = "ProtoTracer";
     private static final long MAGIC_NUMBER_VALUE = ((long) MAGIC_NUMBER_H << 32) | MAGIC_NUMBER_L;
+    // Field number of SystemUiTraceFileProto.entry
+    private static final int ENTRY_FIELD_NUMBER = 2;
 
     private final Context mContext;
     private final FrameProtoTracer<MessageNano, SystemUiTraceFileProto, SystemUiTraceEntryProto,
             SystemUiTraceProto> mProtoTracer;
 
     @Inject
-    public ProtoTracer(Context context, DumpManager dumpManager) {
+    public ProtoTracer(Context context, DumpManager dumpManager, FeatureFlags featureFlags,
+            @Background Executor bgExecutor) {
         mContext = context;
-        mProtoTracer = new FrameProtoTracer<>(this);
+        mProtoTracer = featureFlags.isStreamingProtoTraceEnabled()
+                ? new FrameProtoTracer<>(this, bgExecutor)
+                : new FrameProtoTracer<>(this);
         dumpManager.registerDumpable(getClass().getName(), this);
     }
 
@@ -97,6 +107,25 @@ public class ProtoTracer implements Dumpable, ProtoTraceParams<MessageNano, Syst
         return MessageNano.toByteArray(encapsulatingProto);
     }
 
+    @Override
+    public byte[] getStreamingTraceHeader() {
+        SystemUiTraceFileProto proto = new SystemUiTraceFileProto();
+        proto.magicNumber = MAGIC_NUMBER_VALUE;
+        return MessageNano.toByteArray(proto);
+    }
+
+    @Override
+    public int getStreamedEntrySize(SystemUiTraceEntryProto entry) {
+        return CodedOutputByteBufferNano.computeMessageSize(ENTRY_FIELD_NUMBER, entry);
+    }
+
+    @Override
+    public void writeStreamedEntry(SystemUiTraceEntryProto entry, byte[] buffer, int offset,
+            int size) throws IOException {
+        CodedOutputByteBufferNano.newInstance(buffer, offset, size)
+                .writeMessage(ENTRY_FIELD_NUMBER, entry);
+    }
+
     @Override
     public byte[] getProtoBytes(MessageNano proto) {
         return MessageNano.toByteArray(proto);
@@ -139,7 +168,13 @@ public class ProtoTracer implements Dumpable, ProtoTraceParams<MessageNano, Syst
     public void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter pw, @NonNull String[] args) {
         pw.println("ProtoTracer:");
         pw.print("    "); pw.println("enabled: " + mProtoTracer.isEnabled());
-        pw.print("    "); pw.println("usagePct: " + mProtoTracer.getBufferUsagePct());
+        if (mProtoTracer.isStreaming()) {
+            pw.print("    "); pw.println("droppedFrames: " + mProtoTracer.getDroppedFrames());
+            pw.print("    ");
+            pw.println("bytesPerSec: " + mProtoTracer.getStreamedBytesPerSecond());
+        } else {
+            pw.print("    "); pw.println("usagePct: " + mProtoTracer.getBufferUsagePct());
+        }
         pw.print("    "); pw.println("file: " + getTraceFile());
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.util;
+
+import android.os.Debug;
+
+/**
+ * Reads the allocation counters of the runtime. They count every thread in the process, so the
+ * difference between two readings only isolates the work done in between if nothing else
+ * allocates at the same time.
+ */
+public final class RuntimeStats {
+
+    private RuntimeStats() {
+    }
+
+    /** Bytes allocated so far by the process, or -1 if unavailable. */
+    public static long getAllocatedBytes() {
+        return getLongStat("art.gc.bytes-allocated");
+    }
+
+    /** Objects allocated so far by the process, or -1 if unavailable. */
+    public static long getAllocatedObjects() {
+        return getLongStat("art.gc.objects-allocated");
+    }
+
+    private static long getLongStat(String name) {
+        final String stat = Debug.getRuntimeStat(name);
+        if (stat == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(stat);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import androidx.annotation.NonNull;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.LinkOption;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
@@ -48,6 +49,11 @@ public class Files {
         return java.nio.file.Files.lines(path);
     }
 
+    /** See {@link java.nio.file.Files#newDirectoryStream(Path, String)} */
+    public DirectoryStream<Path> newDirectoryStream(Path dir, String glob) throws IOException {
+        return java.nio.file.Files.newDirectoryStream(dir, glob);
+    }
+
     /** See {@link java.nio.file.Files#readAttributes} */
     public <A extends BasicFileAttributes> A readAttributes(
             @NonNull Path path,
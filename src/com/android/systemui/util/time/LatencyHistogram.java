@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.util.time;
+
+import java.io.PrintWriter;
+
+/**
+ * Fixed-bucket histogram of durations. Recording a sample never allocates, so instances can be
+ * left enabled on hot paths in production builds.
+ *
+ * Not thread-safe; callers are expected to record from a single thread (or synchronize
+ * externally).
+ */
+public class LatencyHistogram {
+    /** Upper bounds (inclusive, in microseconds) of every bucket but the last, overflow, one. */
+    private static final long[] BUCKET_UPPER_BOUNDS_US = {
+            10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000
+    };
+
+    private final String mName;
+    private final long[] mCounts = new long[BUCKET_UPPER_BOUNDS_US.length + 1];
+    private long mSampleCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /** Records a single sample. */
+    public void record(long durationNanos) {
+        final long durationUs = durationNanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_UPPER_BOUNDS_US.length
+                && durationUs > BUCKET_UPPER_BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mSampleCount++;
+        mTotalNanos += durationNanos;
+        if (durationNanos > mMaxNanos) {
+            mMaxNanos = durationNanos;
+        }
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * Returns an upper bound, in microseconds, for the given percentile (0-100). Samples that fall
+     * into the overflow bucket are reported using the largest recorded sample.
+     */
+    public long getPercentileUpperBoundUs(int percentile) {
+        if (mSampleCount == 0) {
+            return 0;
+        }
+        final long threshold = (mSampleCount * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_UPPER_BOUNDS_US.length; i++) {
+            seen += mCounts[i];
+            if (seen >= threshold) {
+                return BUCKET_UPPER_BOUNDS_US[i];
+            }
+        }
+        return mMaxNanos / 1000;
+    }
+
+    /** Forgets all recorded samples. */
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mSampleCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    /** Prints a one-line summary followed by the non-empty buckets. */
+    public void dump(PrintWriter pw, String indent) {
+        pw.print(indent);
+        pw.print(mName);
+        pw.print(": n=");
+        pw.print(mSampleCount);
+        if (mSampleCount == 0) {
+            pw.println();
+            return;
+        }
+        pw.print(" avg=");
+        pw.print(mTotalNanos / mSampleCount / 1000);
+        pw.print("us p50<=");
+        pw.print(getPercentileUpperBoundUs(50));
+        pw.print("us p90<=");
+        pw.print(getPercentileUpperBoundUs(90));
+        pw.print("us p99<=");
+        pw.print(getPercentileUpperBoundUs(99));
+        pw.print("us max=");
+        pw.print(mMaxNanos / 1000);
+        pw.println("us");
+
+        pw.print(indent);
+        pw.print("  buckets:");
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] == 0) {
+                continue;
+            }
+            pw.print(' ');
+            if (i < BUCKET_UPPER_BOUNDS_US.length) {
+                pw.print("<=");
+                pw.print(BUCKET_UPPER_BOUNDS_US[i]);
+            } else {
+                pw.print('>');
+                pw.print(BUCKET_UPPER_BOUNDS_US[BUCKET_UPPER_BOUNDS_US.length - 1]);
+            }
+            pw.print("us:");
+            pw.print(mCounts[i]);
+        }
+        pw.println();
+    }
+}
@@ -16,13 +16,17 @@
 
 package com.android.systemui.bubbles;
 
+import static org.mockito.Mockito.mock;
+
 import android.content.ContentResolver;
 import android.hardware.display.AmbientDisplayConfiguration;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.service.dreams.IDreamManager;
 
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.plugins.statusbar.StatusBarStateController;
+import com.android.systemui.statusbar.FeatureFlags;
 import com.android.systemui.statusbar.notification.NotificationFilter;
 import com.android.systemui.statusbar.notification.interruption.NotificationInterruptStateProviderImpl;
 import com.android.systemui.statusbar.policy.BatteryController;
@@ -49,7 +53,9 @@ public class TestableNotificationInterruptStateProviderImpl
                 batteryController,
                 statusBarStateController,
                 headsUpManager,
-                mainHandler);
+                mainHandler,
+                mock(FeatureFlags.class),
+                mock(DumpManager.class));
         mUseHeadsUp = true;
     }
 }
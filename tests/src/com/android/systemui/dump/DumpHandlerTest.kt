@@ -20,11 +20,14 @@ import androidx.test.filters.SmallTest
 import com.android.systemui.Dumpable
 import com.android.systemui.SysuiTestCase
 import com.android.systemui.log.LogBuffer
+import com.android.systemui.statusbar.FeatureFlags
 import com.android.systemui.util.mockito.any
+import com.android.systemui.util.mockito.eq
 import org.junit.Before
 import org.junit.Test
 import org.mockito.Mock
 import org.mockito.Mockito.anyInt
+import org.mockito.Mockito.`when`
 import org.mockito.Mockito.never
 import org.mockito.Mockito.verify
 import org.mockito.MockitoAnnotations
@@ -38,6 +41,8 @@ class DumpHandlerTest : SysuiTestCase() {
 
     @Mock
     private lateinit var logBufferEulogizer: LogBufferEulogizer
+    @Mock
+    private lateinit var featureFlags: FeatureFlags
 
     @Mock
     private lateinit var fd: FileDescriptor
@@ -62,7 +67,7 @@ class DumpHandlerTest : SysuiTestCase() {
     fun setUp() {
         MockitoAnnotations.initMocks(this)
 
-        dumpHandler = DumpHandler(mContext, dumpManager, logBufferEulogizer)
+        dumpHandler = DumpHandler(mContext, dumpManager, logBufferEulogizer, featureFlags)
     }
 
     @Test
@@ -152,4 +157,24 @@ class DumpHandlerTest : SysuiTestCase() {
         verify(buffer1).dump(pw, 0)
         verify(buffer2).dump(pw, 0)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testCriticalDumpInParallel() {
+        // GIVEN parallel dumping is enabled
+        `when`(featureFlags.isParallelDumpEnabled).thenReturn(true)
+
+        // GIVEN a variety of registered dumpables and buffers
+        dumpManager.registerDumpable("dumpable1", dumpable1)
+        dumpManager.registerDumpable("dumpable2", dumpable2)
+        dumpManager.registerBuffer("buffer1", buffer1)
+
+        // WHEN a critical dump is requested
+        val args = arrayOf("--dump-priority", "CRITICAL")
+        dumpHandler.dump(fd, pw, args)
+
+        // THEN all modules are dumped, each into its own writer (but no buffers)
+        verify(dumpable1).dump(eq(fd), any(PrintWriter::class.java), eq(args))
+        verify(dumpable2).dump(eq(fd), any(PrintWriter::class.java), eq(args))
+        verify(buffer1, never()).dump(any(PrintWriter::class.java), anyInt())
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.dump
+
+import androidx.test.filters.SmallTest
+import com.android.systemui.SysuiTestCase
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+
+@SmallTest
+class ParallelDumpCollectorTest : SysuiTestCase() {
+
+    private val collector = ParallelDumpCollector(2, TIMEOUT_MS)
+
+    @Test
+    fun testResultsAreInSubmissionOrder() {
+        // GIVEN jobs that finish in reverse order
+        val names = listOf("a", "b", "c", "d")
+
+        // WHEN they are collected
+        val results = collector.collect(names) { name ->
+            Thread.sleep(((names.size - names.indexOf(name)) * 5).toLong())
+            name.toUpperCase()
+        }
+
+        // THEN the results are still in the order the jobs were submitted
+        assertEquals(names, results.map { it.name })
+        assertEquals(listOf("A", "B", "C", "D"), results.map { it.value })
+    }
+
+    @Test
+    fun testSlowJobTimesOutWithoutBlockingOthers() {
+        val blocker = CountDownLatch(1)
+
+        // WHEN one of the jobs never finishes
+        val results = collector.collect(listOf("stuck", "fine")) { name ->
+            if (name == "stuck") {
+                blocker.await()
+            }
+            name
+        }
+
+        // THEN it is reported as timed out and the other job still completes
+        assertTrue(results[0].timedOut)
+        assertNull(results[0].value)
+        assertFalse(results[1].timedOut)
+        assertEquals("fine", results[1].value)
+    }
+
+    @Test
+    fun testDurationIsMeasuredWhenTheJobFinishes() {
+        // WHEN a fast job is collected after a slow one
+        val results = collector.collect(listOf("slow", "fast")) { name ->
+            if (name == "slow") {
+                Thread.sleep(100)
+            }
+            name
+        }
+
+        // THEN the fast job's duration doesn't include the time spent waiting on the slow one
+        assertTrue(results[1].durationMs < 50)
+    }
+
+    @Test
+    fun testQueuedJobTimesOutWhenThePoolIsStuck() {
+        // GIVEN a single thread and a job that ignores interruption
+        val singleThreaded = ParallelDumpCollector(1, TIMEOUT_MS)
+        val released = AtomicBoolean(false)
+
+        try {
+            // WHEN a second job is queued behind it
+            val results = singleThreaded.collect(listOf("stuck", "queued")) { name ->
+                if (name == "stuck") {
+                    while (!released.get()) {
+                        // Spin without checking for interruption
+                    }
+                }
+                name
+            }
+
+            // THEN both are reported as timed out instead of collect() never returning
+            assertTrue(results[0].timedOut)
+            assertTrue(results[1].timedOut)
+            assertEquals(0L, results[1].durationMs)
+        } finally {
+            released.set(true)
+        }
+    }
+
+    @Test
+    fun testErrorsAreReported() {
+        val error = IllegalStateException("boom")
+
+        val results = collector.collect(listOf("broken")) { throw error }
+
+        assertEquals(error, results[0].error)
+        assertNull(results[0].value)
+    }
+}
+
+private const val TIMEOUT_MS = 200L
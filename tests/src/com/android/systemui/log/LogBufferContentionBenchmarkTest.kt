@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.systemui.log
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import com.android.systemui.SysuiTestCase
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Compares the synchronized and lock-free [LogBuffer] implementations with several threads
+ * logging into the same buffer, optionally while another thread keeps dumping it. To run:
+ *
+ * ```
+ * $ atest LogBufferContentionBenchmarkTest
+ * ```
+ *
+ * Results are written to logcat under the tag [TAG].
+ */
+@LargeTest
+class LogBufferContentionBenchmarkTest : SysuiTestCase() {
+
+    private val echoTracker = LogcatEchoTrackerProd()
+
+    @Test
+    fun benchmarkSynchronizedVsLockFree() {
+        for (threads in THREAD_COUNTS) {
+            for (dumping in listOf(false, true)) {
+                val synchronizedNanos = runWriters(false /* lockFree */, threads, dumping)
+                val lockFreeNanos = runWriters(true /* lockFree */, threads, dumping)
+                Log.i(TAG, "threads=$threads dumping=$dumping" +
+                        " synchronizedAvgNs=${synchronizedNanos / (threads * MESSAGES_PER_THREAD)}" +
+                        " lockFreeAvgNs=${lockFreeNanos / (threads * MESSAGES_PER_THREAD)}")
+            }
+        }
+    }
+
+    @Test
+    fun testLockFreeBufferKeepsEveryMessageWithoutOverflow() {
+        val buffer = LogBuffer("BenchLog", THREAD_COUNTS.last() * 100, 10, echoTracker, true)
+        runWriters(buffer, THREAD_COUNTS.last(), 100, dumping = false)
+
+        val out = StringWriter()
+        PrintWriter(out).use { pw -> buffer.dump(pw, 0) }
+        assertEquals(THREAD_COUNTS.last() * 100, out.toString().lines().count { it.isNotEmpty() })
+    }
+
+    private fun runWriters(lockFree: Boolean, threads: Int, dumping: Boolean): Long {
+        val buffer = LogBuffer("BenchLog", BUFFER_SIZE, 10, echoTracker, lockFree)
+        // Warm up the JIT before measuring
+        runWriters(buffer, threads, MESSAGES_PER_THREAD / 10, dumping = false)
+        return runWriters(buffer, threads, MESSAGES_PER_THREAD, dumping)
+    }
+
+    private fun runWriters(
+        buffer: LogBuffer,
+        threads: Int,
+        messagesPerThread: Int,
+        dumping: Boolean
+    ): Long {
+        val start = CountDownLatch(1)
+        val done = CountDownLatch(threads)
+        val writers = List(threads) { id ->
+            Thread {
+                start.await()
+                for (i in 0 until messagesPerThread) {
+                    buffer.log(TAG, LogLevel.DEBUG, {
+                        int1 = id
+                        int2 = i
+                    }, { "writer $int1 message $int2" })
+                }
+                done.countDown()
+            }
+        }
+
+        val writersRunning = AtomicBoolean(true)
+        val dumper = Thread {
+            val sink = PrintWriter(StringWriter())
+            while (writersRunning.get()) {
+                buffer.dump(sink, 0)
+            }
+        }
+
+        writers.forEach { it.start() }
+        if (dumping) {
+            dumper.start()
+        }
+        val startNanos = SystemClock.elapsedRealtimeNanos()
+        start.countDown()
+        done.await()
+        val nanos = SystemClock.elapsedRealtimeNanos() - startNanos
+        writersRunning.set(false)
+        writers.forEach { it.join() }
+        if (dumping) {
+            dumper.join()
+        }
+        return nanos
+    }
+}
+
+private const val TAG = "LogBufferContentionBenchmark"
+
+private val THREAD_COUNTS = listOf(1, 2, 4, 8)
+private const val MESSAGES_PER_THREAD = 20000
+private const val BUFFER_SIZE = 1000
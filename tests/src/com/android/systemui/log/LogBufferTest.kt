@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.systemui.log
+
+import androidx.test.filters.SmallTest
+import com.android.systemui.SysuiTestCase
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.PrintWriter
+import java.io.StringWriter
+
+@SmallTest
+class LogBufferTest : SysuiTestCase() {
+
+    private val echoTracker = LogcatEchoTrackerProd()
+
+    @Test
+    fun testLockFreeBufferKeepsNewestMessagesInOrder() {
+        // GIVEN a lock-free buffer that has wrapped around
+        val buffer = LogBuffer("TestLog", 5, 1, echoTracker, true /* lockFree */)
+        for (i in 0 until 12) {
+            buffer.log(TAG, LogLevel.DEBUG, { int1 = i }, { "message $int1" })
+        }
+
+        // THEN only the newest messages are dumped, oldest first
+        assertEquals(listOf(7, 8, 9, 10, 11), dumpedValues(buffer, 0))
+    }
+
+    @Test
+    fun testLockFreeBufferDumpsTail() {
+        val buffer = LogBuffer("TestLog", 5, 1, echoTracker, true /* lockFree */)
+        for (i in 0 until 3) {
+            buffer.log(TAG, LogLevel.DEBUG, { int1 = i }, { "message $int1" })
+        }
+
+        assertEquals(listOf(1, 2), dumpedValues(buffer, 2))
+    }
+
+    @Test
+    fun testLockFreeBufferIgnoresMessagesWhileFrozen() {
+        val buffer = LogBuffer("TestLog", 10, 1, echoTracker, true /* lockFree */)
+        buffer.log(TAG, LogLevel.DEBUG, { int1 = 1 }, { "message $int1" })
+
+        // WHEN the buffer is frozen
+        buffer.freeze()
+        buffer.log(TAG, LogLevel.DEBUG, { int1 = 2 }, { "message $int1" })
+
+        // THEN messages logged while frozen are discarded
+        assertEquals(listOf(1), dumpedValues(buffer, 0))
+    }
+
+    @Test
+    fun testLockFreeBufferKeepsDocumentedMessagesUntilPushed() {
+        val buffer = LogBuffer("TestLog", 10, 1, echoTracker, true /* lockFree */)
+
+        // WHEN a message is documented and other messages are logged before it is pushed
+        val documented = buffer.document(TAG, LogLevel.DEBUG, { int1 = 1 }, { "message $int1" })
+        buffer.log(TAG, LogLevel.DEBUG, { int1 = 2 }, { "message $int1" })
+        buffer.push(documented)
+
+        // THEN the documented message is not clobbered
+        assertEquals(listOf(2, 1), dumpedValues(buffer, 0))
+    }
+
+    private fun dumpedValues(buffer: LogBuffer, tailLength: Int): List<Int> {
+        val out = StringWriter()
+        PrintWriter(out).use { pw -> buffer.dump(pw, tailLength) }
+        return out.toString().lines()
+                .filter { it.contains("message ") }
+                .map { it.substringAfterLast(' ').toInt() }
+    }
+}
+
+private const val TAG = "LogBufferTest"
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.systemui.log
+
+import androidx.test.filters.SmallTest
+import com.android.systemui.SysuiTestCase
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+@SmallTest
+class PersistentLogFileTest : SysuiTestCase() {
+
+    private lateinit var dir: Path
+    private lateinit var path: Path
+
+    @Before
+    fun setUp() {
+        dir = Files.createTempDirectory(mContext.cacheDir.toPath(), "persistent_logs")
+        path = dir.resolve("TestLog.bin")
+    }
+
+    @After
+    fun tearDown() {
+        dir.toFile().deleteRecursively()
+    }
+
+    @Test
+    fun testMessagesSurviveReopening() {
+        // GIVEN a buffer that persisted some messages
+        val buffer = LogBuffer("TestLog", 10, 1, LogcatEchoTrackerProd())
+        buffer.persistTo(PersistentLogFile.open(path, 10))
+        buffer.log(TAG, LogLevel.INFO, {
+            str1 = "foo"
+            int1 = 7
+            bool2 = true
+        }, { "message $str1" })
+
+        // WHEN the file is opened again, as it would be by the next process
+        PersistentLogFile.open(path, 10)
+
+        // THEN the previous contents can be decoded with their raw fields
+        val lines = decode(PersistentLogFile.previousPathOf(path))
+        assertEquals(1, lines.size)
+        assertTrue(lines[0].endsWith("INFO $TAG str1=foo int1=7 bool2=true"))
+    }
+
+    @Test
+    fun testOnlyNewestMessagesAreKeptInOrder() {
+        val file = PersistentLogFile.open(path, 3)
+        for (i in 0 until 5) {
+            file.write(message(i))
+        }
+
+        PersistentLogFile.open(path, 3)
+
+        val lines = decode(PersistentLogFile.previousPathOf(path))
+        assertEquals(listOf("int1=2", "int1=3", "int1=4"),
+                lines.map { it.substringAfterLast(' ') })
+    }
+
+    @Test
+    fun testLongStringsAreTruncated() {
+        val file = PersistentLogFile.open(path, 3)
+        file.write(message(1).apply { str1 = "x".repeat(500) })
+
+        PersistentLogFile.open(path, 3)
+
+        val line = decode(PersistentLogFile.previousPathOf(path)).single()
+        assertTrue(line.contains(" str1=" + "x".repeat(48) + " "))
+    }
+
+    @Test
+    fun testConcurrentWritersNeverTearRecords() {
+        // GIVEN a lock-free buffer persisted to a file small enough to wrap constantly
+        val buffer = LogBuffer("TestLog", 4, 1, LogcatEchoTrackerProd(), true /* lockFree */)
+        buffer.persistTo(PersistentLogFile.open(path, 4))
+
+        // WHEN several threads log into it at once, each with fields that identify the writer
+        val start = CountDownLatch(1)
+        val writers = List(8) { id ->
+            thread {
+                start.await()
+                for (i in 0 until 2000) {
+                    buffer.log(TAG, LogLevel.DEBUG, {
+                        str1 = "w${id + 1}"
+                        int1 = id + 1
+                        long1 = (id + 1).toLong()
+                    }, { "" })
+                }
+            }
+        }
+        start.countDown()
+        writers.forEach { it.join() }
+        PersistentLogFile.open(path, 4)
+
+        // THEN every record holds the fields of a single message
+        val lines = decode(PersistentLogFile.previousPathOf(path))
+        assertEquals(4, lines.size)
+        for (line in lines) {
+            val id = line.substringAfter(" int1=").substringBefore(' ')
+            assertTrue(line, line.endsWith(" str1=w$id int1=$id long1=$id"))
+        }
+    }
+
+    private fun message(value: Int): LogMessageImpl {
+        return LogMessageImpl.create().apply {
+            reset(TAG, LogLevel.DEBUG, 0, { "" })
+            int1 = value
+        }
+    }
+
+    private fun decode(path: Path): List<String> {
+        val out = StringWriter()
+        PrintWriter(out).use { pw -> PersistentLogFile.decode(path, pw) }
+        return out.toString().lines().filter { it.isNotEmpty() }
+    }
+}
+
+private const val TAG = "PersistentLogFileTest"
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.log
+
+import androidx.test.filters.SmallTest
+import com.android.systemui.SysuiTestCase
+import com.android.systemui.util.concurrency.FakeExecutor
+import com.android.systemui.util.time.FakeSystemClock
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+@SmallTest
+class RateLimitedLogcatEchoTrackerTest : SysuiTestCase() {
+
+    private val clock = FakeSystemClock()
+    private val executor = FakeExecutor(clock)
+    private val delegate = RecordingEchoTracker()
+
+    @Test
+    fun testEchoIsDeferredToExecutor() {
+        val tracker = createTracker(maxPerSecond = 10, sampleRate = 1)
+
+        // WHEN a message is echoed
+        tracker.echo(message(TAG_A, 1))
+
+        // THEN nothing is written until the executor runs
+        assertEquals(emptyList<Int>(), delegate.echoed)
+        executor.runAllReady()
+        assertEquals(listOf(1), delegate.echoed)
+    }
+
+    @Test
+    fun testEchoedMessageIsCopied() {
+        val tracker = createTracker(maxPerSecond = 10, sampleRate = 1)
+
+        // WHEN a message is reused after being echoed
+        val message = message(TAG_A, 1)
+        tracker.echo(message)
+        message.int1 = 2
+        executor.runAllReady()
+
+        // THEN the echoed message is not affected
+        assertEquals(listOf(1), delegate.echoed)
+    }
+
+    @Test
+    fun testEachTagIsRateLimitedSeparately() {
+        val tracker = createTracker(maxPerSecond = 2, sampleRate = 1)
+
+        // WHEN a burst of messages is logged for two tags
+        for (i in 0 until 5) {
+            tracker.echo(message(TAG_A, i))
+        }
+        tracker.echo(message(TAG_B, 100))
+        executor.runAllReady()
+
+        // THEN only the first messages of the bursting tag are echoed, but the other tag is not
+        // affected
+        assertEquals(listOf(0, 1, 100), delegate.echoed)
+
+        // WHEN enough time passes for the bucket to refill
+        clock.advanceTime(500)
+        tracker.echo(message(TAG_A, 5))
+        executor.runAllReady()
+
+        // THEN messages are echoed again
+        assertEquals(listOf(0, 1, 100, 5), delegate.echoed)
+    }
+
+    @Test
+    fun testMessagesAreSampled() {
+        val tracker = createTracker(maxPerSecond = 100, sampleRate = 3)
+
+        for (i in 0 until 7) {
+            tracker.echo(message(TAG_A, i))
+        }
+        executor.runAllReady()
+
+        assertEquals(listOf(0, 3, 6), delegate.echoed)
+    }
+
+    @Test
+    fun testMessagesAreDroppedWhenQueueIsFull() {
+        val tracker = createTracker(maxPerSecond = 100, sampleRate = 1, queueSize = 2)
+
+        for (i in 0 until 4) {
+            tracker.echo(message(TAG_A, i))
+        }
+        executor.runAllReady()
+
+        assertEquals(listOf(0, 1), delegate.echoed)
+    }
+
+    private fun createTracker(
+        maxPerSecond: Int,
+        sampleRate: Int,
+        queueSize: Int = 16
+    ): RateLimitedLogcatEchoTracker {
+        return RateLimitedLogcatEchoTracker(
+                delegate, executor, clock, maxPerSecond, sampleRate, queueSize)
+    }
+
+    private fun message(tag: String, value: Int): LogMessageImpl {
+        return LogMessageImpl.create().apply {
+            reset(tag, LogLevel.DEBUG, 0, { "" })
+            int1 = value
+        }
+    }
+
+    private class RecordingEchoTracker : LogcatEchoTracker {
+        val echoed = mutableListOf<Int>()
+
+        override fun isBufferLoggable(bufferName: String, level: LogLevel) = true
+
+        override fun isTagLoggable(tagName: String, level: LogLevel) = true
+
+        override fun echo(message: LogMessage) {
+            echoed.add(message.int1)
+        }
+    }
+}
+
+private const val TAG_A = "TagA"
+private const val TAG_B = "TagB"
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.shared.tracing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.testing.AndroidTestingRunner;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+public class StreamingTraceWriterTest extends SysuiTestCase {
+
+    private static final byte[] HEADER = {1, 2, 3, 4};
+    private static final int CHUNK_SIZE = 16;
+
+    private final FakeExecutor mExecutor = new FakeExecutor(new FakeSystemClock());
+    private File mFile;
+    private File mRotatedFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mContext.getCacheDir(), "streaming_trace_test");
+        mRotatedFile = new File(mFile.getPath() + ".1");
+        mFile.delete();
+        mRotatedFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        mRotatedFile.delete();
+    }
+
+    @Test
+    public void testRotatesToSecondFileWithHeader() throws IOException {
+        // GIVEN a writer that rotates once a file would exceed 32 bytes
+        StreamingTraceWriter writer = createWriter(4 /* chunkCount */);
+        writer.start(HEADER);
+        mExecutor.runAllReady();
+
+        // WHEN four entries that each fill a whole chunk are written
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(writeEntry(writer, (byte) i));
+            mExecutor.runAllReady();
+        }
+        writer.stop();
+        mExecutor.runAllReady();
+
+        // THEN both files start with the header and hold the last two entries
+        assertArrayEquals(fileContents((byte) 4), Files.readAllBytes(mFile.toPath()));
+        assertArrayEquals(fileContents((byte) 3), Files.readAllBytes(mRotatedFile.toPath()));
+        assertEquals(0, writer.getDroppedEntries());
+    }
+
+    @Test
+    public void testStartDeletesStaleRotatedFile() throws IOException {
+        // GIVEN a rotated file left over from a previous trace
+        Files.write(mRotatedFile.toPath(), fileContents((byte) 9));
+        StreamingTraceWriter writer = createWriter(4 /* chunkCount */);
+
+        // WHEN a new trace is started
+        writer.start(HEADER);
+        mExecutor.runAllReady();
+
+        // THEN the stale rotated file is gone and the new file only holds the header
+        assertFalse(mRotatedFile.exists());
+        assertArrayEquals(HEADER, Files.readAllBytes(mFile.toPath()));
+    }
+
+    @Test
+    public void testDropsEntriesWhenNoChunkIsFree() {
+        // GIVEN a writer with two chunks whose background thread doesn't get to run
+        StreamingTraceWriter writer = createWriter(2 /* chunkCount */);
+        writer.start(HEADER);
+        mExecutor.runAllReady();
+        assertTrue(writeEntry(writer, (byte) 1));
+        assertTrue(writeEntry(writer, (byte) 2));
+
+        // WHEN a third entry is written
+        // THEN it is dropped and counted
+        assertFalse(writeEntry(writer, (byte) 3));
+        assertEquals(1, writer.getDroppedEntries());
+    }
+
+    @Test
+    public void testRecyclesChunksOnceWritten() {
+        // GIVEN a writer whose two chunks have both been handed to the background thread
+        StreamingTraceWriter writer = createWriter(2 /* chunkCount */);
+        writer.start(HEADER);
+        mExecutor.runAllReady();
+        ByteBuffer first = writer.obtainBuffer(CHUNK_SIZE);
+        first.position(CHUNK_SIZE);
+        ByteBuffer second = writer.obtainBuffer(CHUNK_SIZE);
+        second.position(CHUNK_SIZE);
+        assertNull(writer.obtainBuffer(CHUNK_SIZE));
+
+        // WHEN the background thread writes them
+        mExecutor.runAllReady();
+
+        // THEN the next entry reuses one of them
+        ByteBuffer reused = writer.obtainBuffer(CHUNK_SIZE);
+        assertNotNull(reused);
+        assertTrue(reused == first || reused == second);
+        assertEquals(0, reused.position());
+    }
+
+    @Test
+    public void testCountsEntriesAsDroppedWhenFileCantBeWritten() {
+        // GIVEN a writer whose file can't be created
+        mFile = new File(new File(mContext.getCacheDir(), "missing_dir"), "trace");
+        mRotatedFile = new File(mFile.getPath() + ".1");
+        StreamingTraceWriter writer = createWriter(4 /* chunkCount */);
+
+        // WHEN entries are written before and after the writer notices
+        writer.start(HEADER);
+        assertTrue(writeEntry(writer, (byte) 1));
+        assertTrue(writeEntry(writer, (byte) 2));
+        mExecutor.runAllReady();
+        assertFalse(writeEntry(writer, (byte) 3));
+        writer.stop();
+        mExecutor.runAllReady();
+
+        // THEN all of them are counted as dropped
+        assertEquals(3, writer.getDroppedEntries());
+    }
+
+    private StreamingTraceWriter createWriter(int chunkCount) {
+        return new StreamingTraceWriter(mFile, 64 /* maxFileBytes */, CHUNK_SIZE, chunkCount,
+                mExecutor);
+    }
+
+    /** Writes an entry filling a whole chunk with {@code value}. */
+    private static boolean writeEntry(StreamingTraceWriter writer, byte value) {
+        ByteBuffer buffer = writer.obtainBuffer(CHUNK_SIZE);
+        if (buffer == null) {
+            return false;
+        }
+        Arrays.fill(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.arrayOffset() + buffer.position() + CHUNK_SIZE, value);
+        buffer.position(buffer.position() + CHUNK_SIZE);
+        return true;
+    }
+
+    /** Returns the header followed by a single entry filled with {@code value}. */
+    private static byte[] fileContents(byte value) {
+        byte[] contents = Arrays.copyOf(HEADER, HEADER.length + CHUNK_SIZE);
+        Arrays.fill(contents, HEADER.length, contents.length, value);
+        return contents;
+    }
+}
@@ -30,6 +30,7 @@ import android.app.ActivityManager;
 import android.app.Notification;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.service.notification.StatusBarNotification;
 import android.testing.AndroidTestingRunner;
@@ -159,6 +160,26 @@ public class AlertingNotificationManagerTest extends SysuiTestCase {
         assertFalse(mAlertingNotificationManager.isAlerting(mEntry.getKey()));
     }
 
+    @Test
+    public void testShowNotification_allDueNotificationsDismissedTogether() {
+        for (int i = 0; i < TEST_NUM_NOTIFICATIONS; i++) {
+            StatusBarNotification sbn = createNewNotification(i);
+            NotificationEntry entry = new NotificationEntryBuilder()
+                    .setSbn(sbn)
+                    .build();
+            entry.setRow(mRow);
+            mAlertingNotificationManager.showNotification(entry);
+        }
+        mTestHandler.postDelayed(TEST_TIMEOUT_RUNNABLE, TEST_TIMEOUT_TIME);
+
+        // Let all of them become due, then process the one pending removal message
+        SystemClock.sleep(TEST_AUTO_DISMISS_TIME);
+        TestableLooper.get(this).processMessages(1);
+
+        assertFalse("Test timed out", mTimedOut);
+        assertFalse(mAlertingNotificationManager.hasNotifications());
+    }
+
     @Test
     public void testRemoveNotification_removeDeferred() {
         mAlertingNotificationManager.showNotification(mEntry);
@@ -16,10 +16,17 @@
 
 package com.android.systemui.statusbar;
 
+import static com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EVENT_POSTED;
+
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -36,7 +43,16 @@ import android.testing.TestableLooper;
 import androidx.test.filters.SmallTest;
 
 import com.android.systemui.SysuiTestCase;
+import com.android.systemui.bubbles.BubbleController;
+import com.android.systemui.plugins.statusbar.StatusBarStateController;
 import com.android.systemui.statusbar.NotificationListener.NotificationHandler;
+import com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.statusbar.notification.people.PeopleNotificationIdentifier;
+import com.android.systemui.statusbar.phone.NotificationGroupManager;
+import com.android.systemui.statusbar.phone.NotificationGroupManager.OnGroupChangeListener;
+import com.android.systemui.statusbar.phone.NotificationGroupTestHelper;
+import com.android.systemui.statusbar.policy.HeadsUpManager;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -44,6 +60,9 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @SmallTest
 @RunWith(AndroidTestingRunner.class)
 @TestableLooper.RunWithLooper
@@ -53,7 +72,9 @@ public class NotificationListenerTest extends SysuiTestCase {
 
     @Mock private NotificationHandler mNotificationHandler;
     @Mock private NotificationManager mNotificationManager;
+    @Mock private NotifPipelineShadowMonitor mShadowMonitor;
 
+    private NotificationGroupManager mGroupManager;
     private NotificationListener mListener;
     private StatusBarNotification mSbn;
     private RankingMap mRanking = new RankingMap(new Ranking[0]);
@@ -61,11 +82,18 @@ public class NotificationListenerTest extends SysuiTestCase {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        mDependency.injectMockDependency(BubbleController.class);
 
+        mGroupManager = new NotificationGroupManager(
+                mock(StatusBarStateController.class),
+                () -> mock(PeopleNotificationIdentifier.class));
+        mGroupManager.setHeadsUpManager(mock(HeadsUpManager.class));
         mListener = new NotificationListener(
                 mContext,
                 mNotificationManager,
-                new Handler(TestableLooper.get(this).getLooper()));
+                new Handler(TestableLooper.get(this).getLooper()),
+                mShadowMonitor,
+                () -> mGroupManager);
         mSbn = new StatusBarNotification(TEST_PACKAGE_NAME, TEST_PACKAGE_NAME, 0, null, TEST_UID, 0,
                 new Notification(), UserHandle.CURRENT, null, 0);
 
@@ -94,6 +122,57 @@ public class NotificationListenerTest extends SysuiTestCase {
         verify(mNotificationHandler).onNotificationRankingUpdate(any());
     }
 
+    @Test
+    public void testHandlersAreMeasuredInShadowMode() {
+        // GIVEN the new pipeline is running in shadow mode
+        when(mShadowMonitor.isEnabled()).thenReturn(true);
+
+        // WHEN a notification is posted
+        mListener.onNotificationPosted(mSbn, mRanking);
+        TestableLooper.get(this).processAllMessages();
+
+        // THEN the time the handler took is reported
+        verify(mNotificationHandler).onNotificationPosted(mSbn, mRanking);
+        verify(mShadowMonitor).onDispatchStarted();
+        verify(mShadowMonitor).onHandlerFinished(
+                eq(mNotificationHandler), eq(EVENT_POSTED), anyLong(), anyLong());
+        verify(mShadowMonitor).onDispatchFinished();
+    }
+
+    @Test
+    public void testOnConnectBatchesGroupChanges() {
+        // GIVEN a group of notifications that are active when the listener connects
+        NotificationGroupTestHelper groupTestHelper = new NotificationGroupTestHelper(mContext);
+        Map<StatusBarNotification, NotificationEntry> entries = new LinkedHashMap<>();
+        for (NotificationEntry entry : new NotificationEntry[] {
+                groupTestHelper.createSummaryNotification(),
+                groupTestHelper.createChildNotification(),
+                groupTestHelper.createChildNotification()}) {
+            entries.put(entry.getSbn(), entry);
+        }
+        NotificationListener listener = spy(mListener);
+        doReturn(entries.keySet().toArray(new StatusBarNotification[0]))
+                .when(listener).getActiveNotifications();
+        doReturn(mRanking).when(listener).getCurrentRanking();
+
+        // GIVEN a handler that updates the groups as soon as a notification is posted
+        doAnswer(invocation -> {
+            mGroupManager.onEntryAdded(entries.get(invocation.getArgument(0)));
+            return null;
+        }).when(mNotificationHandler).onNotificationPosted(any(), any());
+        OnGroupChangeListener groupChangeListener = mock(OnGroupChangeListener.class);
+        mGroupManager.addOnGroupChangeListener(groupChangeListener);
+
+        // WHEN the listener connects
+        listener.onListenerConnected();
+        TestableLooper.get(this).processAllMessages();
+
+        // THEN every notification is posted, but the group listeners are only notified once even
+        // though the suppression of the summary changed twice
+        verify(mNotificationHandler, times(3)).onNotificationPosted(any(), any());
+        verify(groupChangeListener, times(1)).onGroupsChanged();
+    }
+
     @Test
     public void testOnConnectReadStatusBarSetting() {
         NotificationListener.NotificationSettingsListener settingsListener =
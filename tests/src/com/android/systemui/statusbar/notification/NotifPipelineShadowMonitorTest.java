@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import static com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EVENT_POSTED;
+import static com.android.systemui.statusbar.notification.NotifPipelineShadowMonitor.EVENT_REMOVED;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.testing.AndroidTestingRunner;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.statusbar.NotificationListener.NotificationHandler;
+import com.android.systemui.statusbar.notification.collection.GroupEntry;
+import com.android.systemui.statusbar.notification.collection.ListEntry;
+import com.android.systemui.statusbar.notification.collection.NotifPipeline;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.statusbar.notification.collection.NotificationEntryBuilder;
+import com.android.systemui.statusbar.phone.NotificationGroupManager;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+public class NotifPipelineShadowMonitorTest extends SysuiTestCase {
+
+    @Mock private FeatureFlags mFeatureFlags;
+    @Mock private NotificationEntryManager mEntryManager;
+    @Mock private NotifPipeline mNotifPipeline;
+    @Mock private NotificationGroupManager mGroupManager;
+    @Mock private NotificationHandler mHandler;
+
+    private FakeSystemClock mClock = new FakeSystemClock();
+    private FakeExecutor mExecutor = new FakeExecutor(mClock);
+    private NotifPipelineShadowMonitor mMonitor;
+
+    private final List<NotificationEntry> mLegacyList = new ArrayList<>();
+    private final List<ListEntry> mNewList = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mFeatureFlags.isNewNotifPipelineShadowMonitorEnabled()).thenReturn(true);
+        when(mEntryManager.getVisibleNotifications()).thenReturn(mLegacyList);
+        when(mNotifPipeline.getShadeList()).thenReturn(mNewList);
+        when(mHandler.getName()).thenReturn("handler");
+
+        mMonitor = new NotifPipelineShadowMonitor(
+                mFeatureFlags,
+                () -> mEntryManager,
+                () -> mNotifPipeline,
+                () -> mGroupManager,
+                mClock,
+                mExecutor,
+                mock(DumpManager.class));
+    }
+
+    @Test
+    public void testHandlerLatencyIsRecordedPerEvent() {
+        // WHEN a handler processes a couple of posts and a removal
+        dispatch(EVENT_POSTED);
+        dispatch(EVENT_POSTED);
+        dispatch(EVENT_REMOVED);
+
+        // THEN the samples are attributed to the right event
+        assertEquals(2, mMonitor.getSampleCount(mHandler, EVENT_POSTED));
+        assertEquals(1, mMonitor.getSampleCount(mHandler, EVENT_REMOVED));
+    }
+
+    @Test
+    public void testMatchingOutputsAreNotDivergent() {
+        // GIVEN both pipelines show the same notification
+        NotificationEntry entry = new NotificationEntryBuilder().setId(1).build();
+        mLegacyList.add(entry);
+        mNewList.add(entry);
+
+        // WHEN events settle
+        dispatch(EVENT_POSTED);
+        mClock.advanceTime(1000);
+        mExecutor.runAllReady();
+
+        // THEN no divergence is recorded
+        assertEquals(0, mMonitor.getDivergentComparisonCount());
+    }
+
+    @Test
+    public void testDifferentOutputsAreDivergent() {
+        // GIVEN the new pipeline shows a notification the legacy one doesn't
+        mLegacyList.add(new NotificationEntryBuilder().setId(1).build());
+        mNewList.add(mLegacyList.get(0));
+        mNewList.add(new NotificationEntryBuilder().setId(2).build());
+
+        // WHEN events settle
+        dispatch(EVENT_POSTED);
+        mClock.advanceTime(1000);
+        mExecutor.runAllReady();
+
+        // THEN a divergence is recorded
+        assertEquals(1, mMonitor.getDivergentComparisonCount());
+    }
+
+    @Test
+    public void testDifferentOrderIsDivergent() {
+        // GIVEN both pipelines show the same notifications, but in a different order
+        NotificationEntry first = new NotificationEntryBuilder().setId(1).build();
+        NotificationEntry second = new NotificationEntryBuilder().setId(2).build();
+        mLegacyList.addAll(Arrays.asList(first, second));
+        mNewList.addAll(Arrays.asList(second, first));
+
+        // WHEN events settle
+        dispatch(EVENT_POSTED);
+        mClock.advanceTime(1000);
+        mExecutor.runAllReady();
+
+        // THEN a divergence is recorded
+        assertEquals(1, mMonitor.getDivergentComparisonCount());
+    }
+
+    @Test
+    public void testMatchingGroupsAreNotDivergent() {
+        // GIVEN both pipelines show the same group
+        NotificationEntry summary = new NotificationEntryBuilder().setId(1).build();
+        NotificationEntry child = new NotificationEntryBuilder().setId(2).build();
+        groupInLegacy(summary, child);
+        mLegacyList.addAll(Arrays.asList(summary, child));
+        mNewList.add(createGroup(summary, child));
+
+        // WHEN events settle
+        dispatch(EVENT_POSTED);
+        mClock.advanceTime(1000);
+        mExecutor.runAllReady();
+
+        // THEN no divergence is recorded
+        assertEquals(0, mMonitor.getDivergentComparisonCount());
+    }
+
+    @Test
+    public void testDifferentGroupingIsDivergent() {
+        // GIVEN the legacy pipeline groups two notifications that the new one shows separately
+        NotificationEntry summary = new NotificationEntryBuilder().setId(1).build();
+        NotificationEntry child = new NotificationEntryBuilder().setId(2).build();
+        groupInLegacy(summary, child);
+        mLegacyList.addAll(Arrays.asList(summary, child));
+        mNewList.addAll(Arrays.asList(summary, child));
+
+        // WHEN events settle
+        dispatch(EVENT_POSTED);
+        mClock.advanceTime(1000);
+        mExecutor.runAllReady();
+
+        // THEN a divergence is recorded
+        assertEquals(1, mMonitor.getDivergentComparisonCount());
+    }
+
+    @Test
+    public void testOutputsAreOnlyComparedOnceEventsSettle() {
+        // GIVEN outputs that differ
+        mNewList.add(new NotificationEntryBuilder().setId(1).build());
+
+        // WHEN events keep coming in
+        dispatch(EVENT_POSTED);
+        mClock.advanceTime(500);
+        mExecutor.runAllReady();
+        dispatch(EVENT_POSTED);
+        mClock.advanceTime(500);
+        mExecutor.runAllReady();
+
+        // THEN nothing has been compared yet
+        assertEquals(0, mMonitor.getDivergentComparisonCount());
+
+        // WHEN they stop
+        mClock.advanceTime(500);
+        mExecutor.runAllReady();
+
+        // THEN the outputs are compared once
+        assertEquals(1, mMonitor.getDivergentComparisonCount());
+    }
+
+    @Test
+    public void testContinuousEventsDontPostponeComparisonForever() {
+        // GIVEN outputs that differ
+        mNewList.add(new NotificationEntryBuilder().setId(1).build());
+
+        // WHEN an event comes in every half second for a long time
+        for (int i = 0; i < 20; i++) {
+            dispatch(EVENT_POSTED);
+            mClock.advanceTime(500);
+            mExecutor.runAllReady();
+        }
+
+        // THEN the outputs have still been compared along the way
+        assertTrue(mMonitor.getDivergentComparisonCount() >= 1);
+    }
+
+    private void groupInLegacy(NotificationEntry summary, NotificationEntry child) {
+        when(mGroupManager.isChildInGroupWithSummary(child.getSbn())).thenReturn(true);
+        when(mGroupManager.getGroupSummary(child.getSbn())).thenReturn(summary);
+    }
+
+    private static GroupEntry createGroup(NotificationEntry summary, NotificationEntry child) {
+        GroupEntry group = mock(GroupEntry.class);
+        when(group.getSummary()).thenReturn(summary);
+        when(group.getChildren()).thenReturn(Arrays.asList(child));
+        return group;
+    }
+
+    private void dispatch(int event) {
+        mMonitor.onDispatchStarted();
+        final long allocated = mMonitor.getAllocatedBytesIfSampling();
+        final long start = mMonitor.onHandlerStarted();
+        mClock.advanceTime(1);
+        mMonitor.onHandlerFinished(mHandler, event, start, allocated);
+        mMonitor.onDispatchFinished();
+    }
+}
@@ -198,7 +198,8 @@ public class NotificationEntryManagerTest extends SysuiTestCase {
                         mLogger,
                         mock(NotificationSectionsFeatureManager.class),
                         mock(PeopleNotificationIdentifier.class),
-                        mock(HighPriorityProvider.class)),
+                        mock(HighPriorityProvider.class),
+                        mFeatureFlags),
                 mEnvironment,
                 mFeatureFlags,
                 () -> mNotificationRowBinder,
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification;
+
+import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_EXPANDED;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.ViewGroup;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.statusbar.notification.collection.NotificationEntryBuilder;
+import com.android.systemui.statusbar.notification.row.ExpandableNotificationRow;
+import com.android.systemui.statusbar.notification.row.RowContentBindParams;
+import com.android.systemui.statusbar.notification.row.RowContentBindStage;
+import com.android.systemui.statusbar.notification.stack.ExpandableViewState;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class ViewportBindControllerTest extends SysuiTestCase {
+
+    private static final int VIEWPORT_HEIGHT = 1000;
+    private static final int ROW_HEIGHT = 100;
+
+    private ViewportBindController mController;
+    private final List<ExpandableNotificationRow> mRows = new ArrayList<>();
+    private final List<RowContentBindParams> mParams = new ArrayList<>();
+
+    @Mock private RowContentBindStage mBindStage;
+    @Mock private FeatureFlags mFeatureFlags;
+    @Mock private ViewGroup mStack;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        allowTestableLooperAsMainThread();
+        when(mFeatureFlags.isNotificationViewportBindingEnabled()).thenReturn(true);
+        when(mStack.getChildCount()).thenAnswer(invocation -> mRows.size());
+        when(mStack.getChildAt(any(int.class)))
+                .thenAnswer(invocation -> mRows.get(invocation.getArgument(0)));
+
+        // Keep the expanded view of rows within one screen of the viewport
+        mController = new ViewportBindController(mBindStage, mFeatureFlags, 1f);
+    }
+
+    @Test
+    public void testExpandedViewOfFarAwayRowIsFreed() {
+        // GIVEN a row well below the prefetch window
+        int index = addRow(VIEWPORT_HEIGHT * 3);
+
+        // WHEN the controller updates the content views
+        mController.updateContentViews(mStack, VIEWPORT_HEIGHT);
+
+        // THEN its expanded view is no longer required
+        assertEquals(0, mParams.get(index).getContentViews() & FLAG_CONTENT_VIEW_EXPANDED);
+        verify(mBindStage).requestRebind(eq(mRows.get(index).getEntry()), any());
+    }
+
+    @Test
+    public void testExpandedViewOfRowInPrefetchWindowIsKept() {
+        // GIVEN a row that's offscreen but within the prefetch window
+        int index = addRow(VIEWPORT_HEIGHT + VIEWPORT_HEIGHT / 2);
+
+        // WHEN the controller updates the content views
+        mController.updateContentViews(mStack, VIEWPORT_HEIGHT);
+
+        // THEN its expanded view is kept
+        assertNotEquals(0, mParams.get(index).getContentViews() & FLAG_CONTENT_VIEW_EXPANDED);
+        verify(mBindStage, never()).requestRebind(any(), any());
+    }
+
+    @Test
+    public void testExpandedViewIsBoundAgainWhenScrolledCloser() {
+        // GIVEN a row whose expanded view was freed
+        int index = addRow(VIEWPORT_HEIGHT * 3);
+        mController.updateContentViews(mStack, VIEWPORT_HEIGHT);
+
+        // WHEN the user scrolls it into the prefetch window
+        mRows.get(index).getViewState().yTranslation = VIEWPORT_HEIGHT + VIEWPORT_HEIGHT / 2;
+        mController.updateContentViews(mStack, VIEWPORT_HEIGHT);
+
+        // THEN its expanded view is required again
+        assertNotEquals(0, mParams.get(index).getContentViews() & FLAG_CONTENT_VIEW_EXPANDED);
+    }
+
+    @Test
+    public void testExpandedViewOfExpandedRowIsKept() {
+        // GIVEN an expanded row well below the prefetch window
+        int index = addRow(VIEWPORT_HEIGHT * 3);
+        when(mRows.get(index).isExpanded()).thenReturn(true);
+
+        // WHEN the controller updates the content views
+        mController.updateContentViews(mStack, VIEWPORT_HEIGHT);
+
+        // THEN its expanded view is kept
+        assertNotEquals(0, mParams.get(index).getContentViews() & FLAG_CONTENT_VIEW_EXPANDED);
+    }
+
+    @Test
+    public void testNothingIsFreedWhenDisabled() {
+        // GIVEN viewport binding is disabled
+        when(mFeatureFlags.isNotificationViewportBindingEnabled()).thenReturn(false);
+        mController = new ViewportBindController(mBindStage, mFeatureFlags, 1f);
+
+        // WHEN the controller updates the content views of a far away row
+        addRow(VIEWPORT_HEIGHT * 3);
+        mController.updateContentViews(mStack, VIEWPORT_HEIGHT);
+
+        // THEN nothing is rebound
+        verify(mBindStage, never()).requestRebind(any(), any());
+    }
+
+    private int addRow(float yTranslation) {
+        NotificationEntry entry = new NotificationEntryBuilder().build();
+        ExpandableNotificationRow row = mock(ExpandableNotificationRow.class);
+        ExpandableViewState viewState = new ExpandableViewState();
+        viewState.yTranslation = yTranslation;
+        viewState.height = ROW_HEIGHT;
+        when(row.getViewState()).thenReturn(viewState);
+        when(row.getEntry()).thenReturn(entry);
+
+        RowContentBindParams params = new RowContentBindParams();
+        when(mBindStage.getStageParams(entry)).thenReturn(params);
+
+        mRows.add(row);
+        mParams.add(params);
+        return mRows.size() - 1;
+    }
+}
@@ -348,6 +348,130 @@ public class NotifCollectionTest extends SysuiTestCase {
         assertNotNull(entry3.getSbn().getGroupKey());
     }
 
+    @Test
+    public void testUnchangedRankingUpdateDoesNotTriggerBuild() {
+        // GIVEN ranking diffing is enabled
+        when(mFeatureFlags.isNewNotifPipelineRankingDiffEnabled()).thenReturn(true);
+
+        // GIVEN a collection with a couple notifs
+        NotifEvent notif1 = mNoMan.postNotif(buildNotif(TEST_PACKAGE, 3).setRank(3));
+        NotifEvent notif2 = mNoMan.postNotif(buildNotif(TEST_PACKAGE2, 8).setRank(2));
+        NotificationEntry entry1 = mCollectionListener.getEntry(notif1.key);
+        NotificationEntry entry2 = mCollectionListener.getEntry(notif2.key);
+        final Ranking oldRanking1 = entry1.getRanking();
+        final Ranking oldRanking2 = entry2.getRanking();
+        clearInvocations(mCollectionListener);
+        clearInvocations(mBuildListener);
+
+        // WHEN a ranking update that doesn't change anything is delivered
+        mNoMan.issueRankingUpdate();
+
+        // THEN listeners still hear about the update
+        verify(mCollectionListener).onRankingUpdate(any(RankingMap.class));
+        verify(mCollectionListener).onRankingApplied();
+
+        // THEN the entries still receive the new (equivalent) rankings
+        assertEquals(oldRanking1, entry1.getRanking());
+        assertEquals(oldRanking2, entry2.getRanking());
+
+        // THEN the list is not rebuilt
+        verify(mBuildListener, never()).onBuildList(any());
+    }
+
+    @Test
+    public void testRankingUpdateOnlyAppliesChangedRankings() {
+        // GIVEN ranking diffing is enabled
+        when(mFeatureFlags.isNewNotifPipelineRankingDiffEnabled()).thenReturn(true);
+
+        // GIVEN a collection with a couple notifs
+        NotifEvent notif1 = mNoMan.postNotif(buildNotif(TEST_PACKAGE, 3).setRank(3));
+        NotifEvent notif2 = mNoMan.postNotif(buildNotif(TEST_PACKAGE2, 8).setRank(2));
+        NotificationEntry entry1 = mCollectionListener.getEntry(notif1.key);
+        NotificationEntry entry2 = mCollectionListener.getEntry(notif2.key);
+        final Ranking oldRanking2 = entry2.getRanking();
+        clearInvocations(mBuildListener);
+
+        // WHEN a ranking update that only changes the first notif is delivered
+        Ranking newRanking1 = new RankingBuilder(notif1.ranking)
+                .setRank(4)
+                .build();
+        mNoMan.setRanking(notif1.key, newRanking1);
+        mNoMan.issueRankingUpdate();
+
+        // THEN both entries receive their new rankings
+        assertEquals(newRanking1, entry1.getRanking());
+        assertEquals(oldRanking2, entry2.getRanking());
+
+        // THEN the list is rebuilt
+        verify(mBuildListener).onBuildList(any());
+    }
+
+    @Test
+    public void testRankingUpdateOnlyDirtiesEntriesWhoseRankingChanged() {
+        // GIVEN ranking diffing is enabled
+        when(mFeatureFlags.isNewNotifPipelineRankingDiffEnabled()).thenReturn(true);
+
+        // GIVEN a collection with three notifs, none of which are dirty
+        NotifEvent notif1 = mNoMan.postNotif(buildNotif(TEST_PACKAGE, 1).setRank(1));
+        NotifEvent notif2 = mNoMan.postNotif(buildNotif(TEST_PACKAGE, 2).setRank(2));
+        NotifEvent notif3 = mNoMan.postNotif(buildNotif(TEST_PACKAGE2, 3).setRank(3));
+        NotificationEntry entry1 = mCollectionListener.getEntry(notif1.key);
+        NotificationEntry entry2 = mCollectionListener.getEntry(notif2.key);
+        NotificationEntry entry3 = mCollectionListener.getEntry(notif3.key);
+        for (NotificationEntry entry : Arrays.asList(entry1, entry2, entry3)) {
+            entry.getBuildCache().setDirty(false);
+        }
+        clearInvocations(mBuildListener);
+
+        // WHEN a ranking update that only changes the second notif is delivered
+        mNoMan.setRanking(notif2.key, new RankingBuilder(notif2.ranking)
+                .setRank(5)
+                .build());
+        mNoMan.issueRankingUpdate();
+
+        // THEN only the second entry is dirty
+        assertFalse(entry1.getBuildCache().isDirty());
+        assertTrue(entry2.getBuildCache().isDirty());
+        assertFalse(entry3.getBuildCache().isDirty());
+        verify(mBuildListener).onBuildList(any());
+
+        // WHEN an identical ranking update is delivered
+        entry2.getBuildCache().setDirty(false);
+        clearInvocations(mBuildListener);
+        mNoMan.issueRankingUpdate();
+
+        // THEN no entry is dirtied and the list is not rebuilt
+        assertFalse(entry1.getBuildCache().isDirty());
+        assertFalse(entry2.getBuildCache().isDirty());
+        assertFalse(entry3.getBuildCache().isDirty());
+        verify(mBuildListener, never()).onBuildList(any());
+    }
+
+    @Test
+    public void testRankingUpdateWithNewSmartRepliesTriggersBuild() {
+        // GIVEN ranking diffing is enabled
+        when(mFeatureFlags.isNewNotifPipelineRankingDiffEnabled()).thenReturn(true);
+
+        // GIVEN a notif with a smart reply
+        NotifEvent notif1 = mNoMan.postNotif(buildNotif(TEST_PACKAGE, 3)
+                .setSmartReplies("Yes"));
+        NotificationEntry entry1 = mCollectionListener.getEntry(notif1.key);
+        clearInvocations(mBuildListener);
+
+        // WHEN a ranking update only changes the text of the smart reply, which
+        // Ranking.equals() doesn't notice
+        Ranking newRanking1 = new RankingBuilder(entry1.getRanking())
+                .setSmartReplies("No")
+                .build();
+        assertEquals(entry1.getRanking(), newRanking1);
+        mNoMan.setRanking(notif1.key, newRanking1);
+        mNoMan.issueRankingUpdate();
+
+        // THEN the entry gets the new smart reply and the list is rebuilt
+        assertEquals("No", entry1.getRanking().getSmartReplies().get(0));
+        verify(mBuildListener).onBuildList(any());
+    }
+
     @Test
     public void testNotifEntriesAreNotPersistedAcrossRemovalAndReposting() {
         // GIVEN a notification that has been posted
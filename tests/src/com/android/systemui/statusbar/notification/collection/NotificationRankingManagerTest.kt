@@ -26,6 +26,7 @@ import android.service.notification.NotificationListenerService.RankingMap
 import android.testing.AndroidTestingRunner
 import androidx.test.filters.SmallTest
 import com.android.systemui.SysuiTestCase
+import com.android.systemui.statusbar.FeatureFlags
 import com.android.systemui.statusbar.NotificationEntryHelper.modifyRanking
 import com.android.systemui.statusbar.NotificationMediaManager
 import com.android.systemui.statusbar.notification.NotificationEntryManagerLogger
@@ -39,6 +40,7 @@ import com.android.systemui.statusbar.notification.people.PeopleNotificationIden
 import com.android.systemui.statusbar.notification.row.ExpandableNotificationRow
 import com.android.systemui.statusbar.notification.stack.BUCKET_ALERTING
 import com.android.systemui.statusbar.notification.stack.BUCKET_FOREGROUND_SERVICE
+import com.android.systemui.statusbar.notification.stack.BUCKET_PEOPLE
 import com.android.systemui.statusbar.notification.stack.BUCKET_SILENT
 import com.android.systemui.statusbar.phone.NotificationGroupManager
 import com.android.systemui.statusbar.policy.HeadsUpManager
@@ -62,6 +64,7 @@ class NotificationRankingManagerTest : SysuiTestCase() {
     private lateinit var rankingManager: TestableNotificationRankingManager
     private lateinit var sectionsManager: NotificationSectionsFeatureManager
     private lateinit var notificationFilter: NotificationFilter
+    private lateinit var featureFlags: FeatureFlags
 
     @Before
     fun setup() {
@@ -69,6 +72,7 @@ class NotificationRankingManagerTest : SysuiTestCase() {
                 mock(PeopleNotificationIdentifier::class.java)
         sectionsManager = mock(NotificationSectionsFeatureManager::class.java)
         notificationFilter = mock(NotificationFilter::class.java)
+        featureFlags = mock(FeatureFlags::class.java)
         rankingManager = TestableNotificationRankingManager(
                 lazyMedia,
                 mock(NotificationGroupManager::class.java),
@@ -78,7 +82,8 @@ class NotificationRankingManagerTest : SysuiTestCase() {
                 sectionsManager,
                 personNotificationIdentifier,
                 HighPriorityProvider(personNotificationIdentifier,
-                    mock(NotificationGroupManager::class.java))
+                    mock(NotificationGroupManager::class.java)),
+                featureFlags
         )
     }
 
@@ -408,6 +413,102 @@ class NotificationRankingManagerTest : SysuiTestCase() {
         assertThat(b.bucket).isEqualTo(BUCKET_FOREGROUND_SERVICE)
     }
 
+    @Test
+    fun testIncrementalSort_repositionsEntryWhoseRankChanged() {
+        // GIVEN incremental ranking and a sorted list
+        whenever(featureFlags.isIncrementalRankingEnabled).thenReturn(true)
+        val a = createSimpleEntry("a", 1)
+        val b = createSimpleEntry("b", 2)
+        val c = createSimpleEntry("c", 3)
+        assertEquals(listOf(a, b, c), rankingManager.updateRanking(null, listOf(a, b, c), "test"))
+
+        // WHEN the first entry is ranked last
+        modifyRanking(a).setRank(4).build()
+
+        // THEN it moves to the end
+        assertEquals(listOf(b, c, a), rankingManager.updateRanking(null, listOf(a, b, c), "test"))
+    }
+
+    @Test
+    fun testIncrementalSort_insertsNewEntries() {
+        // GIVEN incremental ranking and a sorted list
+        whenever(featureFlags.isIncrementalRankingEnabled).thenReturn(true)
+        val a = createSimpleEntry("a", 1)
+        val b = createSimpleEntry("b", 3)
+        val c = createSimpleEntry("c", 5)
+        val d = createSimpleEntry("d", 7)
+        assertEquals(listOf(a, b, c, d),
+                rankingManager.updateRanking(null, listOf(a, b, c, d), "test"))
+
+        // WHEN a new entry ranked in the middle is added
+        val e = createSimpleEntry("e", 4)
+
+        // THEN it's inserted in the right place
+        assertEquals(listOf(a, b, e, c, d),
+                rankingManager.updateRanking(null, listOf(a, b, c, d, e), "test"))
+    }
+
+    @Test
+    fun testIncrementalSort_rebucketsWhenPeopleFilteringToggles() {
+        // GIVEN incremental ranking without people filtering and a conversation entry
+        whenever(featureFlags.isIncrementalRankingEnabled).thenReturn(true)
+        whenever(sectionsManager.isFilteringEnabled()).thenReturn(false)
+        val a = createSimpleEntry("a", 1)
+        whenever(personNotificationIdentifier.getPeopleNotificationType(a.sbn, a.ranking))
+                .thenReturn(TYPE_IMPORTANT_PERSON)
+        rankingManager.updateRanking(null, listOf(a), "test")
+        assertThat(a.bucket).isNotEqualTo(BUCKET_PEOPLE)
+
+        // WHEN people filtering is turned on
+        whenever(sectionsManager.isFilteringEnabled()).thenReturn(true)
+        rankingManager.updateRanking(null, listOf(a), "test")
+
+        // THEN the cached attributes aren't reused and the entry moves to the people bucket
+        assertThat(a.bucket).isEqualTo(BUCKET_PEOPLE)
+    }
+
+    @Test
+    fun testIncrementalSort_matchesFullSortIncludingTies() {
+        // GIVEN entries that tie on rank and time, passed in no particular order
+        val a = createSimpleEntry("a", 1, 100)
+        val b = createSimpleEntry("b", 2, 100)
+        val c = createSimpleEntry("c", 2, 100)
+        val d = createSimpleEntry("d", 2, 200)
+        val e = createSimpleEntry("e", 1, 100)
+        val entries = listOf(c, e, d, b, a)
+        whenever(featureFlags.isIncrementalRankingEnabled).thenReturn(false)
+        val fullOrder = rankingManager.updateRanking(null, entries, "test")
+
+        // WHEN the same entries are sorted incrementally from scratch
+        whenever(featureFlags.isIncrementalRankingEnabled).thenReturn(true)
+
+        // THEN the order is the same
+        assertEquals(listOf(a, e, d, b, c), fullOrder)
+        assertEquals(fullOrder, rankingManager.updateRanking(null, entries, "test"))
+
+        // WHEN an entry is moved among the ties by an incremental update
+        modifyRanking(a).setRank(2).build()
+        val incrementalOrder = rankingManager.updateRanking(null, entries, "test")
+
+        // THEN the order is the same as the one of a full sort
+        whenever(featureFlags.isIncrementalRankingEnabled).thenReturn(false)
+        assertEquals(rankingManager.updateRanking(null, entries, "test"), incrementalOrder)
+        assertEquals(listOf(e, d, a, b, c), incrementalOrder)
+    }
+
+    private fun createSimpleEntry(pkg: String, rank: Int, `when`: Long = 0) =
+        NotificationEntryBuilder()
+                .setRank(rank)
+                .setImportance(IMPORTANCE_LOW)
+                .setPkg(pkg)
+                .setOpPkg(pkg)
+                .setTag("tag")
+                .setNotification(Notification.Builder(mContext, "test").setWhen(`when`).build())
+                .setChannel(NotificationChannel("test", "", IMPORTANCE_DEFAULT))
+                .setUser(mContext.user)
+                .setOverrideGroupKey("")
+                .build()
+
     internal class TestableNotificationRankingManager(
         mediaManager: Lazy<NotificationMediaManager>,
         groupManager: NotificationGroupManager,
@@ -416,7 +517,8 @@ class NotificationRankingManagerTest : SysuiTestCase() {
         logger: NotificationEntryManagerLogger,
         sectionsFeatureManager: NotificationSectionsFeatureManager,
         peopleNotificationIdentifier: PeopleNotificationIdentifier,
-        highPriorityProvider: HighPriorityProvider
+        highPriorityProvider: HighPriorityProvider,
+        featureFlags: FeatureFlags
     ) : NotificationRankingManager(
         mediaManager,
         groupManager,
@@ -425,7 +527,8 @@ class NotificationRankingManagerTest : SysuiTestCase() {
         logger,
         sectionsFeatureManager,
         peopleNotificationIdentifier,
-        highPriorityProvider
+        highPriorityProvider,
+        featureFlags
     ) {
         fun applyTestRankingMap(r: RankingMap) {
             rankingMap = r
@@ -17,6 +17,7 @@
 package com.android.systemui.statusbar.notification.collection;
 
 import static com.android.systemui.statusbar.notification.collection.ListDumper.dumpTree;
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_FINALIZING;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -51,10 +52,12 @@ import com.android.systemui.statusbar.notification.collection.listbuilder.OnBefo
 import com.android.systemui.statusbar.notification.collection.listbuilder.OnBeforeSortListener;
 import com.android.systemui.statusbar.notification.collection.listbuilder.OnBeforeTransformGroupsListener;
 import com.android.systemui.statusbar.notification.collection.listbuilder.ShadeListBuilderLogger;
+import com.android.systemui.statusbar.notification.collection.listbuilder.ShadeListBuilderTimings;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifComparator;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifFilter;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifPromoter;
 import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifSection;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.SortOrdinalProvider;
 import com.android.systemui.statusbar.notification.collection.notifcollection.CollectionReadyForBuildListener;
 import com.android.systemui.util.time.FakeSystemClock;
 
@@ -84,6 +87,7 @@ public class ShadeListBuilderTest extends SysuiTestCase {
 
     private ShadeListBuilder mListBuilder;
     private FakeSystemClock mSystemClock = new FakeSystemClock();
+    private ShadeListBuilderTimings mTimings;
 
     @Mock private ShadeListBuilderLogger mLogger;
     @Mock private NotifCollection mNotifCollection;
@@ -109,8 +113,13 @@ public class ShadeListBuilderTest extends SysuiTestCase {
         MockitoAnnotations.initMocks(this);
         allowTestableLooperAsMainThread();
 
+        mTimings = new ShadeListBuilderTimings(mock(DumpManager.class));
         mListBuilder = new ShadeListBuilder(
-                mSystemClock, mLogger, mock(DumpManager.class), mInteractionTracker);
+                mSystemClock,
+                mLogger,
+                mTimings,
+                mock(DumpManager.class),
+                mInteractionTracker);
         mListBuilder.setOnRenderListListener(mOnRenderListListener);
 
         mListBuilder.attach(mNotifCollection);
@@ -534,6 +543,93 @@ public class ShadeListBuilderTest extends SysuiTestCase {
         assertEquals(filter2, mEntrySet.get(2).getExcludingFilter());
     }
 
+    @Test
+    public void testIncrementalBuildSkipsUnchangedEntries() {
+        // GIVEN incremental builds and a pre-group filter
+        mListBuilder.setIncrementalBuildEnabled(true);
+        NotifFilter filter = spy(new PackageFilter(PACKAGE_2));
+        mListBuilder.addPreGroupFilter(filter);
+
+        // GIVEN a list that has already been built once
+        addNotif(0, PACKAGE_1);
+        addNotif(1, PACKAGE_2);
+        addNotif(2, PACKAGE_3);
+        dispatchBuild();
+        clearInvocations(filter);
+
+        // WHEN the pipeline is rerun without any changes
+        dispatchBuild();
+
+        // THEN the filter is not consulted again
+        verify(filter, never()).shouldFilterOut(any(NotificationEntry.class), anyLong());
+
+        // THEN the list is unchanged
+        verifyBuiltList(
+                notif(0),
+                notif(2)
+        );
+        assertEquals(filter, mEntrySet.get(1).getExcludingFilter());
+    }
+
+    @Test
+    public void testIncrementalBuildReevaluatesDirtyEntries() {
+        // GIVEN incremental builds and a pre-group filter
+        mListBuilder.setIncrementalBuildEnabled(true);
+        NotifFilter filter = spy(new PackageFilter(PACKAGE_2));
+        mListBuilder.addPreGroupFilter(filter);
+
+        // GIVEN a list that has already been built once
+        addNotif(0, PACKAGE_1);
+        addNotif(1, PACKAGE_2);
+        addNotif(2, PACKAGE_3);
+        dispatchBuild();
+        clearInvocations(filter);
+
+        // WHEN one of the entries changes and the pipeline is rerun
+        mEntrySet.get(2).markDirty();
+        dispatchBuild();
+
+        // THEN only the changed entry is filtered again
+        verify(filter, never()).shouldFilterOut(eq(mEntrySet.get(0)), anyLong());
+        verify(filter, never()).shouldFilterOut(eq(mEntrySet.get(1)), anyLong());
+        verify(filter).shouldFilterOut(eq(mEntrySet.get(2)), anyLong());
+        verifyBuiltList(
+                notif(0),
+                notif(2)
+        );
+    }
+
+    @Test
+    public void testIncrementalBuildFallsBackToFullBuildWhenFilterIsInvalidated() {
+        // GIVEN incremental builds and a pre-group filter
+        mListBuilder.setIncrementalBuildEnabled(true);
+        PackageFilter filter = spy(new PackageFilter(PACKAGE_2));
+        mListBuilder.addPreGroupFilter(filter);
+
+        // GIVEN a list that has already been built once
+        addNotif(0, PACKAGE_1);
+        addNotif(1, PACKAGE_2);
+        addNotif(2, PACKAGE_3);
+        dispatchBuild();
+        clearInvocations(filter);
+
+        // WHEN the filter changes its mind and invalidates itself
+        filter.setEnabled(false);
+        filter.invalidateList();
+
+        // THEN every entry is filtered again
+        verify(filter).shouldFilterOut(eq(mEntrySet.get(0)), anyLong());
+        verify(filter).shouldFilterOut(eq(mEntrySet.get(1)), anyLong());
+        verify(filter).shouldFilterOut(eq(mEntrySet.get(2)), anyLong());
+
+        // THEN the previously filtered entry is back in the list
+        verifyBuiltList(
+                notif(0),
+                notif(1),
+                notif(2)
+        );
+    }
+
     @Test
     public void testNotifsArePromoted() {
         // GIVEN a NotifPromoter that promotes certain notif IDs
@@ -758,6 +854,66 @@ public class ShadeListBuilderTest extends SysuiTestCase {
         );
     }
 
+    @Test
+    public void testPrecomputedSortKeysMatchComparatorOrder() {
+        // GIVEN sorting on precomputed keys and comparators that provide ordinals
+        mListBuilder.setPrecomputedSortKeysEnabled(true);
+        NotifComparator comparator1 = spy(new OrdinalHypeComparator(PACKAGE_4));
+        NotifComparator comparator2 = spy(new OrdinalHypeComparator(PACKAGE_1, PACKAGE_3));
+        NotifComparator comparator3 = spy(new OrdinalHypeComparator(PACKAGE_2));
+        mListBuilder.setComparators(Arrays.asList(comparator1, comparator2, comparator3));
+
+        // WHEN the pipeline is kicked off on a bunch of notifications
+        addNotif(0, PACKAGE_1);
+        addNotif(1, PACKAGE_5);
+        addNotif(2, PACKAGE_3);
+        addNotif(3, PACKAGE_4);
+        addNotif(4, PACKAGE_2);
+        dispatchBuild();
+
+        // THEN the notifs are sorted according to the hierarchy of comparators
+        verifyBuiltList(
+                notif(3),
+                notif(0),
+                notif(2),
+                notif(4),
+                notif(1)
+        );
+
+        // THEN the comparators were never asked to compare pairs, since every key was unique
+        verify(comparator1, never()).compare(any(ListEntry.class), any(ListEntry.class));
+        verify(comparator2, never()).compare(any(ListEntry.class), any(ListEntry.class));
+        verify(comparator3, never()).compare(any(ListEntry.class), any(ListEntry.class));
+    }
+
+    @Test
+    public void testPrecomputedSortKeysFallBackToComparatorsWithoutOrdinals() {
+        // GIVEN sorting on precomputed keys, where only the first comparator provides ordinals
+        mListBuilder.setPrecomputedSortKeysEnabled(true);
+        mListBuilder.setComparators(Arrays.asList(
+                new OrdinalHypeComparator(PACKAGE_4),
+                new HypeComparator(PACKAGE_1, PACKAGE_3),
+                new HypeComparator(PACKAGE_2)
+        ));
+
+        // WHEN the pipeline is kicked off on a bunch of notifications
+        addNotif(0, PACKAGE_1);
+        addNotif(1, PACKAGE_5);
+        addNotif(2, PACKAGE_3);
+        addNotif(3, PACKAGE_4);
+        addNotif(4, PACKAGE_2);
+        dispatchBuild();
+
+        // THEN ties are broken by the remaining comparators
+        verifyBuiltList(
+                notif(3),
+                notif(0),
+                notif(2),
+                notif(4),
+                notif(1)
+        );
+    }
+
     @Test
     public void testListenersAndPluggablesAreFiredInOrder() {
         // GIVEN a bunch of registered listeners and pluggables
@@ -1215,6 +1371,40 @@ public class ShadeListBuilderTest extends SysuiTestCase {
         return nextRank;
     }
 
+    @Test
+    public void testBuildTimingExcludesRendering() {
+        // GIVEN a view layer that takes a long time to render the list
+        mListBuilder.setOnRenderListListener(list -> mSystemClock.advanceTime(100));
+        addNotif(0, PACKAGE_1);
+
+        // WHEN the list is built
+        dispatchBuild();
+
+        // THEN neither the build nor its last stage include the time spent rendering
+        assertEquals(1, mTimings.getBuildHistogram().getSampleCount());
+        assertEquals(0, mTimings.getBuildHistogram().getMaxNanos());
+        assertEquals(0, mTimings.getStageHistogram(STATE_FINALIZING).getMaxNanos());
+    }
+
+    @Test
+    public void testSortIsTimedOncePerBuild() {
+        // GIVEN a comparator
+        NotifComparator comparator = new HypeComparator(PACKAGE_2);
+        mListBuilder.setComparators(Collections.singletonList(comparator));
+
+        // WHEN a list that needs several comparisons is built
+        addNotif(0, PACKAGE_1);
+        addNotif(1, PACKAGE_2);
+        addNotif(2, PACKAGE_3);
+        addNotif(3, PACKAGE_2);
+        dispatchBuild();
+
+        // THEN the sort is recorded once for the comparator set, not once per comparison
+        assertEquals(1, mTimings.getSortHistogram(Collections.singletonList(comparator))
+                .getSampleCount());
+        assertNull(mTimings.getPluggableHistogram(comparator));
+    }
+
     private void dispatchBuild() {
         if (mPendingSet.size() > 0) {
             for (NotificationEntryBuilder builder : mPendingSet) {
@@ -1401,7 +1591,7 @@ public class ShadeListBuilderTest extends SysuiTestCase {
     /** Sorts specific notifs above all others. */
     private static class HypeComparator extends NotifComparator {
 
-        private final List<String> mPreferredPackages;
+        protected final List<String> mPreferredPackages;
 
         HypeComparator(String ...preferredPackages) {
             super("HypeComparator");
@@ -1419,6 +1609,21 @@ public class ShadeListBuilderTest extends SysuiTestCase {
         }
     }
 
+    /** Same as {@link HypeComparator}, but also provides sort ordinals. */
+    private static class OrdinalHypeComparator extends HypeComparator
+            implements SortOrdinalProvider {
+
+        OrdinalHypeComparator(String ...preferredPackages) {
+            super(preferredPackages);
+        }
+
+        @Override
+        public int getSortOrdinal(ListEntry entry) {
+            return mPreferredPackages.contains(
+                    entry.getRepresentativeEntry().getSbn().getPackageName()) ? 0 : 1;
+        }
+    }
+
     /** Represents a section for the passed pkg */
     private static class PackageSection extends NotifSection {
         private final String mPackage;
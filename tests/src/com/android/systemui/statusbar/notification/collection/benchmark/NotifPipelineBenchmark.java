@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.benchmark;
+
+import static android.service.notification.NotificationListenerService.REASON_APP_CANCEL;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.service.notification.NotificationListenerService.Ranking;
+import android.service.notification.StatusBarNotification;
+
+import com.android.internal.statusbar.IStatusBarService;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.dump.LogBufferEulogizer;
+import com.android.systemui.log.LogBuffer;
+import com.android.systemui.log.LogLevel;
+import com.android.systemui.log.LogMessage;
+import com.android.systemui.log.LogcatEchoTracker;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.statusbar.NotificationInteractionTracker;
+import com.android.systemui.statusbar.NotificationListener;
+import com.android.systemui.statusbar.NotificationListener.NotificationHandler;
+import com.android.systemui.statusbar.RankingBuilder;
+import com.android.systemui.statusbar.notification.collection.ListEntry;
+import com.android.systemui.statusbar.notification.collection.NoManSimulator;
+import com.android.systemui.statusbar.notification.collection.NoManSimulator.NotifEvent;
+import com.android.systemui.statusbar.notification.collection.NotifCollection;
+import com.android.systemui.statusbar.notification.collection.NotifPipeline;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.statusbar.notification.collection.NotificationEntryBuilder;
+import com.android.systemui.statusbar.notification.collection.ShadeListBuilder;
+import com.android.systemui.statusbar.notification.collection.coalescer.GroupCoalescer;
+import com.android.systemui.statusbar.notification.collection.coalescer.GroupCoalescerLogger;
+import com.android.systemui.statusbar.notification.collection.listbuilder.ShadeListBuilderLogger;
+import com.android.systemui.statusbar.notification.collection.listbuilder.ShadeListBuilderTimings;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifComparator;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifFilter;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifPromoter;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifSection;
+import com.android.systemui.statusbar.notification.collection.notifcollection.NotifCollectionLogger;
+import com.android.systemui.util.RuntimeStats;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+import com.android.systemui.util.time.LatencyHistogram;
+import com.android.systemui.util.time.SystemClock;
+
+import org.mockito.ArgumentCaptor;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Drives a synthetic {@link NotifPipelineWorkload} through a real
+ * NoManSimulator → GroupCoalescer → NotifCollection → ShadeListBuilder chain and measures it.
+ *
+ * The coordinators are replaced with a small set of synthetic pluggables of the same shape
+ * (filters, a promoter, sections and a comparator), since the real ones need most of SystemUI to
+ * be constructed. Time inside the pipeline is driven by a {@link FakeSystemClock}; all
+ * measurements use the real clock. Build latency comes straight from
+ * {@link ShadeListBuilderTimings}, whose durations are read from the real clock as well.
+ *
+ * Allocations are only counted inside the section of each build that ShadeListBuilderTimings
+ * times, so the notifications and rankings the harness creates aren't included, and the cost of
+ * reading the counter is subtracted. The runtime only counts allocations for the whole process,
+ * so this needs a device (the counters don't exist on a host JVM) and an otherwise idle process.
+ *
+ * Must be run on a thread that is allowed to act as the main thread.
+ */
+public class NotifPipelineBenchmark {
+    private final Context mContext;
+
+    private final FakeSystemClock mClock = new FakeSystemClock();
+    private final FakeExecutor mExecutor = new FakeExecutor(mClock);
+    private final NoManSimulator mNoMan = new NoManSimulator();
+    private final ShadeListBuilderTimings mTimings;
+    private final ShadeListBuilder mListBuilder;
+
+    private final List<LiveNotif> mLiveNotifs = new ArrayList<>();
+    private Random mRandom;
+    private int mNextId = 0;
+    private int mBuildCount = 0;
+    private int mLastListSize = 0;
+
+    private boolean mMeasuringAllocations;
+    private boolean mInBuild;
+    private long mBuildStartAllocated;
+    private long mProbeBaseline;
+    private long mBuildAllocatedBytes;
+    private boolean mAllocationsUnavailable;
+
+    public NotifPipelineBenchmark(Context context) {
+        mContext = context;
+
+        final LogcatEchoTracker echoTracker = new LogcatEchoTracker() {
+            @Override
+            public boolean isBufferLoggable(String bufferName, LogLevel level) {
+                return false;
+            }
+
+            @Override
+            public boolean isTagLoggable(String tagName, LogLevel level) {
+                return false;
+            }
+
+            @Override
+            public void echo(LogMessage message) {
+            }
+        };
+        final LogBuffer logBuffer = new LogBuffer("NotifLog", 1000, 10, echoTracker);
+        final DumpManager dumpManager = mock(DumpManager.class);
+
+        final GroupCoalescer coalescer = new GroupCoalescer(
+                mExecutor, mClock, new GroupCoalescerLogger(logBuffer));
+        final NotifCollection collection = new NotifCollection(
+                mock(IStatusBarService.class),
+                mClock,
+                mock(FeatureFlags.class),
+                new NotifCollectionLogger(logBuffer),
+                mock(LogBufferEulogizer.class),
+                dumpManager);
+        mTimings = new AllocationTrackingTimings(dumpManager);
+        mListBuilder = new ShadeListBuilder(
+                new BuildTimingClock(mClock),
+                new ShadeListBuilderLogger(logBuffer),
+                mTimings,
+                dumpManager,
+                mock(NotificationInteractionTracker.class));
+        final NotifPipeline pipeline = new NotifPipeline(collection, mListBuilder);
+
+        attachSyntheticPluggables(pipeline);
+        mListBuilder.setOnRenderListListener(entries -> {
+            mBuildCount++;
+            mLastListSize = entries.size();
+        });
+
+        final NotificationListener listenerService = mock(NotificationListener.class);
+        mListBuilder.attach(collection);
+        collection.attach(coalescer);
+        coalescer.attach(listenerService);
+
+        final ArgumentCaptor<NotificationHandler> handlerCaptor =
+                ArgumentCaptor.forClass(NotificationHandler.class);
+        verify(listenerService).addNotificationHandler(handlerCaptor.capture());
+        final NotificationHandler handler = handlerCaptor.getValue();
+        mNoMan.addListener(handler);
+        handler.onNotificationsInitialized();
+    }
+
+    /** Lets callers flip pipeline modes (incremental builds, sort keys, ...) before running. */
+    public ShadeListBuilder getListBuilder() {
+        return mListBuilder;
+    }
+
+    /**
+     * Runs the workload. A benchmark instance should only be used for a single run, since the
+     * notifications from the previous run are still posted.
+     */
+    public Result run(NotifPipelineWorkload workload) {
+        mRandom = new Random(workload.getSeed());
+
+        for (int i = 0; i < workload.getNotifCount(); i++) {
+            postNewNotif(workload);
+        }
+        mClock.advanceTime(workload.getStepDurationMs());
+
+        final Result result = new Result(workload);
+        for (int i = 0; i < workload.getWarmupSteps(); i++) {
+            runStep(workload, null);
+        }
+        mTimings.getBuildHistogram().reset();
+
+        mProbeBaseline = measureProbeBaseline();
+        mBuildAllocatedBytes = 0;
+        mAllocationsUnavailable = false;
+        mMeasuringAllocations = true;
+        final int startBuilds = mBuildCount;
+        for (int i = 0; i < workload.getSteps(); i++) {
+            runStep(workload, result);
+        }
+        mMeasuringAllocations = false;
+
+        result.mBuilds = mBuildCount - startBuilds;
+        result.mBuildLatency = mTimings.getBuildHistogram();
+        result.mFinalListSize = mLastListSize;
+        if (!mAllocationsUnavailable) {
+            result.mAllocatedBytes = mBuildAllocatedBytes;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bytes that reading the allocation counter twice in a row allocates by itself, so
+     * that it can be subtracted from every build.
+     */
+    private static long measureProbeBaseline() {
+        long total = 0;
+        for (int i = 0; i < BASELINE_SAMPLES; i++) {
+            final long start = RuntimeStats.getAllocatedBytes();
+            final long end = RuntimeStats.getAllocatedBytes();
+            if (start < 0 || end < 0) {
+                return 0;
+            }
+            total += end - start;
+        }
+        return total / BASELINE_SAMPLES;
+    }
+
+    /** Called when the list builder reads the clock; the first read of a build starts it. */
+    private void onBuildClockRead() {
+        if (mInBuild) {
+            return;
+        }
+        mInBuild = true;
+        if (mMeasuringAllocations) {
+            mBuildStartAllocated = RuntimeStats.getAllocatedBytes();
+        }
+    }
+
+    /** Called when the list builder records the duration of a build. */
+    private void onBuildRecorded() {
+        mInBuild = false;
+        if (!mMeasuringAllocations) {
+            return;
+        }
+        final long endAllocated = RuntimeStats.getAllocatedBytes();
+        if (mBuildStartAllocated < 0 || endAllocated < 0) {
+            mAllocationsUnavailable = true;
+            return;
+        }
+        mBuildAllocatedBytes += Math.max(0, endAllocated - mBuildStartAllocated - mProbeBaseline);
+    }
+
+    private void runStep(NotifPipelineWorkload workload, Result result) {
+        for (int i = 0; i < workload.getPostsPerStep(); i++) {
+            measure(result, () -> postNewNotif(workload));
+        }
+        for (int i = 0; i < workload.getUpdatesPerStep() && !mLiveNotifs.isEmpty(); i++) {
+            measure(result, () -> updateRandomNotif());
+        }
+        for (int i = 0; i < workload.getRemovalsPerStep() && !mLiveNotifs.isEmpty(); i++) {
+            measure(result, () -> removeRandomNotif());
+        }
+        for (int i = 0; i < workload.getRankingUpdatesPerStep(); i++) {
+            measure(result, () -> churnRankings(workload.getRankingChurn()));
+        }
+        // Flushes any group events that the coalescer is holding on to
+        measure(result, () -> mClock.advanceTime(workload.getStepDurationMs()));
+    }
+
+    private void measure(Result result, Runnable action) {
+        final int buildsBefore = mBuildCount;
+        final long start = System.nanoTime();
+        action.run();
+        final long duration = System.nanoTime() - start;
+        if (result == null) {
+            return;
+        }
+        result.mEvents++;
+        result.mTotalNanos += duration;
+        result.mEventLatency.record(duration);
+        if (mBuildCount == buildsBefore) {
+            result.mEventsWithoutBuild++;
+        }
+    }
+
+    private void postNewNotif(NotifPipelineWorkload workload) {
+        final int id = mNextId++;
+        final int groupSize = workload.getGroupSize();
+        final String groupKey = groupSize > 1 ? "group_" + (id / groupSize) : null;
+        final boolean isSummary = groupKey != null && id % groupSize == 0;
+        final LiveNotif notif = new LiveNotif(PACKAGES[id % PACKAGES.length], id, groupKey,
+                isSummary);
+        notif.onPosted(mNoMan.postNotif(notif.newBuilder(mContext, mRandom.nextInt(1000))));
+        mLiveNotifs.add(notif);
+    }
+
+    private void updateRandomNotif() {
+        final LiveNotif notif = mLiveNotifs.get(mRandom.nextInt(mLiveNotifs.size()));
+        notif.onPosted(mNoMan.postNotif(notif.newBuilder(mContext, notif.mRanking.getRank())));
+    }
+
+    private void removeRandomNotif() {
+        final LiveNotif notif = mLiveNotifs.remove(mRandom.nextInt(mLiveNotifs.size()));
+        mNoMan.retractNotif(notif.mSbn, REASON_APP_CANCEL);
+    }
+
+    private void churnRankings(float churn) {
+        final int changes = Math.round(mLiveNotifs.size() * churn);
+        for (int i = 0; i < changes; i++) {
+            final LiveNotif notif = mLiveNotifs.get(mRandom.nextInt(mLiveNotifs.size()));
+            notif.mRanking = new RankingBuilder(notif.mRanking)
+                    .setRank(mRandom.nextInt(1000))
+                    .build();
+            mNoMan.setRanking(notif.mSbn.getKey(), notif.mRanking);
+        }
+        mNoMan.issueRankingUpdate();
+    }
+
+    private void attachSyntheticPluggables(NotifPipeline pipeline) {
+        pipeline.addPreGroupFilter(new NotifFilter("BenchmarkHiddenPackageFilter") {
+            @Override
+            public boolean shouldFilterOut(NotificationEntry entry, long now) {
+                return entry.getSbn().getPackageName().equals(HIDDEN_PACKAGE);
+            }
+        });
+        pipeline.addPromoter(new NotifPromoter("BenchmarkPromoter") {
+            @Override
+            public boolean shouldPromoteToTopLevel(NotificationEntry child) {
+                return child.getSbn().getId() % 17 == 0;
+            }
+        });
+        pipeline.setSections(Arrays.asList(
+                new NotifSection("BenchmarkHighPriority") {
+                    @Override
+                    public boolean isInSection(ListEntry entry) {
+                        return entry.getRepresentativeEntry().getRanking().getImportance()
+                                >= NotificationManager.IMPORTANCE_DEFAULT;
+                    }
+                },
+                new NotifSection("BenchmarkOddIds") {
+                    @Override
+                    public boolean isInSection(ListEntry entry) {
+                        return entry.getRepresentativeEntry().getSbn().getId() % 2 == 1;
+                    }
+                }));
+        pipeline.setComparators(Arrays.asList(new NotifComparator("BenchmarkComparator") {
+            @Override
+            public int compare(ListEntry o1, ListEntry o2) {
+                return Boolean.compare(
+                        o2.getRepresentativeEntry().getSbn().isOngoing(),
+                        o1.getRepresentativeEntry().getSbn().isOngoing());
+            }
+        }));
+        pipeline.addFinalizeFilter(new NotifFilter("BenchmarkFinalizeFilter") {
+            @Override
+            public boolean shouldFilterOut(NotificationEntry entry, long now) {
+                return entry.getSbn().getId() % 53 == 0 && entry.getParent() != null;
+            }
+        });
+    }
+
+    /**
+     * Hands the list builder the fake clock for everything it uses to make decisions, but the real
+     * clock for the durations it records in {@link ShadeListBuilderTimings}. The list builder only
+     * reads the real clock during a build, which is how the start of a build is detected.
+     */
+    private class BuildTimingClock implements SystemClock {
+        private final SystemClock mFakeClock;
+
+        BuildTimingClock(SystemClock fakeClock) {
+            mFakeClock = fakeClock;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return mFakeClock.uptimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mFakeClock.elapsedRealtime();
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            onBuildClockRead();
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentThreadTimeMillis() {
+            return mFakeClock.currentThreadTimeMillis();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return mFakeClock.currentTimeMillis();
+        }
+    }
+
+    /** Tells the benchmark when the timed section of a build ends. */
+    private class AllocationTrackingTimings extends ShadeListBuilderTimings {
+        AllocationTrackingTimings(DumpManager dumpManager) {
+            super(dumpManager);
+        }
+
+        @Override
+        public void recordBuild(long durationNanos) {
+            onBuildRecorded();
+            super.recordBuild(durationNanos);
+        }
+    }
+
+    /** A notification that the benchmark has posted and not yet removed. */
+    private static class LiveNotif {
+        final String mPkg;
+        final int mId;
+        final String mGroupKey;
+        final boolean mIsSummary;
+        StatusBarNotification mSbn;
+        Ranking mRanking;
+
+        LiveNotif(String pkg, int id, String groupKey, boolean isSummary) {
+            mPkg = pkg;
+            mId = id;
+            mGroupKey = groupKey;
+            mIsSummary = isSummary;
+        }
+
+        void onPosted(NotifEvent event) {
+            mSbn = event.sbn;
+            mRanking = event.ranking;
+        }
+
+        NotificationEntryBuilder newBuilder(Context context, int rank) {
+            final NotificationEntryBuilder builder = new NotificationEntryBuilder()
+                    .setPkg(mPkg)
+                    .setId(mId)
+                    .setRank(rank)
+                    .setImportance(mId % 3 == 0
+                            ? NotificationManager.IMPORTANCE_LOW
+                            : NotificationManager.IMPORTANCE_DEFAULT);
+            if (mGroupKey != null) {
+                builder.setGroup(context, mGroupKey).setGroupSummary(context, mIsSummary);
+            }
+            return builder;
+        }
+    }
+
+    /** Measurements from a single run of a workload. */
+    public static class Result {
+        private final NotifPipelineWorkload mWorkload;
+        private final LatencyHistogram mEventLatency = new LatencyHistogram("eventLatency");
+        private LatencyHistogram mBuildLatency = new LatencyHistogram("build");
+        private int mEvents;
+        private int mEventsWithoutBuild;
+        private long mTotalNanos;
+        private int mBuilds;
+        private int mFinalListSize;
+        private long mAllocatedBytes = -1;
+
+        Result(NotifPipelineWorkload workload) {
+            mWorkload = workload;
+        }
+
+        public int getBuilds() {
+            return mBuilds;
+        }
+
+        public int getFinalListSize() {
+            return mFinalListSize;
+        }
+
+        /** Duration of each list build, as recorded by the list builder itself. */
+        public LatencyHistogram getBuildLatency() {
+            return mBuildLatency;
+        }
+
+        /** End-to-end duration of every event, including the ones that didn't cause a build. */
+        public LatencyHistogram getEventLatency() {
+            return mEventLatency;
+        }
+
+        /** Events that were absorbed (e.g. held by the coalescer) without triggering a build. */
+        public int getEventsWithoutBuild() {
+            return mEventsWithoutBuild;
+        }
+
+        /** Events (posts, updates, removals, ranking updates, flushes) processed per second. */
+        public double getThroughput() {
+            return mTotalNanos == 0 ? 0 : mEvents * 1e9 / mTotalNanos;
+        }
+
+        /**
+         * Bytes allocated inside the timed section of each build, or -1 if allocations couldn't
+         * be measured.
+         */
+        public long getAllocatedBytesPerBuild() {
+            return mAllocatedBytes < 0 || mBuilds == 0 ? -1 : mAllocatedBytes / mBuilds;
+        }
+
+        @Override
+        public String toString() {
+            final StringWriter sw = new StringWriter();
+            final PrintWriter pw = new PrintWriter(sw);
+            pw.println(mWorkload);
+            pw.println("  events=" + mEvents + " eventsWithoutBuild=" + mEventsWithoutBuild
+                    + " builds=" + mBuilds + " finalListSize=" + mFinalListSize);
+            pw.println("  throughput=" + Math.round(getThroughput()) + " events/s");
+            pw.println("  allocatedPerBuild=" + getAllocatedBytesPerBuild() + " bytes");
+            mBuildLatency.dump(pw, "  ");
+            mEventLatency.dump(pw, "  ");
+            pw.flush();
+            return sw.toString();
+        }
+    }
+
+    private static final int BASELINE_SAMPLES = 100;
+    private static final String HIDDEN_PACKAGE = "com.benchmark.hidden";
+    private static final String[] PACKAGES = {
+            "com.benchmark.chat",
+            "com.benchmark.mail",
+            "com.benchmark.rides",
+            "com.benchmark.news",
+            HIDDEN_PACKAGE,
+    };
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.benchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the standard notification pipeline workloads and logs their results. To run:
+ *
+ * {@code
+ *  $ atest NotifPipelineBenchmarkTest
+ * }
+ *
+ * Results are written to logcat under the tag {@value #TAG}.
+ */
+@LargeTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class NotifPipelineBenchmarkTest extends SysuiTestCase {
+
+    @Before
+    public void setUp() {
+        allowTestableLooperAsMainThread();
+    }
+
+    @Test
+    public void benchmarkSteadyState() {
+        runWorkload(new NotifPipelineWorkload("steadyState")
+                .setNotifCount(150)
+                .setPostsPerStep(1)
+                .setUpdatesPerStep(2)
+                .setRemovalsPerStep(1));
+    }
+
+    @Test
+    public void benchmarkGroupBursts() {
+        runWorkload(new NotifPipelineWorkload("groupBursts")
+                .setNotifCount(150)
+                .setGroupSize(30)
+                .setPostsPerStep(30)
+                .setUpdatesPerStep(0)
+                .setRemovalsPerStep(30));
+    }
+
+    @Test
+    public void benchmarkRankingChurn() {
+        runWorkload(new NotifPipelineWorkload("rankingChurn")
+                .setNotifCount(150)
+                .setGroupSize(5)
+                .setPostsPerStep(0)
+                .setUpdatesPerStep(0)
+                .setRemovalsPerStep(0)
+                .setRankingUpdatesPerStep(3)
+                .setRankingChurn(0.05f));
+    }
+
+    @Test
+    public void benchmarkRankingChurnIncremental() {
+        NotifPipelineBenchmark benchmark = new NotifPipelineBenchmark(mContext);
+        benchmark.getListBuilder().setIncrementalBuildEnabled(true);
+        benchmark.getListBuilder().setPrecomputedSortKeysEnabled(true);
+        runWorkload(benchmark, new NotifPipelineWorkload("rankingChurnIncremental")
+                .setNotifCount(150)
+                .setGroupSize(5)
+                .setPostsPerStep(0)
+                .setUpdatesPerStep(0)
+                .setRemovalsPerStep(0)
+                .setRankingUpdatesPerStep(3)
+                .setRankingChurn(0.05f));
+    }
+
+    private void runWorkload(NotifPipelineWorkload workload) {
+        runWorkload(new NotifPipelineBenchmark(mContext), workload);
+    }
+
+    private void runWorkload(NotifPipelineBenchmark benchmark, NotifPipelineWorkload workload) {
+        NotifPipelineBenchmark.Result result = benchmark.run(workload);
+        Log.i(TAG, result.toString());
+
+        assertTrue(result.getBuilds() > 0);
+        assertTrue(result.getFinalListSize() > 0);
+    }
+
+    private static final String TAG = "NotifPipelineBenchmark";
+}
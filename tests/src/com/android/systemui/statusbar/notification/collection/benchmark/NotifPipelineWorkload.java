@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.benchmark;
+
+/**
+ * Describes a synthetic load to drive through the notification pipeline with
+ * {@link NotifPipelineBenchmark}.
+ *
+ * The workload starts by posting {@link #setNotifCount notifCount} notifications, then runs a
+ * number of steps. In each step it posts, updates and removes notifications and issues ranking
+ * updates at the configured rates, then advances the clock by {@link #setStepDurationMs} so that
+ * any coalesced group events are emitted.
+ */
+public class NotifPipelineWorkload {
+    private final String mName;
+    private int mNotifCount = 50;
+    private int mGroupSize = 1;
+    private int mPostsPerStep = 1;
+    private int mUpdatesPerStep = 1;
+    private int mRemovalsPerStep = 1;
+    private int mRankingUpdatesPerStep = 0;
+    private float mRankingChurn = 0.1f;
+    private int mWarmupSteps = 20;
+    private int mSteps = 100;
+    private long mStepDurationMs = 100;
+    private long mSeed = 0;
+
+    public NotifPipelineWorkload(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /** Number of notifications that are posted before the first step. */
+    public NotifPipelineWorkload setNotifCount(int notifCount) {
+        mNotifCount = notifCount;
+        return this;
+    }
+
+    /**
+     * Number of notifications per group, including the summary. A value of 1 means no
+     * notifications are grouped.
+     */
+    public NotifPipelineWorkload setGroupSize(int groupSize) {
+        mGroupSize = groupSize;
+        return this;
+    }
+
+    public NotifPipelineWorkload setPostsPerStep(int postsPerStep) {
+        mPostsPerStep = postsPerStep;
+        return this;
+    }
+
+    public NotifPipelineWorkload setUpdatesPerStep(int updatesPerStep) {
+        mUpdatesPerStep = updatesPerStep;
+        return this;
+    }
+
+    public NotifPipelineWorkload setRemovalsPerStep(int removalsPerStep) {
+        mRemovalsPerStep = removalsPerStep;
+        return this;
+    }
+
+    public NotifPipelineWorkload setRankingUpdatesPerStep(int rankingUpdatesPerStep) {
+        mRankingUpdatesPerStep = rankingUpdatesPerStep;
+        return this;
+    }
+
+    /** Fraction (0 to 1) of live notifications whose rank changes in each ranking update. */
+    public NotifPipelineWorkload setRankingChurn(float rankingChurn) {
+        mRankingChurn = rankingChurn;
+        return this;
+    }
+
+    /** Steps that are run, but not measured, before the measured steps. */
+    public NotifPipelineWorkload setWarmupSteps(int warmupSteps) {
+        mWarmupSteps = warmupSteps;
+        return this;
+    }
+
+    public NotifPipelineWorkload setSteps(int steps) {
+        mSteps = steps;
+        return this;
+    }
+
+    public NotifPipelineWorkload setStepDurationMs(long stepDurationMs) {
+        mStepDurationMs = stepDurationMs;
+        return this;
+    }
+
+    public NotifPipelineWorkload setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    public int getNotifCount() {
+        return mNotifCount;
+    }
+
+    public int getGroupSize() {
+        return mGroupSize;
+    }
+
+    public int getPostsPerStep() {
+        return mPostsPerStep;
+    }
+
+    public int getUpdatesPerStep() {
+        return mUpdatesPerStep;
+    }
+
+    public int getRemovalsPerStep() {
+        return mRemovalsPerStep;
+    }
+
+    public int getRankingUpdatesPerStep() {
+        return mRankingUpdatesPerStep;
+    }
+
+    public float getRankingChurn() {
+        return mRankingChurn;
+    }
+
+    public int getWarmupSteps() {
+        return mWarmupSteps;
+    }
+
+    public int getSteps() {
+        return mSteps;
+    }
+
+    public long getStepDurationMs() {
+        return mStepDurationMs;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    @Override
+    public String toString() {
+        return mName + "{notifs=" + mNotifCount
+                + " groupSize=" + mGroupSize
+                + " posts=" + mPostsPerStep
+                + " updates=" + mUpdatesPerStep
+                + " removals=" + mRemovalsPerStep
+                + " rankingUpdates=" + mRankingUpdatesPerStep
+                + " churn=" + mRankingChurn
+                + " steps=" + mSteps + "}";
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.coalescer;
+
+import static org.junit.Assert.assertEquals;
+
+import android.testing.AndroidTestingRunner;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+public class AdaptiveLingerPolicyTest extends SysuiTestCase {
+
+    private AdaptiveLingerPolicy mPolicy;
+    private long mNow = 1000;
+
+    @Before
+    public void setUp() {
+        mPolicy = new AdaptiveLingerPolicy(DEFAULT_LINGER, MIN_LINGER, MAX_LINGER, MAX_BURST_GAP);
+    }
+
+    @Test
+    public void testUnknownGroupsUseDefaultLinger() {
+        assertEquals(DEFAULT_LINGER, mPolicy.getLingerDuration(GROUP_1));
+    }
+
+    @Test
+    public void testLonePostsUseMinLinger() {
+        // GIVEN a group that has posted several single-notification batches
+        for (int i = 0; i < 3; i++) {
+            mNow += 10_000;
+            mPolicy.onMemberArrived(GROUP_1, mNow);
+            mPolicy.onBatchEmitted(GROUP_1, 1);
+        }
+
+        // THEN it gets the shortest linger duration
+        assertEquals(MIN_LINGER, mPolicy.getLingerDuration(GROUP_1));
+    }
+
+    @Test
+    public void testBurstsSplitByShortLingerRecover() {
+        // GIVEN a group whose bursts of 3 members, 30ms apart, were each emitted as single
+        // notification batches because the linger duration was too short to catch them
+        for (int burst = 0; burst < 3; burst++) {
+            mNow += 10_000;
+            for (int i = 0; i < 3; i++) {
+                mNow += 30;
+                mPolicy.onMemberArrived(GROUP_1, mNow);
+                mPolicy.onBatchEmitted(GROUP_1, 1);
+            }
+        }
+
+        // THEN it lingers long enough to catch the next burst in one batch
+        assertEquals(60, mPolicy.getLingerDuration(GROUP_1));
+    }
+
+    @Test
+    public void testSlowBurstsLingerLonger() {
+        // GIVEN a group that posts bursts of 10 members, 80ms apart
+        postBursts(GROUP_1, 10, 80);
+
+        // THEN it lingers for a multiple of its inter-arrival time
+        assertEquals(160, mPolicy.getLingerDuration(GROUP_1));
+    }
+
+    @Test
+    public void testFastBurstsLingerLess() {
+        // GIVEN a group that posts bursts of 10 members, 5ms apart
+        postBursts(GROUP_1, 10, 5);
+
+        // THEN it lingers for less than the default
+        assertEquals(MIN_LINGER, mPolicy.getLingerDuration(GROUP_1));
+    }
+
+    @Test
+    public void testLingerIsCapped() {
+        // GIVEN a group that posts bursts with members far apart, but still within a burst
+        postBursts(GROUP_1, 10, MAX_BURST_GAP);
+
+        // THEN the linger duration is capped
+        assertEquals(MAX_LINGER, mPolicy.getLingerDuration(GROUP_1));
+    }
+
+    @Test
+    public void testGroupsAreTrackedIndependently() {
+        postBursts(GROUP_1, 10, 80);
+
+        assertEquals(DEFAULT_LINGER, mPolicy.getLingerDuration(GROUP_2));
+    }
+
+    private void postBursts(String groupKey, int burstSize, long gap) {
+        for (int burst = 0; burst < 3; burst++) {
+            mNow += 10_000;
+            for (int i = 0; i < burstSize; i++) {
+                mNow += gap;
+                mPolicy.onMemberArrived(groupKey, mNow);
+            }
+            mPolicy.onBatchEmitted(groupKey, burstSize);
+        }
+    }
+
+    private static final long DEFAULT_LINGER = 50;
+    private static final long MIN_LINGER = 10;
+    private static final long MAX_LINGER = 250;
+    private static final long MAX_BURST_GAP = 500;
+
+    private static final String GROUP_1 = "group_1";
+    private static final String GROUP_2 = "group_2";
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.collection.listbuilder;
+
+import static com.android.systemui.statusbar.notification.collection.listbuilder.PipelineState.STATE_SORTING;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import android.testing.AndroidTestingRunner;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.notification.collection.ListEntry;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifComparator;
+import com.android.systemui.statusbar.notification.collection.listbuilder.pluggable.NotifFilter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+public class ShadeListBuilderTimingsTest extends SysuiTestCase {
+
+    private ShadeListBuilderTimings mTimings;
+
+    private final NotifFilter mFilter = new NotifFilter("TestFilter") {
+        @Override
+        public boolean shouldFilterOut(NotificationEntry entry, long now) {
+            return false;
+        }
+    };
+    private final NotifComparator mComparatorA = new TestComparator("A");
+    private final NotifComparator mComparatorB = new TestComparator("B");
+
+    @Before
+    public void setUp() {
+        mTimings = new ShadeListBuilderTimings(mock(DumpManager.class));
+    }
+
+    @Test
+    public void testPluggableCallsAreSummedPerBuild() {
+        // WHEN a filter is called several times during a build
+        mTimings.recordPluggable(mFilter, 1_000);
+        mTimings.recordPluggable(mFilter, 2_000);
+        mTimings.recordPluggable(mFilter, 3_000);
+        mTimings.recordBuild(10_000);
+
+        // THEN a single sample holding the total is recorded
+        assertEquals(1, mTimings.getPluggableHistogram(mFilter).getSampleCount());
+        assertEquals(6_000, mTimings.getPluggableHistogram(mFilter).getTotalNanos());
+        assertEquals(1, mTimings.getBuildHistogram().getSampleCount());
+    }
+
+    @Test
+    public void testPluggablesThatWereNotCalledDontRecordSamples() {
+        // GIVEN a filter that was called during the first build only
+        mTimings.recordPluggable(mFilter, 1_000);
+        mTimings.recordBuild(10_000);
+
+        // WHEN a second build happens
+        mTimings.recordBuild(10_000);
+
+        // THEN the filter still only has one sample
+        assertEquals(1, mTimings.getPluggableHistogram(mFilter).getSampleCount());
+        assertEquals(2, mTimings.getBuildHistogram().getSampleCount());
+    }
+
+    @Test
+    public void testSortsAreRecordedPerComparatorSet() {
+        final List<NotifComparator> both = Arrays.asList(mComparatorA, mComparatorB);
+        final List<NotifComparator> onlyA = Collections.singletonList(mComparatorA);
+
+        // WHEN sorts happen with two different sets of comparators
+        mTimings.recordSort(both, 4_000);
+        mTimings.recordBuild(10_000);
+        mTimings.recordSort(onlyA, 2_000);
+        mTimings.recordBuild(10_000);
+
+        // THEN each set gets its own histogram, and individual comparators aren't timed
+        assertEquals(4_000, mTimings.getSortHistogram(both).getTotalNanos());
+        assertEquals(2_000, mTimings.getSortHistogram(onlyA).getTotalNanos());
+        assertNull(mTimings.getPluggableHistogram(mComparatorA));
+    }
+
+    @Test
+    public void testStagesAreRecorded() {
+        mTimings.recordStage(STATE_SORTING, 5_000);
+
+        assertNotNull(mTimings.getStageHistogram(STATE_SORTING));
+        assertEquals(5_000, mTimings.getStageHistogram(STATE_SORTING).getTotalNanos());
+    }
+
+    private static class TestComparator extends NotifComparator {
+        TestComparator(String name) {
+            super(name);
+        }
+
+        @Override
+        public int compare(ListEntry o1, ListEntry o2) {
+            return 0;
+        }
+    }
+}
@@ -30,6 +30,9 @@ import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.app.Notification;
@@ -47,7 +50,9 @@ import androidx.test.filters.SmallTest;
 
 import com.android.systemui.R;
 import com.android.systemui.SysuiTestCase;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.plugins.statusbar.StatusBarStateController;
+import com.android.systemui.statusbar.FeatureFlags;
 import com.android.systemui.statusbar.notification.NotificationFilter;
 import com.android.systemui.statusbar.notification.collection.NotificationEntry;
 import com.android.systemui.statusbar.notification.collection.NotificationEntryBuilder;
@@ -84,6 +89,8 @@ public class NotificationInterruptStateProviderImplTest extends SysuiTestCase {
     BatteryController mBatteryController;
     @Mock
     Handler mMockHandler;
+    @Mock
+    FeatureFlags mFeatureFlags;
 
     private NotificationInterruptStateProviderImpl mNotifInterruptionStateProvider;
 
@@ -101,7 +108,9 @@ public class NotificationInterruptStateProviderImplTest extends SysuiTestCase {
                         mBatteryController,
                         mStatusBarStateController,
                         mHeadsUpManager,
-                        mMockHandler);
+                        mMockHandler,
+                        mFeatureFlags,
+                        mock(DumpManager.class));
 
         mNotifInterruptionStateProvider.mUseHeadsUp = true;
     }
@@ -177,6 +186,53 @@ public class NotificationInterruptStateProviderImplTest extends SysuiTestCase {
         assertThat(mNotifInterruptionStateProvider.shouldHeadsUp(entry)).isTrue();
     }
 
+    @Test
+    public void testHeadsUpDecisionIsCached() throws RemoteException {
+        // GIVEN decisions are cached
+        when(mFeatureFlags.isNotificationInterruptionCacheEnabled()).thenReturn(true);
+        ensureStateForHeadsUpWhenAwake();
+        NotificationEntry entry = createNotification(IMPORTANCE_HIGH);
+
+        // WHEN the same entry is checked twice
+        assertThat(mNotifInterruptionStateProvider.shouldHeadsUp(entry)).isTrue();
+        assertThat(mNotifInterruptionStateProvider.shouldHeadsUp(entry)).isTrue();
+
+        // THEN the checks only run once
+        verify(mNotificationFilter, times(1)).shouldFilterOut(entry);
+        assertThat(mNotifInterruptionStateProvider.getCacheHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCachedDecisionIsDroppedWhenSnoozing() throws RemoteException {
+        // GIVEN a cached decision to heads up an entry
+        when(mFeatureFlags.isNotificationInterruptionCacheEnabled()).thenReturn(true);
+        ensureStateForHeadsUpWhenAwake();
+        NotificationEntry entry = createNotification(IMPORTANCE_HIGH);
+        assertThat(mNotifInterruptionStateProvider.shouldHeadsUp(entry)).isTrue();
+
+        // WHEN its package gets snoozed
+        when(mHeadsUpManager.isSnoozed(any())).thenReturn(true);
+        when(mHeadsUpManager.getSnoozeVersion()).thenReturn(1);
+
+        // THEN it is no longer heads upped
+        assertThat(mNotifInterruptionStateProvider.shouldHeadsUp(entry)).isFalse();
+    }
+
+    @Test
+    public void testDecisionsAreNotCachedWhenDisabled() throws RemoteException {
+        // GIVEN decisions aren't cached
+        ensureStateForHeadsUpWhenAwake();
+        NotificationEntry entry = createNotification(IMPORTANCE_HIGH);
+
+        // WHEN the same entry is checked twice
+        mNotifInterruptionStateProvider.shouldHeadsUp(entry);
+        mNotifInterruptionStateProvider.shouldHeadsUp(entry);
+
+        // THEN the checks run every time
+        verify(mNotificationFilter, times(2)).shouldFilterOut(entry);
+        assertThat(mNotifInterruptionStateProvider.getCacheHitCount()).isEqualTo(0);
+    }
+
     @Test
     public void testShouldNotHeadsUpAwake_flteredOut() throws RemoteException {
         // GIVEN state for "heads up when awake" is true
@@ -41,6 +41,7 @@ import com.android.internal.logging.InstanceId;
 import com.android.internal.statusbar.IStatusBarService;
 import com.android.internal.statusbar.NotificationVisibility;
 import com.android.systemui.SysuiTestCase;
+import com.android.systemui.dump.DumpManager;
 import com.android.systemui.statusbar.NotificationListener;
 import com.android.systemui.statusbar.StatusBarState;
 import com.android.systemui.statusbar.StatusBarStateControllerImpl;
@@ -154,6 +155,49 @@ public class NotificationLoggerTest extends SysuiTestCase {
         verify(mBarService, never()).onNotificationVisibilityChanged(any(), any());
     }
 
+    @Test
+    public void testNotificationThatLeavesViewportIsReportedNoLongerVisible() throws Exception {
+        // GIVEN a notification that has been reported visible
+        when(mListContainer.isInVisibleLocation(any())).thenReturn(true);
+        when(mEntryManager.getVisibleNotifications()).thenReturn(Lists.newArrayList(mEntry));
+        mLogger.getChildLocationsChangedListenerForTest().onChildLocationsChanged();
+        TestableLooper.get(this).processAllMessages();
+        mUiBgExecutor.runAllReady();
+        Mockito.reset(mBarService);
+
+        NotificationVisibility[] noLongerVisibleKeys = {
+                NotificationVisibility.obtain(mEntry.getKey(), 0, 1, true)
+        };
+        doAnswer(invocation -> {
+                    try {
+                        assertEquals(0,
+                                ((NotificationVisibility[]) invocation.getArguments()[0]).length);
+                        assertArrayEquals(noLongerVisibleKeys,
+                                (NotificationVisibility[]) invocation.getArguments()[1]);
+                    } catch (AssertionError error) {
+                        mErrorQueue.offer(error);
+                    }
+                    return null;
+                }
+        ).when(mBarService).onNotificationVisibilityChanged(any(NotificationVisibility[].class),
+                any(NotificationVisibility[].class));
+
+        // WHEN it is scrolled out of view
+        when(mListContainer.isInVisibleLocation(any())).thenReturn(false);
+        mLogger.getChildLocationsChangedListenerForTest().onChildLocationsChanged();
+        TestableLooper.get(this).processAllMessages();
+
+        // THEN nothing is reported until the background thread runs
+        verify(mBarService, never()).onNotificationVisibilityChanged(any(), any());
+        mUiBgExecutor.runAllReady();
+
+        // THEN it is reported as no longer visible
+        verify(mBarService).onNotificationVisibilityChanged(any(), any());
+        if (!mErrorQueue.isEmpty()) {
+            throw mErrorQueue.poll();
+        }
+    }
+
     @Test
     public void testStoppingNotificationLoggingReportsCurrentNotifications()
             throws Exception {
@@ -249,7 +293,7 @@ public class NotificationLoggerTest extends SysuiTestCase {
                 IStatusBarService barService,
                 ExpansionStateLogger expansionStateLogger) {
             super(notificationListener, uiBgExecutor, entryManager, statusBarStateController,
-                    expansionStateLogger, mNotificationPanelLoggerFake);
+                    expansionStateLogger, mNotificationPanelLoggerFake, mock(DumpManager.class));
             mBarService = barService;
             // Make this on the current thread so we can wait for it during tests.
             mHandler = Handler.createAsync(Looper.myLooper());
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.row;
+
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_HEADS_UP;
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_MINIMIZED_CHILD;
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_OFFSCREEN;
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_VISIBLE;
+
+import static org.junit.Assert.assertEquals;
+
+import android.testing.AndroidTestingRunner;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.util.concurrency.FakeExecutor;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+public class InflationSchedulerTest extends SysuiTestCase {
+
+    private FakeSystemClock mClock = new FakeSystemClock();
+    private FakeExecutor mExecutor = new FakeExecutor(mClock);
+    private InflationScheduler mScheduler;
+
+    private final List<String> mRan = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mScheduler = new InflationScheduler(mExecutor, mClock, 1);
+    }
+
+    @Test
+    public void testRequestsRunInPriorityOrder() {
+        // WHEN requests of various priorities are queued
+        enqueue("child", PRIORITY_MINIMIZED_CHILD);
+        enqueue("offscreen", PRIORITY_OFFSCREEN);
+        enqueue("visible", PRIORITY_VISIBLE);
+        enqueue("headsUp", PRIORITY_HEADS_UP);
+        mExecutor.runAllReady();
+
+        // THEN they are run in priority order
+        assertEquals(
+                List.of("headsUp", "visible", "offscreen", "child"),
+                mRan);
+    }
+
+    @Test
+    public void testRequestsOfSamePriorityRunInArrivalOrder() {
+        // WHEN several requests of the same priority are queued
+        enqueue("a", PRIORITY_VISIBLE);
+        enqueue("b", PRIORITY_VISIBLE);
+        enqueue("c", PRIORITY_VISIBLE);
+        mExecutor.runAllReady();
+
+        // THEN they are run in the order they arrived
+        assertEquals(List.of("a", "b", "c"), mRan);
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() {
+        // WHEN several requests are queued
+        enqueue("a", PRIORITY_VISIBLE);
+        enqueue("b", PRIORITY_VISIBLE);
+        enqueue("c", PRIORITY_VISIBLE);
+
+        // THEN only one of them has been handed to the executor
+        assertEquals(1, mExecutor.numPending());
+        assertEquals(3, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void testSupersededRequestIsDropped() {
+        // GIVEN a pending request
+        mScheduler.enqueue("key", PRIORITY_OFFSCREEN, () -> mRan.add("old"));
+
+        // WHEN a new request for the same key is queued
+        mScheduler.enqueue("key", PRIORITY_HEADS_UP, () -> mRan.add("new"));
+        mExecutor.runAllReady();
+
+        // THEN only the new request is run
+        assertEquals(List.of("new"), mRan);
+    }
+
+    @Test
+    public void testCanceledRequestIsDropped() {
+        // GIVEN a couple of pending requests
+        enqueue("a", PRIORITY_VISIBLE);
+        enqueue("b", PRIORITY_VISIBLE);
+
+        // WHEN one of them is canceled
+        mScheduler.cancel("a");
+        mExecutor.runAllReady();
+
+        // THEN only the other one is run
+        assertEquals(List.of("b"), mRan);
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    private void enqueue(String key, int priority) {
+        mScheduler.enqueue(key, priority, () -> mRan.add(key));
+    }
+}
@@ -18,6 +18,7 @@ package com.android.systemui.statusbar.notification.row;
 
 import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_CONTRACTED;
 import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_EXPANDED;
+import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_HEADS_UP;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
@@ -25,6 +26,7 @@ import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.testing.AndroidTestingRunner;
 import android.widget.RemoteViews;
@@ -59,7 +61,7 @@ public class NotifRemoteViewCacheImplTest extends SysuiTestCase {
         mEntry = new NotificationEntryBuilder().build();
 
         CommonNotifCollection collection = mock(CommonNotifCollection.class);
-        mNotifRemoteViewCache = new NotifRemoteViewCacheImpl(collection);
+        mNotifRemoteViewCache = new NotifRemoteViewCacheImpl(collection, 0 /* budgetBytes */);
         ArgumentCaptor<NotifCollectionListener> entryListenerCaptor =
                 ArgumentCaptor.forClass(NotifCollectionListener.class);
         verify(collection).addCollectionListener(entryListenerCaptor.capture());
@@ -105,4 +107,52 @@ public class NotifRemoteViewCacheImplTest extends SysuiTestCase {
         assertFalse(mNotifRemoteViewCache.hasCachedView(mEntry, FLAG_CONTENT_VIEW_CONTRACTED));
         assertFalse(mNotifRemoteViewCache.hasCachedView(mEntry, FLAG_CONTENT_VIEW_EXPANDED));
     }
+
+    @Test
+    public void testBudgetEvictsLeastRecentlyUsedOffscreenViews() {
+        // GIVEN a cache with a budget that fits about two large views
+        CommonNotifCollection collection = mock(CommonNotifCollection.class);
+        NotifRemoteViewCacheImpl cache = new NotifRemoteViewCacheImpl(collection, 250_000);
+        ArgumentCaptor<NotifCollectionListener> entryListenerCaptor =
+                ArgumentCaptor.forClass(NotifCollectionListener.class);
+        verify(collection).addCollectionListener(entryListenerCaptor.capture());
+        NotifCollectionListener listener = entryListenerCaptor.getValue();
+
+        NotificationEntry entry1 = new NotificationEntryBuilder().setId(1).build();
+        NotificationEntry entry2 = new NotificationEntryBuilder().setId(2).build();
+        listener.onEntryInit(entry1);
+        listener.onEntryInit(entry2);
+        when(mRemoteViews.estimateMemoryUsage()).thenReturn(100_000);
+
+        // WHEN the first entry's views are cached, followed by the second's
+        cache.putCachedView(entry1, FLAG_CONTENT_VIEW_CONTRACTED, mRemoteViews);
+        cache.putCachedView(entry1, FLAG_CONTENT_VIEW_EXPANDED, mRemoteViews);
+        cache.putCachedView(entry2, FLAG_CONTENT_VIEW_HEADS_UP, mRemoteViews);
+
+        // THEN the first entry's expanded view is evicted, but its contracted view is kept
+        assertTrue(cache.hasCachedView(entry1, FLAG_CONTENT_VIEW_CONTRACTED));
+        assertFalse(cache.hasCachedView(entry1, FLAG_CONTENT_VIEW_EXPANDED));
+        assertTrue(cache.hasCachedView(entry2, FLAG_CONTENT_VIEW_HEADS_UP));
+        assertTrue(cache.getTotalBytes() <= 250_000);
+    }
+
+    @Test
+    public void testSizeIsReleasedOnCleanUp() {
+        // GIVEN a budgeted cache with some views in it
+        CommonNotifCollection collection = mock(CommonNotifCollection.class);
+        NotifRemoteViewCacheImpl cache = new NotifRemoteViewCacheImpl(collection, 250_000);
+        ArgumentCaptor<NotifCollectionListener> entryListenerCaptor =
+                ArgumentCaptor.forClass(NotifCollectionListener.class);
+        verify(collection).addCollectionListener(entryListenerCaptor.capture());
+        NotifCollectionListener listener = entryListenerCaptor.getValue();
+        listener.onEntryInit(mEntry);
+        cache.putCachedView(mEntry, FLAG_CONTENT_VIEW_CONTRACTED, mRemoteViews);
+        cache.putCachedView(mEntry, FLAG_CONTENT_VIEW_EXPANDED, mRemoteViews);
+
+        // WHEN the entry is cleaned up
+        listener.onEntryCleanUp(mEntry);
+
+        // THEN its views no longer count against the budget
+        assertEquals(0, cache.getTotalBytes());
+    }
 }
@@ -110,7 +110,8 @@ public class NotificationContentInflaterTest extends SysuiTestCase {
                 () -> smartReplyConstants,
                 () -> smartReplyController,
                 mConversationNotificationProcessor,
-                mock(Executor.class));
+                mock(Executor.class),
+                mock(InflationScheduler.class));
     }
 
     @Test
@@ -157,6 +158,15 @@ public class NotificationContentInflaterTest extends SysuiTestCase {
         verify(mRow).onNotificationUpdated();
     }
 
+    @Test
+    public void testInflatingContractedViewOnlyStillUpdatesExpandability() throws Exception {
+        // WHEN only the contracted view of a notification with an expanded view is inflated
+        inflateAndWait(mNotificationInflater, FLAG_CONTENT_VIEW_CONTRACTED, mRow);
+
+        // THEN the row still knows it's expandable
+        verify(mRow).setExpandable(true);
+    }
+
     @Test
     public void testInflationThrowsErrorDoesntCallUpdated() throws Exception {
         mRow.getPrivateLayout().removeAllViews();
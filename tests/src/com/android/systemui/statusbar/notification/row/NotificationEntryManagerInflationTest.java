@@ -181,7 +181,8 @@ public class NotificationEntryManagerInflationTest extends SysuiTestCase {
                         mock(NotificationEntryManagerLogger.class),
                         mock(NotificationSectionsFeatureManager.class),
                         mock(PeopleNotificationIdentifier.class),
-                        mock(HighPriorityProvider.class)),
+                        mock(HighPriorityProvider.class),
+                        mFeatureFlags),
                 mEnvironment,
                 mFeatureFlags,
                 () -> mRowBinder,
@@ -191,7 +192,7 @@ public class NotificationEntryManagerInflationTest extends SysuiTestCase {
                 mock(ForegroundServiceDismissalFeatureController.class)
         );
 
-        NotifRemoteViewCache cache = new NotifRemoteViewCacheImpl(mEntryManager);
+        NotifRemoteViewCache cache = new NotifRemoteViewCacheImpl(mEntryManager, 0);
         NotifBindPipeline pipeline = new NotifBindPipeline(
                 mEntryManager,
                 mock(NotifBindPipelineLogger.class),
@@ -203,7 +204,8 @@ public class NotificationEntryManagerInflationTest extends SysuiTestCase {
                 () -> mock(SmartReplyConstants.class),
                 () -> mock(SmartReplyController.class),
                 mock(ConversationNotificationProcessor.class),
-                mBgExecutor);
+                mBgExecutor,
+                new InflationScheduler(mBgExecutor, new FakeSystemClock(), 1));
         mRowContentBindStage = new RowContentBindStage(
                 binder,
                 mock(NotifInflationErrorManager.class),
@@ -250,7 +252,8 @@ public class NotificationEntryManagerInflationTest extends SysuiTestCase {
                                 true,
                                 null,
                                 mFalsingManager,
-                                mPeopleNotificationIdentifier
+                                mPeopleNotificationIdentifier,
+                                mFeatureFlags
                         ));
 
         when(mNotificationRowComponentBuilder.activatableNotificationView(any()))
@@ -266,7 +269,7 @@ public class NotificationEntryManagerInflationTest extends SysuiTestCase {
                 pipeline,
                 mRowContentBindStage,
                 mNotificationInterruptionStateProvider,
-                RowInflaterTask::new,
+                () -> new RowInflaterTask(mock(RowRecyclingPool.class), mHandler),
                 mExpandableNotificationRowComponentBuilder,
                 new IconManager(
                         mEntryManager,
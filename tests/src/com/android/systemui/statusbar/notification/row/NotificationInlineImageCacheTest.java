@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.row;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.statusbar.notification.row.NotificationInlineImageCache.DecodedImageStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class NotificationInlineImageCacheTest extends SysuiTestCase {
+
+    private NotificationInlineImageResolver mResolver;
+    private DecodedImageStore mStore;
+    private final Uri mUri1 = Uri.parse("content://test/image/1");
+    private final Uri mUri2 = Uri.parse("content://test/image/2");
+
+    @Before
+    public void setup() throws IOException {
+        mResolver = spy(new NotificationInlineImageResolver(mContext, null));
+        mResolver.mMaxImageWidth = 100;
+        mResolver.mMaxImageHeight = 100;
+        // Every decode produces a new 10x10 ARGB bitmap, i.e. 400 bytes
+        doAnswer(invocation -> new BitmapDrawable(mContext.getResources(),
+                Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888)))
+                .when(mResolver).resolveImageInternal(any());
+
+        // Decode synchronously, with room for two images
+        mStore = new DecodedImageStore(800, Runnable::run);
+    }
+
+    @Test
+    public void testDecodedImagesAreSharedAcrossRows() throws IOException {
+        // GIVEN two rows that both show the same image
+        NotificationInlineImageCache cache1 = new NotificationInlineImageCache(mStore);
+        NotificationInlineImageCache cache2 = new NotificationInlineImageCache(mStore);
+        cache1.setImageResolver(mResolver);
+        cache2.setImageResolver(mResolver);
+
+        // WHEN both rows load it
+        cache1.preload(mUri1);
+        cache2.preload(mUri1);
+        BitmapDrawable drawable1 = (BitmapDrawable) cache1.get(mUri1);
+        BitmapDrawable drawable2 = (BitmapDrawable) cache2.get(mUri1);
+
+        // THEN the image is only decoded once
+        verify(mResolver, times(1)).resolveImageInternal(mUri1);
+
+        // THEN each row gets its own drawable, backed by the same bitmap
+        assertNotSame(drawable1, drawable2);
+        assertSame(drawable1.getBitmap(), drawable2.getBitmap());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedImageIsEvictedWhenOverBudget() throws IOException {
+        // GIVEN a row that has loaded two images, filling the budget
+        NotificationInlineImageCache cache = new NotificationInlineImageCache(mStore);
+        cache.setImageResolver(mResolver);
+        cache.preload(mUri1);
+        cache.preload(mUri2);
+        assertEquals(800, mStore.getCachedBytes());
+
+        // WHEN a third image is loaded
+        Uri uri3 = Uri.parse("content://test/image/3");
+        cache.preload(uri3);
+
+        // THEN the budget is respected
+        assertEquals(800, mStore.getCachedBytes());
+
+        // THEN loading the first image again requires decoding it again
+        mStore.load(mResolver, mUri1);
+        verify(mResolver, times(2)).resolveImageInternal(mUri1);
+    }
+
+    @Test
+    public void testImagesAreKeyedByTargetSize() throws IOException {
+        // GIVEN an image that has been loaded at one size
+        mStore.load(mResolver, mUri1);
+
+        // WHEN the same image is loaded for a different maximum size
+        mResolver.mMaxImageWidth = 50;
+        mStore.load(mResolver, mUri1);
+
+        // THEN it is decoded again
+        verify(mResolver, times(2)).resolveImageInternal(mUri1);
+    }
+}
@@ -133,7 +133,8 @@ public class NotificationTestHelper {
                 () -> mock(SmartReplyConstants.class),
                 () -> mock(SmartReplyController.class),
                 mock(ConversationNotificationProcessor.class),
-                mock(Executor.class));
+                mock(Executor.class),
+                mock(InflationScheduler.class));
         contentBinder.setInflateSynchronously(true);
         mBindStage = new RowContentBindStage(contentBinder,
                 mock(NotifInflationErrorManager.class),
@@ -16,18 +16,23 @@
 
 package com.android.systemui.statusbar.notification.row;
 
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_HEADS_UP;
+import static com.android.systemui.statusbar.notification.row.InflationScheduler.PRIORITY_MINIMIZED_CHILD;
 import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_ALL;
 import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_CONTRACTED;
 import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_EXPANDED;
 import static com.android.systemui.statusbar.notification.row.NotificationRowContentBinder.FLAG_CONTENT_VIEW_HEADS_UP;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
@@ -243,4 +248,48 @@ public class RowContentBindStageTest extends SysuiTestCase {
                 anyBoolean(),
                 any());
     }
+
+    @Test
+    public void testHeadsUpContentIsInflatedFirst() {
+        // GIVEN a view that needs its heads up content.
+        RowContentBindParams params = mRowContentBindStage.getStageParams(mEntry);
+        params.requireContentViews(FLAG_CONTENT_VIEW_HEADS_UP);
+
+        // WHEN the stage is executed
+        mRowContentBindStage.executeStage(mEntry, mRow, (en) -> { });
+
+        // THEN the binder is asked to inflate it at heads up priority
+        ArgumentCaptor<BindParams> bindParamsCaptor = ArgumentCaptor.forClass(BindParams.class);
+        verify(mBinder).bindContent(
+                eq(mEntry),
+                any(),
+                anyInt(),
+                bindParamsCaptor.capture(),
+                anyBoolean(),
+                any());
+        assertEquals(PRIORITY_HEADS_UP, bindParamsCaptor.getValue().inflationPriority);
+    }
+
+    @Test
+    public void testChildOfCollapsedGroupIsInflatedLast() {
+        // GIVEN a view that is a child of a collapsed group
+        ExpandableNotificationRow parent = mock(ExpandableNotificationRow.class);
+        when(parent.isGroupExpanded()).thenReturn(false);
+        when(mRow.isChildInGroup()).thenReturn(true);
+        when(mRow.getNotificationParent()).thenReturn(parent);
+
+        // WHEN the stage is executed
+        mRowContentBindStage.executeStage(mEntry, mRow, (en) -> { });
+
+        // THEN the binder is asked to inflate it at the lowest priority
+        ArgumentCaptor<BindParams> bindParamsCaptor = ArgumentCaptor.forClass(BindParams.class);
+        verify(mBinder).bindContent(
+                eq(mEntry),
+                any(),
+                anyInt(),
+                bindParamsCaptor.capture(),
+                anyBoolean(),
+                any());
+        assertEquals(PRIORITY_MINIMIZED_CHILD, bindParamsCaptor.getValue().inflationPriority);
+    }
 }
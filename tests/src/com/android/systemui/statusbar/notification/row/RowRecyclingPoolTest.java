@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.row;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.dump.DumpManager;
+import com.android.systemui.statusbar.FeatureFlags;
+import com.android.systemui.statusbar.notification.collection.NotificationEntry;
+import com.android.systemui.util.time.FakeSystemClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class RowRecyclingPoolTest extends SysuiTestCase {
+
+    @Mock private FeatureFlags mFeatureFlags;
+    @Mock private NotificationEntry mEntry;
+    @Mock private ExpandableNotificationRowController mRowController;
+
+    private RowRecyclingPool mPool;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        allowTestableLooperAsMainThread();
+        when(mFeatureFlags.isNotificationRowRecyclingEnabled()).thenReturn(true);
+        when(mEntry.getRowController()).thenReturn(mRowController);
+
+        mPool = new RowRecyclingPool(mFeatureFlags, new FakeSystemClock(), mock(DumpManager.class));
+    }
+
+    @Test
+    public void testRemovedRowIsReused() {
+        // GIVEN a row whose notification has been removed
+        ExpandableNotificationRow row = createRemovedRow();
+
+        // WHEN it's released and a row is then acquired
+        mPool.release(row);
+        ExpandableNotificationRow acquired = mPool.acquire();
+
+        // THEN the same row is handed out, reset and detached from its previous notification
+        assertSame(row, acquired);
+        verify(row).resetForReuse();
+        verify(mRowController).onViewRecycled();
+        verify(mEntry).setRow(null);
+    }
+
+    @Test
+    public void testRecycledRowStartsClean() throws Exception {
+        // GIVEN a real row that was expanded, user locked and swiped before being removed
+        NotificationTestHelper helper =
+                new NotificationTestHelper(mContext, mDependency, TestableLooper.get(this));
+        ExpandableNotificationRow row = helper.createRow();
+        row.setExpandable(true);
+        row.setUserExpanded(true);
+        row.setSystemExpanded(true);
+        row.setSystemChildExpanded(true);
+        row.setUserLocked(true);
+        row.setForceUnlocked(true);
+        row.setTranslation(100);
+        row.setTranslationX(50);
+        row.setClipTopAmount(10);
+        row.setRemoved();
+
+        // WHEN it's recycled
+        mPool.release(row);
+        ExpandableNotificationRow acquired = mPool.acquire();
+
+        // THEN the reused row has none of that state left
+        assertSame(row, acquired);
+        assertFalse(acquired.isRemoved());
+        assertFalse(acquired.isExpandable());
+        assertFalse(acquired.isExpanded());
+        assertFalse(acquired.isUserExpanded());
+        assertFalse(acquired.hasUserChangedExpansion());
+        assertFalse(acquired.isSystemExpanded());
+        assertFalse(acquired.isUserLocked());
+        assertEquals(0f, acquired.getTranslation(), 0f);
+        assertEquals(0f, acquired.getTranslationX(), 0f);
+        assertEquals(0, acquired.getClipTopAmount());
+    }
+
+    @Test
+    public void testRowsThatAreStillInUseAreNotPooled() {
+        // GIVEN a removed row that is still animating away as a heads up
+        ExpandableNotificationRow row = createRemovedRow();
+        when(row.isHeadsUpAnimatingAway()).thenReturn(true);
+
+        // WHEN it's released
+        mPool.release(row);
+
+        // THEN it isn't kept
+        verify(row, never()).resetForReuse();
+        assertEquals(0, mPool.getPoolSize());
+        assertNull(mPool.acquire());
+    }
+
+    @Test
+    public void testReleasedRowIsDetachedFromItsEntry() {
+        // WHEN a removed row is released
+        mPool.release(createRemovedRow());
+
+        // THEN its previous notification no longer points at it, even before it's reused
+        verify(mEntry).setRow(null);
+    }
+
+    @Test
+    public void testRowsWithInflatedMenuOrGutsAreNotPooled() {
+        // GIVEN a removed row whose menu was inflated at some point
+        ExpandableNotificationRow row = createRemovedRow();
+        when(row.hasInflatedMenuOrGuts()).thenReturn(true);
+
+        // WHEN it's released
+        mPool.release(row);
+
+        // THEN it isn't kept
+        verify(row, never()).resetForReuse();
+        assertEquals(0, mPool.getPoolSize());
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        // WHEN many rows are released
+        for (int i = 0; i < 10; i++) {
+            mPool.release(createRemovedRow());
+        }
+
+        // THEN only a few of them are kept
+        assertEquals(4, mPool.getPoolSize());
+    }
+
+    @Test
+    public void testNothingIsPooledWhenDisabled() {
+        // GIVEN recycling is disabled
+        when(mFeatureFlags.isNotificationRowRecyclingEnabled()).thenReturn(false);
+
+        // WHEN a removed row is released
+        ExpandableNotificationRow row = createRemovedRow();
+        mPool.release(row);
+
+        // THEN it isn't kept
+        verify(row, never()).resetForReuse();
+        assertEquals(0, mPool.getPoolSize());
+    }
+
+    private ExpandableNotificationRow createRemovedRow() {
+        ExpandableNotificationRow row = mock(ExpandableNotificationRow.class);
+        when(row.isRemoved()).thenReturn(true);
+        when(row.getEntry()).thenReturn(mEntry);
+        when(mEntry.getRow()).thenReturn(row);
+        return row;
+    }
+}
@@ -33,6 +33,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.List;
+
 @SmallTest
 @RunWith(AndroidTestingRunner.class)
 @RunWithLooper
@@ -150,4 +152,48 @@ public class NotificationChildrenContainerTest extends SysuiTestCase {
         Assert.assertNotNull("Children container must have a header after recreation",
                 mChildrenContainer.getCurrentHeaderView());
     }
+
+    @Test
+    public void testVirtualizeChildren_detachesChildrenOutsideWindow() throws Exception {
+        ExpandableNotificationRow group = mNotificationTestHelper.createGroup(
+                NotificationChildrenContainer.MAX_ATTACHED_CHILDREN + 2);
+        NotificationChildrenContainer childrenContainer = group.getChildrenContainer();
+
+        childrenContainer.setVirtualizeChildren(true);
+
+        List<ExpandableNotificationRow> children = childrenContainer.getAttachedChildren();
+        for (int i = 0; i < children.size(); i++) {
+            Assert.assertEquals(i < NotificationChildrenContainer.MAX_ATTACHED_CHILDREN,
+                    children.get(i).getParent() == childrenContainer);
+        }
+    }
+
+    @Test
+    public void testVirtualizeChildren_attachesChildMovingIntoWindow() throws Exception {
+        ExpandableNotificationRow group = mNotificationTestHelper.createGroup(
+                NotificationChildrenContainer.MAX_ATTACHED_CHILDREN + 1);
+        NotificationChildrenContainer childrenContainer = group.getChildrenContainer();
+        childrenContainer.setVirtualizeChildren(true);
+        ExpandableNotificationRow lastChild = childrenContainer.getAttachedChildren().get(
+                NotificationChildrenContainer.MAX_ATTACHED_CHILDREN);
+        Assert.assertNull(lastChild.getParent());
+
+        group.removeChildNotification(childrenContainer.getAttachedChildren().get(0));
+
+        Assert.assertEquals(childrenContainer, lastChild.getParent());
+    }
+
+    @Test
+    public void testVirtualizeChildren_disabledReattachesAllChildren() throws Exception {
+        ExpandableNotificationRow group = mNotificationTestHelper.createGroup(
+                NotificationChildrenContainer.MAX_ATTACHED_CHILDREN + 2);
+        NotificationChildrenContainer childrenContainer = group.getChildrenContainer();
+        childrenContainer.setVirtualizeChildren(true);
+
+        childrenContainer.setVirtualizeChildren(false);
+
+        for (ExpandableNotificationRow child : childrenContainer.getAttachedChildren()) {
+            Assert.assertEquals(childrenContainer, child.getParent());
+        }
+    }
 }
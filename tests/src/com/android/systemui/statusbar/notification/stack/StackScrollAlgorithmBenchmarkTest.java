@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.stack;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import android.os.SystemClock;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+import android.widget.FrameLayout;
+
+import androidx.test.filters.LargeTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.statusbar.notification.row.ExpandableNotificationRow;
+import com.android.systemui.statusbar.notification.row.NotificationTestHelper;
+import com.android.systemui.statusbar.policy.HeadsUpManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares full and incremental {@link StackScrollAlgorithm} passes over stacks of different
+ * sizes. Every frame scrolls the stack, and every {@link #HEIGHT_CHANGE_INTERVAL}th frame one row
+ * also expands or collapses, the same way it does when the system expands it. Both algorithms run
+ * on every frame so that their output can be compared right after each height change. To run:
+ *
+ * {@code
+ *  $ atest StackScrollAlgorithmBenchmarkTest
+ * }
+ *
+ * Results are written to logcat under the tag {@value #TAG}.
+ */
+@LargeTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class StackScrollAlgorithmBenchmarkTest extends SysuiTestCase {
+
+    private final List<ExpandableNotificationRow> mRows = new ArrayList<>();
+    private AmbientState mAmbientState;
+
+    @Before
+    public void setUp() throws Exception {
+        allowTestableLooperAsMainThread();
+        NotificationTestHelper helper = new NotificationTestHelper(
+                mContext,
+                mDependency,
+                TestableLooper.get(this));
+        for (int i = 0; i < STACK_SIZES[STACK_SIZES.length - 1]; i++) {
+            ExpandableNotificationRow row = helper.createRow();
+            measureAndLayout(row);
+            mRows.add(row);
+        }
+        mAmbientState = new AmbientState(
+                mContext,
+                (view, previous) -> false,
+                mock(HeadsUpManager.class));
+    }
+
+    @Test
+    public void benchmarkFullVsIncremental() {
+        for (int stackSize : STACK_SIZES) {
+            FrameLayout hostView = createHostView(stackSize);
+            StackScrollAlgorithm full = new StackScrollAlgorithm(mContext, hostView);
+            StackScrollAlgorithm incremental = new StackScrollAlgorithm(mContext, hostView);
+            incremental.setIncrementalLayoutEnabled(true);
+
+            // Warm up caches and the JIT before measuring
+            full.resetViewStates(mAmbientState);
+            incremental.resetViewStates(mAmbientState);
+
+            long fullNanos = 0;
+            long incrementalNanos = 0;
+            for (int frame = 0; frame < FRAMES; frame++) {
+                ExpandableNotificationRow changed = null;
+                if (frame % HEIGHT_CHANGE_INTERVAL == 0) {
+                    changed = (ExpandableNotificationRow) hostView.getChildAt(
+                            (frame / HEIGHT_CHANGE_INTERVAL) % stackSize);
+                    changed.setSystemExpanded(!changed.isSystemExpanded());
+                }
+                mAmbientState.setScrollY(frame % SCROLL_RANGE);
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                full.resetViewStates(mAmbientState);
+                fullNanos += SystemClock.elapsedRealtimeNanos() - start;
+                ExpandableViewState[] fullStates = snapshotStates(hostView);
+
+                start = SystemClock.elapsedRealtimeNanos();
+                if (changed != null) {
+                    incremental.onChildHeightChanged(changed);
+                }
+                incremental.resetViewStates(mAmbientState);
+                incrementalNanos += SystemClock.elapsedRealtimeNanos() - start;
+                ExpandableViewState[] incrementalStates = snapshotStates(hostView);
+
+                assertStatesEqual("stackSize=" + stackSize + " frame=" + frame,
+                        fullStates, incrementalStates);
+            }
+
+            Log.i(TAG, "stackSize=" + stackSize
+                    + " fullAvgUs=" + fullNanos / FRAMES / 1000f
+                    + " incrementalAvgUs=" + incrementalNanos / FRAMES / 1000f);
+            for (int i = 0; i < stackSize; i++) {
+                mRows.get(i).setSystemExpanded(false);
+            }
+            hostView.removeAllViews();
+        }
+    }
+
+    private FrameLayout createHostView(int stackSize) {
+        FrameLayout hostView = new FrameLayout(mContext);
+        for (int i = 0; i < stackSize; i++) {
+            hostView.addView(mRows.get(i));
+        }
+        return hostView;
+    }
+
+    /**
+     * Lays out the contracted and expanded content of the row, so that expanding it actually
+     * changes its intrinsic height.
+     */
+    private static void measureAndLayout(ExpandableNotificationRow row) {
+        row.measure(MeasureSpec.makeMeasureSpec(ROW_WIDTH, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+    }
+
+    private static ExpandableViewState[] snapshotStates(FrameLayout hostView) {
+        ExpandableViewState[] states = new ExpandableViewState[hostView.getChildCount()];
+        for (int i = 0; i < states.length; i++) {
+            ExpandableNotificationRow row = (ExpandableNotificationRow) hostView.getChildAt(i);
+            states[i] = new ExpandableViewState();
+            states[i].copyFrom(row.getViewState());
+        }
+        return states;
+    }
+
+    private static void assertStatesEqual(String message, ExpandableViewState[] expected,
+            ExpandableViewState[] actual) {
+        assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            String rowMessage = message + " row=" + i;
+            assertEquals(rowMessage, expected[i].height, actual[i].height);
+            assertEquals(rowMessage, expected[i].yTranslation, actual[i].yTranslation, 0.0f);
+            assertEquals(rowMessage, expected[i].zTranslation, actual[i].zTranslation, 0.0f);
+            assertEquals(rowMessage, expected[i].clipTopAmount, actual[i].clipTopAmount);
+            assertEquals(rowMessage, expected[i].hidden, actual[i].hidden);
+            assertEquals(rowMessage, expected[i].location, actual[i].location);
+        }
+    }
+
+    private static final String TAG = "StackScrollAlgorithmBenchmark";
+
+    private static final int[] STACK_SIZES = {10, 50, 100, 300};
+    private static final int FRAMES = 500;
+    private static final int HEIGHT_CHANGE_INTERVAL = 10;
+    private static final int SCROLL_RANGE = 400;
+    private static final int ROW_WIDTH = 1080;
+}
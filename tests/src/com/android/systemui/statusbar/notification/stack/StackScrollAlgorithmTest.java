@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.stack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.view.View.MeasureSpec;
+import android.widget.FrameLayout;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.statusbar.notification.row.ExpandableNotificationRow;
+import com.android.systemui.statusbar.notification.row.NotificationTestHelper;
+import com.android.systemui.statusbar.policy.HeadsUpManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class StackScrollAlgorithmTest extends SysuiTestCase {
+
+    private ExpandableNotificationRow mFirstRow;
+    private ExpandableNotificationRow mSecondRow;
+    private AmbientState mAmbientState;
+    private StackScrollAlgorithm mAlgorithm;
+
+    @Before
+    public void setUp() throws Exception {
+        allowTestableLooperAsMainThread();
+        NotificationTestHelper helper = new NotificationTestHelper(
+                mContext,
+                mDependency,
+                TestableLooper.get(this));
+        mFirstRow = helper.createRow();
+        mSecondRow = helper.createRow();
+        measureAndLayout(mFirstRow);
+        measureAndLayout(mSecondRow);
+
+        FrameLayout hostView = new FrameLayout(mContext);
+        hostView.addView(mFirstRow);
+        hostView.addView(mSecondRow);
+        mAmbientState = new AmbientState(
+                mContext,
+                (view, previous) -> false,
+                mock(HeadsUpManager.class));
+        mAlgorithm = new StackScrollAlgorithm(mContext, hostView);
+        mAlgorithm.setIncrementalLayoutEnabled(true);
+    }
+
+    @Test
+    public void testIncrementalLayout_reusesHeightUntilChildHeightChanged() {
+        // GIVEN an incremental pass that cached the collapsed height of the first row
+        mAlgorithm.resetViewStates(mAmbientState);
+        final int collapsedHeight = mFirstRow.getViewState().height;
+        final float collapsedSecondRowY = mSecondRow.getViewState().yTranslation;
+
+        // WHEN the first row is expanded but the algorithm isn't told about it
+        mFirstRow.setSystemExpanded(true);
+        final int expandedHeight = mFirstRow.getIntrinsicHeight();
+        assertNotEquals(collapsedHeight, expandedHeight);
+        mAlgorithm.resetViewStates(mAmbientState);
+
+        // THEN the next pass still uses the stale height
+        assertEquals(collapsedHeight, mFirstRow.getViewState().height);
+        assertEquals(collapsedSecondRowY, mSecondRow.getViewState().yTranslation, 0.0f);
+
+        // WHEN the algorithm is told that the height of the first row changed
+        mAlgorithm.onChildHeightChanged(mFirstRow);
+        mAlgorithm.resetViewStates(mAmbientState);
+
+        // THEN the next pass picks up the new height and moves the second row down
+        assertEquals(expandedHeight, mFirstRow.getViewState().height);
+        assertEquals(collapsedSecondRowY + expandedHeight - collapsedHeight,
+                mSecondRow.getViewState().yTranslation, 0.0f);
+    }
+
+    @Test
+    public void testIncrementalLayout_matchesFullLayoutAfterChildHeightChanged() {
+        // GIVEN an incremental pass that cached the heights of both rows
+        mAlgorithm.resetViewStates(mAmbientState);
+
+        // WHEN the first row is expanded and the algorithm is told about it
+        mFirstRow.setSystemExpanded(true);
+        mAlgorithm.onChildHeightChanged(mFirstRow);
+        mAlgorithm.resetViewStates(mAmbientState);
+        ExpandableViewState incrementalFirst = copyState(mFirstRow);
+        ExpandableViewState incrementalSecond = copyState(mSecondRow);
+
+        // THEN the states are the same as the ones of a full pass
+        mAlgorithm.setIncrementalLayoutEnabled(false);
+        mAlgorithm.resetViewStates(mAmbientState);
+        assertStateEquals(copyState(mFirstRow), incrementalFirst);
+        assertStateEquals(copyState(mSecondRow), incrementalSecond);
+    }
+
+    private static void measureAndLayout(ExpandableNotificationRow row) {
+        row.measure(MeasureSpec.makeMeasureSpec(1080, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+        row.layout(0, 0, row.getMeasuredWidth(), row.getMeasuredHeight());
+    }
+
+    private static ExpandableViewState copyState(ExpandableNotificationRow row) {
+        ExpandableViewState state = new ExpandableViewState();
+        state.copyFrom(row.getViewState());
+        return state;
+    }
+
+    private static void assertStateEquals(ExpandableViewState expected,
+            ExpandableViewState actual) {
+        assertEquals(expected.height, actual.height);
+        assertEquals(expected.yTranslation, actual.yTranslation, 0.0f);
+        assertEquals(expected.zTranslation, actual.zTranslation, 0.0f);
+        assertEquals(expected.clipTopAmount, actual.clipTopAmount);
+        assertEquals(expected.hidden, actual.hidden);
+        assertEquals(expected.location, actual.location);
+    }
+}
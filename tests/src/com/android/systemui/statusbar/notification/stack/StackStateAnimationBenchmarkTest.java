@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.statusbar.notification.stack;
+
+import static org.junit.Assert.assertEquals;
+
+import android.animation.ValueAnimator;
+import android.os.SystemClock;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+import android.util.Log;
+import android.view.View;
+
+import androidx.test.filters.LargeTest;
+
+import com.android.systemui.R;
+import com.android.systemui.SysuiTestCase;
+import com.android.systemui.util.RuntimeStats;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares starting stack animations with new animators against recycling the finished animators
+ * of each view. Every event moves, fades and elevates all views, interrupting the animations of
+ * the previous event like a burst of shade updates does. Between events a few animation frames
+ * are stepped by hand, so the cost of running the animators is measured as well as the cost of
+ * starting them. To run:
+ *
+ * {@code
+ *  $ atest StackStateAnimationBenchmarkTest
+ * }
+ *
+ * Results are written to logcat under the tag {@value #TAG}.
+ */
+@LargeTest
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class StackStateAnimationBenchmarkTest extends SysuiTestCase {
+
+    private final List<View> mViews = new ArrayList<>();
+    private final ViewState mState = new ViewState();
+
+    @Before
+    public void setUp() {
+        allowTestableLooperAsMainThread();
+        for (int i = 0; i < VIEW_COUNT; i++) {
+            mViews.add(new View(mContext));
+        }
+    }
+
+    @Test
+    public void benchmarkNewVsRecycledAnimators() {
+        Result allocating = runEvents(false /* recycleAnimators */);
+        Result recycling = runEvents(true /* recycleAnimators */);
+
+        Log.i(TAG, "views=" + VIEW_COUNT + " events=" + EVENTS
+                + " allocating={" + allocating + "}"
+                + " recycling={" + recycling + "}");
+        for (View view : mViews) {
+            assertEquals(targetY(EVENTS - 1), ViewState.getFinalTranslationY(view), 0.0f);
+        }
+    }
+
+    private Result runEvents(boolean recycleAnimators) {
+        AnimationFilter filter = new AnimationFilter().animateY().animateAlpha().animateZ();
+        AnimationProperties properties = new AnimationProperties() {
+            @Override
+            public AnimationFilter getAnimationFilter() {
+                return filter;
+            }
+        }.setDuration(DURATION).setRecycleAnimators(recycleAnimators);
+
+        // Warm up so both runs start with views that already animated once
+        animateAll(properties, 0);
+        long eventNanos = 0;
+        long frameNanos = 0;
+        long startAllocations = RuntimeStats.getAllocatedObjects();
+        for (int event = 0; event < EVENTS; event++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            animateAll(properties, event);
+            eventNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            for (int frame = 1; frame <= FRAMES_PER_EVENT; frame++) {
+                start = SystemClock.elapsedRealtimeNanos();
+                stepAll(frame * FRAME_INTERVAL_MS);
+                frameNanos += SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        long endAllocations = RuntimeStats.getAllocatedObjects();
+        long allocations = startAllocations < 0 || endAllocations < 0
+                ? -1
+                : endAllocations - startAllocations;
+        return new Result(eventNanos, frameNanos, allocations);
+    }
+
+    /** Moves every running animator to the given play time, like one animation frame does. */
+    private void stepAll(long playTime) {
+        for (View view : mViews) {
+            for (int tag : ANIMATOR_TAGS) {
+                ValueAnimator animator = (ValueAnimator) view.getTag(tag);
+                if (animator != null) {
+                    animator.setCurrentPlayTime(playTime);
+                }
+            }
+        }
+    }
+
+    private void animateAll(AnimationProperties properties, int event) {
+        for (View view : mViews) {
+            mState.initFrom(view);
+            mState.yTranslation = targetY(event);
+            mState.alpha = event % 2 == 0 ? 0.5f : 1.0f;
+            mState.zTranslation = event % 2 == 0 ? 4.0f : 0.0f;
+            mState.animateTo(view, properties);
+        }
+    }
+
+    private static float targetY(int event) {
+        return event % 2 == 0 ? 100.0f : 0.0f;
+    }
+
+    private static class Result {
+        private final long mEventNanos;
+        private final long mFrameNanos;
+        private final long mAllocations;
+
+        Result(long eventNanos, long frameNanos, long allocations) {
+            mEventNanos = eventNanos;
+            mFrameNanos = frameNanos;
+            mAllocations = allocations;
+        }
+
+        @Override
+        public String toString() {
+            return "avgEventUs=" + mEventNanos / EVENTS / 1000f
+                    + " avgFrameUs=" + mFrameNanos / (EVENTS * FRAMES_PER_EVENT) / 1000f
+                    + " allocationsPerEvent="
+                    + (mAllocations < 0 ? "unavailable" : mAllocations / EVENTS);
+        }
+    }
+
+    private static final String TAG = "StackStateAnimationBenchmark";
+
+    private static final int VIEW_COUNT = 50;
+    private static final int EVENTS = 200;
+    private static final long DURATION = 360;
+
+    /** Frames stepped after each event; together they cover less than the animation duration. */
+    private static final int FRAMES_PER_EVENT = 4;
+    private static final long FRAME_INTERVAL_MS = 16;
+
+    private static final int[] ANIMATOR_TAGS = {
+            R.id.translation_y_animator_tag,
+            R.id.alpha_animator_tag,
+            R.id.translation_z_animator_tag,
+    };
+}
@@ -22,6 +22,9 @@ import static junit.framework.Assert.assertTrue;
 
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.testing.AndroidTestingRunner;
@@ -34,6 +37,7 @@ import com.android.systemui.bubbles.BubbleController;
 import com.android.systemui.plugins.statusbar.StatusBarStateController;
 import com.android.systemui.statusbar.notification.collection.NotificationEntry;
 import com.android.systemui.statusbar.notification.people.PeopleNotificationIdentifier;
+import com.android.systemui.statusbar.phone.NotificationGroupManager.OnGroupChangeListener;
 import com.android.systemui.statusbar.policy.HeadsUpManager;
 
 import org.junit.Before;
@@ -149,4 +153,44 @@ public class NotificationGroupManagerTest extends SysuiTestCase {
         assertEquals(childEntry, mGroupManager.getGroupSummary(childEntry.getSbn()));
         assertEquals(summaryEntry, mGroupManager.getLogicalGroupSummary(childEntry.getSbn()));
     }
+
+    @Test
+    public void testIsolatedChildIsStillLogicalChild() {
+        NotificationEntry childEntry = mGroupTestHelper.createChildNotification();
+        NotificationEntry summaryEntry = mGroupTestHelper.createSummaryNotification();
+        mGroupManager.onEntryAdded(summaryEntry);
+        mGroupManager.onEntryAdded(childEntry);
+        mGroupManager.onEntryAdded(mGroupTestHelper.createChildNotification());
+        when(mHeadsUpManager.isAlerting(childEntry.getKey())).thenReturn(true);
+        mGroupManager.onHeadsUpStateChanged(childEntry, true);
+
+        // The isolated child is still one of the group's logical children
+        assertEquals(2, mGroupManager.getLogicalChildren(summaryEntry.getSbn()).size());
+        assertEquals(1, mGroupManager.getChildren(summaryEntry.getSbn()).size());
+
+        // Until it's removed
+        mGroupManager.onEntryRemoved(childEntry);
+        assertEquals(1, mGroupManager.getLogicalChildren(summaryEntry.getSbn()).size());
+    }
+
+    @Test
+    public void testGroupsChangedIsDispatchedOnceForBatch() {
+        OnGroupChangeListener listener = mock(OnGroupChangeListener.class);
+        mGroupManager.addOnGroupChangeListener(listener);
+        NotificationEntry summaryEntry = mGroupTestHelper.createSummaryNotification();
+        NotificationEntry childEntry = mGroupTestHelper.createChildNotification();
+        NotificationEntry otherChildEntry = mGroupTestHelper.createChildNotification();
+
+        // WHEN the group changes suppression several times during a batch
+        mGroupManager.beginBatchUpdate();
+        mGroupManager.onEntryAdded(summaryEntry);
+        mGroupManager.onEntryAdded(childEntry);
+        mGroupManager.onEntryAdded(otherChildEntry);
+        mGroupManager.onEntryRemoved(otherChildEntry);
+
+        // THEN listeners are only told the groups changed once it ends
+        verify(listener, never()).onGroupsChanged();
+        mGroupManager.endBatchUpdate();
+        verify(listener, times(1)).onGroupsChanged();
+    }
 }
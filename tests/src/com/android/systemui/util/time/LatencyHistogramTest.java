@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.systemui.util.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.testing.AndroidTestingRunner;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.SysuiTestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+@RunWith(AndroidTestingRunner.class)
+public class LatencyHistogramTest extends SysuiTestCase {
+
+    @Test
+    public void testSamplesAreBucketed() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+
+        // WHEN 9 fast samples and 1 slow sample are recorded
+        for (int i = 0; i < 9; i++) {
+            histogram.record(5_000);        // 5us
+        }
+        histogram.record(2_000_000);        // 2ms
+
+        // THEN the stats reflect them
+        assertEquals(10, histogram.getSampleCount());
+        assertEquals(2_000_000, histogram.getMaxNanos());
+        assertEquals(10, histogram.getPercentileUpperBoundUs(50));
+        assertEquals(10, histogram.getPercentileUpperBoundUs(90));
+        assertEquals(2_500, histogram.getPercentileUpperBoundUs(99));
+    }
+
+    @Test
+    public void testOverflowSamplesReportMax() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+
+        histogram.record(500_000_000);      // 500ms
+
+        assertEquals(500_000, histogram.getPercentileUpperBoundUs(50));
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(1_000);
+
+        histogram.reset();
+
+        assertEquals(0, histogram.getSampleCount());
+        assertEquals(0, histogram.getTotalNanos());
+        assertEquals(0, histogram.getPercentileUpperBoundUs(50));
+    }
+
+    @Test
+    public void testDump() {
+        LatencyHistogram histogram = new LatencyHistogram("stage");
+        histogram.record(30_000);
+
+        StringWriter sw = new StringWriter();
+        histogram.dump(new PrintWriter(sw), "");
+
+        assertTrue(sw.toString().startsWith("stage: n=1 avg=30us"));
+        assertTrue(sw.toString().contains("<=50us:1"));
+    }
+}